@@ -14,6 +14,7 @@ import Model.User;
 import Model.UserSession;
 import Repository.AccountRepository;
 import Repository.TransactionRepository;
+import Repository.TransactionStore;
 import Service.BudgetService;
 import Service.TransactionService;
 import View.Administrator.AdminView;
@@ -46,7 +47,10 @@ public class AdminController {
         this.accountRepository = accountRepository;
         try {
             ensureFileExists("accounts.csv", AccountRepository.EXPECTED_ACCOUNT_HEADER);
-            ensureFileExists("transactions.csv", TransactionController.CSV_HEADER);
+            // A sharded ledger has moved its rows out of transactions.csv for good
+            if (!TransactionStore.isSharded("transactions.csv")) {
+                ensureFileExists("transactions.csv", TransactionController.CSV_HEADER);
+            }
         } catch (IOException e) {
             System.err.println("Error initializing files: " + e.getMessage());
         }
@@ -9,17 +9,22 @@ import java.util.List;
 import java.util.Map;
 
 import Model.Transaction;
+import Model.TransactionCache;
+import Model.TransactionField;
 import Model.User;
 import Model.UserSession;
 import Repository.AccountRepository;
 import Service.BudgetService;
 import View.Bill.ExpenseDialogView;
 import View.Bill.IncomeDialogView;
+import utils.Money;
+import utils.TimestampCodec;
+import utils.TransactionIds;
 
 /**
  * Manages bill-related operations for the finance management system, including transaction filtering,
- * category calculations, and processing income/expense transactions. Uses caching to optimize
- * transaction retrieval and integrates with the account repository for user data.
+ * category calculations, and processing income/expense transactions. Reads go through the shared
+ * {@link TransactionCache}, and user data comes from the account repository.
  *
  * @author Group 19
  * @version 1.0
@@ -27,12 +32,6 @@ import View.Bill.IncomeDialogView;
 public class BillController {
     /** Repository for managing user account data. */
     private final AccountRepository accountRepository;
-    /** Cache for storing user transactions. */
-    private static Map<String, List<Transaction>> transactionCache = new HashMap<>();
-    /** Timestamps for cache validity tracking. */
-    private static Map<String, Long> cacheTimestamps = new HashMap<>();
-    /** Cache expiry duration in milliseconds (5 minutes). */
-    private static final long CACHE_EXPIRY_MS = 5 * 60 * 1000;
     /** Date format for parsing transaction timestamps. */
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy/MM/dd HH:mm");
     /** Code for unclassified transaction types. */
@@ -50,32 +49,14 @@ public class BillController {
     }
 
     /**
-     * Checks if the transaction cache for a user is still valid.
+     * Retrieves the transactions of a user from the shared {@link TransactionCache}, which is
+     * refreshed by every write.
      *
      * @param username the username of the user
-     * @return true if the cache is valid, false otherwise
-     */
-    private boolean isCacheValid(String username) {
-        Long timestamp = cacheTimestamps.get(username);
-        if (timestamp == null) return false;
-        return (System.currentTimeMillis() - timestamp) < CACHE_EXPIRY_MS;
-    }
-
-    /**
-     * Retrieves cached transactions for a user, refreshing the cache if expired.
-     *
-     * @param username the username of the user
-     * @return a list of transactions for the user
+     * @return an unmodifiable list of transactions for the user
      */
     public List<Transaction> getCachedTransactions(String username) {
-        if (isCacheValid(username)) {
-            return transactionCache.getOrDefault(username, new ArrayList<>());
-        }
-        List<Transaction> transactions = TransactionController.readTransactions(username);
-        System.out.println("Transactions loaded for user " + username + ": " + (transactions != null ? transactions.size() : 0));
-        transactionCache.put(username, transactions != null ? transactions : new ArrayList<>());
-        cacheTimestamps.put(username, System.currentTimeMillis());
-        return transactionCache.get(username);
+        return TransactionCache.getCachedTransactions(username);
     }
 
     /**
@@ -87,21 +68,26 @@ public class BillController {
      * @return a list of transactions within the date range
      */
     public List<Transaction> getFilteredTransactions(String username, String startYearMonth, String endYearMonth) {
-        List<Transaction> transactions = getCachedTransactions(username);
         List<Transaction> filtered = new ArrayList<>();
 
         try {
             LocalDate startDate = LocalDate.parse(startYearMonth + "/01", BudgetService.DATE_FORMATTER);
             LocalDate tempEndDate = LocalDate.parse(endYearMonth + "/01", BudgetService.DATE_FORMATTER);
             LocalDate endDate = tempEndDate.withDayOfMonth(tempEndDate.lengthOfMonth());
-            for (Transaction tx : transactions) {
-                try {
-                    LocalDate txDate = LocalDate.parse(tx.getTimestamp(), BudgetService.DATE_FORMATTER);
-                    if (!txDate.isBefore(startDate) && !txDate.isAfter(endDate)) {
+            List<Transaction> cached = TransactionCache.shared().getIfPresent(username);
+            if (cached == null) {
+                // Read only the requested months instead of loading the user's whole history
+                filtered = TransactionController.readTransactionsInPeriod(username,
+                        startDate.atStartOfDay(), endDate.atTime(23, 59));
+            } else {
+                long fromMinute = TimestampCodec.startOf(startDate);
+                long toMinute = TimestampCodec.endOf(endDate);
+                for (Transaction tx : cached) {
+                    if (!tx.hasValidTimestamp()) {
+                        System.err.println("Error processing transaction timestamp: " + tx.getTimestamp());
+                    } else if (tx.isWithin(fromMinute, toMinute)) {
                         filtered.add(tx);
                     }
-                } catch (Exception e) {
-                    System.err.println("Error processing transaction timestamp: " + tx.getTimestamp());
                 }
             }
         } catch (Exception e) {
@@ -120,14 +106,14 @@ public class BillController {
      * @return a map of category names to total expense amounts
      */
     public Map<String, Double> calculateExpenseCategoryTotals(List<Transaction> transactions, String categoryField) {
-        Map<String, Double> categoryTotals = new HashMap<>();
+        Map<String, Long> categoryCents = new HashMap<>();
         for (Transaction tx : transactions) {
             if ("Expense".equalsIgnoreCase(tx.getOperation())) {
                 String category = getFieldValue(tx, categoryField);
-                categoryTotals.put(category, categoryTotals.getOrDefault(category, 0.0) + Math.abs(tx.getAmount()));
+                categoryCents.merge(category, Math.abs(tx.getAmountCents()), Long::sum);
             }
         }
-        return categoryTotals;
+        return toAmounts(categoryCents);
     }
 
     /**
@@ -138,14 +124,97 @@ public class BillController {
      * @return a map of category names to total income amounts
      */
     public Map<String, Double> calculateIncomeCategoryTotals(List<Transaction> transactions, String categoryField) {
-        Map<String, Double> categoryTotals = new HashMap<>();
+        Map<String, Long> categoryCents = new HashMap<>();
         for (Transaction tx : transactions) {
             if ("Income".equalsIgnoreCase(tx.getOperation())) {
                 String category = getFieldValue(tx, categoryField);
-                categoryTotals.put(category, categoryTotals.getOrDefault(category, 0.0) + tx.getAmount());
+                categoryCents.merge(category, tx.getAmountCents(), Long::sum);
             }
         }
-        return categoryTotals;
+        return toAmounts(categoryCents);
+    }
+
+    /**
+     * Groups a user's transactions within a date range by a field. Only the rows inside the range
+     * are visited, through the transaction store's index on that field.
+     *
+     * @param username       the username of the user
+     * @param startYearMonth the start date in format "YYYY/MM"
+     * @param endYearMonth   the end date in format "YYYY/MM"
+     * @param categoryField  the field to group by (e.g., "category", "type")
+     * @return a map of field values ("Unclassified" if not set) to the transactions having them
+     */
+    public Map<String, List<Transaction>> groupTransactionsByField(String username, String startYearMonth, String endYearMonth, String categoryField) {
+        TransactionField field = TransactionField.forName(categoryField);
+        if (field == null) {
+            Map<String, List<Transaction>> groups = new HashMap<>();
+            groups.put(TransactionField.UNCLASSIFIED, getFilteredTransactions(username, startYearMonth, endYearMonth));
+            return groups;
+        }
+        try {
+            LocalDate startDate = LocalDate.parse(startYearMonth + "/01", BudgetService.DATE_FORMATTER);
+            LocalDate tempEndDate = LocalDate.parse(endYearMonth + "/01", BudgetService.DATE_FORMATTER);
+            LocalDate endDate = tempEndDate.withDayOfMonth(tempEndDate.lengthOfMonth());
+            return TransactionController.groupTransactionsInPeriod(username, field,
+                    startDate.atStartOfDay(), endDate.atTime(23, 59));
+        } catch (Exception e) {
+            System.err.println("Error parsing date range: " + startYearMonth + " to " + endYearMonth);
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Calculates total expense amounts by category field for a user within a date range.
+     *
+     * @param username       the username of the user
+     * @param startYearMonth the start date in format "YYYY/MM"
+     * @param endYearMonth   the end date in format "YYYY/MM"
+     * @param categoryField  the field to categorize expenses (e.g., "category", "type")
+     * @return a map of category names to total expense amounts
+     */
+    public Map<String, Double> calculateExpenseCategoryTotals(String username, String startYearMonth, String endYearMonth, String categoryField) {
+        Map<String, Long> categoryCents = new HashMap<>();
+        groupTransactionsByField(username, startYearMonth, endYearMonth, categoryField).forEach((category, group) -> {
+            for (Transaction tx : group) {
+                if ("Expense".equalsIgnoreCase(tx.getOperation())) {
+                    categoryCents.merge(category, Math.abs(tx.getAmountCents()), Long::sum);
+                }
+            }
+        });
+        return toAmounts(categoryCents);
+    }
+
+    /**
+     * Calculates total income amounts by category field for a user within a date range.
+     *
+     * @param username       the username of the user
+     * @param startYearMonth the start date in format "YYYY/MM"
+     * @param endYearMonth   the end date in format "YYYY/MM"
+     * @param categoryField  the field to categorize incomes (e.g., "category", "type")
+     * @return a map of category names to total income amounts
+     */
+    public Map<String, Double> calculateIncomeCategoryTotals(String username, String startYearMonth, String endYearMonth, String categoryField) {
+        Map<String, Long> categoryCents = new HashMap<>();
+        groupTransactionsByField(username, startYearMonth, endYearMonth, categoryField).forEach((category, group) -> {
+            for (Transaction tx : group) {
+                if ("Income".equalsIgnoreCase(tx.getOperation())) {
+                    categoryCents.merge(category, tx.getAmountCents(), Long::sum);
+                }
+            }
+        });
+        return toAmounts(categoryCents);
+    }
+
+    /**
+     * Converts totals accumulated in cents to amounts in yuan.
+     *
+     * @param cents the totals in cents
+     * @return the same totals in yuan
+     */
+    private static Map<String, Double> toAmounts(Map<String, Long> cents) {
+        Map<String, Double> amounts = new HashMap<>();
+        cents.forEach((key, total) -> amounts.put(key, Money.toDouble(total)));
+        return amounts;
     }
 
     /**
@@ -156,16 +225,8 @@ public class BillController {
      * @return the field value or "Unclassified" if not set
      */
     private String getFieldValue(Transaction t, String field) {
-        switch (field) {
-            case "category": return t.getCategory() != null && !t.getCategory().trim().isEmpty() ? t.getCategory().trim() : "Unclassified";
-            case "type": return t.getType() != null && !t.getType().trim().isEmpty() ? t.getType().trim() : "Unclassified";
-            case "payment_method": return t.getPaymentMethod() != null && !t.getPaymentMethod().trim().isEmpty() ? t.getPaymentMethod().trim() : "Unclassified";
-            case "location": return t.getLocation() != null && !t.getLocation().trim().isEmpty() ? t.getLocation().trim() : "Unclassified";
-            case "merchant": return t.getMerchant() != null && !t.getMerchant().trim().isEmpty() ? t.getMerchant().trim() : "Unclassified";
-            case "tag": return t.getTag() != null && !t.getTag().trim().isEmpty() ? t.getTag().trim() : "Unclassified";
-            case "recurrence": return t.getRecurrence() != null && !t.getRecurrence().trim().isEmpty() ? t.getRecurrence().trim() : "Unclassified";
-            default: return "Unclassified";
-        }
+        TransactionField transactionField = TransactionField.forName(field);
+        return transactionField != null ? transactionField.keyOf(t) : TransactionField.UNCLASSIFIED;
     }
 
     /**
@@ -197,10 +258,10 @@ public class BillController {
             return;
         }
 
-        double amount;
+        long amountCents;
         try {
-            amount = Double.parseDouble(amountText);
-            if (amount <= 0) {
+            amountCents = Money.parseCents(amountText);
+            if (amountCents <= 0) {
                 view.showError("Amount must be positive.");
                 return;
             }
@@ -208,6 +269,7 @@ public class BillController {
             view.showError("Invalid amount format.");
             return;
         }
+        double amount = Money.toDouble(amountCents);
 
         try {
             DATE_FORMAT.setLenient(false);
@@ -226,19 +288,8 @@ public class BillController {
             return;
         }
 
-        List<User> accounts = accountRepository.readFromCSV();
-        User currentUserAccount = null;
-        boolean passwordCorrect = false;
-
-        for (User account : accounts) {
-            if (account.getUsername().equals(currentUsername)) {
-                currentUserAccount = account;
-                if (account.getPassword().equals(password)) {
-                    passwordCorrect = true;
-                }
-                break;
-            }
-        }
+        User currentUserAccount = accountRepository.findByUsername(currentUsername);
+        boolean passwordCorrect = currentUserAccount != null && currentUserAccount.getPassword().equals(password);
 
         if (currentUserAccount == null) {
             view.showError("Current user account not found.");
@@ -256,30 +307,28 @@ public class BillController {
             return;
         }
 
-        if (currentUserAccount.getBalance() < amount) {
+        if (currentUserAccount.getBalanceCents() < amountCents) {
             view.showError("Insufficient balance for this expense.");
             view.clearPassword();
             return;
         }
 
-        boolean transactionAdded = TransactionController.addTransaction(
+        long transactionId = TransactionController.recordTransaction(
                 currentUsername, "Expense", amount, timeText.trim(), merchantText.trim(), typeToRecord
         );
 
-        if (transactionAdded) {
-            double originalBalance = currentUserAccount.getBalance();
-            currentUserAccount.setBalance(originalBalance - amount);
-            boolean saved = accountRepository.saveToCSV(accounts, false);
+        if (transactionId != TransactionIds.NONE) {
+            long originalBalance = currentUserAccount.getBalanceCents();
+            currentUserAccount.setBalanceCents(originalBalance - amountCents);
+            boolean saved = accountRepository.updateBalanceCents(currentUsername, currentUserAccount.getBalanceCents());
 
             if (saved) {
                 UserSession.setCurrentAccount(currentUserAccount);
-                view.showSuccess("Successfully added expense of ¥" + "%.2f".formatted(amount) + "!");
+                view.showSuccess("Successfully added expense of ¥" + Money.format(amountCents) + "!");
                 view.dispose();
-                transactionCache.remove(currentUsername);
-                cacheTimestamps.remove(currentUsername);
             } else {
-                TransactionController.removeTransaction(currentUsername, timeText.trim(),currentUserAccount);
-                currentUserAccount.setBalance(originalBalance);
+                TransactionController.removeTransactionById(currentUsername, transactionId, currentUserAccount);
+                currentUserAccount.setBalanceCents(originalBalance);
                 view.showError("Expense recorded successfully, but failed to update account balance file.");
             }
         } else {
@@ -310,10 +359,10 @@ public class BillController {
             return;
         }
 
-        double amount;
+        long amountCents;
         try {
-            amount = Double.parseDouble(amountText);
-            if (amount <= 0) {
+            amountCents = Money.parseCents(amountText);
+            if (amountCents <= 0) {
                 view.showError("Amount must be positive.");
                 return;
             }
@@ -321,6 +370,7 @@ public class BillController {
             view.showError("Invalid amount format.");
             return;
         }
+        double amount = Money.toDouble(amountCents);
 
         try {
             DATE_FORMAT.setLenient(false);
@@ -330,19 +380,8 @@ public class BillController {
             return;
         }
 
-        List<User> accounts = accountRepository.readFromCSV();
-        User currentUserAccount = null;
-        boolean passwordCorrect = false;
-
-        for (User account : accounts) {
-            if (account.getUsername().equals(currentUsername)) {
-                currentUserAccount = account;
-                if (account.getPassword().equals(password)) {
-                    passwordCorrect = true;
-                }
-                break;
-            }
-        }
+        User currentUserAccount = accountRepository.findByUsername(currentUsername);
+        boolean passwordCorrect = currentUserAccount != null && currentUserAccount.getPassword().equals(password);
 
         if (currentUserAccount == null) {
             view.showError("Current user account not found.");
@@ -355,24 +394,22 @@ public class BillController {
             return;
         }
 
-        boolean transactionAdded = TransactionController.addTransaction(
+        long transactionId = TransactionController.recordTransaction(
                 currentUsername, "Income", amount, timeText.trim(), "I", "I"
         );
 
-        if (transactionAdded) {
-            double originalBalance = currentUserAccount.getBalance();
-            currentUserAccount.setBalance(originalBalance + amount);
-            boolean saved = accountRepository.saveToCSV(accounts, false);
+        if (transactionId != TransactionIds.NONE) {
+            long originalBalance = currentUserAccount.getBalanceCents();
+            currentUserAccount.setBalanceCents(originalBalance + amountCents);
+            boolean saved = accountRepository.updateBalanceCents(currentUsername, currentUserAccount.getBalanceCents());
 
             if (saved) {
                 UserSession.setCurrentAccount(currentUserAccount);
-                view.showSuccess("Income of ¥" + "%.2f".formatted(amount) + " added successfully!");
+                view.showSuccess("Income of ¥" + Money.format(amountCents) + " added successfully!");
                 view.dispose();
-                transactionCache.remove(currentUsername);
-                cacheTimestamps.remove(currentUsername);
             } else {
-                TransactionController.removeTransaction(currentUsername, timeText.trim(),currentUserAccount);
-                currentUserAccount.setBalance(originalBalance);
+                TransactionController.removeTransactionById(currentUsername, transactionId, currentUserAccount);
+                currentUserAccount.setBalanceCents(originalBalance);
                 view.showError("Income recorded, but failed to update account balance file.");
             }
         } else {
@@ -9,7 +9,6 @@ package Controller;
 
 import javax.swing.JOptionPane;
 import java.util.List;
-import java.util.stream.Collectors; // Added import for Collectors
 
 import Model.User;
 import Model.UserSession;
@@ -69,21 +68,19 @@ public class LoginController {
             }
             UserSession.setCurrentAccount(user); // Sets both account and username
             loginFrame.closeWindow();
-            // Fetch all transactions and filter for the current user
-            List<Model.Transaction> allTransactions = transactionService.getTransactionRepository().readAllTransactions();
-            List<Model.Transaction> currentUserTransactions = allTransactions.stream()
-                    .filter(tx -> user.getUsername().equals(tx.getAccountUsername()))
-                    .collect(Collectors.toList());
-            double calculatedBalance = 0.0;
+            // Fetch only the current user's transactions; with sharded storage this reads a single shard
+            List<Model.Transaction> currentUserTransactions = transactionService.getTransactionRepository()
+                    .findTransactionsByUsername(user.getUsername());
+            long calculatedBalance = 0;
             for (Model.Transaction tx : currentUserTransactions) {
                 if ("Income".equalsIgnoreCase(tx.getOperation())) {
-                    calculatedBalance += tx.getAmount();
+                    calculatedBalance += tx.getAmountCents();
                 } else if ("Expense".equalsIgnoreCase(tx.getOperation())) {
-                    calculatedBalance -= tx.getAmount();
+                    calculatedBalance -= tx.getAmountCents();
                 }
             }
-            user.setBalance(calculatedBalance);
-            accountRepository.updateBalance(user.getUsername(), calculatedBalance);
+            user.setBalanceCents(calculatedBalance);
+            accountRepository.updateBalanceCents(user.getUsername(), calculatedBalance);
             // --- Added Abnormal Transaction Check on Login ---
 
             List<String> warnings = transactionService.checkAbnormalTransactions(user.getUsername(), currentUserTransactions);
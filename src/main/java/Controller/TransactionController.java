@@ -3,31 +3,34 @@ package Controller;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import javax.swing.JOptionPane;
 
 import Model.Transaction;
+import Model.TransactionCache;
+import Model.TransactionField;
 import Model.User;
-import Service.BudgetService;
+import Repository.TransactionStore;
 import Service.DeepSeekService;
+import utils.CsvCodec;
+import utils.Money;
+import utils.TimestampCodec;
+import utils.TransactionIds;
 
 /**
  * Controller class for managing transactions in a financial management application.
@@ -43,7 +46,13 @@ public class TransactionController {
     private static  String CSV_FILE_PATH = "transactions.csv";
 
     /** The CSV header defining the structure of transaction records. */
-    public static final String CSV_HEADER = "user,operation,amount,time,merchant,type,remark,category,payment_method,location,tag,attachment,recurrence";
+    public static final String CSV_HEADER = "user,operation,amount,time,merchant,type,remark,category,payment_method,location,tag,attachment,recurrence,id";
+
+    /**
+     * The header of files written before transactions had IDs, still accepted on import. A ledger
+     * still carrying it gets {@link #CSV_HEADER} at its next compaction.
+     */
+    public static final String LEGACY_CSV_HEADER = "user,operation,amount,time,merchant,type,remark,category,payment_method,location,tag,attachment,recurrence";
 
     /** Date format used for parsing and formatting transaction timestamps. */
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy/MM/dd HH:mm");
@@ -51,7 +60,7 @@ public class TransactionController {
     /** Set of allowed transaction operations. */
     private static final Set<String> ALLOWED_OPERATIONS = new HashSet<>(Arrays.asList("Transfer Out", "Transfer In", "Withdrawal", "Deposit"));
 
-    /** Expected number of fields in a valid CSV transaction record. */
+    /** Expected number of fields in a valid CSV transaction record, without the ID. */
     private static final int EXPECTED_FIELD_COUNT = 13;
 
     /** Index of the operation field in a CSV record. */
@@ -59,12 +68,12 @@ public class TransactionController {
 
     private static MainPanelController mainPanelController;
     /**
-     * Ensures the transaction CSV file exists, creating it with the header if it does not.
-     * Displays an error message if file creation fails.
+     * Ensures the transaction CSV file exists, creating it with the header if it does not,
+     * unless its rows have been migrated into shards. Displays an error message if file creation fails.
      */
     private static void ensureFileExists() {
         File file = new File(CSV_FILE_PATH);
-        if (!file.exists()) {
+        if (!file.exists() && !TransactionStore.isSharded(CSV_FILE_PATH)) {
             try {
                 if (file.createNewFile()) {
                     try (BufferedWriter bw = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8))) {
@@ -117,6 +126,26 @@ public class TransactionController {
         return false;
     }
 
+    /**
+     * Checks the stored transactions of a user for abnormal transfers, as {@link #hasAbnormalTransactions(String, List)} does.
+     * The transactions are streamed, so reading stops at the first abnormal one.
+     *
+     * @param username The username to check transactions for.
+     * @return {@code true} if an abnormal transaction is found, {@code false} otherwise.
+     */
+    public static boolean hasAbnormalTransactions(String username) {
+        if (username == null || username.trim().isEmpty()) {
+            System.err.println("Received null or empty username.");
+            return false;
+        }
+        ensureFileExists();
+        try (Stream<Transaction> transactions = TransactionStore.forFile(CSV_FILE_PATH).streamFor(username)) {
+            return transactions.anyMatch(transaction ->
+                    ("Transfer Out".equalsIgnoreCase(transaction.getType()) || "Transfer In".equalsIgnoreCase(transaction.getType()))
+                            && transaction.getAmount() > 500);
+        }
+    }
+
     /**
      * Imports transactions from a source CSV file to the destination file, validating the header and data.
      *
@@ -130,6 +159,7 @@ public class TransactionController {
         List<String> validDataLines = new ArrayList<>();
         boolean headerProcessed = false;
         int linesRead = 0;
+        CsvCodec codec = new CsvCodec();
 
         try (BufferedReader br = new BufferedReader(new FileReader(sourceFile, StandardCharsets.UTF_8))) {
             String line;
@@ -138,26 +168,28 @@ public class TransactionController {
                 if (line.trim().isEmpty()) continue;
 
                 if (!headerProcessed) {
-                    if (!line.trim().equalsIgnoreCase(CSV_HEADER)) {
+                    if (!line.trim().equalsIgnoreCase(CSV_HEADER) && !line.trim().equalsIgnoreCase(LEGACY_CSV_HEADER)) {
                         throw new IllegalArgumentException("Invalid header. Expected: '" + CSV_HEADER + "', Actual: '" + line + "'");
                     }
                     headerProcessed = true;
                     continue;
                 }
 
-                String[] fields = line.split(",", -1);
-                if (fields.length != EXPECTED_FIELD_COUNT) {
-                    System.err.println("Skipping invalid line (field count: " + fields.length + "): " + line);
+                int fieldCount = codec.parse(line);
+                if (fieldCount != EXPECTED_FIELD_COUNT && fieldCount != EXPECTED_FIELD_COUNT + 1) {
+                    System.err.println("Skipping invalid line (field count: " + fieldCount + "): " + line);
                     continue;
                 }
 
-                String operation = fields[OPERATION_FIELD_INDEX].trim();
+                String operation = codec.trimmed(OPERATION_FIELD_INDEX);
                 if (!ALLOWED_OPERATIONS.contains(operation)) {
                     System.err.println("Skipping invalid line (operation: '" + operation + "'): " + line);
                     continue;
                 }
 
-                validDataLines.add(line);
+                // Imported rows always get fresh IDs, so importing a file twice cannot create duplicate IDs
+                String row = fieldCount > EXPECTED_FIELD_COUNT ? line.substring(0, codec.rawStart(EXPECTED_FIELD_COUNT) - 1) : line;
+                validDataLines.add(row + ',' + TransactionIds.next());
             }
         }
 
@@ -168,28 +200,33 @@ public class TransactionController {
             return 0;
         }
 
-        int importedCount = 0;
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(destinationFilePath, StandardCharsets.UTF_8, true))) {
-            for (String dataLine : validDataLines) {
-                bw.write(dataLine);
-                bw.newLine();
-                importedCount++;
-            }
-        }
-        return importedCount;
+        // Written through the store so the rows land in the right shard when the ledger is sharded
+        TransactionStore.forFile(destinationFilePath).appendAll(validDataLines);
+        TransactionCache.shared().invalidateAll();
+        return validDataLines.size();
     }
 
+    /**
+     * Calculates a user's balance as total income minus total expenses.
+     *
+     * @param username The username whose balance is to be calculated.
+     * @return The balance.
+     */
     public static double calculateUserBalance(String username) {
-        List<Transaction> txs = readTransactions(username);
-        double balance = 0;
-        for (Transaction tx : txs) {
-            if ("Income".equalsIgnoreCase(tx.getOperation())) {
-                balance += tx.getAmount();
-            } else if ("Expense".equalsIgnoreCase(tx.getOperation())) {
-                balance -= tx.getAmount();
-            }
-        }
-        return balance;
+        return Money.toDouble(calculateUserBalanceCents(username));
+    }
+
+    /**
+     * Calculates a user's balance in cents. The store keeps a running balance per user that each
+     * recorded or removed transaction moves by its amount, so this does not depend on how many
+     * transactions the user has.
+     *
+     * @param username The username whose balance is to be calculated.
+     * @return The balance, in cents.
+     */
+    public static long calculateUserBalanceCents(String username) {
+        ensureFileExists();
+        return TransactionStore.forFile(CSV_FILE_PATH).balanceCents(username);
     }
 
 
@@ -208,6 +245,21 @@ public class TransactionController {
         return addTransaction(username, operation, amount, time, merchant, type, "", type, "", "", "", "", "");
     }
 
+    /**
+     * Adds a transaction with minimal required fields and returns the ID it was stored under.
+     *
+     * @param username  The username associated with the transaction.
+     * @param operation The operation type (e.g., "Income", "Expense").
+     * @param amount    The transaction amount.
+     * @param time      The timestamp of the transaction.
+     * @param merchant  The merchant involved in the transaction.
+     * @param type      The transaction type.
+     * @return The ID of the new transaction, or {@link TransactionIds#NONE} if it was not added.
+     */
+    public static long recordTransaction(String username, String operation, double amount, String time, String merchant, String type) {
+        return recordTransaction(username, operation, amount, time, merchant, type, "", type, "", "", "", "", "");
+    }
+
     /**
      * Adds a transaction with all possible fields to the CSV file, validating and normalizing the data.
      *
@@ -229,57 +281,76 @@ public class TransactionController {
     public static boolean addTransaction(String username, String operation, double amount, String time, String merchant, String type,
                                          String remark, String category, String paymentMethod, String location, String tag,
                                          String attachment, String recurrence) {
+        return recordTransaction(username, operation, amount, time, merchant, type, remark, category, paymentMethod,
+                location, tag, attachment, recurrence) != TransactionIds.NONE;
+    }
+
+    /**
+     * Adds a transaction like {@link #addTransaction(String, String, double, String, String, String, String, String, String, String, String, String, String)}
+     * and returns the ID it was stored under, by which it can later be removed on its own.
+     *
+     * @param username      The username associated with the transaction.
+     * @param operation     The operation type (e.g., "Income", "Expense").
+     * @param amount        The transaction amount.
+     * @param time          The timestamp of the transaction.
+     * @param merchant      The merchant involved in the transaction.
+     * @param type          The transaction type.
+     * @param remark        Additional remarks for the transaction.
+     * @param category      The category of the transaction.
+     * @param paymentMethod The payment method used.
+     * @param location      The location of the transaction.
+     * @param tag           Tags associated with the transaction.
+     * @param attachment    Any attachment details for the transaction.
+     * @param recurrence    Recurrence details for the transaction.
+     * @return The ID of the new transaction, or {@link TransactionIds#NONE} if it was not added.
+     */
+    public static long recordTransaction(String username, String operation, double amount, String time, String merchant, String type,
+                                         String remark, String category, String paymentMethod, String location, String tag,
+                                         String attachment, String recurrence) {
         ensureFileExists();
 
         if (username == null || username.trim().isEmpty() ||
                 operation == null || (!operation.equals("Income") && !operation.equals("Expense")) ||
                 amount < 0 || time == null || time.trim().isEmpty()) {
             System.err.println("Invalid transaction data: username=" + username + ", operation=" + operation + ", amount=" + amount + ", time=" + time);
-            return false;
+            return TransactionIds.NONE;
         }
 
 
-        String normalizedTime;
-        try {
-            LocalDateTime dateTime;
-            try {
-                dateTime = LocalDateTime.parse(time.trim(), BudgetService.DATE_FORMATTER);
-            } catch (DateTimeParseException e1) {
-                LocalDate date = LocalDate.parse(time.trim(), DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-                dateTime = date.atStartOfDay();
-            }
-            normalizedTime = dateTime.format(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm"));
-        } catch (DateTimeParseException e) {
-            System.err.println("Invalid date/time format: " + time + ", error: " + e.getMessage());
+        long epochMinute = TimestampCodec.parse(time);
+        if (epochMinute == TimestampCodec.INVALID) {
+            System.err.println("Invalid date/time format: " + time);
             JOptionPane.showMessageDialog(null, "Invalid date/time: " + time + ". Expected: yyyy/MM/dd [HH:mm]", "Date/Time Error", JOptionPane.ERROR_MESSAGE);
-            return false;
+            return TransactionIds.NONE;
         }
+        String normalizedTime = TimestampCodec.format(epochMinute);
 
-        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(CSV_FILE_PATH, true), StandardCharsets.UTF_8))) {
-            String csvLine = String.join(",",
-                    escapeCsvField(username),
-                    escapeCsvField(operation),
-                    "%.2f".formatted(amount),
-                    escapeCsvField(normalizedTime),
-                    escapeCsvField(Objects.toString(merchant, "")),
-                    escapeCsvField(Objects.toString(type, "u")),
-                    escapeCsvField(Objects.toString(remark, "")),
-                    escapeCsvField(Objects.toString(category, "u")),
-                    escapeCsvField(Objects.toString(paymentMethod, "")),
-                    escapeCsvField(Objects.toString(location, "")),
-                    escapeCsvField(Objects.toString(tag, "")),
-                    escapeCsvField(Objects.toString(attachment, "")),
-                    escapeCsvField(Objects.toString(recurrence, ""))
-            );
-            bw.write(csvLine);
-            bw.newLine();
+        long id = TransactionIds.next();
+        String csvLine = CsvCodec.joinRow(
+                username,
+                operation,
+                Money.format(Money.toCents(amount)),
+                normalizedTime,
+                Objects.toString(merchant, ""),
+                Objects.toString(type, "u"),
+                Objects.toString(remark, ""),
+                Objects.toString(category, "u"),
+                Objects.toString(paymentMethod, ""),
+                Objects.toString(location, ""),
+                Objects.toString(tag, ""),
+                Objects.toString(attachment, ""),
+                Objects.toString(recurrence, ""),
+                Long.toString(id)
+        );
+        try {
+            TransactionStore.forFile(CSV_FILE_PATH).append(csvLine, TransactionStore.parseRow(csvLine));
+            TransactionCache.invalidateCache(username);
             System.out.println("Transaction added: " + csvLine);
-            return true;
+            return id;
         } catch (IOException e) {
             System.err.println("Error writing transaction: " + e.getMessage());
             JOptionPane.showMessageDialog(null, "Failed to record transaction: " + e.getMessage(), "Transaction Error", JOptionPane.ERROR_MESSAGE);
-            return false;
+            return TransactionIds.NONE;
         }
 
     }
@@ -289,8 +360,7 @@ public class TransactionController {
                                          String attachment, String recurrence, User user) {
         boolean ok = addTransaction(username, operation, amount, time, merchant, type, remark, category, paymentMethod, location, tag, attachment, recurrence);
         if (ok && user != null) {
-            double newBalance = calculateUserBalance(username);
-            user.setBalance(newBalance);
+            user.setBalanceCents(calculateUserBalanceCents(username));
         }
         return ok;
     }
@@ -318,7 +388,7 @@ public class TransactionController {
         }
         double amount;
         try {
-            amount = Double.parseDouble(amtStr);
+            amount = Money.toDouble(Money.parseCents(amtStr));
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Invalid amount format: " + amtStr, e);
         }
@@ -352,8 +422,7 @@ public class TransactionController {
         if (!ok) {
             throw new RuntimeException("Failed to record transaction: " + entities);
         }
-        double newBalance = TransactionController.calculateUserBalance(username);
-        user.setBalance(newBalance);
+        user.setBalanceCents(TransactionController.calculateUserBalanceCents(username));
         if (mainPanelController != null) {
             mainPanelController.reloadAllPanels();
         }
@@ -369,56 +438,112 @@ public class TransactionController {
      */
     public static boolean removeTransaction(String username, String time,User user) {
         ensureFileExists();
-        File file = new File(CSV_FILE_PATH);
-        File tempFile = new File("transactions_temp.csv");
-        boolean removed = false;
-
         if (username == null || time == null || time.trim().isEmpty()) {
             System.err.println("Invalid parameters for removeTransaction: username=" + username + ", time=" + time);
             return false;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8));
-             BufferedWriter bw = new BufferedWriter(new FileWriter(tempFile, StandardCharsets.UTF_8))) {
-            bw.write(CSV_HEADER);
-            bw.newLine();
-            br.readLine();
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] data = line.split(",", -1);
-                if (data.length >= 4 && username.equals(unescapeCsvField(data[0])) && time.equals(unescapeCsvField(data[3]))) {
-                    removed = true;
-                    continue;
-                }
-                bw.write(line);
-                bw.newLine();
-            }
+        boolean removed;
+        try {
+            removed = TransactionStore.forFile(CSV_FILE_PATH).removeMatching(username, time) > 0;
+            TransactionCache.invalidateCache(username);
         } catch (IOException e) {
             System.err.println("Error removing transaction: " + e.getMessage());
             JOptionPane.showMessageDialog(null, "Failed to remove transaction: " + e.getMessage(), "Transaction Error", JOptionPane.ERROR_MESSAGE);
-            tempFile.delete();
             return false;
         }
+        user.setBalanceCents(TransactionController.calculateUserBalanceCents(username));
+        if (mainPanelController != null) {
+            mainPanelController.reloadAllPanels();
+        }
+        return removed;
+    }
 
-        if (removed) {
-            if (!file.delete() || !tempFile.renameTo(file)) {
-                System.err.println("Error replacing transaction file.");
-                tempFile.delete();
-                return false;
-            }
-        } else {
-            tempFile.delete();
+    /**
+     * Removes a single transaction by its ID, leaving other transactions at the same time untouched.
+     *
+     * @param username The username associated with the transaction.
+     * @param id       The ID of the transaction, as returned by {@link #recordTransaction} or {@link Transaction#getId()}.
+     * @param user     The user whose balance is refreshed afterwards; may be {@code null}.
+     * @return {@code true} if the transaction was removed, {@code false} otherwise.
+     */
+    public static boolean removeTransactionById(String username, long id, User user) {
+        ensureFileExists();
+        if (username == null || id == TransactionIds.NONE) {
+            System.err.println("Invalid parameters for removeTransactionById: username=" + username + ", id=" + id);
+            return false;
+        }
 
+        boolean removed;
+        try {
+            removed = TransactionStore.forFile(CSV_FILE_PATH).removeById(username, id);
+            TransactionCache.invalidateCache(username);
+        } catch (IOException e) {
+            System.err.println("Error removing transaction: " + e.getMessage());
+            JOptionPane.showMessageDialog(null, "Failed to remove transaction: " + e.getMessage(), "Transaction Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        if (user != null) {
+            user.setBalanceCents(calculateUserBalanceCents(username));
         }
-        double newBalance = TransactionController.calculateUserBalance(username);
-        user.setBalance(newBalance);
         if (mainPanelController != null) {
             mainPanelController.reloadAllPanels();
         }
         return removed;
     }
 
+    /**
+     * Replaces a single transaction, found by its ID, with new details. The stored row keeps the
+     * same ID, so the transaction can still be found under it afterwards.
+     *
+     * @param username The username associated with the transaction.
+     * @param id       The ID of the transaction to edit.
+     * @param updated  The new details of the transaction; its own ID is ignored.
+     * @param user     The user whose balance is refreshed afterwards; may be {@code null}.
+     * @return {@code true} if the transaction was found and updated, {@code false} otherwise.
+     */
+    public static boolean updateTransaction(String username, long id, Transaction updated, User user) {
+        ensureFileExists();
+        if (username == null || id == TransactionIds.NONE || updated == null || !updated.hasValidTimestamp()) {
+            System.err.println("Invalid parameters for updateTransaction: username=" + username + ", id=" + id);
+            return false;
+        }
+        String csvLine = CsvCodec.joinRow(
+                updated.getAccountUsername(),
+                updated.getOperation(),
+                Money.format(updated.getAmountCents()),
+                TimestampCodec.format(updated.getEpochMinute()),
+                updated.getMerchant(),
+                Objects.toString(updated.getType(), "u"),
+                updated.getRemark(),
+                Objects.toString(updated.getCategory(), "u"),
+                updated.getPaymentMethod(),
+                updated.getLocation(),
+                updated.getTag(),
+                updated.getAttachment(),
+                updated.getRecurrence(),
+                Long.toString(id)
+        );
+
+        boolean replaced;
+        try {
+            replaced = TransactionStore.forFile(CSV_FILE_PATH).replaceById(username, id, csvLine, TransactionStore.parseRow(csvLine));
+            TransactionCache.invalidateCache(username);
+            TransactionCache.invalidateCache(updated.getAccountUsername());
+        } catch (IOException e) {
+            System.err.println("Error updating transaction: " + e.getMessage());
+            JOptionPane.showMessageDialog(null, "Failed to update transaction: " + e.getMessage(), "Transaction Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        if (user != null) {
+            user.setBalanceCents(calculateUserBalanceCents(username));
+        }
+        if (mainPanelController != null) {
+            mainPanelController.reloadAllPanels();
+        }
+        return replaced;
+    }
+
     /**
      * Reads all transactions for a specific user from the CSV file.
      *
@@ -427,143 +552,68 @@ public class TransactionController {
      */
     public static List<Transaction> readTransactions(String username) {
         ensureFileExists();
-        List<Transaction> transactions = new ArrayList<>();
-        File file = new File(CSV_FILE_PATH);
-
         if (username == null || username.trim().isEmpty()) {
             System.err.println("Cannot read transactions: username is null or empty");
-            return transactions;
+            return new ArrayList<>();
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
-            br.readLine();
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] data = line.split(",", -1);
-                if (data.length >= 6 && username.equals(unescapeCsvField(data[0]))) {
-                    try {
-                        String normalizedTime;
-                        try {
-                            LocalDateTime dateTime = LocalDateTime.parse(data[3].trim(), BudgetService.DATE_FORMATTER);
-                            normalizedTime = dateTime.format(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm"));
-                        } catch (DateTimeParseException e1) {
-                            LocalDate date = LocalDate.parse(data[3].trim(), DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-                            normalizedTime = date.atStartOfDay().format(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm"));
-                        }
-
-                        Transaction transaction = new Transaction(
-                                unescapeCsvField(data[0]),
-                                unescapeCsvField(data[1]),
-                                Double.parseDouble(data[2].trim()),
-                                normalizedTime,
-                                unescapeCsvField(data[4]),
-                                unescapeCsvField(data[5]),
-                                data.length > 6 ? unescapeCsvField(data[6]) : "",
-                                data.length > 7 ? unescapeCsvField(data[7]) : "u",
-                                data.length > 8 ? unescapeCsvField(data[8]) : "",
-                                data.length > 9 ? unescapeCsvField(data[9]) : "",
-                                data.length > 10 ? unescapeCsvField(data[10]) : "",
-                                data.length > 11 ? unescapeCsvField(data[11]) : "",
-                                data.length > 12 ? unescapeCsvField(data[12]) : ""
-                        );
-                        transactions.add(transaction);
-                    } catch (NumberFormatException | DateTimeParseException e) {
-                        System.err.println("Skipping transaction (parse error): " + line + " | Error: " + e.getMessage());
-                    }
-                }
-            }
-            System.out.println("Read " + transactions.size() + " transactions for user " + username);
-        } catch (IOException e) {
-            System.err.println("Error reading transactions: " + e.getMessage());
-            JOptionPane.showMessageDialog(null, "Failed to read transactions: " + e.getMessage(), "Read Error", JOptionPane.ERROR_MESSAGE);
-        }
+        List<Transaction> transactions = TransactionStore.forFile(CSV_FILE_PATH).transactionsFor(username);
+        System.out.println("Read " + transactions.size() + " transactions for user " + username);
         return transactions;
     }
 
     /**
-     * Reads all transactions from the CSV file, regardless of the user.
+     * Reads the transactions of a user made within a period, sorted by timestamp.
+     * Only the months overlapping the period are read when monthly segments are enabled.
      *
-     * @return A list of all {@link Transaction} objects in the CSV file.
+     * @param username The username whose transactions are to be retrieved.
+     * @param start    The start of the period, inclusive.
+     * @param end      The end of the period, inclusive.
+     * @return A list of {@link Transaction} objects within the period.
      */
-    public static List<Transaction> readAllTransactions() {
+    public static List<Transaction> readTransactionsInPeriod(String username, LocalDateTime start, LocalDateTime end) {
         ensureFileExists();
-        List<Transaction> transactions = new ArrayList<>();
-        File file = new File(CSV_FILE_PATH);
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
-            br.readLine();
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] data = line.split(",", -1);
-                if (data.length >= 6) {
-                    try {
-                        String normalizedTime;
-                        try {
-                            LocalDateTime dateTime = LocalDateTime.parse(data[3].trim(), BudgetService.DATE_FORMATTER);
-                            normalizedTime = dateTime.format(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm"));
-                        } catch (DateTimeParseException e1) {
-                            LocalDate date = LocalDate.parse(data[3].trim(), DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-                            normalizedTime = date.atStartOfDay().format(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm"));
-                        }
-
-                        Transaction transaction = new Transaction(
-                                unescapeCsvField(data[0]),
-                                unescapeCsvField(data[1]),
-                                Double.parseDouble(data[2].trim()),
-                                normalizedTime,
-                                unescapeCsvField(data[4]),
-                                unescapeCsvField(data[5]),
-                                data.length > 6 ? unescapeCsvField(data[6]) : "",
-                                data.length > 7 ? unescapeCsvField(data[7]) : "u",
-                                data.length > 8 ? unescapeCsvField(data[8]) : "",
-                                data.length > 9 ? unescapeCsvField(data[9]) : "",
-                                data.length > 10 ? unescapeCsvField(data[10]) : "",
-                                data.length > 11 ? unescapeCsvField(data[11]) : "",
-                                data.length > 12 ? unescapeCsvField(data[12]) : ""
-                        );
-                        transactions.add(transaction);
-                    } catch (NumberFormatException | DateTimeParseException e) {
-                        System.err.println("Skipping transaction: " + line + " | Error: " + e.getMessage());
-                    }
-                }
-            }
-            System.out.println("Read " + transactions.size() + " transactions in total");
-        } catch (IOException e) {
-            System.err.println("Error reading all transactions: " + e.getMessage());
-            JOptionPane.showMessageDialog(null, "Failed to read transactions: " + e.getMessage(), "Read Error", JOptionPane.ERROR_MESSAGE);
+        if (username == null || username.trim().isEmpty()) {
+            System.err.println("Cannot read transactions: username is null or empty");
+            return new ArrayList<>();
         }
-        return transactions;
+        return TransactionStore.forFile(CSV_FILE_PATH).transactionsBetween(username,
+                TimestampCodec.toEpochMinuteRoundingUp(start), TimestampCodec.toEpochMinute(end));
     }
 
     /**
-     * Escapes a CSV field to handle commas, quotes, and newlines.
+     * Groups the transactions of a user made within a period by the value of a field. The field is
+     * indexed by the store from the first call on, so later calls only visit rows in the period.
      *
-     * @param field The field to escape.
-     * @return The escaped field, or an empty string if the field is null.
+     * @param username The username whose transactions are to be grouped.
+     * @param field    The field to group by.
+     * @param start    The start of the period, inclusive.
+     * @param end      The end of the period, inclusive.
+     * @return The transactions within the period by field value, each list sorted by timestamp.
      */
-    private static String escapeCsvField(String field) {
-        if (field == null) return "";
-        if (field.contains(",") || field.contains("\"") || field.contains("\n") || field.contains("\r")) {
-            return "\"" + field.replace("\"", "\"\"") + "\"";
+    public static Map<String, List<Transaction>> groupTransactionsInPeriod(String username, TransactionField field,
+                                                                          LocalDateTime start, LocalDateTime end) {
+        ensureFileExists();
+        if (username == null || username.trim().isEmpty() || field == null) {
+            System.err.println("Cannot group transactions: username=" + username + ", field=" + field);
+            return new HashMap<>();
         }
-        return field;
+        TransactionStore store = TransactionStore.forFile(CSV_FILE_PATH);
+        store.enableFieldIndex(field);
+        return store.groupBy(username, field,
+                TimestampCodec.toEpochMinuteRoundingUp(start), TimestampCodec.toEpochMinute(end));
     }
 
     /**
-     * Unescapes a CSV field to remove surrounding quotes and handle escaped quotes.
+     * Reads all transactions from the CSV file, regardless of the user.
      *
-     * @param field The field to unescape.
-     * @return The unescaped field, or an empty string if the field is null.
+     * @return A list of all {@link Transaction} objects in the CSV file.
      */
-    private static String unescapeCsvField(String field) {
-        if (field == null) return "";
-        field = field.trim();
-        if (field.startsWith("\"") && field.endsWith("\"") && field.length() >= 2) {
-            return field.substring(1, field.length() - 1).replace("\"\"", "\"");
-        }
-        return field;
+    public static List<Transaction> readAllTransactions() {
+        ensureFileExists();
+        List<Transaction> transactions = TransactionStore.forFile(CSV_FILE_PATH).allTransactions();
+        System.out.println("Read " + transactions.size() + " transactions in total");
+        return transactions;
     }
 
     public static void setCsvFilePathForTest(String path) { CSV_FILE_PATH = path; }
@@ -384,34 +384,29 @@ public class TransactionSystemController {
 
 
             // --- Added Real-time Abnormal Transaction Check ---
-             try {
-                // 1. Get existing transactions (use cache for efficiency)
-                List<Transaction> existingTransactions = TransactionCache.getCachedTransactions(username);
-
-                // 2. Create a temporary transaction object for the new input
-                // Use Objects.toString to handle potential nulls from getText() on fields if they aren't properly initialized
-                Transaction newTransaction = new Transaction(
-                    username,
-                    Objects.toString(operation, "").trim(), // Ensure operation is not null and trimmed
-                    amount,
-                    Objects.toString(timeText, "").trim(), // Ensure time is not null and trimmed
-                    Objects.toString(merchantText, "").trim(),
-                    Objects.toString(type, "").trim(),
-                    Objects.toString(remark, "").trim(),
-                    Objects.toString(category, "").trim(),
-                    Objects.toString(paymentMethod, "").trim(),
-                    Objects.toString(location, "").trim(),
-                    Objects.toString(tag, "").trim(),
-                    Objects.toString(attachment, "").trim(),
-                    Objects.toString(recurrence, "").trim()
-                );
+            // 1. Create a temporary transaction object for the new input
+            // Use Objects.toString to handle potential nulls from getText() on fields if they aren't properly initialized
+            Transaction newTransaction = new Transaction(
+                username,
+                Objects.toString(operation, "").trim(), // Ensure operation is not null and trimmed
+                amount,
+                Objects.toString(timeText, "").trim(), // Ensure time is not null and trimmed
+                Objects.toString(merchantText, "").trim(),
+                Objects.toString(type, "").trim(),
+                Objects.toString(remark, "").trim(),
+                Objects.toString(category, "").trim(),
+                Objects.toString(paymentMethod, "").trim(),
+                Objects.toString(location, "").trim(),
+                Objects.toString(tag, "").trim(),
+                Objects.toString(attachment, "").trim(),
+                Objects.toString(recurrence, "").trim()
+            );
 
-                // 3. Perform real-time checks using the TransactionService dependency
-                List<String> realtimeWarnings = transactionService.checkRealtimeAbnormalTransactions(
-                    username, existingTransactions, newTransaction
-                );
+             try {
+                // 2. Perform real-time checks using the TransactionService dependency
+                List<String> realtimeWarnings = transactionService.checkRealtimeAbnormalTransactions(username, newTransaction);
 
-                // 4. If warnings, show confirm dialog
+                // 3. If warnings, show confirm dialog
                 if (!realtimeWarnings.isEmpty()) {
                     StringBuilder warningMessage = new StringBuilder("<html><center><b>Transaction Risk Alert:</b><br>");
                     warningMessage.append("Adding this transaction may involve risk:<br><br>");
@@ -495,12 +490,15 @@ public class TransactionSystemController {
 
             // Add transaction (This code block was already here)
             // Note: TransactionController handles file writing. This is fine.
+            long dataVersionBefore = transactionService.getDataVersion(username);
             boolean transactionAdded = transactionController.addTransaction(
                     account.getUsername(), operation, amount, timeText.trim(), merchantText.trim(), type,
                     remark, category, paymentMethod, location, tag, attachment, recurrence,account
             );
 
             if (transactionAdded) {
+                // Let the real-time checks count it without rereading the history
+                transactionService.recordTransactions(username, List.of(newTransaction), dataVersionBefore);
                 view.showSuccess(operation + " of ¥" + String.format("%.2f", amount) + " added successfully!");
                 TransactionCache.invalidateCache(username); // Invalidate cache so next read is fresh
                 loadTransactionHistory(); // Refresh transaction history display
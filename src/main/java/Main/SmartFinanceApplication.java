@@ -1,10 +1,13 @@
 package Main;
 
+import java.io.IOException;
+
 import javax.swing.SwingUtilities;
 
 import Controller.LoginController;
 import Repository.AccountRepository;
 import Repository.TransactionRepository; // Added import
+import Repository.TransactionStore;
 import Service.BudgetService; // Added import
 import Service.TransactionService; // Added import
 import View.LoginAndMain.Login;
@@ -20,6 +23,24 @@ import View.LoginAndMain.Login;
  * @version 1.0
  */
 public class SmartFinanceApplication {
+    /** System property naming the directory of the sharded transaction ledger; unset keeps the single file. */
+    private static final String SHARD_DIRECTORY_PROPERTY = "smartfinance.shards.dir";
+
+    /** System property with the number of shards to create on the first sharded start. */
+    private static final String SHARD_COUNT_PROPERTY = "smartfinance.shards.count";
+
+    /** Number of shards created when {@link #SHARD_COUNT_PROPERTY} is not set. */
+    private static final int DEFAULT_SHARD_COUNT = 8;
+
+    /** System property naming the directory of the month-partitioned copy of the ledger; unset disables it. */
+    private static final String SEGMENT_DIRECTORY_PROPERTY = "smartfinance.segments.dir";
+
+    /** System property with how long, in milliseconds, appended transactions are collected before a write. */
+    private static final String WRITER_FLUSH_INTERVAL_PROPERTY = "smartfinance.writer.flushMillis";
+
+    /** System property naming the {@link TransactionStore.SyncPolicy} of appended transactions. */
+    private static final String WRITER_SYNC_PROPERTY = "smartfinance.writer.sync";
+
     /**
      * The main method that starts the Smart Finance Application.
      * It configures repositories and services, initializes the login controller,
@@ -38,6 +59,34 @@ public class SmartFinanceApplication {
         // TransactionRepository is needed by services
         TransactionRepository transactionRepository = new TransactionRepository();
 
+        // Group commit of appended transactions, e.g. -Dsmartfinance.writer.flushMillis=5 -Dsmartfinance.writer.sync=PER_BATCH
+        String syncPolicy = System.getProperty(WRITER_SYNC_PROPERTY);
+        try {
+            TransactionRepository.configureWriter(Long.getLong(WRITER_FLUSH_INTERVAL_PROPERTY, 0),
+                    syncPolicy == null || syncPolicy.isBlank()
+                            ? TransactionStore.SyncPolicy.PER_BATCH
+                            : TransactionStore.SyncPolicy.valueOf(syncPolicy.trim().toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown " + WRITER_SYNC_PROPERTY + " '" + syncPolicy + "', keeping the default: " + e.getMessage());
+        }
+
+        // Optional sharded ledger, e.g. -Dsmartfinance.shards.dir=shards -Dsmartfinance.shards.count=8.
+        // Once migrated, the shards are reattached on every start even without these settings.
+        String shardDirectory = System.getProperty(SHARD_DIRECTORY_PROPERTY);
+        if (shardDirectory != null && !shardDirectory.isBlank()) {
+            try {
+                TransactionRepository.enableSharding(shardDirectory, Integer.getInteger(SHARD_COUNT_PROPERTY, DEFAULT_SHARD_COUNT));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not enable transaction sharding, using the single file: " + e.getMessage());
+            }
+        }
+
+        // Optional monthly segments for period queries, e.g. -Dsmartfinance.segments.dir=data
+        String segmentDirectory = System.getProperty(SEGMENT_DIRECTORY_PROPERTY);
+        if (segmentDirectory != null && !segmentDirectory.isBlank()) {
+            TransactionRepository.enableMonthlySegments(segmentDirectory);
+        }
+
         // BudgetService needs TransactionRepository
         BudgetService budgetService = new BudgetService(transactionRepository);
 
@@ -0,0 +1,138 @@
+package Model;
+
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.Map;
+
+import utils.Money;
+
+/**
+ * Totals of one user's transactions in one calendar month: the income, the expenses, the number
+ * of transactions and the income and expenses of each category. Rollups are kept up to date by the
+ * transaction store as transactions are added and removed, so analytics read one per month
+ * instead of summing the raw transactions. Instances are immutable snapshots.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class MonthlyRollup {
+    /** The month the totals cover. */
+    private final YearMonth month;
+
+    /** The income of the month, in cents. */
+    private final long incomeCents;
+
+    /** The expenses of the month, in cents. */
+    private final long expenseCents;
+
+    /** The number of transactions in the month. */
+    private final int count;
+
+    /** Income in cents by category. */
+    private final Map<String, Long> incomeByCategory;
+
+    /** Expenses in cents by category. */
+    private final Map<String, Long> expenseByCategory;
+
+    /**
+     * Constructs a rollup.
+     *
+     * @param month             The month the totals cover.
+     * @param incomeCents       The income of the month, in cents.
+     * @param expenseCents      The expenses of the month, in cents.
+     * @param count             The number of transactions in the month.
+     * @param incomeByCategory  Income in cents by category; not copied, so it must not be changed afterwards.
+     * @param expenseByCategory Expenses in cents by category; not copied, so it must not be changed afterwards.
+     */
+    public MonthlyRollup(YearMonth month, long incomeCents, long expenseCents, int count,
+                         Map<String, Long> incomeByCategory, Map<String, Long> expenseByCategory) {
+        this.month = month;
+        this.incomeCents = incomeCents;
+        this.expenseCents = expenseCents;
+        this.count = count;
+        this.incomeByCategory = Collections.unmodifiableMap(incomeByCategory);
+        this.expenseByCategory = Collections.unmodifiableMap(expenseByCategory);
+    }
+
+    /**
+     * Returns the rollup of a month without transactions.
+     *
+     * @param month The month.
+     * @return A rollup with every total zero.
+     */
+    public static MonthlyRollup empty(YearMonth month) {
+        return new MonthlyRollup(month, 0, 0, 0, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * Gets the month the totals cover.
+     *
+     * @return The month.
+     */
+    public YearMonth getMonth() {
+        return month;
+    }
+
+    /**
+     * Gets the income of the month.
+     *
+     * @return The income in cents.
+     */
+    public long getIncomeCents() {
+        return incomeCents;
+    }
+
+    /**
+     * Gets the expenses of the month.
+     *
+     * @return The expenses in cents.
+     */
+    public long getExpenseCents() {
+        return expenseCents;
+    }
+
+    /**
+     * Gets the income of the month.
+     *
+     * @return The income.
+     */
+    public double getIncome() {
+        return Money.toDouble(incomeCents);
+    }
+
+    /**
+     * Gets the expenses of the month.
+     *
+     * @return The expenses.
+     */
+    public double getExpense() {
+        return Money.toDouble(expenseCents);
+    }
+
+    /**
+     * Gets the number of transactions in the month, of any operation.
+     *
+     * @return The number of transactions.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the income of each category that had any in the month.
+     *
+     * @return An unmodifiable map of category to income in cents.
+     */
+    public Map<String, Long> getIncomeByCategory() {
+        return incomeByCategory;
+    }
+
+    /**
+     * Gets the expenses of each category that had any in the month.
+     *
+     * @return An unmodifiable map of category to expenses in cents.
+     */
+    public Map<String, Long> getExpenseByCategory() {
+        return expenseByCategory;
+    }
+}
@@ -2,11 +2,25 @@ package Model;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
+import utils.Money;
+import utils.StringDictionary;
+import utils.TimestampCodec;
+import utils.TransactionIds;
 
 /**
  * Represents a financial transaction in the Smart Finance Application.
  * This class encapsulates detailed information about a transaction, including the associated user,
  * operation type, amount, timestamp, and other attributes such as merchant, category, and payment method.
+ * The timestamp is parsed once, on construction, into minutes since the epoch, so date filters
+ * compare numbers instead of parsing text for every transaction. Fields that repeat the same few
+ * values across rows share one canonical string instance per value through {@link #FIELDS}.
+ * The amount is held in cents (see {@link Money}), so totals over transactions add exactly.
+ * Each stored transaction carries a stable 64-bit ID (see {@link TransactionIds}) by which it can
+ * be deleted or edited on its own.
  * Implements {@link Serializable} for data persistence.
  *
  * @author Group 19
@@ -15,7 +29,13 @@ import java.io.Serializable;
 public class Transaction implements Serializable {
     /** Serial version UID for serialization compatibility. */
     @Serial
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 5L;
+
+    /**
+     * Canonical instances of the low-cardinality fields (username, operation, merchant, type,
+     * category, payment method, location, tag and recurrence), shared by every transaction.
+     */
+    private static final StringDictionary FIELDS = new StringDictionary(8192, 64);
 
     /** The username associated with the transaction. */
     private final String accountUsername;
@@ -23,12 +43,15 @@ public class Transaction implements Serializable {
     /** The operation type of the transaction (e.g., "Income", "Expense"). */
     private final String operation;
 
-    /** The amount of the transaction. */
-    private final double amount;
+    /** The amount of the transaction in cents. */
+    private final long amountCents;
 
     /** The timestamp of the transaction. */
     private final String timestamp;
 
+    /** The timestamp in minutes since 1970/01/01 00:00, or {@link TimestampCodec#INVALID}. */
+    private final long epochMinute;
+
     /** The merchant involved in the transaction. */
     private final String merchant;
 
@@ -56,6 +79,9 @@ public class Transaction implements Serializable {
     /** The recurrence details of the transaction, if applicable (e.g., "Monthly"). */
     private final String recurrence;
 
+    /** The ID of the transaction, or {@link TransactionIds#NONE} if it has not been stored yet. */
+    private final long id;
+
     /**
      * Constructs a Transaction with the specified details.
      *
@@ -76,19 +102,89 @@ public class Transaction implements Serializable {
     public Transaction(String accountUsername, String operation, double amount, String timestamp, String merchant,
                        String type, String remark, String category, String paymentMethod, String location,
                        String tag, String attachment, String recurrence) {
-        this.accountUsername = accountUsername;
-        this.operation = operation;
-        this.amount = amount;
+        this(accountUsername, operation, amount, timestamp, merchant, type, remark, category, paymentMethod,
+                location, tag, attachment, recurrence, TransactionIds.NONE);
+    }
+
+    /**
+     * Constructs a Transaction with the specified details and ID.
+     *
+     * @param accountUsername The username associated with the transaction.
+     * @param operation      The operation type of the transaction (e.g., "Income", "Expense").
+     * @param amount         The amount of the transaction.
+     * @param timestamp      The timestamp of the transaction.
+     * @param merchant       The merchant involved in the transaction.
+     * @param type           The type of the transaction (e.g., "Transfer Out", "Withdrawal").
+     * @param remark         Additional remarks or notes about the transaction.
+     * @param category       The category of the transaction (e.g., "Food", "Travel").
+     * @param paymentMethod  The payment method used for the transaction (e.g., "Credit Card", "Cash").
+     * @param location       The location where the transaction occurred.
+     * @param tag            Tags associated with the transaction for categorization.
+     * @param attachment     The path or reference to any attachment related to the transaction.
+     * @param recurrence     The recurrence details of the transaction, if applicable (e.g., "Monthly").
+     * @param id             The ID of the transaction.
+     */
+    public Transaction(String accountUsername, String operation, double amount, String timestamp, String merchant,
+                       String type, String remark, String category, String paymentMethod, String location,
+                       String tag, String attachment, String recurrence, long id) {
+        this(Money.toCents(amount), accountUsername, operation, timestamp, merchant, type, remark, category,
+                paymentMethod, location, tag, attachment, recurrence, id);
+    }
+
+    private Transaction(long amountCents, String accountUsername, String operation, String timestamp, String merchant,
+                        String type, String remark, String category, String paymentMethod, String location,
+                        String tag, String attachment, String recurrence, long id) {
+        this.accountUsername = FIELDS.canonical(accountUsername);
+        this.operation = FIELDS.canonical(operation);
+        this.amountCents = amountCents;
         this.timestamp = timestamp;
-        this.merchant = merchant;
-        this.type = type;
+        this.epochMinute = TimestampCodec.parse(timestamp);
+        this.merchant = FIELDS.canonical(merchant);
+        this.type = FIELDS.canonical(type);
         this.remark = remark;
-        this.category = category;
-        this.paymentMethod = paymentMethod;
-        this.location = location;
-        this.tag = tag;
+        this.category = FIELDS.canonical(category);
+        this.paymentMethod = FIELDS.canonical(paymentMethod);
+        this.location = FIELDS.canonical(location);
+        this.tag = FIELDS.canonical(tag);
         this.attachment = attachment;
-        this.recurrence = recurrence;
+        this.recurrence = FIELDS.canonical(recurrence);
+        this.id = id;
+    }
+
+    /**
+     * Creates a transaction whose amount is already in cents, as read from storage.
+     *
+     * @param accountUsername The username associated with the transaction.
+     * @param operation      The operation type of the transaction (e.g., "Income", "Expense").
+     * @param amountCents    The amount of the transaction in cents.
+     * @param timestamp      The timestamp of the transaction.
+     * @param merchant       The merchant involved in the transaction.
+     * @param type           The type of the transaction (e.g., "Transfer Out", "Withdrawal").
+     * @param remark         Additional remarks or notes about the transaction.
+     * @param category       The category of the transaction (e.g., "Food", "Travel").
+     * @param paymentMethod  The payment method used for the transaction (e.g., "Credit Card", "Cash").
+     * @param location       The location where the transaction occurred.
+     * @param tag            Tags associated with the transaction for categorization.
+     * @param attachment     The path or reference to any attachment related to the transaction.
+     * @param recurrence     The recurrence details of the transaction, if applicable (e.g., "Monthly").
+     * @param id             The ID of the transaction.
+     * @return The transaction.
+     */
+    public static Transaction ofCents(String accountUsername, String operation, long amountCents, String timestamp,
+                                      String merchant, String type, String remark, String category,
+                                      String paymentMethod, String location, String tag, String attachment,
+                                      String recurrence, long id) {
+        return new Transaction(amountCents, accountUsername, operation, timestamp, merchant, type, remark, category,
+                paymentMethod, location, tag, attachment, recurrence, id);
+    }
+
+    /**
+     * Gets the ID of the transaction.
+     *
+     * @return The ID, or {@link TransactionIds#NONE} if the transaction has not been stored yet.
+     */
+    public long getId() {
+        return id;
     }
 
     /**
@@ -115,7 +211,16 @@ public class Transaction implements Serializable {
      * @return The transaction amount.
      */
     public double getAmount() {
-        return amount;
+        return Money.toDouble(amountCents);
+    }
+
+    /**
+     * Gets the amount of the transaction in cents.
+     *
+     * @return The transaction amount in cents.
+     */
+    public long getAmountCents() {
+        return amountCents;
     }
 
     /**
@@ -127,6 +232,63 @@ public class Transaction implements Serializable {
         return timestamp;
     }
 
+    /**
+     * Gets the timestamp as minutes since 1970/01/01 00:00.
+     *
+     * @return The epoch minute, or {@link TimestampCodec#INVALID} if the timestamp is not
+     *         in the format "yyyy/MM/dd" or "yyyy/MM/dd HH:mm".
+     */
+    public long getEpochMinute() {
+        return epochMinute;
+    }
+
+    /**
+     * Checks whether the timestamp could be parsed.
+     *
+     * @return {@code true} if the timestamp is valid.
+     */
+    public boolean hasValidTimestamp() {
+        return epochMinute != TimestampCodec.INVALID;
+    }
+
+    /**
+     * Checks whether the transaction falls within a range of epoch minutes.
+     *
+     * @param fromMinute The first minute of the range, inclusive.
+     * @param toMinute   The last minute of the range, inclusive.
+     * @return {@code true} if the timestamp is valid and within the range.
+     */
+    public boolean isWithin(long fromMinute, long toMinute) {
+        return epochMinute != TimestampCodec.INVALID && epochMinute >= fromMinute && epochMinute <= toMinute;
+    }
+
+    /**
+     * Gets the timestamp as a date-time.
+     *
+     * @return The date-time, or {@code null} if the timestamp is invalid.
+     */
+    public LocalDateTime getDateTime() {
+        return hasValidTimestamp() ? TimestampCodec.toLocalDateTime(epochMinute) : null;
+    }
+
+    /**
+     * Gets the date of the transaction.
+     *
+     * @return The date, or {@code null} if the timestamp is invalid.
+     */
+    public LocalDate getDate() {
+        return hasValidTimestamp() ? TimestampCodec.toLocalDate(epochMinute) : null;
+    }
+
+    /**
+     * Gets the month of the transaction.
+     *
+     * @return The month, or {@code null} if the timestamp is invalid.
+     */
+    public YearMonth getYearMonth() {
+        return hasValidTimestamp() ? TimestampCodec.toYearMonth(epochMinute) : null;
+    }
+
     /**
      * Gets the merchant involved in the transaction.
      *
@@ -219,7 +381,7 @@ public class Transaction implements Serializable {
         return "Transaction{" +
                 "accountUsername='" + accountUsername + '\'' +
                 ", operation='" + operation + '\'' +
-                ", amount=" + amount +
+                ", amount=" + Money.format(amountCents) +
                 ", timestamp='" + timestamp + '\'' +
                 ", merchant='" + merchant + '\'' +
                 ", type='" + type + '\'' +
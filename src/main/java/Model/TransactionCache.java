@@ -1,92 +1,300 @@
 package Model;
 
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import Controller.TransactionController;
 
 /**
- * A cache for storing and managing transaction data in the Smart Finance Application.
- * This class provides methods to cache transactions for users, retrieve cached or filtered transactions,
- * and invalidate the cache when necessary. The cache has a fixed expiry time to ensure data freshness.
+ * The one cache of per-user transaction lists shared by every panel and controller.
+ * <p>
+ * Each user has a generation counter that {@link TransactionController} bumps on every write, and
+ * a cached list is only served while its generation is current, so readers see their own writes
+ * at once instead of after an expiry time. Concurrent misses for the same user share a single
+ * load. Entries are kept in least-recently-used order and evicted once the cached lists together
+ * hold more than a set number of transactions. Entries also expire after a maximum age, which
+ * picks up changes made to the transactions file outside the application.
+ * <p>
+ * Cached lists are unmodifiable and may be read from any thread.
  *
  * @author Group 19
  * @version 1.0
  */
 public class TransactionCache {
-    /** Cache storing transactions for each user, mapped by username. */
-    private static Map<String, List<Transaction>> transactionCache = new HashMap<>();
+    /** Most transactions the shared cache holds across all users. */
+    private static final int MAX_CACHED_TRANSACTIONS = 200_000;
 
-    /** Timestamps of when each user's transactions were cached, mapped by username. */
-    private static Map<String, Long> cacheTimestamps = new HashMap<>();
-
-    /** Cache expiry duration in milliseconds (5 minutes). */
+    /** Age in milliseconds after which a cached list is reloaded even if no write was seen (5 minutes). */
     private static final long CACHE_EXPIRY_MS = 5 * 60 * 1000;
 
+    /** Formatter for the "YYYY/MM" year-month filter. */
+    private static final DateTimeFormatter YEAR_MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyy/MM");
+
+    /** The cache used by the application. */
+    private static final TransactionCache SHARED = new TransactionCache(
+            TransactionController::readTransactions, MAX_CACHED_TRANSACTIONS, CACHE_EXPIRY_MS);
+
+    /** A cached list together with the generation it was loaded at. */
+    private static final class Entry {
+        final List<Transaction> transactions;
+        final long generation;
+        final long loadedAt;
+
+        Entry(List<Transaction> transactions, long generation, long loadedAt) {
+            this.transactions = transactions;
+            this.generation = generation;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /** A load in progress, which later misses at the same generation wait for. */
+    private static final class Load {
+        final long generation;
+        final CompletableFuture<List<Transaction>> result = new CompletableFuture<>();
+
+        Load(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    /** Reads a user's transactions on a miss. */
+    private final Function<String, List<Transaction>> loader;
+
+    /** Most transactions held across all cached lists. */
+    private final int maxTransactions;
+
+    /** Maximum age of a cached list in milliseconds. */
+    private final long maxAgeMillis;
+
+    /** Cached lists in access order, guarded by itself. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Number of transactions in {@link #entries}, guarded by {@link #entries}. */
+    private int cachedTransactions;
+
+    /** Write generation of each user. */
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /** Generation bumped by {@link #invalidateAll()}, added to every user's generation. */
+    private final AtomicLong globalGeneration = new AtomicLong();
+
+    /** Loads in progress, by username. */
+    private final Map<String, Load> loads = new ConcurrentHashMap<>();
+
     /**
-     * Checks if the cache for a given user is still valid based on the expiry time.
+     * Creates an empty cache.
      *
-     * @param username The username whose cache validity is to be checked.
-     * @return {@code true} if the cache is valid, {@code false} otherwise.
+     * @param loader          Reads a user's transactions on a miss.
+     * @param maxTransactions Most transactions held across all users before the least recently used lists are evicted.
+     * @param maxAgeMillis    Age after which a cached list is reloaded.
      */
-    private static boolean isCacheValid(String username) {
-        Long timestamp = cacheTimestamps.get(username);
-        if (timestamp == null) return false;
-        return (System.currentTimeMillis() - timestamp) < CACHE_EXPIRY_MS;
+    public TransactionCache(Function<String, List<Transaction>> loader, int maxTransactions, long maxAgeMillis) {
+        this.loader = loader;
+        this.maxTransactions = maxTransactions;
+        this.maxAgeMillis = maxAgeMillis;
     }
 
     /**
-     * Retrieves cached transactions for a given user. If the cache is invalid or empty,
-     * it fetches fresh transactions from the {@link TransactionController} and updates the cache.
+     * Returns the transactions of a user, loading them if the cached list is missing, stale or expired.
      *
      * @param username The username whose transactions are to be retrieved.
-     * @return A list of {@link Transaction} objects for the user, or an empty list if none exist.
+     * @return An unmodifiable list of the user's transactions, sorted by timestamp; empty if the username is {@code null}.
      */
-    public static List<Transaction> getCachedTransactions(String username) {
-        if (isCacheValid(username)) {
-            return transactionCache.getOrDefault(username, new ArrayList<>());
+    public List<Transaction> get(String username) {
+        if (username == null) {
+            return Collections.emptyList();
         }
-        List<Transaction> transactions = TransactionController.readTransactions(username);
-        transactionCache.put(username, transactions);
-        cacheTimestamps.put(username, System.currentTimeMillis());
-        return transactionCache.get(username);
+        while (true) {
+            long generation = generationOf(username);
+            List<Transaction> cached = getIfCurrent(username, generation);
+            if (cached != null) {
+                return cached;
+            }
+            Load load = new Load(generation);
+            Load running = loads.putIfAbsent(username, load);
+            if (running != null) {
+                if (running.generation == generation) {
+                    return running.result.join();
+                }
+                // A load started before the latest write; start a fresh one in its place
+                if (!loads.replace(username, running, load)) {
+                    continue;
+                }
+            }
+            return runLoad(username, load);
+        }
+    }
+
+    /**
+     * Returns the cached transactions of a user without loading them.
+     *
+     * @param username The username.
+     * @return The unmodifiable cached list, or {@code null} if it is missing, stale or expired.
+     */
+    public List<Transaction> getIfPresent(String username) {
+        if (username == null) {
+            return null;
+        }
+        return getIfCurrent(username, generationOf(username));
+    }
+
+    /**
+     * Marks the cached list of a user as stale. Called after every write to the user's transactions.
+     *
+     * @param username The username whose transactions changed.
+     */
+    public void invalidate(String username) {
+        if (username == null) {
+            return;
+        }
+        generations.computeIfAbsent(username, k -> new AtomicLong()).incrementAndGet();
+        synchronized (entries) {
+            remove(username);
+        }
+    }
+
+    /**
+     * Marks every cached list as stale, for writes that may touch any user.
+     */
+    public void invalidateAll() {
+        globalGeneration.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+            cachedTransactions = 0;
+        }
+    }
+
+    /**
+     * Returns the shared cache used by the application.
+     *
+     * @return The shared cache.
+     */
+    public static TransactionCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Retrieves the transactions of a user from the shared cache, loading them if needed.
+     *
+     * @param username The username whose transactions are to be retrieved.
+     * @return An unmodifiable list of {@link Transaction} objects for the user, empty if none exist.
+     */
+    public static List<Transaction> getCachedTransactions(String username) {
+        return SHARED.get(username);
     }
 
     /**
      * Retrieves transactions for a given user filtered by a specific year and month.
-     * Uses cached transactions and filters them based on the provided year-month prefix.
+     * Filters the cached list when there is a current one, and otherwise reads only the requested month.
      *
-     * @param username   The username whose transactions are to be retrieved.
-     * @param yearMonth  The year and month to filter transactions by, in the format "YYYY/MM".
+     * @param username  The username whose transactions are to be retrieved.
+     * @param yearMonth The year and month to filter transactions by, in the format "YYYY/MM".
      * @return A list of {@link Transaction} objects matching the year-month filter.
      */
     public static List<Transaction> getFilteredTransactions(String username, String yearMonth) {
-        List<Transaction> transactions = getCachedTransactions(username);
+        List<Transaction> transactions = SHARED.getIfPresent(username);
+        if (transactions == null) {
+            // Read only the requested month instead of loading the user's whole history
+            try {
+                YearMonth month = YearMonth.parse(yearMonth, YEAR_MONTH_FORMATTER);
+                return TransactionController.readTransactionsInPeriod(username,
+                        month.atDay(1).atStartOfDay(), month.atEndOfMonth().atTime(23, 59));
+            } catch (DateTimeParseException e) {
+                System.err.println("Error parsing year-month: " + yearMonth);
+                return new ArrayList<>();
+            }
+        }
         List<Transaction> filtered = new ArrayList<>();
         String yearMonthPrefix = yearMonth + "/";
-
         for (Transaction tx : transactions) {
-            try {
-                String timestamp = tx.getTimestamp();
-                if (timestamp.startsWith(yearMonthPrefix)) {
-                    filtered.add(tx);
-                }
-            } catch (Exception e) {
-                System.err.println("Error processing transaction timestamp: " + tx.getTimestamp());
+            if (tx.getTimestamp() != null && tx.getTimestamp().startsWith(yearMonthPrefix)) {
+                filtered.add(tx);
             }
         }
         return filtered;
     }
 
     /**
-     * Invalidates the cache for a given user, removing their transactions and timestamp.
+     * Marks the cached transactions of a user as stale in the shared cache.
      *
      * @param username The username whose cache is to be invalidated.
      */
     public static void invalidateCache(String username) {
-        transactionCache.remove(username);
-        cacheTimestamps.remove(username);
+        SHARED.invalidate(username);
+    }
+
+    /**
+     * Runs a load this thread registered, publishes its result to waiting threads and caches it
+     * if no write happened meanwhile.
+     */
+    private List<Transaction> runLoad(String username, Load load) {
+        try {
+            List<Transaction> loaded = loader.apply(username);
+            List<Transaction> transactions = Collections.unmodifiableList(loaded != null ? loaded : new ArrayList<>());
+            System.out.println("Transactions loaded for user " + username + ": " + transactions.size());
+            synchronized (entries) {
+                if (generationOf(username) == load.generation) {
+                    remove(username);
+                    entries.put(username, new Entry(transactions, load.generation, System.currentTimeMillis()));
+                    cachedTransactions += transactions.size();
+                    evictIfNeeded();
+                }
+            }
+            load.result.complete(transactions);
+            return transactions;
+        } catch (RuntimeException e) {
+            load.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(username, load);
+        }
+    }
+
+    private List<Transaction> getIfCurrent(String username, long generation) {
+        synchronized (entries) {
+            Entry entry = entries.get(username);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.generation != generation || System.currentTimeMillis() - entry.loadedAt >= maxAgeMillis) {
+                remove(username);
+                return null;
+            }
+            return entry.transactions;
+        }
+    }
+
+    private long generationOf(String username) {
+        AtomicLong generation = generations.get(username);
+        return globalGeneration.get() + (generation == null ? 0 : generation.get());
+    }
+
+    /** Removes the entry of a user. Must be called holding {@link #entries}. */
+    private void remove(String username) {
+        Entry removed = entries.remove(username);
+        if (removed != null) {
+            cachedTransactions -= removed.transactions.size();
+        }
+    }
+
+    /** Evicts least recently used entries over the size limit. Must be called holding {@link #entries}. */
+    private void evictIfNeeded() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        // The newest entry is kept even if it alone exceeds the limit
+        while (cachedTransactions > maxTransactions && entries.size() > 1) {
+            cachedTransactions -= eldest.next().transactions.size();
+            eldest.remove();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package Model;
+
+import java.util.function.Function;
+
+/**
+ * Text fields of a transaction that statistics can be grouped or filtered by, named as the bill
+ * statistics panel names them ("category", "payment_method", ...).
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public enum TransactionField {
+    CATEGORY("category", Transaction::getCategory),
+    TYPE("type", Transaction::getType),
+    PAYMENT_METHOD("payment_method", Transaction::getPaymentMethod),
+    LOCATION("location", Transaction::getLocation),
+    MERCHANT("merchant", Transaction::getMerchant),
+    TAG("tag", Transaction::getTag),
+    RECURRENCE("recurrence", Transaction::getRecurrence);
+
+    /** Key of transactions whose field is empty. */
+    public static final String UNCLASSIFIED = "Unclassified";
+
+    private final String fieldName;
+    private final Function<Transaction, String> getter;
+
+    TransactionField(String fieldName, Function<Transaction, String> getter) {
+        this.fieldName = fieldName;
+        this.getter = getter;
+    }
+
+    /**
+     * Looks up a field by the name the statistics panel uses for it.
+     *
+     * @param fieldName The name, such as "category" or "payment_method".
+     * @return The field, or {@code null} if there is none with that name.
+     */
+    public static TransactionField forName(String fieldName) {
+        for (TransactionField field : values()) {
+            if (field.fieldName.equals(fieldName)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name the statistics panel uses for the field.
+     *
+     * @return The name.
+     */
+    public String fieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Returns the value a transaction is grouped under: the trimmed field, or
+     * {@link #UNCLASSIFIED} if it is empty.
+     *
+     * @param transaction The transaction.
+     * @return The group key.
+     */
+    public String keyOf(Transaction transaction) {
+        String value = getter.apply(transaction);
+        if (value == null) {
+            return UNCLASSIFIED;
+        }
+        value = value.trim();
+        return value.isEmpty() ? UNCLASSIFIED : value;
+    }
+}
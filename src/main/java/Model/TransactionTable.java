@@ -0,0 +1,385 @@
+package Model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import utils.Money;
+import utils.TimestampCodec;
+
+/**
+ * Column-oriented copy of a list of transactions for analytics. Amounts (in cents), timestamps,
+ * days and months are held in primitive arrays, and the text columns used for grouping are
+ * dictionary encoded into {@code short} codes, so aggregations run as tight loops over arrays
+ * instead of following a reference per transaction and comparing strings. Sums are accumulated as
+ * whole cents and only converted to yuan when returned, so they are exact.
+ * <p>
+ * Kernels select rows with a mask over the codes of the operation column (see
+ * {@link #codesMatching(Column, Predicate)}) and a range of epoch minutes. Rows keep the order of the
+ * list the table was built from. A table is immutable once built.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class TransactionTable {
+    /** Month index of rows whose timestamp is invalid; never inside a requested range. */
+    private static final int NO_MONTH = Integer.MIN_VALUE;
+
+    /**
+     * Text columns that are dictionary encoded.
+     */
+    public enum Column {
+        OPERATION(Transaction::getOperation),
+        TYPE(Transaction::getType),
+        CATEGORY(Transaction::getCategory),
+        PAYMENT_METHOD(Transaction::getPaymentMethod),
+        LOCATION(Transaction::getLocation);
+
+        private final Function<Transaction, String> getter;
+
+        Column(Function<Transaction, String> getter) {
+            this.getter = getter;
+        }
+    }
+
+    /** Number of rows. */
+    private final int size;
+
+    /** Amount of each row, in cents. */
+    private final long[] amounts;
+
+    /** Epoch minute of each row, or {@link TimestampCodec#INVALID}. */
+    private final long[] minutes;
+
+    /** Epoch day of each row, or {@link Integer#MIN_VALUE} if the timestamp is invalid. */
+    private final int[] days;
+
+    /** Month of each row as {@code year * 12 + month - 1}, or {@link #NO_MONTH}. */
+    private final int[] months;
+
+    /** Code of each row in each encoded column, indexed by {@link Column#ordinal()}. */
+    private final short[][] codes;
+
+    /** Distinct values of each encoded column, indexed by code. */
+    private final String[][] values;
+
+    private TransactionTable(int size, long[] amounts, long[] minutes, int[] days, int[] months,
+                             short[][] codes, String[][] values) {
+        this.size = size;
+        this.amounts = amounts;
+        this.minutes = minutes;
+        this.days = days;
+        this.months = months;
+        this.codes = codes;
+        this.values = values;
+    }
+
+    /**
+     * Builds a table from a list of transactions. {@code null} entries are skipped.
+     *
+     * @param transactions The transactions; may be {@code null}.
+     * @return The table.
+     * @throws IllegalStateException If a column has more distinct values than a short code can hold.
+     */
+    public static TransactionTable of(List<Transaction> transactions) {
+        List<Transaction> rows = new ArrayList<>(transactions == null ? 0 : transactions.size());
+        if (transactions != null) {
+            for (Transaction tx : transactions) {
+                if (tx != null) rows.add(tx);
+            }
+        }
+        int size = rows.size();
+        long[] amounts = new long[size];
+        long[] minutes = new long[size];
+        int[] days = new int[size];
+        int[] months = new int[size];
+        Column[] columns = Column.values();
+        short[][] codes = new short[columns.length][size];
+        List<Map<String, Short>> dictionaries = new ArrayList<>();
+        List<List<String>> values = new ArrayList<>();
+        for (int c = 0; c < columns.length; c++) {
+            dictionaries.add(new HashMap<>());
+            values.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < size; i++) {
+            Transaction tx = rows.get(i);
+            amounts[i] = tx.getAmountCents();
+            long minute = tx.getEpochMinute();
+            minutes[i] = minute;
+            if (minute == TimestampCodec.INVALID) {
+                days[i] = Integer.MIN_VALUE;
+                months[i] = NO_MONTH;
+            } else {
+                days[i] = (int) Math.floorDiv(minute, TimestampCodec.MINUTES_PER_DAY);
+                months[i] = TimestampCodec.monthIndex(minute);
+            }
+            for (int c = 0; c < columns.length; c++) {
+                String value = columns[c].getter.apply(tx);
+                Map<String, Short> dictionary = dictionaries.get(c);
+                Short code = dictionary.get(value);
+                if (code == null) {
+                    List<String> distinct = values.get(c);
+                    if (distinct.size() > Short.MAX_VALUE) {
+                        throw new IllegalStateException("Too many distinct values in column " + columns[c]);
+                    }
+                    code = (short) distinct.size();
+                    distinct.add(value);
+                    dictionary.put(value, code);
+                }
+                codes[c][i] = code;
+            }
+        }
+
+        String[][] valueArrays = new String[columns.length][];
+        for (int c = 0; c < columns.length; c++) {
+            valueArrays[c] = values.get(c).toArray(new String[0]);
+        }
+        return new TransactionTable(size, amounts, minutes, days, months, codes, valueArrays);
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return The row count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the amount of a row.
+     *
+     * @param row The row index.
+     * @return The amount.
+     */
+    public double amount(int row) {
+        return Money.toDouble(amounts[row]);
+    }
+
+    /**
+     * Returns the amount of a row in cents.
+     *
+     * @param row The row index.
+     * @return The amount in cents.
+     */
+    public long amountCents(int row) {
+        return amounts[row];
+    }
+
+    /**
+     * Returns the epoch minute of a row.
+     *
+     * @param row The row index.
+     * @return The epoch minute, or {@link TimestampCodec#INVALID}.
+     */
+    public long epochMinute(int row) {
+        return minutes[row];
+    }
+
+    /**
+     * Returns the epoch day of a row.
+     *
+     * @param row The row index.
+     * @return The days since 1970/01/01, or {@link Integer#MIN_VALUE} if the timestamp is invalid.
+     */
+    public int epochDay(int row) {
+        return days[row];
+    }
+
+    /**
+     * Returns the value of an encoded column in a row.
+     *
+     * @param column The column.
+     * @param row    The row index.
+     * @return The value, possibly {@code null}.
+     */
+    public String value(Column column, int row) {
+        return values[column.ordinal()][codes[column.ordinal()][row]];
+    }
+
+    /**
+     * Returns the distinct values of an encoded column, indexed by code.
+     *
+     * @param column The column.
+     * @return A copy of the values.
+     */
+    public String[] values(Column column) {
+        return values[column.ordinal()].clone();
+    }
+
+    /**
+     * Builds a mask over the codes of a column selecting the values that satisfy a predicate.
+     * {@code null} values are never selected.
+     *
+     * @param column    The column.
+     * @param predicate The test applied to each distinct value.
+     * @return A mask indexed by code.
+     */
+    public boolean[] codesMatching(Column column, Predicate<String> predicate) {
+        String[] distinct = values[column.ordinal()];
+        boolean[] mask = new boolean[distinct.length];
+        for (int code = 0; code < distinct.length; code++) {
+            mask[code] = distinct[code] != null && predicate.test(distinct[code]);
+        }
+        return mask;
+    }
+
+    /**
+     * Sums the amounts of the selected rows, whatever their timestamp.
+     *
+     * @param operations A mask over the codes of {@link Column#OPERATION}.
+     * @return The sum.
+     */
+    public double sum(boolean[] operations) {
+        short[] ops = codes[Column.OPERATION.ordinal()];
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            if (operations[ops[i]]) {
+                total += amounts[i];
+            }
+        }
+        return Money.toDouble(total);
+    }
+
+    /**
+     * Sums the amounts of the selected rows within a range of epoch minutes.
+     *
+     * @param operations A mask over the codes of {@link Column#OPERATION}.
+     * @param fromMinute The first minute of the range, inclusive.
+     * @param toMinute   The last minute of the range, inclusive.
+     * @return The sum.
+     */
+    public double sum(boolean[] operations, long fromMinute, long toMinute) {
+        short[] ops = codes[Column.OPERATION.ordinal()];
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            long minute = minutes[i];
+            if (operations[ops[i]] && minute >= fromMinute && minute <= toMinute && minute != TimestampCodec.INVALID) {
+                total += amounts[i];
+            }
+        }
+        return Money.toDouble(total);
+    }
+
+    /**
+     * Sums the amounts of the selected rows of every month of a year.
+     *
+     * @param operations A mask over the codes of {@link Column#OPERATION}.
+     * @param year       The year.
+     * @return Twelve sums, January first.
+     */
+    public double[] sumByMonth(boolean[] operations, int year) {
+        short[] ops = codes[Column.OPERATION.ordinal()];
+        long[] totals = new long[12];
+        int first = year * 12;
+        for (int i = 0; i < size; i++) {
+            int month = months[i] - first;
+            if (operations[ops[i]] && month >= 0 && month < 12) {
+                totals[month] += amounts[i];
+            }
+        }
+        return toDoubles(totals);
+    }
+
+    /**
+     * Sums the amounts of the selected rows within a range of epoch minutes, grouped by the code of a column.
+     *
+     * @param column     The column to group by.
+     * @param operations A mask over the codes of {@link Column#OPERATION}.
+     * @param fromMinute The first minute of the range, inclusive.
+     * @param toMinute   The last minute of the range, inclusive.
+     * @return The sums, indexed by code.
+     */
+    public double[] sumByCode(Column column, boolean[] operations, long fromMinute, long toMinute) {
+        short[] ops = codes[Column.OPERATION.ordinal()];
+        short[] keys = codes[column.ordinal()];
+        long[] totals = new long[values[column.ordinal()].length];
+        for (int i = 0; i < size; i++) {
+            long minute = minutes[i];
+            if (operations[ops[i]] && minute >= fromMinute && minute <= toMinute && minute != TimestampCodec.INVALID) {
+                totals[keys[i]] += amounts[i];
+            }
+        }
+        return toDoubles(totals);
+    }
+
+    /**
+     * Counts the selected rows within a range of epoch minutes, grouped by the code of a column.
+     *
+     * @param column     The column to group by.
+     * @param operations A mask over the codes of {@link Column#OPERATION}.
+     * @param fromMinute The first minute of the range, inclusive.
+     * @param toMinute   The last minute of the range, inclusive.
+     * @return The counts, indexed by code.
+     */
+    public int[] countByCode(Column column, boolean[] operations, long fromMinute, long toMinute) {
+        short[] ops = codes[Column.OPERATION.ordinal()];
+        short[] keys = codes[column.ordinal()];
+        int[] counts = new int[values[column.ordinal()].length];
+        for (int i = 0; i < size; i++) {
+            long minute = minutes[i];
+            if (operations[ops[i]] && minute >= fromMinute && minute <= toMinute && minute != TimestampCodec.INVALID) {
+                counts[keys[i]]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the selected rows within a range of epoch minutes whose absolute amount exceeds a threshold.
+     * A threshold of {@link Double#NEGATIVE_INFINITY} counts every selected row.
+     *
+     * @param operations A mask over the codes of {@link Column#OPERATION}.
+     * @param fromMinute The first minute of the range, inclusive.
+     * @param toMinute   The last minute of the range, inclusive.
+     * @param threshold  The amount in yuan a row must exceed.
+     * @return The number of rows.
+     */
+    public int countOver(boolean[] operations, long fromMinute, long toMinute, double threshold) {
+        short[] ops = codes[Column.OPERATION.ordinal()];
+        // Compare in cents, rounding the threshold the same way amounts were rounded when parsed
+        long limit = threshold == Double.NEGATIVE_INFINITY ? -1 : Money.toCents(threshold);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            long minute = minutes[i];
+            if (operations[ops[i]] && minute >= fromMinute && minute <= toMinute && minute != TimestampCodec.INVALID
+                    && Math.abs(amounts[i]) > limit) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the first selected row within a range of epoch minutes with the largest amount.
+     *
+     * @param operations A mask over the codes of {@link Column#OPERATION}.
+     * @param fromMinute The first minute of the range, inclusive.
+     * @param toMinute   The last minute of the range, inclusive.
+     * @return The row index, or -1 if no row is selected.
+     */
+    public int maxRow(boolean[] operations, long fromMinute, long toMinute) {
+        short[] ops = codes[Column.OPERATION.ordinal()];
+        int best = -1;
+        for (int i = 0; i < size; i++) {
+            long minute = minutes[i];
+            if (operations[ops[i]] && minute >= fromMinute && minute <= toMinute && minute != TimestampCodec.INVALID
+                    && (best < 0 || amounts[i] > amounts[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static double[] toDoubles(long[] cents) {
+        double[] amounts = new double[cents.length];
+        for (int i = 0; i < cents.length; i++) {
+            amounts[i] = Money.toDouble(cents[i]);
+        }
+        return amounts;
+    }
+}
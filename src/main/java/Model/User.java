@@ -4,6 +4,9 @@ package Model;
 import java.util.ArrayList;
 import java.util.List;
 
+import utils.CsvCodec;
+import utils.Money;
+
 /**
  * Represents a user in the Smart Finance Application.
  * This class encapsulates user account details, including personal information, account status,
@@ -51,8 +54,8 @@ public class User {
     /** The type of the user account (e.g., "Admin", "User"). */
     private String accountType;
 
-    /** The current balance of the user account. */
-    private double balance;
+    /** The current balance of the user account, in cents. */
+    private long balanceCents;
 
     /** The list of transactions associated with the user. */
     private List<Transaction> transactions;
@@ -89,7 +92,7 @@ public class User {
         this.creationTime = creationTime;
         this.accountStatus = accountStatus;
         this.accountType = accountType;
-        this.balance = balance;
+        this.balanceCents = Money.toCents(balance);
         this.transactions = new ArrayList<>();
     }
 
@@ -108,9 +111,9 @@ public class User {
      * @return A CSV string containing the user's details.
      */
     public String toCSV() {
-        return "%s,%s,%s,%s,%s,%s,%s,%s,%s,%.2f".formatted(
+        return CsvCodec.joinRow(
                 username, password, phone, email, gender, address, creationTime,
-                accountStatus, accountType, balance);
+                String.valueOf(accountStatus), accountType, Money.format(balanceCents));
     }
 
     /**
@@ -121,22 +124,24 @@ public class User {
      * @throws IllegalArgumentException if the CSV line is invalid or has insufficient fields.
      */
     public static User fromCSV(String csvLine) {
-        String[] parts = csvLine.split(",", -1);
-        if (parts.length >= 10) {
+        CsvCodec codec = new CsvCodec();
+        if (codec.parse(csvLine) >= 10) {
             try {
-                String username = parts[0].trim();
-                String password = parts[1].trim();
-                String phone = parts[2].trim();
-                String email = parts[3].trim();
-                String gender = parts[4].trim();
-                String address = parts[5].trim();
-                String creationTime = parts[6].trim();
-                AccountStatus status = AccountStatus.valueOf(parts[7].trim());
-                String accountType = parts[8].trim();
-                double balance = Double.parseDouble(parts[9].trim());
-
-                return new User(username, password, phone, email, gender, address,
-                        creationTime, status, accountType, balance);
+                String username = codec.trimmed(0);
+                String password = codec.trimmed(1);
+                String phone = codec.trimmed(2);
+                String email = codec.trimmed(3);
+                String gender = codec.trimmed(4);
+                String address = codec.trimmed(5);
+                String creationTime = codec.trimmed(6);
+                AccountStatus status = AccountStatus.valueOf(codec.trimmed(7));
+                String accountType = codec.trimmed(8);
+                long balanceCents = Money.parseCents(codec.field(9));
+
+                User user = new User(username, password, phone, email, gender, address,
+                        creationTime, status, accountType, 0);
+                user.setBalanceCents(balanceCents);
+                return user;
             } catch (Exception e) {
                 throw new IllegalArgumentException("Invalid CSV line: " + csvLine, e);
             }
@@ -275,14 +280,28 @@ public class User {
      *
      * @return The account balance.
      */
-    public double getBalance() { return balance; }
+    public double getBalance() { return Money.toDouble(balanceCents); }
 
     /**
      * Sets the current balance of the user account.
      *
      * @param balance The account balance to set.
      */
-    public void setBalance(double balance) { this.balance = balance; }
+    public void setBalance(double balance) { this.balanceCents = Money.toCents(balance); }
+
+    /**
+     * Gets the current balance of the user account in cents.
+     *
+     * @return The account balance in cents.
+     */
+    public long getBalanceCents() { return balanceCents; }
+
+    /**
+     * Sets the current balance of the user account in cents.
+     *
+     * @param balanceCents The account balance to set, in cents.
+     */
+    public void setBalanceCents(long balanceCents) { this.balanceCents = balanceCents; }
 
     /**
      * Gets the list of transactions associated with the user.
@@ -0,0 +1,494 @@
+package Repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import Model.User;
+import utils.AtomicFiles;
+import utils.CommitBatcher;
+import utils.CsvCodec;
+import utils.Money;
+
+/**
+ * Process-wide hash index over an accounts CSV file, shared by every {@link AccountRepository}
+ * reading the same file. The file is parsed once into a username-keyed map that also remembers the
+ * byte position of each balance. Balances are written zero-padded to a fixed width, so a balance
+ * update overwrites those bytes in place with a positional {@link FileChannel} write instead of
+ * rewriting the file. Rows still holding an unpadded balance are padded by the first update that
+ * cannot be done in place. Balance updates take effect in the index at once and are written by a
+ * {@link CommitBatcher}, so a burst of updates costs one write and one fsync; each update returns
+ * a future of the commit that writes it. Whole-file rewrites go through {@link AtomicFiles}, so a
+ * crash never leaves a truncated accounts file. Changes made to the file by anyone else are
+ * detected through its length and modification time; the file is then re-read and balance updates
+ * not yet written are applied again on top of it.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class AccountIndex {
+    /** Shared indexes, keyed by the absolute path of the accounts file. */
+    private static final Map<String, AccountIndex> INDEXES = new ConcurrentHashMap<>();
+
+    /** Number of characters a balance is padded to. */
+    static final int BALANCE_WIDTH = 16;
+
+    /** Column holding the balance. */
+    private static final int BALANCE_FIELD = 9;
+
+    /** How long balance updates are collected before they are written. */
+    private static final long BALANCE_COMMIT_DELAY_MILLIS = 100;
+
+    /** The accounts file. */
+    private final File file;
+
+    /** A read-write lock guarding the index and writes to the file. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Every account row, in file order. */
+    private final List<Entry> rows = new ArrayList<>();
+
+    /** The first row of each username. */
+    private final Map<String, Entry> byUsername = new HashMap<>();
+
+    /** Rows whose balance changed in the index and has not been written yet. */
+    private final Set<Entry> dirtyBalances = new LinkedHashSet<>();
+
+    /** Writes {@link #dirtyBalances} in batches. */
+    private final CommitBatcher balanceCommits;
+
+    /** Tokenizer for account rows, used with the write lock held. */
+    private final CsvCodec codec = new CsvCodec();
+
+    /** Whether the file has been read since the index was last cleared. */
+    private boolean loaded;
+
+    /** Header line of the file as last read, used when the file has to be rewritten. */
+    private String header = AccountRepository.EXPECTED_ACCOUNT_HEADER;
+
+    /** File length observed when the index was last synchronized. */
+    private long loadedLength = -1;
+
+    /** File modification time observed when the index was last synchronized. */
+    private long loadedModified = -1;
+
+    /**
+     * An account row together with the position of its balance.
+     */
+    private static final class Entry {
+        final User user;
+        final long balanceOffset;
+        final int balanceWidth;
+
+        Entry(User user, long balanceOffset, int balanceWidth) {
+            this.user = user;
+            this.balanceOffset = balanceOffset;
+            this.balanceWidth = balanceWidth;
+        }
+    }
+
+    private AccountIndex(File file) {
+        this.file = file;
+        this.balanceCommits = new CommitBatcher(file.getName() + " balances", BALANCE_COMMIT_DELAY_MILLIS, this::writeDirtyBalances);
+    }
+
+    /**
+     * Returns the shared index for the given accounts file, creating it on first use.
+     *
+     * @param path The path to the accounts CSV file.
+     * @return The index of that file.
+     */
+    static AccountIndex forFile(String path) {
+        File file = new File(path).getAbsoluteFile();
+        return INDEXES.computeIfAbsent(file.getPath(), key -> new AccountIndex(file));
+    }
+
+    /**
+     * Looks up an account by username.
+     *
+     * @param username The username.
+     * @return A copy of the account, or {@code null} if there is none.
+     * @throws IOException If the file cannot be read.
+     */
+    User find(String username) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (loaded && isUnchangedOnDisk()) {
+                return copyOf(byUsername.get(username));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            return copyOf(byUsername.get(username));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns every account in file order.
+     *
+     * @return Copies of the accounts.
+     * @throws IOException If the file cannot be read.
+     */
+    List<User> all() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (loaded && isUnchangedOnDisk()) {
+                return copiesOfRows();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            return copiesOfRows();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends accounts to the file and indexes them. If the file had changed on disk, it is
+     * re-read and balance updates not yet written are applied again on top of it.
+     *
+     * @param users The accounts to append.
+     * @throws IOException If the file cannot be written.
+     */
+    void append(List<User> users) throws IOException {
+        lock.writeLock().lock();
+        try {
+            boolean inSync = loaded && isUnchangedOnDisk();
+            StringBuilder text = new StringBuilder();
+            List<Entry> appended = entriesOf(users, file.length(), text);
+            try (OutputStream out = new FileOutputStream(file, true)) {
+                out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (inSync) {
+                for (Entry entry : appended) {
+                    add(entry);
+                }
+                rememberFileState();
+            } else if (dirtyBalances.isEmpty()) {
+                clear();
+            } else {
+                synchronizeWithDisk();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the content of the file with a header and the given accounts. The index is rebuilt
+     * from the accounts written, so the next lookup does not have to read the file again.
+     *
+     * @param header The header line.
+     * @param users  The accounts to write.
+     * @throws IOException If the file cannot be written.
+     */
+    void rewrite(String header, List<User> users) throws IOException {
+        StringBuilder text = new StringBuilder(header).append(System.lineSeparator());
+        List<Entry> written = entriesOf(users, text.toString().getBytes(StandardCharsets.UTF_8).length, text);
+        byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            clear();
+            AtomicFiles.write(file.toPath(), content);
+            this.header = header;
+            for (Entry entry : written) {
+                add(entry);
+            }
+            loaded = true;
+            rememberFileState();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the balance of the first account with the given username. The balance is overwritten
+     * in place by the next batched commit when it fits the width already on disk; otherwise the
+     * file is rewritten at once with every balance padded to {@link #BALANCE_WIDTH}.
+     *
+     * @param username The username.
+     * @param balanceCents The new balance, in cents.
+     * @return A future of {@code false} if the account does not exist, or of {@code true} once the
+     *         balance has been written; it fails with the {@link IOException} of a failed write.
+     * @throws IOException If the file cannot be read or rewritten.
+     */
+    CompletableFuture<Boolean> updateBalance(String username, long balanceCents) throws IOException {
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            Entry entry = byUsername.get(username);
+            if (entry == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            entry.user.setBalanceCents(balanceCents);
+            if (fits(entry)) {
+                dirtyBalances.add(entry);
+                return balanceCommits.request().thenApply(written -> true);
+            }
+            rewriteFromIndex();
+            return CompletableFuture.completedFuture(true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the balance updates collected so far, waiting for them to reach the storage device.
+     */
+    void flush() {
+        balanceCommits.flush();
+    }
+
+    /**
+     * Overwrites the balances of {@link #dirtyBalances} in place through one channel and forces
+     * them once. If the file changed on disk it is re-read first and the balances are applied to
+     * it. If the write fails the unwritten balances are dropped, so the index goes back to what the
+     * file holds. Run by {@link #balanceCommits}.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeDirtyBalances() throws IOException {
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            if (dirtyBalances.isEmpty()) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                for (Entry entry : dirtyBalances) {
+                    String text = Money.format(entry.user.getBalanceCents(), entry.balanceWidth);
+                    ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes, entry.balanceOffset + bytes.position());
+                    }
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                clear();
+                throw e;
+            }
+            dirtyBalances.clear();
+            rememberFileState();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reloads the file if it changed since it was last read, then applies the balance updates that
+     * had not been written yet to the accounts read. Must be called with the write lock held.
+     */
+    private void synchronizeWithDisk() throws IOException {
+        if (loaded && isUnchangedOnDisk()) {
+            return;
+        }
+        Map<String, Long> unwritten = new LinkedHashMap<>();
+        for (Entry entry : dirtyBalances) {
+            unwritten.put(entry.user.getUsername(), entry.user.getBalanceCents());
+        }
+        clear();
+        rememberFileState();
+        byte[] content = Files.readAllBytes(file.toPath());
+        int position = 0;
+        boolean header = true;
+        while (position < content.length) {
+            int end = position;
+            while (end < content.length && content[end] != '\n') end++;
+            int next = end + 1;
+            if (end > position && content[end - 1] == '\r') end--;
+            if (header) {
+                header = false;
+                this.header = new String(content, position, end - position, StandardCharsets.UTF_8);
+            } else {
+                Entry entry = parse(content, position, end);
+                if (entry != null) {
+                    add(entry);
+                }
+            }
+            position = next;
+        }
+        loaded = true;
+        if (!unwritten.isEmpty()) {
+            reapply(unwritten);
+        }
+    }
+
+    /**
+     * Applies balance updates that were not written before the file was re-read. They are
+     * queued for the next batched commit, or written at once by a rewrite if one no longer fits
+     * the width on disk. Must be called with the write lock held.
+     *
+     * @param balances The new balances in cents, by username.
+     * @throws IOException If the file has to be rewritten and cannot be.
+     */
+    private void reapply(Map<String, Long> balances) throws IOException {
+        boolean rewrite = false;
+        for (Map.Entry<String, Long> balance : balances.entrySet()) {
+            Entry entry = byUsername.get(balance.getKey());
+            if (entry == null) {
+                System.err.println("Dropping balance update of " + balance.getKey() + ": account no longer in " + file.getName());
+                continue;
+            }
+            entry.user.setBalanceCents(balance.getValue());
+            if (fits(entry)) {
+                dirtyBalances.add(entry);
+            } else {
+                rewrite = true;
+            }
+        }
+        if (rewrite) {
+            rewriteFromIndex();
+        } else if (!dirtyBalances.isEmpty()) {
+            balanceCommits.request();
+        }
+    }
+
+    /**
+     * Checks whether the balance of an entry can be overwritten in place.
+     */
+    private static boolean fits(Entry entry) {
+        return Money.format(entry.user.getBalanceCents(), entry.balanceWidth).length() == entry.balanceWidth;
+    }
+
+    /**
+     * Rewrites the file from the index, padding every balance. Must be called with the write lock held.
+     */
+    private void rewriteFromIndex() throws IOException {
+        List<User> users = new ArrayList<>(rows.size());
+        for (Entry row : rows) {
+            users.add(row.user);
+        }
+        rewrite(header, users);
+    }
+
+    /**
+     * Parses one account row, remembering where its balance is.
+     *
+     * @return The entry, or {@code null} if the row is malformed.
+     */
+    private Entry parse(byte[] content, int start, int end) {
+        String line = new String(content, start, end - start, StandardCharsets.UTF_8);
+        if (codec.parse(line) <= BALANCE_FIELD) {
+            return null;
+        }
+        int balanceStart = codec.rawStart(BALANCE_FIELD);
+        long balanceOffset = start + line.substring(0, balanceStart).getBytes(StandardCharsets.UTF_8).length;
+        try {
+            User user = new User(
+                    codec.trimmed(0), codec.trimmed(1), codec.trimmed(2), codec.trimmed(3),
+                    codec.trimmed(4), codec.trimmed(5), codec.trimmed(6),
+                    User.AccountStatus.valueOf(codec.trimmed(7)), codec.trimmed(8), 0
+            );
+            user.setBalanceCents(Money.parseCents(codec.field(BALANCE_FIELD)));
+            return new Entry(user, balanceOffset, codec.rawEnd(BALANCE_FIELD) - balanceStart);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Skipping account (parse error): " + codec.fieldString(0) + " | Error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Formats accounts as rows appended to a builder and creates their index entries.
+     *
+     * @param users  The accounts.
+     * @param offset The byte offset in the file of the first row.
+     * @param text   The builder receiving the rows, each followed by a line separator.
+     * @return The entries of the rows, holding copies of the accounts.
+     */
+    private static List<Entry> entriesOf(List<User> users, long offset, StringBuilder text) {
+        List<Entry> entries = new ArrayList<>(users.size());
+        for (User user : users) {
+            String row = rowOf(user);
+            String prefix = row.substring(0, row.lastIndexOf(',') + 1);
+            entries.add(new Entry(copyOf(user), offset + prefix.getBytes(StandardCharsets.UTF_8).length,
+                    row.length() - prefix.length()));
+            text.append(row).append(System.lineSeparator());
+            offset += (row + System.lineSeparator()).getBytes(StandardCharsets.UTF_8).length;
+        }
+        return entries;
+    }
+
+    private List<User> copiesOfRows() {
+        List<User> users = new ArrayList<>(rows.size());
+        for (Entry entry : rows) {
+            users.add(copyOf(entry));
+        }
+        return users;
+    }
+
+    private void add(Entry entry) {
+        rows.add(entry);
+        byUsername.putIfAbsent(entry.user.getUsername(), entry);
+    }
+
+    /**
+     * Forgets the index, including balance updates not written yet; use {@link #synchronizeWithDisk()}
+     * to re-read the file while keeping them.
+     */
+    private void clear() {
+        rows.clear();
+        byUsername.clear();
+        dirtyBalances.clear();
+        loaded = false;
+        loadedLength = -1;
+        loadedModified = -1;
+    }
+
+    private boolean isUnchangedOnDisk() {
+        return file.length() == loadedLength && file.lastModified() == loadedModified;
+    }
+
+    private void rememberFileState() {
+        loadedLength = file.length();
+        loadedModified = file.lastModified();
+    }
+
+    /**
+     * Formats an account as a CSV row with its balance padded to {@link #BALANCE_WIDTH}.
+     */
+    private static String rowOf(User user) {
+        return CsvCodec.joinRow(
+                user.getUsername(), user.getPassword(), user.getPhone(), user.getEmail(),
+                user.getGender(), user.getAddress(), user.getCreationTime(),
+                String.valueOf(user.getAccountStatus()), user.getAccountType(),
+                Money.format(user.getBalanceCents(), BALANCE_WIDTH));
+    }
+
+    private static User copyOf(Entry entry) {
+        return entry == null ? null : copyOf(entry.user);
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User(user.getUsername(), user.getPassword(), user.getPhone(), user.getEmail(),
+                user.getGender(), user.getAddress(), user.getCreationTime(), user.getAccountStatus(),
+                user.getAccountType(), 0);
+        copy.setBalanceCents(user.getBalanceCents());
+        return copy;
+    }
+}
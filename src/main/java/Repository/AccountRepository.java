@@ -1,23 +1,23 @@
 package Repository;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletableFuture;
 
 import Model.User;
+import utils.Money;
 
 /**
  * Repository class for managing user accounts in the Smart Finance Application.
- * This class provides methods to read, save, and query user data stored in a CSV file,
- * ensuring thread-safe operations using a read-write lock.
+ * This class provides methods to read, save, and query user data stored in a CSV file.
+ * Reads and writes go through the {@link AccountIndex} shared by every repository of the same
+ * file, which serves lookups from a hash index and updates balances in place. The index acts as a
+ * read-through cache: it is only re-read when the file's length or modification time shows that
+ * someone else changed it, its own writes update it directly, and every account it returns is a
+ * private copy, so callers on different threads never share state.
  *
  * @author Group 19
  * @version 1.0
@@ -26,9 +26,6 @@ public class AccountRepository {
     /** The file path for the CSV file storing user account data. */
     private final String accountsFilePath;
 
-    /** A read-write lock for thread-safe access to the CSV file. */
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
-
     /** The expected header for the accounts CSV file. */
     public static final String EXPECTED_ACCOUNT_HEADER = "username,password,phone,email,gender,address,creationTime,accountStatus,accountType,balance";
 
@@ -53,17 +50,18 @@ public class AccountRepository {
     }
 
     /**
-     * Finds a user by their username.
+     * Finds a user by their username through the shared hash index of the accounts file.
      *
      * @param username The username to search for.
      * @return The {@link User} object with the specified username, or null if not found.
      */
     public User findByUsername(String username) {
-        List<User> users = readFromCSV();
-        return users.stream()
-                .filter(user -> user.getUsername().equals(username))
-                .findFirst()
-                .orElse(null);
+        try {
+            return AccountIndex.forFile(accountsFilePath).find(username);
+        } catch (IOException e) {
+            System.err.println("Error reading " + accountsFilePath + ": " + e.getMessage());
+            return null;
+        }
     }
 
     /**
@@ -83,60 +81,64 @@ public class AccountRepository {
      * @return A list of {@link User} objects, or an empty list if an error occurs.
      */
     public List<User> readFromCSV() {
-        List<User> users = new ArrayList<>();
-        lock.readLock().lock();
-        try (BufferedReader br = new BufferedReader(new FileReader(accountsFilePath))) {
-            String line;
-            boolean firstLine = true;
-            while ((line = br.readLine()) != null) {
-                if (firstLine) {
-                    firstLine = false;
-                    continue;
-                }
-                String[] parts = line.split(",", -1);
-                if (parts.length >= 10) {
-                    User user = new User(
-                            parts[0].trim(), parts[1].trim(), parts[2].trim(), parts[3].trim(),
-                            parts[4].trim(), parts[5].trim(), parts[6].trim(),
-                            User.AccountStatus.valueOf(parts[7].trim()), parts[8].trim(),
-                            Double.parseDouble(parts[9].trim())
-                    );
-                    users.add(user);
-                }
-            }
+        try {
+            return AccountIndex.forFile(accountsFilePath).all();
         } catch (IOException e) {
             System.err.println("Error reading " + accountsFilePath + ": " + e.getMessage());
             return Collections.emptyList();
-        } finally {
-            lock.readLock().unlock();
         }
-        return users;
     }
 
     /**
      * Updates the balance of a specific user in the accounts CSV.
-     * If the user is found, updates their balance to newBalance.
+     * If the user is found, updates their balance to newBalance. The balance is overwritten in
+     * place, so the cost does not grow with the number of accounts. The write is batched with
+     * other balance updates and not waited for; use {@link #updateBalanceCents(String, long)}
+     * when the caller needs to know the balance was saved.
      */
     public void updateBalance(String username, double newBalance) {
-        lock.writeLock().lock();
+        updateBalanceCentsAsync(username, Money.toCents(newBalance));
+    }
+
+    /**
+     * Updates the balance of a specific user in the accounts CSV to an amount in cents and waits
+     * for it to be written. Balance updates made by other threads meanwhile share the write.
+     *
+     * @param username        The username.
+     * @param newBalanceCents The new balance, in cents.
+     * @return {@code true} if the user exists and the balance was written, {@code false} otherwise.
+     */
+    public boolean updateBalanceCents(String username, long newBalanceCents) {
+        CompletableFuture<Boolean> update = updateBalanceCentsAsync(username, newBalanceCents);
+        AccountIndex.forFile(accountsFilePath).flush();
+        return update.join();
+    }
+
+    /**
+     * Updates the balance of a specific user in the accounts CSV to an amount in cents. The new
+     * balance is visible to lookups at once and written with the next batch of balance updates.
+     *
+     * @param username        The username.
+     * @param newBalanceCents The new balance, in cents.
+     * @return A future of {@code true} once the balance is written, or of {@code false} if the user
+     *         does not exist or the balance could not be written.
+     */
+    public CompletableFuture<Boolean> updateBalanceCentsAsync(String username, long newBalanceCents) {
         try {
-            List<User> users = readFromCSV();
-            boolean found = false;
-            for (User user : users) {
-                if (user.getUsername().equals(username)) {
-                    user.setBalance(newBalance);
-                    found = true;
-                    break;
-                }
-            }
-            if (found) {
-                // 覆盖写回所有用户
-                saveToCSV(users, false); // false: overwrite
-            } else {
-                System.out.println("User not found when updating balance: " + username);
-            }
-        } finally {
-            lock.writeLock().unlock();
+            return AccountIndex.forFile(accountsFilePath).updateBalance(username, newBalanceCents)
+                    .thenApply(found -> {
+                        if (!found) {
+                            System.out.println("User not found when updating balance: " + username);
+                        }
+                        return found;
+                    })
+                    .exceptionally(e -> {
+                        System.err.println("Error writing to " + accountsFilePath + ": " + e.getMessage());
+                        return false;
+                    });
+        } catch (IOException e) {
+            System.err.println("Error writing to " + accountsFilePath + ": " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
         }
     }
 
@@ -149,26 +151,16 @@ public class AccountRepository {
      * @return {@code true} if the save operation was successful, {@code false} otherwise.
      */
     public boolean saveToCSV(List<User> users, boolean append) {
-        lock.writeLock().lock();
-        try (FileWriter fw = new FileWriter(accountsFilePath, append);
-             BufferedWriter bw = new BufferedWriter(fw)) {
-            if (!append) {
-                bw.write(EXPECTED_ACCOUNT_HEADER);
-                bw.newLine();
-            }
-            for (User user : users) {
-                bw.write("%s,%s,%s,%s,%s,%s,%s,%s,%s,%.2f".formatted(
-                        user.getUsername(), user.getPassword(), user.getPhone(), user.getEmail(),
-                        user.getGender(), user.getAddress(), user.getCreationTime(),
-                        user.getAccountStatus(), user.getAccountType(), user.getBalance()));
-                bw.newLine();
+        try {
+            if (append) {
+                AccountIndex.forFile(accountsFilePath).append(users);
+            } else {
+                AccountIndex.forFile(accountsFilePath).rewrite(EXPECTED_ACCOUNT_HEADER, users);
             }
             return true;
         } catch (IOException e) {
             System.err.println("Error writing to " + accountsFilePath + ": " + e.getMessage());
             return false;
-        } finally {
-            lock.writeLock().unlock();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,180 @@
+package Repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import Model.Transaction;
+import Model.TransactionField;
+
+/**
+ * Secondary index of one text field, kept by {@link TransactionStore} for the users it has loaded.
+ * For each user it maps every value of the field to a posting list of that user's transactions
+ * with the value, sorted by timestamp, so grouping or filtering a time range by the field only
+ * visits the rows inside the range. A user's lists are built the first time they are asked for and
+ * then updated by every write. Not thread-safe; the store only touches it while holding its lock.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class FieldIndex {
+    /** The indexed field. */
+    private final TransactionField field;
+
+    /** Posting lists by group key, for each user whose lists have been built. */
+    private final Map<String, Map<String, List<Transaction>>> byUser = new HashMap<>();
+
+    /**
+     * Creates an empty index.
+     *
+     * @param field The field to index.
+     */
+    FieldIndex(TransactionField field) {
+        this.field = field;
+    }
+
+    /**
+     * Checks whether the posting lists of a user have been built.
+     *
+     * @param username The user.
+     * @return {@code true} if they have.
+     */
+    boolean covers(String username) {
+        return byUser.containsKey(username);
+    }
+
+    /**
+     * Builds the posting lists of a user.
+     *
+     * @param username     The user.
+     * @param transactions Every live transaction of the user, sorted by timestamp.
+     */
+    void build(String username, List<Transaction> transactions) {
+        Map<String, List<Transaction>> postings = new HashMap<>();
+        for (Transaction transaction : transactions) {
+            postings.computeIfAbsent(field.keyOf(transaction), k -> new ArrayList<>()).add(transaction);
+        }
+        byUser.put(username, postings);
+    }
+
+    /**
+     * Adds a new transaction to the lists of its user, if they have been built.
+     *
+     * @param transaction The transaction.
+     */
+    void add(Transaction transaction) {
+        Map<String, List<Transaction>> postings = byUser.get(transaction.getAccountUsername());
+        if (postings == null) {
+            return;
+        }
+        List<Transaction> list = postings.computeIfAbsent(field.keyOf(transaction), k -> new ArrayList<>());
+        list.add(upperBound(list, transaction.getEpochMinute()), transaction);
+    }
+
+    /**
+     * Removes a transaction from the lists of its user, if they have been built.
+     *
+     * @param transaction The transaction, compared by identity.
+     */
+    void remove(Transaction transaction) {
+        Map<String, List<Transaction>> postings = byUser.get(transaction.getAccountUsername());
+        if (postings == null) {
+            return;
+        }
+        String key = field.keyOf(transaction);
+        List<Transaction> list = postings.get(key);
+        if (list == null) {
+            return;
+        }
+        for (int i = lowerBound(list, transaction.getEpochMinute()); i < list.size(); i++) {
+            if (list.get(i) == transaction) {
+                list.remove(i);
+                break;
+            }
+            if (list.get(i).getEpochMinute() != transaction.getEpochMinute()) {
+                break;
+            }
+        }
+        if (list.isEmpty()) {
+            postings.remove(key);
+        }
+    }
+
+    /**
+     * Groups the transactions of a user within a time range by the field.
+     *
+     * @param username   The user, whose lists must have been built.
+     * @param fromMinute The start of the range in epoch minutes, inclusive.
+     * @param toMinute   The end of the range in epoch minutes, inclusive.
+     * @return New lists of the transactions in range by group key, sorted by timestamp; keys with none are left out.
+     */
+    Map<String, List<Transaction>> group(String username, long fromMinute, long toMinute) {
+        Map<String, List<Transaction>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Transaction>> entry : byUser.get(username).entrySet()) {
+            List<Transaction> inRange = slice(entry.getValue(), fromMinute, toMinute);
+            if (!inRange.isEmpty()) {
+                groups.put(entry.getKey(), inRange);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the transactions of a user within a time range that have a given group key.
+     *
+     * @param username   The user, whose lists must have been built.
+     * @param key        The group key.
+     * @param fromMinute The start of the range in epoch minutes, inclusive.
+     * @param toMinute   The end of the range in epoch minutes, inclusive.
+     * @return A new list of the matching transactions, sorted by timestamp.
+     */
+    List<Transaction> postings(String username, String key, long fromMinute, long toMinute) {
+        List<Transaction> list = byUser.get(username).get(key);
+        return list == null ? new ArrayList<>() : slice(list, fromMinute, toMinute);
+    }
+
+    /**
+     * Forgets the lists of every user.
+     */
+    void clear() {
+        byUser.clear();
+    }
+
+    private static List<Transaction> slice(List<Transaction> list, long fromMinute, long toMinute) {
+        int from = lowerBound(list, fromMinute);
+        int to = upperBound(list, toMinute);
+        return from < to ? new ArrayList<>(list.subList(from, to)) : new ArrayList<>();
+    }
+
+    /** Index of the first transaction at or after a minute. */
+    private static int lowerBound(List<Transaction> list, long minute) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid).getEpochMinute() < minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Index of the first transaction after a minute. */
+    private static int upperBound(List<Transaction> list, long minute) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid).getEpochMinute() <= minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
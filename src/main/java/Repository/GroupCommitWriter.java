@@ -0,0 +1,160 @@
+package Repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import Model.Transaction;
+
+/**
+ * Single writer thread that commits transaction appends in groups. Appends submitted while a
+ * batch is being written queue up and are committed together, so each store receives one
+ * buffered write (and at most one fsync, depending on the {@link TransactionStore.SyncPolicy})
+ * per batch instead of one open, write and close per row. An optional flush interval makes the
+ * writer wait a little after the first append of a batch to collect more.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class GroupCommitWriter {
+    /** Maximum number of appends committed in one batch. */
+    private static final int MAX_BATCH = 4096;
+
+    /** Appends waiting to be committed. */
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    /** How long the writer waits after the first append of a batch, in milliseconds. */
+    private volatile long flushIntervalMillis;
+
+    /** When appends are forced to the storage device. */
+    private volatile TransactionStore.SyncPolicy syncPolicy = TransactionStore.SyncPolicy.PER_BATCH;
+
+    /** The writer thread, started on the first append. */
+    private Thread thread;
+
+    /**
+     * An append waiting to be committed.
+     */
+    private static final class Pending {
+        final TransactionStore store;
+        final String csvLine;
+        final Transaction transaction;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(TransactionStore store, String csvLine, Transaction transaction) {
+            this.store = store;
+            this.csvLine = csvLine;
+            this.transaction = transaction;
+        }
+    }
+
+    /**
+     * Sets how long the writer collects appends before committing and when it forces them to disk.
+     *
+     * @param flushIntervalMillis The time to wait after the first append of a batch; 0 commits as soon as possible.
+     * @param syncPolicy          When appends are forced to the storage device.
+     */
+    void configure(long flushIntervalMillis, TransactionStore.SyncPolicy syncPolicy) {
+        this.flushIntervalMillis = Math.max(0, flushIntervalMillis);
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * Returns when appends are forced to the storage device.
+     *
+     * @return The sync policy.
+     */
+    TransactionStore.SyncPolicy syncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Queues a row to be appended to a store.
+     *
+     * @param store       The store to append to.
+     * @param csvLine     The already-escaped CSV row, without a line terminator.
+     * @param transaction The transaction the row represents, or {@code null}.
+     * @return A future completed once the row has been committed under the current sync policy.
+     */
+    CompletableFuture<Void> submit(TransactionStore store, String csvLine, Transaction transaction) {
+        Pending pending = new Pending(store, csvLine, transaction);
+        startIfNeeded();
+        queue.add(pending);
+        return pending.done;
+    }
+
+    private synchronized void startIfNeeded() {
+        if (thread == null) {
+            thread = new Thread(this::run, "transaction-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long interval = flushIntervalMillis;
+                if (interval > 0) {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+                    while (batch.size() < MAX_BATCH) {
+                        Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+                queue.drainTo(batch, MAX_BATCH - batch.size());
+                commit(batch);
+            } catch (InterruptedException e) {
+                System.err.println("Transaction writer interrupted; " + batch.size() + " appends were not written");
+                for (Pending pending : batch) {
+                    pending.done.completeExceptionally(e);
+                }
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Commits a batch with one write per store and completes the futures of its appends.
+     */
+    private void commit(List<Pending> batch) {
+        Map<TransactionStore, List<Pending>> byStore = new LinkedHashMap<>();
+        for (Pending pending : batch) {
+            byStore.computeIfAbsent(pending.store, k -> new ArrayList<>()).add(pending);
+        }
+        TransactionStore.SyncPolicy policy = syncPolicy;
+        for (Map.Entry<TransactionStore, List<Pending>> entry : byStore.entrySet()) {
+            List<Pending> appends = entry.getValue();
+            List<String> csvLines = new ArrayList<>(appends.size());
+            List<Transaction> transactions = new ArrayList<>(appends.size());
+            for (Pending pending : appends) {
+                csvLines.add(pending.csvLine);
+                transactions.add(pending.transaction);
+            }
+            try {
+                entry.getKey().commitBatch(csvLines, transactions, policy);
+                for (Pending pending : appends) {
+                    pending.done.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error committing " + appends.size() + " transactions: " + e.getMessage());
+                for (Pending pending : appends) {
+                    pending.done.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,612 @@
+package Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import Model.Transaction;
+import utils.Money;
+import utils.TransactionIds;
+
+/**
+ * Scans a transactions CSV file through a memory-mapped view of its bytes.
+ * Rows are tokenized in place: field boundaries are located directly in the mapped buffer,
+ * the username column is compared byte by byte, and strings are only decoded for rows that
+ * are actually returned. Rows belonging to other users therefore cost no allocations.
+ * Quoting follows the same rules as {@link utils.CsvCodec}, which handles every other CSV file.
+ * The first row of the file is treated as the header and skipped.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class MappedTransactionScanner {
+    /** Number of columns in a complete transaction row, counting the trailing ID column. */
+    static final int FIELD_COUNT = 14;
+
+    /**
+     * Column holding the transaction ID; rows written before IDs existed stop one column short. Rows
+     * with more columns than {@link #FIELD_COUNT} have an unquoted comma somewhere, so their last
+     * column is not taken as an ID.
+     */
+    static final int ID_FIELD = 13;
+
+    /** Offset basis of the 64-bit FNV-1a hash giving legacy rows their ID. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /** Prime of the 64-bit FNV-1a hash. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Minimum number of columns a row needs to be accepted. */
+    private static final int MIN_FIELD_COUNT = 6;
+
+    /** Number of bytes below which a parallel scan falls back to a sequential one. */
+    private static final long PARALLEL_MIN_BYTES = 4L << 20;
+
+    /** Smallest byte range parsed by one task of a parallel scan. */
+    private static final long PARALLEL_MIN_CHUNK = 1L << 20;
+
+    /** Maximum number of bytes mapped at once; files larger than this are scanned window by window. */
+    private static final long WINDOW_SIZE = 256L << 20;
+
+    /**
+     * Receives the rows produced by a scan.
+     */
+    interface RowHandler {
+        /**
+         * Called for every accepted row, in file order.
+         *
+         * @param transaction The parsed transaction.
+         * @param offset      The byte offset of the row in the file.
+         * @param length      The length of the row in bytes, including its line terminator.
+         */
+        void onRow(Transaction transaction, long offset, long length);
+    }
+
+    /**
+     * A row parsed by a task of a parallel scan, held until it can be handed over in file order.
+     */
+    private static final class ParsedRow {
+        final Transaction transaction;
+        final long offset;
+        final long length;
+
+        ParsedRow(Transaction transaction, long offset, long length) {
+            this.transaction = transaction;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Decides whether a row has been tombstoned.
+     */
+    interface DeletionCheck {
+        /**
+         * Checks a row.
+         *
+         * @param transaction The parsed transaction.
+         * @param offset      The byte offset of the row in the file.
+         * @return {@code true} if the row has been deleted.
+         */
+        boolean isDeleted(Transaction transaction, long offset);
+    }
+
+    /** Start positions of the fields of the current row. */
+    private final int[] fieldStarts = new int[FIELD_COUNT];
+
+    /** End positions (exclusive) of the fields of the current row. */
+    private final int[] fieldEnds = new int[FIELD_COUNT];
+
+    /** Scratch space used to decode fields. */
+    private byte[] scratch = new byte[256];
+
+    private MappedTransactionScanner() {
+    }
+
+    /**
+     * Scans a transactions file and reports the rows of one user, or of every user.
+     *
+     * @param file     The CSV file to scan.
+     * @param username The username to filter on, or {@code null} to report all rows.
+     * @param handler  The handler receiving the matching rows.
+     * @throws IOException If the file cannot be mapped or read.
+     */
+    static void scan(File file, String username, RowHandler handler) throws IOException {
+        scan(file, username, 0, handler);
+    }
+
+    /**
+     * Scans a transactions file from a given offset and reports the rows of one user, or of every user.
+     * The header is only skipped when scanning from the start of the file.
+     *
+     * @param file        The CSV file to scan.
+     * @param username    The username to filter on, or {@code null} to report all rows.
+     * @param startOffset The offset of the first row to scan; must be the start of a row.
+     * @param handler     The handler receiving the matching rows.
+     * @throws IOException If the file cannot be mapped or read.
+     */
+    static void scan(File file, String username, long startOffset, RowHandler handler) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            scanRange(channel, keyOf(username), startOffset, channel.size(), startOffset == 0, handler);
+        }
+    }
+
+    /**
+     * Scans a transactions file like {@link #scan(File, String, long, RowHandler)}, but splits it into
+     * byte ranges aligned on row boundaries and parses the ranges in parallel on the common
+     * {@link ForkJoinPool}. The handler is still called on the calling thread, in file order.
+     * Files too small to benefit are scanned sequentially.
+     *
+     * @param file        The CSV file to scan.
+     * @param username    The username to filter on, or {@code null} to report all rows.
+     * @param startOffset The offset of the first row to scan; must be the start of a row.
+     * @param handler     The handler receiving the matching rows.
+     * @throws IOException If the file cannot be mapped or read.
+     */
+    static void scanParallel(File file, String username, long startOffset, RowHandler handler) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] key = keyOf(username);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int parallelism = ForkJoinPool.getCommonPoolParallelism();
+            if (size - startOffset < PARALLEL_MIN_BYTES || parallelism < 2) {
+                scanRange(channel, key, startOffset, size, startOffset == 0, handler);
+                return;
+            }
+
+            long chunkSize = Math.max(PARALLEL_MIN_CHUNK, (size - startOffset) / (parallelism * 4L));
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(startOffset);
+            long boundary = startOffset;
+            while (true) {
+                boundary = nextRowStart(channel, boundary + chunkSize, size);
+                if (boundary >= size) {
+                    break;
+                }
+                bounds.add(boundary);
+            }
+            bounds.add(size);
+
+            List<ForkJoinTask<List<ParsedRow>>> chunks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.size(); i++) {
+                long chunkStart = bounds.get(i);
+                long chunkEnd = bounds.get(i + 1);
+                boolean skipHeader = chunkStart == 0;
+                chunks.add(ForkJoinPool.commonPool().submit(() -> {
+                    List<ParsedRow> rows = new ArrayList<>();
+                    scanRange(channel, key, chunkStart, chunkEnd, skipHeader,
+                            (transaction, offset, length) -> rows.add(new ParsedRow(transaction, offset, length)));
+                    return rows;
+                }));
+            }
+            for (ForkJoinTask<List<ParsedRow>> chunk : chunks) {
+                for (ParsedRow row : chunk.get()) {
+                    handler.onRow(row.transaction, row.offset, row.length);
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error scanning " + file.getName(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + file.getName(), e);
+        }
+    }
+
+    /**
+     * Scans the rows between two offsets of an open file, window by window.
+     *
+     * @param channel    The open file.
+     * @param key        The UTF-8 bytes of the username to filter on, or {@code null} for all rows.
+     * @param start      The offset of the first row.
+     * @param end        The offset just past the last row.
+     * @param skipHeader Whether the first row is the header.
+     * @param handler    The handler receiving the matching rows.
+     */
+    private static void scanRange(FileChannel channel, byte[] key, long start, long end, boolean skipHeader,
+                                  RowHandler handler) throws IOException {
+        MappedTransactionScanner scanner = new MappedTransactionScanner();
+        long base = start;
+        boolean headerPending = skipHeader;
+        while (base < end) {
+            int limit = (int) Math.min(WINDOW_SIZE, end - base);
+            boolean lastWindow = base + limit == end;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, limit);
+            int pos = 0;
+            while (pos < limit) {
+                int rowEnd = indexOfNewline(buffer, pos, limit);
+                int next;
+                if (rowEnd < 0) {
+                    if (!lastWindow) break;
+                    rowEnd = limit;
+                    next = limit;
+                } else {
+                    next = rowEnd + 1;
+                }
+                if (headerPending) {
+                    headerPending = false;
+                } else {
+                    Transaction transaction = scanner.parse(buffer, pos, rowEnd, key);
+                    if (transaction != null) {
+                        handler.onRow(transaction, base + pos, next - pos);
+                    }
+                }
+                pos = next;
+            }
+            if (pos == 0) {
+                throw new IOException("Row at offset " + base + " exceeds the scan window");
+            }
+            base += pos;
+        }
+    }
+
+    /**
+     * Finds the start of the first row beginning at or after the given offset.
+     *
+     * @return The offset just past the first line feed at or after {@code offset - 1}, or {@code size} if there is none.
+     */
+    private static long nextRowStart(FileChannel channel, long offset, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        for (long position = offset - 1; position < size; position += probe.limit()) {
+            probe.clear();
+            if (channel.read(probe, position) <= 0) {
+                break;
+            }
+            probe.flip();
+            for (int i = 0; i < probe.limit(); i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static byte[] keyOf(String username) {
+        return username == null ? null : username.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens a lazy stream over the rows of one user, or of every user. The file is read window by
+     * window as the stream is consumed, so a short-circuiting operation stops reading early, and
+     * the file is closed when the stream is exhausted or closed.
+     *
+     * @param file     The CSV file to scan.
+     * @param username The username to filter on, or {@code null} for all rows.
+     * @param deletion Tells which rows have been tombstoned and must be skipped.
+     * @return The stream of transactions, in file order.
+     * @throws IOException If the file cannot be opened.
+     */
+    static Stream<Transaction> stream(File file, String username, DeletionCheck deletion) throws IOException {
+        if (!file.exists()) {
+            return Stream.empty();
+        }
+        RowSpliterator spliterator = new RowSpliterator(FileChannel.open(file.toPath(), StandardOpenOption.READ),
+                keyOf(username), deletion);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Parses a single CSV row held in a string.
+     *
+     * @param line The CSV row, without a line terminator.
+     * @return The parsed transaction, or {@code null} if the row is malformed.
+     */
+    static Transaction parseLine(String line) {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        return new MappedTransactionScanner().parse(buffer, 0, buffer.limit(), null);
+    }
+
+    /**
+     * Tokenizes one row and builds its transaction if it belongs to the requested user.
+     *
+     * @param buffer The buffer holding the row.
+     * @param start  The position of the first byte of the row.
+     * @param end    The position just past the last byte of the row, excluding the line feed.
+     * @param key    The UTF-8 bytes of the requested username, or {@code null} for any user.
+     * @return The transaction, or {@code null} if the row is filtered out or malformed.
+     */
+    private Transaction parse(ByteBuffer buffer, int start, int end, byte[] key) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (isBlank(buffer, start, end)) {
+            return null;
+        }
+        int count = tokenize(buffer, start, end);
+        if (count < MIN_FIELD_COUNT) {
+            return null;
+        }
+        if (key != null && !fieldEquals(buffer, fieldStarts[0], fieldEnds[0], key)) {
+            return null;
+        }
+
+        String timestamp = TransactionStore.normalizeTimestamp(field(buffer, 3));
+        if (timestamp == null) {
+            System.err.println("Skipping transaction (parse error): " + decode(buffer, start, end));
+            return null;
+        }
+        long amountCents;
+        try {
+            amountCents = Money.parseCents(field(buffer, 2));
+        } catch (NumberFormatException e) {
+            System.err.println("Skipping transaction (parse error): " + decode(buffer, start, end) + " | Error: " + e.getMessage());
+            return null;
+        }
+        return Transaction.ofCents(
+                field(buffer, 0),
+                field(buffer, 1),
+                amountCents,
+                timestamp,
+                field(buffer, 4),
+                field(buffer, 5),
+                count > 6 ? field(buffer, 6) : "",
+                count > 7 ? field(buffer, 7) : "u",
+                count > 8 ? field(buffer, 8) : "",
+                count > 9 ? field(buffer, 9) : "",
+                count > 10 ? field(buffer, 10) : "",
+                count > 11 ? field(buffer, 11) : "",
+                count > 12 ? field(buffer, 12) : "",
+                idOf(buffer, start, end, count)
+        );
+    }
+
+    /**
+     * Reads the ID of a row, or derives one from the row's bytes if it has no valid ID column or
+     * more columns than {@link #FIELD_COUNT}.
+     */
+    private long idOf(ByteBuffer buffer, int start, int end, int count) {
+        if (count == FIELD_COUNT) {
+            long id = 0;
+            int digits = 0;
+            for (int i = fieldStarts[ID_FIELD]; i < fieldEnds[ID_FIELD]; i++) {
+                byte b = buffer.get(i);
+                if (b >= '0' && b <= '9' && digits < 18) {
+                    id = id * 10 + (b - '0');
+                    digits++;
+                } else if (b > ' ') {
+                    // Not a plain number; let the slower parser decide
+                    return idOrContent(TransactionIds.parse(field(buffer, ID_FIELD)), buffer, start, end);
+                }
+            }
+            return idOrContent(id, buffer, start, end);
+        }
+        return contentId(buffer, start, end);
+    }
+
+    private static long idOrContent(long id, ByteBuffer buffer, int start, int end) {
+        return id > 0 ? id : contentId(buffer, start, end);
+    }
+
+    private static long contentId(ByteBuffer buffer, int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ (buffer.get(i) & 0xff)) * FNV_PRIME;
+        }
+        return TransactionIds.contentId(hash);
+    }
+
+    /**
+     * Records the boundaries of up to {@link #FIELD_COUNT} fields of a row.
+     * Commas inside double-quoted fields do not end the field.
+     *
+     * @return The number of fields found, which may exceed {@link #FIELD_COUNT}.
+     */
+    private int tokenize(ByteBuffer buffer, int start, int end) {
+        int count = 0;
+        int fieldStart = start;
+        boolean quoted = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == ',' && !quoted) {
+                if (count < FIELD_COUNT) {
+                    fieldStarts[count] = fieldStart;
+                    fieldEnds[count] = i;
+                }
+                count++;
+                fieldStart = i + 1;
+            }
+        }
+        if (count < FIELD_COUNT) {
+            fieldStarts[count] = fieldStart;
+            fieldEnds[count] = end;
+        }
+        return count + 1;
+    }
+
+    /**
+     * Compares a field with the given bytes without decoding it.
+     * Quoted fields fall back to decoding, since their bytes differ from the value.
+     */
+    private boolean fieldEquals(ByteBuffer buffer, int start, int end, byte[] key) {
+        while (start < end && buffer.get(start) <= ' ') start++;
+        while (end > start && buffer.get(end - 1) <= ' ') end--;
+        if (end - start >= 2 && buffer.get(start) == '"') {
+            return new String(key, StandardCharsets.UTF_8).equals(unescape(buffer, start, end));
+        }
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the field with the given index, trimming it and removing CSV quoting.
+     */
+    private String field(ByteBuffer buffer, int index) {
+        return unescape(buffer, fieldStarts[index], fieldEnds[index]);
+    }
+
+    private String unescape(ByteBuffer buffer, int start, int end) {
+        while (start < end && buffer.get(start) <= ' ') start++;
+        while (end > start && buffer.get(end - 1) <= ' ') end--;
+        if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+            return decode(buffer, start + 1, end - 1).replace("\"\"", "\"");
+        }
+        return decode(buffer, start, end);
+    }
+
+    private String decode(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return "";
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Pulls rows from a mapped file one at a time, mapping the next window when the current one is used up.
+     */
+    private static final class RowSpliterator implements Spliterator<Transaction> {
+        private final FileChannel channel;
+        private final byte[] key;
+        private final DeletionCheck deletion;
+        private final MappedTransactionScanner scanner = new MappedTransactionScanner();
+        private final long size;
+        private MappedByteBuffer buffer;
+        private long base;
+        private int limit;
+        private int pos;
+        private boolean lastWindow;
+        private boolean headerPending = true;
+
+        RowSpliterator(FileChannel channel, byte[] key, DeletionCheck deletion) throws IOException {
+            this.channel = channel;
+            this.key = key;
+            this.deletion = deletion;
+            this.size = channel.size();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Transaction> action) {
+            try {
+                while (true) {
+                    if (pos >= limit && !mapWindow()) {
+                        return false;
+                    }
+                    int end = indexOfNewline(buffer, pos, limit);
+                    int next;
+                    if (end < 0) {
+                        if (!lastWindow) {
+                            if (pos == 0) {
+                                throw new IOException("Row at offset " + base + " exceeds the scan window");
+                            }
+                            mapWindow();
+                            continue;
+                        }
+                        end = limit;
+                        next = limit;
+                    } else {
+                        next = end + 1;
+                    }
+                    int start = pos;
+                    pos = next;
+                    if (headerPending) {
+                        headerPending = false;
+                        continue;
+                    }
+                    Transaction transaction = scanner.parse(buffer, start, end, key);
+                    if (transaction != null && !deletion.isDeleted(transaction, base + start)) {
+                        action.accept(transaction);
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Maps the window starting after the bytes consumed so far.
+         *
+         * @return {@code false} if the end of the file has been reached.
+         */
+        private boolean mapWindow() throws IOException {
+            base += pos;
+            pos = 0;
+            if (base >= size) {
+                limit = 0;
+                close();
+                return false;
+            }
+            limit = (int) Math.min(WINDOW_SIZE, size - base);
+            lastWindow = base + limit == size;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, limit);
+            return true;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing transaction stream: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public Spliterator<Transaction> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,380 @@
+package Repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import Model.Transaction;
+import utils.TimestampCodec;
+
+/**
+ * Month-partitioned copy of a transactions CSV file, laid out as {@code <root>/YYYY/MM.csv}.
+ * Each segment is a regular transactions CSV holding the live rows of one calendar month, so a
+ * range query only has to open the segments overlapping the range. The main CSV stays the
+ * source of truth: a manifest ({@code <root>/segments.manifest}) records how much of it, and of
+ * its tombstone journal, the segments reflect, together with the modification time and checksum
+ * of that prefix of the main file. Rows appended elsewhere are copied over on the next refresh,
+ * and the segments are rebuilt when the main file was rewritten behind their back, even when it
+ * was edited in place to the same length.
+ * All methods must be called with the owning {@link TransactionStore}'s write lock held.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class MonthlySegments {
+    /** Buffered segment bytes above which a refresh writes them out. */
+    private static final int FLUSH_THRESHOLD = 8 << 20;
+
+    /** The directory holding the segments. */
+    private final File root;
+
+    /** The manifest recording what the segments reflect. */
+    private final File manifest;
+
+    /** Running checksum of the main CSV, kept at {@link #coveredLength} once it has been checked. */
+    private final PrefixChecksum checksum;
+
+    /** Length of the main CSV reflected by the segments, or -1 if unknown. */
+    private long coveredLength = -1;
+
+    /** Modification time of the main CSV when it had the reflected length. */
+    private long coveredModified;
+
+    /** Checksum of the reflected prefix of the main CSV. */
+    private long coveredChecksum;
+
+    /** Length of the journal reflected by the segments. */
+    private long journalLength = -1;
+
+    /** Whether the manifest has been read. */
+    private boolean manifestLoaded;
+
+    /**
+     * Constructs the segment layout rooted at the given directory.
+     *
+     * @param root    The directory holding the segments.
+     * @param csvFile The main CSV file the segments copy.
+     */
+    MonthlySegments(File root, File csvFile) {
+        this.root = root;
+        this.manifest = new File(root, "segments.manifest");
+        this.checksum = new PrefixChecksum(csvFile);
+    }
+
+    /**
+     * Returns the directory holding the segments.
+     *
+     * @return The root directory.
+     */
+    File root() {
+        return root;
+    }
+
+    /**
+     * Brings the segments up to date with the main CSV and its journal, copying appended rows or
+     * rebuilding every segment when the main file was rewritten.
+     *
+     * @param csvFile  The main CSV file.
+     * @param journal  The tombstone journal of the main CSV file.
+     * @param deletion Tells which rows of the main CSV are tombstoned.
+     * @throws IOException If the segments cannot be written.
+     */
+    void refresh(File csvFile, File journal, MappedTransactionScanner.DeletionCheck deletion) throws IOException {
+        loadManifest();
+        if (!csvFile.exists()) {
+            return;
+        }
+        long csvLength = csvFile.length();
+        boolean prefixIntact = journalLength == journal.length()
+                && checksum.isUnchanged(coveredLength, coveredModified, coveredChecksum);
+        if (prefixIntact && coveredLength == csvLength) {
+            if (coveredModified != csvFile.lastModified()) {
+                // Touched but unchanged; record the new time so the next refresh skips the checksum
+                saveManifest(csvLength, csvFile.lastModified(), coveredChecksum, journalLength);
+            }
+            return;
+        }
+        if (prefixIntact) {
+            copyRows(csvFile, coveredLength, deletion);
+        } else {
+            checksum.reset();
+            deleteSegments();
+            copyRows(csvFile, 0, deletion);
+            System.out.println("Rebuilt monthly segments in " + root.getPath());
+        }
+        saveManifest(csvLength, csvFile.lastModified(), checksum.valueAt(csvLength), journal.length());
+    }
+
+    /**
+     * Records rows appended to the main CSV in one write, if the segments were in sync before the append.
+     *
+     * @param csvFile        The main CSV file.
+     * @param previousLength The length of the main CSV before the append.
+     * @param journalSize    The current length of the journal.
+     * @param csvLines       The appended rows, without line terminators.
+     * @param transactions   The transactions the rows represent.
+     * @throws IOException If a segment or the manifest cannot be written.
+     */
+    void recordAppend(File csvFile, long previousLength, long journalSize, List<String> csvLines,
+                      List<Transaction> transactions) throws IOException {
+        loadManifest();
+        if (coveredLength != previousLength || journalLength != journalSize || !checksumCoversPrefix()) {
+            return;
+        }
+        Map<YearMonth, ByteArrayOutputStream> pending = new TreeMap<>();
+        for (int i = 0; i < csvLines.size(); i++) {
+            pending.computeIfAbsent(monthOf(transactions.get(i)), k -> new ByteArrayOutputStream())
+                    .write((csvLines.get(i) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+        flush(csvFile, pending);
+        long csvLength = csvFile.length();
+        saveManifest(csvLength, csvFile.lastModified(), checksum.valueAt(csvLength), journalSize);
+    }
+
+    /**
+     * Records rows tombstoned in the main CSV by rewriting their month segments without them,
+     * if the segments were in sync before the tombstones were written. Segment rows are matched
+     * by ID, so only the removed rows go even when others share their user and minute.
+     *
+     * @param csvLength       The current length of the main CSV.
+     * @param previousJournal The length of the journal before the tombstones were written.
+     * @param journalSize     The current length of the journal.
+     * @param username        The user whose rows were removed.
+     * @param removed         The transactions of the removed rows.
+     * @throws IOException If a segment or the manifest cannot be written.
+     */
+    void recordRemoval(long csvLength, long previousJournal, long journalSize, String username,
+                       List<Transaction> removed) throws IOException {
+        loadManifest();
+        if (coveredLength != csvLength || journalLength != previousJournal) {
+            return;
+        }
+        Map<YearMonth, Map<Long, Integer>> byMonth = new TreeMap<>();
+        for (Transaction transaction : removed) {
+            byMonth.computeIfAbsent(monthOf(transaction), k -> new HashMap<>()).merge(transaction.getId(), 1, Integer::sum);
+        }
+        for (Map.Entry<YearMonth, Map<Long, Integer>> entry : byMonth.entrySet()) {
+            File segment = segmentFile(entry.getKey());
+            if (!segment.exists()) {
+                continue;
+            }
+            // Byte-identical legacy rows share an ID, so each removed row drops at most one segment row
+            Map<Long, Integer> pending = entry.getValue();
+            List<long[]> ranges = new ArrayList<>();
+            MappedTransactionScanner.scan(segment, username, (transaction, offset, length) -> {
+                Integer count = pending.get(transaction.getId());
+                if (count != null && count > 0) {
+                    pending.put(transaction.getId(), count - 1);
+                    ranges.add(new long[]{offset, length});
+                }
+            });
+            if (!ranges.isEmpty()) {
+                byte[] content = Files.readAllBytes(segment.toPath());
+                ByteArrayOutputStream kept = new ByteArrayOutputStream(content.length);
+                int position = 0;
+                for (long[] range : ranges) {
+                    kept.write(content, position, (int) range[0] - position);
+                    position = (int) (range[0] + range[1]);
+                }
+                kept.write(content, position, content.length - position);
+                Files.write(segment.toPath(), kept.toByteArray());
+            }
+        }
+        saveManifest(coveredLength, coveredModified, coveredChecksum, journalSize);
+    }
+
+    /**
+     * Records a compaction of the main CSV, which drops tombstoned rows but keeps every live row.
+     *
+     * @param csvFile         The main CSV file after compaction.
+     * @param previousLength  The length of the main CSV before compaction.
+     * @param previousJournal The length of the journal before compaction.
+     * @throws IOException If the manifest cannot be written.
+     */
+    void recordCompaction(File csvFile, long previousLength, long previousJournal) throws IOException {
+        loadManifest();
+        if (coveredLength != previousLength || journalLength != previousJournal) {
+            return;
+        }
+        long csvLength = csvFile.length();
+        checksum.reset();
+        saveManifest(csvLength, csvFile.lastModified(), checksum.valueAt(csvLength), 0);
+    }
+
+    /**
+     * Reads the transactions of a user within a time range from the overlapping segments only.
+     *
+     * @param username   The user.
+     * @param fromMinute The start of the range in epoch minutes, inclusive.
+     * @param toMinute   The end of the range in epoch minutes, inclusive.
+     * @return The matching transactions, sorted by timestamp.
+     * @throws IOException If a segment cannot be read.
+     */
+    List<Transaction> query(String username, long fromMinute, long toMinute) throws IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        YearMonth last = TimestampCodec.toYearMonth(toMinute);
+        for (YearMonth month = TimestampCodec.toYearMonth(fromMinute);
+             !month.isAfter(last); month = month.plusMonths(1)) {
+            File segment = segmentFile(month);
+            if (!segment.exists()) {
+                continue;
+            }
+            MappedTransactionScanner.scan(segment, username, (transaction, offset, length) -> {
+                if (transaction.isWithin(fromMinute, toMinute)) {
+                    transactions.add(transaction);
+                }
+            });
+        }
+        transactions.sort(Comparator.comparingLong(Transaction::getEpochMinute));
+        return transactions;
+    }
+
+    /**
+     * Copies the live rows of the main CSV from the given offset into their month segments.
+     */
+    private void copyRows(File csvFile, long startOffset, MappedTransactionScanner.DeletionCheck deletion) throws IOException {
+        Map<YearMonth, ByteArrayOutputStream> pending = new TreeMap<>();
+        int[] buffered = {0};
+        try (FileChannel channel = FileChannel.open(csvFile.toPath(), StandardOpenOption.READ)) {
+            IOException[] failure = {null};
+            MappedTransactionScanner.scan(csvFile, null, startOffset, (transaction, offset, length) -> {
+                if (failure[0] != null || deletion.isDeleted(transaction, offset)) {
+                    return;
+                }
+                try {
+                    ByteBuffer row = ByteBuffer.allocate((int) length);
+                    while (row.hasRemaining() && channel.read(row, offset + row.position()) > 0) {
+                        // Keep reading until the row is complete
+                    }
+                    ByteArrayOutputStream out = pending.computeIfAbsent(monthOf(transaction), k -> new ByteArrayOutputStream());
+                    out.write(row.array(), 0, row.position());
+                    if (row.position() == 0 || row.get(row.position() - 1) != '\n') {
+                        out.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+                    }
+                    buffered[0] += row.position();
+                    if (buffered[0] > FLUSH_THRESHOLD) {
+                        flush(csvFile, pending);
+                        buffered[0] = 0;
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        flush(csvFile, pending);
+    }
+
+    private void flush(File csvFile, Map<YearMonth, ByteArrayOutputStream> pending) throws IOException {
+        for (Map.Entry<YearMonth, ByteArrayOutputStream> entry : pending.entrySet()) {
+            appendToSegment(csvFile, entry.getKey(), entry.getValue().toByteArray());
+        }
+        pending.clear();
+    }
+
+    /**
+     * Appends rows to a month segment, creating it with the header of the main CSV if needed.
+     */
+    private void appendToSegment(File csvFile, YearMonth month, byte[] rows) throws IOException {
+        File segment = segmentFile(month);
+        if (!segment.exists()) {
+            Files.createDirectories(segment.getParentFile().toPath());
+            try (OutputStream out = new FileOutputStream(segment)) {
+                out.write((TransactionStore.readHeader(csvFile) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try (OutputStream out = new FileOutputStream(segment, true)) {
+            out.write(rows);
+        }
+    }
+
+    private void deleteSegments() {
+        File[] years = root.listFiles(File::isDirectory);
+        if (years == null) {
+            return;
+        }
+        for (File year : years) {
+            File[] months = year.listFiles((dir, name) -> name.endsWith(".csv"));
+            if (months != null) {
+                for (File month : months) {
+                    month.delete();
+                }
+            }
+            year.delete();
+        }
+    }
+
+    private void loadManifest() throws IOException {
+        if (manifestLoaded) {
+            return;
+        }
+        manifestLoaded = true;
+        if (!manifest.exists()) {
+            return;
+        }
+        String[] parts = Files.readString(manifest.toPath(), StandardCharsets.UTF_8).trim().split(",");
+        try {
+            if (parts.length == 4) {
+                coveredLength = Long.parseLong(parts[0]);
+                coveredModified = Long.parseLong(parts[1]);
+                coveredChecksum = Long.parseLong(parts[2]);
+                journalLength = Long.parseLong(parts[3]);
+            }
+        } catch (NumberFormatException e) {
+            coveredLength = -1;
+        }
+    }
+
+    /**
+     * Makes sure the running checksum stands at the reflected prefix of the main CSV, checking that
+     * prefix against the manifest the first time. A prefix that no longer matches is forgotten, so
+     * the next refresh rebuilds the segments.
+     *
+     * @return {@code true} if the running checksum covers the reflected prefix.
+     */
+    private boolean checksumCoversPrefix() throws IOException {
+        if (checksum.length() == coveredLength) {
+            return true;
+        }
+        checksum.reset();
+        if (checksum.valueAt(coveredLength) == coveredChecksum) {
+            return true;
+        }
+        coveredLength = -1;
+        return false;
+    }
+
+    private void saveManifest(long length, long modified, long prefixChecksum, long journalSize) throws IOException {
+        Files.createDirectories(root.toPath());
+        Files.writeString(manifest.toPath(), length + "," + modified + "," + prefixChecksum + "," + journalSize,
+                StandardCharsets.UTF_8);
+        coveredLength = length;
+        coveredModified = modified;
+        coveredChecksum = prefixChecksum;
+        journalLength = journalSize;
+    }
+
+    private File segmentFile(YearMonth month) {
+        return new File(new File(root, "%04d".formatted(month.getYear())), "%02d.csv".formatted(month.getMonthValue()));
+    }
+
+    private static YearMonth monthOf(Transaction transaction) {
+        return transaction.getYearMonth();
+    }
+}
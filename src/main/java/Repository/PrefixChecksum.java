@@ -0,0 +1,123 @@
+package Repository;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Running CRC32 of a prefix of a file that only grows by appends, such as a transactions CSV file
+ * or its journal. Extending the prefix only reads the bytes appended since the last call, so the
+ * checksum recorded by a derived file after every change costs time proportional to the change
+ * instead of to the whole file. After the file was rewritten, {@link #reset()} starts over.
+ * <p>
+ * The checksum covers the bytes only; derived files record the length next to it.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class PrefixChecksum {
+    /** Size of the buffer the prefix is read through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The file checksummed. */
+    private final File file;
+
+    /** The checksum of the first {@link #length} bytes. */
+    private CRC32 crc = new CRC32();
+
+    /** Number of bytes checksummed so far. */
+    private long length;
+
+    /**
+     * Creates a running checksum of the given file, starting with an empty prefix.
+     *
+     * @param file The file.
+     */
+    PrefixChecksum(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the number of bytes checksummed so far.
+     *
+     * @return The length of the checksummed prefix.
+     */
+    synchronized long length() {
+        return length;
+    }
+
+    /**
+     * Returns the checksum of the first {@code coveredLength} bytes of the file. Only the bytes past
+     * the previously checksummed prefix are read; a shorter prefix than before is checksummed again
+     * from the start.
+     *
+     * @param coveredLength The length of the prefix.
+     * @return The checksum.
+     * @throws IOException If the file cannot be read or is shorter than the prefix.
+     */
+    synchronized long valueAt(long coveredLength) throws IOException {
+        if (coveredLength < length) {
+            reset();
+        }
+        if (coveredLength > length) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, coveredLength - length));
+                long position = length;
+                while (position < coveredLength) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), coveredLength - position));
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("File is shorter than the checksummed prefix");
+                    }
+                    buffer.flip();
+                    crc.update(buffer);
+                    position += read;
+                }
+            } catch (IOException e) {
+                // The running value has taken part of the read, so it no longer matches any prefix
+                reset();
+                throw e;
+            }
+            length = coveredLength;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Forgets the checksummed prefix, so the next call reads the file from the start. Must be
+     * called whenever the file was rewritten rather than appended to.
+     */
+    synchronized void reset() {
+        crc = new CRC32();
+        length = 0;
+    }
+
+    /**
+     * Checks whether the first {@code coveredLength} bytes of the file still hold the bytes a derived
+     * file was built from. If the file still has the recorded length and modification time it is
+     * taken as unchanged; otherwise, for instance after rows were appended or the file was edited by
+     * hand, the prefix is checksummed from the start and compared with the recorded checksum, which
+     * leaves this checksum at the covered prefix when it matches.
+     *
+     * @param coveredLength    The length of the prefix.
+     * @param recordedModified The modification time of the file when the prefix was read.
+     * @param recordedChecksum The checksum of the prefix when it was read.
+     * @return {@code true} if the prefix is unchanged.
+     * @throws IOException If the file cannot be read.
+     */
+    synchronized boolean isUnchanged(long coveredLength, long recordedModified, long recordedChecksum) throws IOException {
+        long fileLength = file.length();
+        if (coveredLength < 0 || coveredLength > fileLength) {
+            return false;
+        }
+        if (coveredLength == fileLength && file.lastModified() == recordedModified) {
+            return true;
+        }
+        reset();
+        return valueAt(coveredLength) == recordedChecksum;
+    }
+}
@@ -0,0 +1,191 @@
+package Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import utils.AtomicFiles;
+
+/**
+ * Sidecar file persisting the running totals of every user of a transactions CSV file
+ * ({@code transactions.sfroll}), so the monthly rollups behind the dashboards are available at
+ * startup without reading the user's history. Like {@link TransactionSnapshot} it covers a prefix
+ * of the CSV file: it records the covered length, the modification time and a checksum of the whole
+ * prefix, so rows appended afterwards can be replayed while a rewritten or hand-edited file is detected.
+ * It also records the length and checksum of the journal, since a deletion changes totals without
+ * touching the CSV file; a sidecar written before the latest deletion is discarded.
+ * <p>
+ * Layout: a header (magic, version, covered length, CSV modification time, CSV checksum, journal length, journal checksum,
+ * user count), each user's name and totals, and a CRC32 of everything after the header.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class RollupSidecar {
+    /** Magic number identifying a rollup file ("SFRU"). */
+    private static final int MAGIC = 0x53465255;
+
+    /**
+     * Version of the rollup layout; 2 adds the CSV modification time and checksums whole files, 3
+     * leaves the lengths out of the checksums so they can be kept running.
+     */
+    private static final int VERSION = 3;
+
+    /** Size of the header in bytes. */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8 + 8 + 4;
+
+    private RollupSidecar() {
+    }
+
+    /**
+     * Returns the rollup file belonging to a CSV file: {@code transactions.csv} maps to {@code transactions.sfroll}.
+     *
+     * @param csvFile The CSV file.
+     * @return The rollup file next to it.
+     */
+    static File sidecarFileFor(File csvFile) {
+        String name = csvFile.getName();
+        String base = name.toLowerCase().endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+        return new File(csvFile.getParentFile(), base + ".sfroll");
+    }
+
+    /**
+     * Loads the persisted totals of a CSV file if they are intact, the journal is the one they were
+     * written with, and they still describe a prefix of the CSV file.
+     *
+     * @param csvFile The CSV file the totals were computed from.
+     * @param journal The journal of tombstones belonging to the CSV file.
+     * @param totals  Receives the totals of every user; only filled once the whole file has been verified.
+     * @return The number of CSV bytes covered by the totals, or -1 if there are no usable totals.
+     */
+    static long load(File csvFile, File journal, Map<String, UserTotals> totals) {
+        File sidecarFile = sidecarFileFor(csvFile);
+        if (!sidecarFile.exists() || sidecarFile.length() < HEADER_SIZE + 8) {
+            return -1;
+        }
+        try {
+            byte[] content = Files.readAllBytes(sidecarFile.toPath());
+            ByteBuffer header = ByteBuffer.wrap(content);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return -1;
+            }
+            long coveredLength = header.getLong();
+            long csvModified = header.getLong();
+            long csvChecksum = header.getLong();
+            long journalLength = header.getLong();
+            long journalChecksum = header.getLong();
+            int userCount = header.getInt();
+            if (!TransactionSnapshot.isPrefixUnchanged(csvFile, coveredLength, csvModified, csvChecksum)
+                    || journalLength != journal.length() || journalChecksum != journalChecksum(journal, journalLength)) {
+                return -1;
+            }
+
+            int payloadEnd = content.length - 8;
+            CRC32 crc = new CRC32();
+            crc.update(content, HEADER_SIZE, payloadEnd - HEADER_SIZE);
+            if (crc.getValue() != header.getLong(payloadEnd)) {
+                return -1;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, HEADER_SIZE, payloadEnd - HEADER_SIZE));
+            Map<String, UserTotals> loaded = new HashMap<>();
+            for (int i = 0; i < userCount; i++) {
+                loaded.put(readString(in), UserTotals.readFrom(in));
+            }
+            totals.putAll(loaded);
+            return coveredLength;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring rollup file: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the totals of every user, replacing any previous rollup file of the CSV file.
+     * The checksums are passed in rather than computed, so a caller writing the sidecar after every
+     * burst of changes can keep them running with {@link PrefixChecksum} instead of reading both files.
+     *
+     * @param csvFile         The CSV file the totals were computed from.
+     * @param coveredLength   The number of CSV bytes the totals describe.
+     * @param csvModified     The modification time of the CSV file when it had the covered length.
+     * @param csvChecksum     The {@link TransactionSnapshot#prefixChecksum(File, long)} of the covered bytes.
+     * @param journalLength   The length of the journal the totals reflect.
+     * @param journalChecksum The checksum of that many bytes of the journal, 0 if there are none.
+     * @param totals          The totals of every user with transactions in the covered prefix.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(File csvFile, long coveredLength, long csvModified, long csvChecksum, long journalLength,
+                      long journalChecksum, Map<String, UserTotals> totals) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        for (Map.Entry<String, UserTotals> entry : totals.entrySet()) {
+            writeString(out, entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+        out.flush();
+        byte[] body = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        ByteBuffer content = ByteBuffer.allocate(HEADER_SIZE + body.length + 8);
+        content.putInt(MAGIC);
+        content.putInt(VERSION);
+        content.putLong(coveredLength);
+        content.putLong(csvModified);
+        content.putLong(csvChecksum);
+        content.putLong(journalLength);
+        content.putLong(journalChecksum);
+        content.putInt(totals.size());
+        content.put(body);
+        content.putLong(crc.getValue());
+        AtomicFiles.write(sidecarFileFor(csvFile).toPath(), content.array());
+    }
+
+    /**
+     * Deletes the rollup file of a CSV file, if any.
+     *
+     * @param csvFile The CSV file.
+     */
+    static void delete(File csvFile) {
+        sidecarFileFor(csvFile).delete();
+    }
+
+    private static long journalChecksum(File journal, long journalLength) throws IOException {
+        return journalLength == 0 ? 0 : TransactionSnapshot.prefixChecksum(journal, journalLength);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes.
+     *
+     * @param out   The stream.
+     * @param value The string.
+     * @throws IOException If the stream fails.
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in The stream.
+     * @return The string.
+     * @throws IOException If the stream ends early.
+     */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
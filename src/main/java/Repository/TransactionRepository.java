@@ -1,29 +1,29 @@
 package Repository;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import Model.MonthlyRollup;
 import Model.Transaction;
 import Model.User;
+import utils.TimestampCodec;
 
 /**
  * Repository class for managing transaction data in the Smart Finance Application.
  * This class provides methods to read and query transactions from a CSV file,
  * supporting operations such as retrieving transactions by username, user, or time period.
+ * Reads are served by the shared {@link TransactionStore} of the configured file.
  *
  * @author Group 19
  * @version 1.0
  */
 public class TransactionRepository {
-    /** The date-time formatter used for parsing transaction timestamps. */
-    private static final DateTimeFormatter DATE_FORMATTER = Service.BudgetService.DATE_FORMATTER;
-
     /** The path to the CSV file storing transaction data. */
     private static String CSV_FILE = "transactions.csv"; // Maintained from Version 1
 
@@ -34,23 +34,7 @@ public class TransactionRepository {
      * @return A list of {@link Transaction} objects for the specified user, or an empty list if an error occurs.
      */
     public List<Transaction> findTransactionsByUsername(String username) {
-        List<Transaction> transactions = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(CSV_FILE))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",", -1);
-                if (data.length >= 13 && data[0].equals(username)) {
-                    transactions.add(new Transaction(
-                            data[0], data[1], Double.parseDouble(data[2]), data[3], data[4], data[5],
-                            data[6], data[7], data[8], data[9], data[10], data[11], data[12]
-                    ));
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading transactions: " + e.getMessage());
-        }
-        // NumberFormatException for Double.parseDouble is not explicitly caught here, as per Version 1
-        return transactions;
+        return TransactionStore.forFile(CSV_FILE).transactionsFor(username);
     }
 
     /**
@@ -59,23 +43,28 @@ public class TransactionRepository {
      * @return A list of all {@link Transaction} objects, or an empty list if an error occurs.
      */
     public List<Transaction> findAllTransactions() {
-        List<Transaction> transactions = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(CSV_FILE))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",", -1);
-                if (data.length >= 13) {
-                    transactions.add(new Transaction(
-                            data[0], data[1], Double.parseDouble(data[2]), data[3], data[4], data[5],
-                            data[6], data[7], data[8], data[9], data[10], data[11], data[12]
-                    ));
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading transactions: " + e.getMessage());
-        }
-        // NumberFormatException for Double.parseDouble is not explicitly caught here, as per Version 1
-        return transactions;
+        return TransactionStore.forFile(CSV_FILE).allTransactions();
+    }
+
+    /**
+     * Streams the transactions of a specific user, reading the CSV file lazily when they are not
+     * already cached. Suited to aggregations and short-circuiting checks; use try-with-resources
+     * so the file is released when the stream is abandoned early.
+     *
+     * @param username The username whose transactions are to be streamed.
+     * @return A stream of the user's transactions, in no guaranteed order.
+     */
+    public Stream<Transaction> streamTransactionsByUsername(String username) {
+        return TransactionStore.forFile(CSV_FILE).streamFor(username);
+    }
+
+    /**
+     * Streams every transaction in the CSV file, reading it lazily when it is not already cached.
+     *
+     * @return A stream of all transactions.
+     */
+    public Stream<Transaction> streamAllTransactions() {
+        return TransactionStore.forFile(CSV_FILE).streamAll();
     }
 
     /**
@@ -86,24 +75,47 @@ public class TransactionRepository {
      * @param startDate  The start date-time of the period (inclusive).
      * @param endDate    The end date-time of the period (inclusive).
      * @return A list of {@link Transaction} objects for the user within the specified period.
-     * Filters transactions based on their timestamp. Transactions with unparseable
-     * timestamps are logged and skipped.
+     * Only the matching part of the user's time-sorted history is read, or only the overlapping
+     * monthly segments when that layout is enabled.
      */
     public List<Transaction> readTransactionsForUserInPeriod(String username, LocalDateTime startDate, LocalDateTime endDate) {
-        List<Transaction> userTransactions = findTransactionsByUsername(username); // Uses Version 1's findTransactionsByUsername
-        return userTransactions.stream()
-                .filter(tx -> {
-                    try {
-                        LocalDateTime txTimestamp = LocalDateTime.parse(tx.getTimestamp(), DATE_FORMATTER);
-                        // Check if transaction timestamp is within the [startDate, endDate] range
-                        return !txTimestamp.isBefore(startDate) && !txTimestamp.isAfter(endDate);
-                    } catch (Exception e) { // Catch broader exceptions for parsing issues
-                        System.err.println("Error parsing transaction timestamp in readTransactionsForUserInPeriod: "
-                                + tx.getTimestamp() + " for user " + username + " - " + e.getMessage());
-                        return false; // Exclude problematic transactions
-                    }
-                })
-                .collect(Collectors.toList());
+        return TransactionStore.forFile(CSV_FILE).transactionsBetween(username,
+                TimestampCodec.toEpochMinuteRoundingUp(startDate), TimestampCodec.toEpochMinute(endDate));
+    }
+
+    /**
+     * Retrieves the monthly rollups of a user over a range of months: income, expenses, number of
+     * transactions and per-category sums of each month. The rollups are maintained by every write,
+     * so this costs one lookup per month instead of a pass over the user's transactions.
+     *
+     * @param username The username whose rollups are to be retrieved.
+     * @param from     The first month, inclusive.
+     * @param to       The last month, inclusive.
+     * @return One {@link MonthlyRollup} per month from {@code from} to {@code to}, oldest first.
+     */
+    public List<MonthlyRollup> findMonthlyRollups(String username, YearMonth from, YearMonth to) {
+        return TransactionStore.forFile(CSV_FILE).monthlyRollups(username, from, to);
+    }
+
+    /**
+     * Retrieves the balance of a user over all their transactions, as income minus expenses.
+     *
+     * @param username The username whose balance is to be retrieved.
+     * @return The balance in cents.
+     */
+    public long findBalanceCents(String username) {
+        return TransactionStore.forFile(CSV_FILE).balanceCents(username);
+    }
+
+    /**
+     * Retrieves a version of a user's transactions that changes whenever they may have changed,
+     * so results computed from them can be reused until it does.
+     *
+     * @param username The username.
+     * @return The current version of the user's transactions.
+     */
+    public long findDataVersion(String username) {
+        return TransactionStore.forFile(CSV_FILE).versionOf(username);
     }
 
     /**
@@ -125,19 +137,11 @@ public class TransactionRepository {
      * @return A list of {@link Transaction} objects representing expenses within the specified week.
      */
     public List<Transaction> findWeeklyExpenses(String username, LocalDateTime startOfWeek) {
-        List<Transaction> transactions = findTransactionsByUsername(username);
         LocalDateTime endOfWeek = startOfWeek.plusDays(7);
+        List<Transaction> transactions = TransactionStore.forFile(CSV_FILE).transactionsBetween(username,
+                TimestampCodec.toEpochMinuteRoundingUp(startOfWeek), TimestampCodec.toEpochMinuteRoundingUp(endOfWeek) - 1);
         return transactions.stream()
                 .filter(t -> "Expense".equalsIgnoreCase(t.getOperation()))
-                .filter(t -> {
-                    try {
-                        LocalDateTime transactionTime = LocalDateTime.parse(t.getTimestamp(), DATE_FORMATTER);
-                        return !transactionTime.isBefore(startOfWeek) && transactionTime.isBefore(endOfWeek);
-                    } catch (Exception e) {
-                        System.err.println("Invalid timestamp: " + t.getTimestamp() + " - " + e.getMessage());
-                        return false;
-                    }
-                })
                 .collect(Collectors.toList());
     }
 
@@ -149,34 +153,7 @@ public class TransactionRepository {
      * @return A list of {@link Transaction} objects for the user, or an empty list if an error occurs.
      */
     public static List<Transaction> readTransactions(String username) {
-        List<Transaction> transactions = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(CSV_FILE))) { // Hardcoded filename from V1
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",", -1); // Use -1 to keep empty trailing fields
-                if (data.length >= 13 && data[0].equals(username)) {
-                    transactions.add(new Transaction(
-                            data[0], // accountUsername
-                            data[1], // operation
-                            Double.parseDouble(data[2]), // amount
-                            data[3], // timestamp
-                            data[4], // merchant
-                            data[5], // type
-                            data[6], // remark
-                            data[7], // category
-                            data[8], // paymentMethod
-                            data[9], // location
-                            data[10], // tag
-                            data[11], // attachment
-                            data[12] // recurrence
-                    ));
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace(); // Maintained from V1
-        }
-        // NumberFormatException for Double.parseDouble is not explicitly caught here, as per Version 1
-        return transactions;
+        return TransactionStore.forFile(CSV_FILE).transactionsFor(username);
     }
 
     /**
@@ -186,34 +163,42 @@ public class TransactionRepository {
      * @return A list of all {@link Transaction} objects, or an empty list if an error occurs.
      */
     public List<Transaction> readAllTransactions() {
-        List<Transaction> transactions = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(CSV_FILE))) { // Hardcoded filename from V1
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",", -1); // Use -1 to keep empty trailing fields
-                if (data.length >= 13) {
-                    transactions.add(new Transaction(
-                            data[0], // accountUsername
-                            data[1], // operation
-                            Double.parseDouble(data[2]), // amount
-                            data[3], // timestamp
-                            data[4], // merchant
-                            data[5], // type
-                            data[6], // remark
-                            data[7], // category
-                            data[8], // paymentMethod
-                            data[9], // location
-                            data[10], // tag
-                            data[11], // attachment
-                            data[12] // recurrence
-                    ));
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace(); // Maintained from V1
-        }
-        // NumberFormatException for Double.parseDouble is not explicitly caught here, as per Version 1
-        return transactions;
+        return TransactionStore.forFile(CSV_FILE).allTransactions();
+    }
+
+    /**
+     * Enables the month-partitioned storage layout for the configured CSV file, so that period
+     * queries for users not yet loaded only read the months they cover.
+     *
+     * @param directory The directory holding the monthly segments, e.g. "data".
+     */
+    public static void enableMonthlySegments(String directory) {
+        TransactionStore.forFile(CSV_FILE).enableMonthlySegments(new File(directory));
+    }
+
+    /**
+     * Switches the configured CSV file to sharded storage, with each user's rows kept in one of
+     * several shard files. The first call migrates the existing rows; the original file is kept as
+     * {@code <csv>.migrated}. Whole-ledger reads then merge the shards in parallel. Later runs find
+     * the layout through {@code <csv>.shards} and reattach it without calling this again.
+     *
+     * @param directory  The directory holding the shards, e.g. "shards".
+     * @param shardCount The number of shards to create if the layout does not exist yet.
+     * @throws IOException If the layout cannot be opened or the migration fails.
+     */
+    public static void enableSharding(String directory, int shardCount) throws IOException {
+        TransactionStore.forFile(CSV_FILE).enableSharding(new File(directory), shardCount);
+    }
+
+    /**
+     * Configures how the group-commit writer batches appended transactions and forces them to disk,
+     * for every transactions file.
+     *
+     * @param flushIntervalMillis How long to collect appends after the first one of a batch; 0 commits as soon as possible.
+     * @param syncPolicy          When committed rows are forced to the storage device.
+     */
+    public static void configureWriter(long flushIntervalMillis, TransactionStore.SyncPolicy syncPolicy) {
+        TransactionStore.configureWriter(flushIntervalMillis, syncPolicy);
     }
 
     /**
@@ -0,0 +1,275 @@
+package Repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import Model.Transaction;
+import utils.AtomicFiles;
+
+/**
+ * Hash-bucketed layout of a transactions CSV file, with the rows of each user kept in one of a
+ * fixed number of shard files ({@code <root>/shard-NN.csv}). Each shard is an ordinary transactions
+ * CSV served by its own {@link TransactionStore}, so a per-user query or append only touches one
+ * shard and writes to different shards never contend on the same lock or file.
+ * <p>
+ * The number of shards is fixed when the layout is created and recorded in {@code <root>/shards.manifest}.
+ * Creating the layout migrates the live rows of the single file once; the original file is then
+ * kept next to itself as {@code <csv>.migrated}. The location of the layout is recorded next to
+ * the single file in {@code <csv>.shards} before that file is set aside, so a store opened on the
+ * same path later, for instance after a restart, reattaches the shards through {@link #reopen(File)}.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class TransactionShards {
+    /** Name of the manifest recording the number of shards; written last, so it marks a finished migration. */
+    private static final String MANIFEST = "shards.manifest";
+
+    /** Suffix of the file next to the single CSV file that records where its shards are. */
+    private static final String LOCATOR_SUFFIX = ".shards";
+
+    /** Buffered bytes above which the migration writes them out. */
+    private static final int FLUSH_THRESHOLD = 8 << 20;
+
+    /** The directory holding the shards. */
+    private final File root;
+
+    /** The store of each shard, indexed by bucket. */
+    private final List<TransactionStore> stores = new ArrayList<>();
+
+    private TransactionShards(File root, int shardCount) {
+        this.root = root;
+        for (int i = 0; i < shardCount; i++) {
+            stores.add(TransactionStore.forFile(shardFile(root, i).getPath()));
+        }
+    }
+
+    /**
+     * Opens the sharded layout in the given directory, migrating the single file into it first if
+     * the layout does not exist yet. An existing layout keeps the number of shards it was created with.
+     *
+     * @param root       The directory holding the shards.
+     * @param shardCount The number of shards to create if the layout does not exist yet.
+     * @param source     The store of the single file to migrate.
+     * @return The opened layout.
+     * @throws IOException If the layout cannot be read or the migration fails.
+     */
+    static TransactionShards open(File root, int shardCount, TransactionStore source) throws IOException {
+        File manifest = new File(root, MANIFEST);
+        if (manifest.exists()) {
+            try {
+                int recorded = Integer.parseInt(Files.readString(manifest.toPath(), StandardCharsets.UTF_8).trim());
+                if (recorded != shardCount) {
+                    System.out.println("Keeping the existing " + recorded + " transaction shards in " + root.getPath());
+                }
+                recordLocation(source.file(), root);
+                return new TransactionShards(root, recorded);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid shard manifest: " + manifest.getPath());
+            }
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        migrate(root, shardCount, source);
+        return new TransactionShards(root, shardCount);
+    }
+
+    /**
+     * Reopens the sharded layout recorded next to a single CSV file by an earlier migration.
+     *
+     * @param source The store of the single CSV file the layout replaced.
+     * @return The opened layout, or {@code null} if the file was never sharded.
+     * @throws IOException If the layout is recorded but its manifest is missing or invalid.
+     */
+    static TransactionShards reopen(TransactionStore source) throws IOException {
+        File csvFile = source.file();
+        File locator = locatorFor(csvFile);
+        if (!locator.exists()) {
+            return null;
+        }
+        String recorded = Files.readString(locator.toPath(), StandardCharsets.UTF_8).trim();
+        File root = csvFile.toPath().resolveSibling(recorded).toFile().getAbsoluteFile();
+        if (!new File(root, MANIFEST).exists()) {
+            throw new IOException("Transaction shards recorded in " + locator.getPath() + " have no manifest in " + root.getPath());
+        }
+        return open(root, 0, source);
+    }
+
+    /**
+     * Checks whether a single CSV file has been migrated into a sharded layout recorded next to it.
+     *
+     * @param csvFile The single CSV file.
+     * @return {@code true} if the file's rows live in shards.
+     */
+    static boolean isRecorded(File csvFile) {
+        return locatorFor(csvFile).exists();
+    }
+
+    /**
+     * Returns the store of the shard holding a user's rows.
+     *
+     * @param username The user.
+     * @return The store of the user's shard.
+     */
+    TransactionStore storeFor(String username) {
+        return stores.get(bucketOf(username, stores.size()));
+    }
+
+    /**
+     * Returns the stores of every shard, in bucket order.
+     *
+     * @return The shard stores.
+     */
+    List<TransactionStore> stores() {
+        return stores;
+    }
+
+    /**
+     * Reads every shard in parallel and merges their rows, shard by shard.
+     *
+     * @return A new list with all transactions.
+     */
+    List<Transaction> allTransactions() {
+        return stores.parallelStream()
+                .map(TransactionStore::allTransactions)
+                .flatMap(List::stream)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Turns on monthly segments for every shard, each in its own subdirectory.
+     *
+     * @param directory The directory holding the segments of all shards.
+     */
+    void enableMonthlySegments(File directory) {
+        for (int i = 0; i < stores.size(); i++) {
+            stores.get(i).enableMonthlySegments(new File(directory, shardName(i)));
+        }
+    }
+
+    /**
+     * Copies the live rows of the single file into new shard files, then records the manifest and
+     * sets the single file aside. Shards are written under temporary names and only moved into
+     * place once complete, so an interrupted migration is simply repeated.
+     */
+    private static void migrate(File root, int shardCount, TransactionStore source) throws IOException {
+        Files.createDirectories(root.toPath());
+        File sourceFile = source.file();
+        byte[] header = (TransactionStore.readHeader(sourceFile) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        List<File> tempFiles = new ArrayList<>();
+        List<ByteArrayOutputStream> pending = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            File tempFile = new File(root, shardName(i) + ".csv.tmp");
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                out.write(header);
+            }
+            tempFiles.add(tempFile);
+            pending.add(new ByteArrayOutputStream());
+        }
+
+        int[] migrated = {0};
+        if (sourceFile.exists()) {
+            try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+                IOException[] failure = {null};
+                long[] buffered = {0};
+                source.forEachLiveRow((transaction, offset, length) -> {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    try {
+                        ByteBuffer row = ByteBuffer.allocate((int) length);
+                        while (row.hasRemaining() && channel.read(row, offset + row.position()) > 0) {
+                            // Keep reading until the row is complete
+                        }
+                        ByteArrayOutputStream out = pending.get(bucketOf(transaction.getAccountUsername(), shardCount));
+                        out.write(row.array(), 0, row.position());
+                        if (row.position() == 0 || row.get(row.position() - 1) != '\n') {
+                            out.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+                        }
+                        migrated[0]++;
+                        buffered[0] += row.position();
+                        if (buffered[0] > FLUSH_THRESHOLD) {
+                            flush(tempFiles, pending);
+                            buffered[0] = 0;
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+        }
+        flush(tempFiles, pending);
+
+        for (int i = 0; i < shardCount; i++) {
+            File shard = shardFile(root, i);
+            TransactionStore.forFile(shard.getPath()).invalidate();
+            new File(shard.getPath() + ".journal").delete();
+            TransactionSnapshot.delete(shard);
+            Files.move(tempFiles.get(i).toPath(), shard.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        AtomicFiles.write(new File(root, MANIFEST).toPath(), String.valueOf(shardCount).getBytes(StandardCharsets.UTF_8));
+        // Recorded before the single file is set aside, so the rows are always reachable from its path
+        recordLocation(sourceFile, root);
+        if (sourceFile.exists()) {
+            source.retire(new File(sourceFile.getPath() + ".migrated"));
+        }
+        System.out.println("Migrated " + migrated[0] + " transactions into " + shardCount + " shards in " + root.getPath());
+    }
+
+    /**
+     * Records where the shards of a single CSV file are, as a path relative to its directory.
+     */
+    private static void recordLocation(File csvFile, File root) throws IOException {
+        File locator = locatorFor(csvFile);
+        String location = csvFile.getAbsoluteFile().toPath().getParent().relativize(root.getAbsoluteFile().toPath()).toString();
+        if (locator.exists() && Files.readString(locator.toPath(), StandardCharsets.UTF_8).trim().equals(location)) {
+            return;
+        }
+        AtomicFiles.write(locator.toPath(), location.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static File locatorFor(File csvFile) {
+        return new File(csvFile.getPath() + LOCATOR_SUFFIX);
+    }
+
+    private static void flush(List<File> tempFiles, List<ByteArrayOutputStream> pending) throws IOException {
+        for (int i = 0; i < pending.size(); i++) {
+            ByteArrayOutputStream rows = pending.get(i);
+            if (rows.size() == 0) {
+                continue;
+            }
+            try (OutputStream out = new FileOutputStream(tempFiles.get(i), true)) {
+                rows.writeTo(out);
+            }
+            rows.reset();
+        }
+    }
+
+    private static int bucketOf(String username, int shardCount) {
+        return Math.floorMod(username == null ? 0 : username.hashCode(), shardCount);
+    }
+
+    private static String shardName(int bucket) {
+        return "shard-%02d".formatted(bucket);
+    }
+
+    private static File shardFile(File root, int bucket) {
+        return new File(root, shardName(bucket) + ".csv");
+    }
+}
@@ -0,0 +1,261 @@
+package Repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import Model.Transaction;
+import utils.TimestampCodec;
+
+/**
+ * Binary, column-oriented snapshot of the rows of a transactions CSV file ({@code transactions.sfcol}).
+ * Amounts in cents, epoch-minute timestamps and IDs are stored as primitive arrays and every
+ * text column as codes into a shared string dictionary, so loading a snapshot is one sequential
+ * read with no date or number parsing. A snapshot covers a prefix of the CSV file: it records the length and
+ * modification time it was built from and a checksum of the whole prefix, so rows appended afterwards
+ * can be replayed from the CSV while a rewritten file is detected, even one edited in place to the
+ * same length. See {@link #isPrefixUnchanged(File, long, long, long)}.
+ * <p>
+ * Layout: a header (magic, version, covered length, modification time, prefix checksum, row count),
+ * the dictionary, the columns, and a CRC32 of everything after the header.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class TransactionSnapshot {
+    /** Magic number identifying a snapshot file ("SFCL"). */
+    private static final int MAGIC = 0x5346434C;
+
+    /**
+     * Version of the snapshot layout; 2 stores amounts as cents, 3 adds transaction IDs, 4 checksums
+     * the whole covered prefix instead of its first and last bytes, 5 leaves its length out of the
+     * checksum so it can be kept running by {@link PrefixChecksum}.
+     */
+    private static final int VERSION = 5;
+
+    /** Size of the header in bytes. */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+
+    /** Number of dictionary-coded text columns. */
+    private static final int TEXT_COLUMNS = 11;
+
+    private TransactionSnapshot() {
+    }
+
+    /**
+     * Returns the snapshot file belonging to a CSV file: {@code transactions.csv} maps to {@code transactions.sfcol}.
+     *
+     * @param csvFile The CSV file.
+     * @return The snapshot file next to it.
+     */
+    static File snapshotFileFor(File csvFile) {
+        String name = csvFile.getName();
+        String base = name.toLowerCase().endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+        return new File(csvFile.getParentFile(), base + ".sfcol");
+    }
+
+    /**
+     * Loads the snapshot of a CSV file if it is intact and still describes a prefix of the file.
+     * Rows are only passed to the handler once the whole snapshot has been verified.
+     *
+     * @param csvFile The CSV file the snapshot was built from.
+     * @param handler Receives the rows of the snapshot in file order.
+     * @return The number of CSV bytes covered by the snapshot, or -1 if there is no usable snapshot.
+     */
+    static long load(File csvFile, MappedTransactionScanner.RowHandler handler) {
+        File snapshotFile = snapshotFileFor(csvFile);
+        if (!snapshotFile.exists() || snapshotFile.length() < HEADER_SIZE + 8) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return -1;
+            }
+            long coveredLength = buffer.getLong();
+            long csvModified = buffer.getLong();
+            long prefixChecksum = buffer.getLong();
+            int rowCount = buffer.getInt();
+            if (!isPrefixUnchanged(csvFile, coveredLength, csvModified, prefixChecksum)) {
+                return -1;
+            }
+
+            int payloadEnd = buffer.limit() - 8;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(HEADER_SIZE, payloadEnd - HEADER_SIZE));
+            if (crc.getValue() != buffer.getLong(payloadEnd)) {
+                return -1;
+            }
+
+            String[] dictionary = new String[buffer.getInt()];
+            byte[] scratch = new byte[64];
+            for (int i = 0; i < dictionary.length; i++) {
+                int length = buffer.getInt();
+                if (scratch.length < length) scratch = new byte[length];
+                buffer.get(scratch, 0, length);
+                dictionary[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            long[] offsets = new long[rowCount];
+            int[] lengths = new int[rowCount];
+            long[] amounts = new long[rowCount];
+            long[] minutes = new long[rowCount];
+            long[] ids = new long[rowCount];
+            int[][] text = new int[TEXT_COLUMNS][rowCount];
+            buffer.asLongBuffer().get(offsets);
+            buffer.position(buffer.position() + rowCount * 8);
+            buffer.asIntBuffer().get(lengths);
+            buffer.position(buffer.position() + rowCount * 4);
+            buffer.asLongBuffer().get(amounts);
+            buffer.position(buffer.position() + rowCount * 8);
+            buffer.asLongBuffer().get(minutes);
+            buffer.position(buffer.position() + rowCount * 8);
+            buffer.asLongBuffer().get(ids);
+            buffer.position(buffer.position() + rowCount * 8);
+            for (int[] column : text) {
+                buffer.asIntBuffer().get(column);
+                buffer.position(buffer.position() + rowCount * 4);
+            }
+
+            Map<Long, String> timestamps = new HashMap<>();
+            for (int i = 0; i < rowCount; i++) {
+                String timestamp = timestamps.computeIfAbsent(minutes[i], TimestampCodec::format);
+                handler.onRow(Transaction.ofCents(
+                        dictionary[text[0][i]], dictionary[text[1][i]], amounts[i], timestamp,
+                        dictionary[text[2][i]], dictionary[text[3][i]], dictionary[text[4][i]],
+                        dictionary[text[5][i]], dictionary[text[6][i]], dictionary[text[7][i]],
+                        dictionary[text[8][i]], dictionary[text[9][i]], dictionary[text[10][i]], ids[i]
+                ), offsets[i], lengths[i]);
+            }
+            return coveredLength;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring transaction snapshot: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given rows, replacing any previous snapshot of the CSV file.
+     *
+     * @param csvFile       The CSV file the rows were read from.
+     * @param coveredLength The number of CSV bytes the rows describe.
+     * @param csvModified   The modification time of the CSV file when the rows were read.
+     * @param transactions  The rows, in file order.
+     * @param offsets       The byte offset of each row.
+     * @param lengths       The byte length of each row.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    static void write(File csvFile, long coveredLength, long csvModified, List<Transaction> transactions,
+                      long[] offsets, long[] lengths) throws IOException {
+        int rowCount = transactions.size();
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[][] text = new int[TEXT_COLUMNS][rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            Transaction tx = transactions.get(i);
+            String[] values = {tx.getAccountUsername(), tx.getOperation(), tx.getMerchant(), tx.getType(),
+                    tx.getRemark(), tx.getCategory(), tx.getPaymentMethod(), tx.getLocation(), tx.getTag(),
+                    tx.getAttachment(), tx.getRecurrence()};
+            for (int column = 0; column < TEXT_COLUMNS; column++) {
+                String value = values[column] == null ? "" : values[column];
+                Integer code = codes.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    codes.put(value, code);
+                    dictionary.add(value);
+                }
+                text[column][i] = code;
+            }
+        }
+
+        File snapshotFile = snapshotFileFor(csvFile);
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+            DataOutputStream header = new DataOutputStream(fileOut);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(coveredLength);
+            header.writeLong(csvModified);
+            header.writeLong(prefixChecksum(csvFile, coveredLength));
+            header.writeInt(rowCount);
+            header.flush();
+
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(dictionary.size());
+            for (String value : dictionary) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for (int i = 0; i < rowCount; i++) out.writeLong(offsets[i]);
+            for (int i = 0; i < rowCount; i++) out.writeInt((int) lengths[i]);
+            for (int i = 0; i < rowCount; i++) out.writeLong(transactions.get(i).getAmountCents());
+            for (int i = 0; i < rowCount; i++) out.writeLong(transactions.get(i).getEpochMinute());
+            for (int i = 0; i < rowCount; i++) out.writeLong(transactions.get(i).getId());
+            for (int[] column : text) {
+                for (int code : column) out.writeInt(code);
+            }
+            out.flush();
+            long checksum = checked.getChecksum().getValue();
+            DataOutputStream trailer = new DataOutputStream(fileOut);
+            trailer.writeLong(checksum);
+            trailer.flush();
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes the snapshot of a CSV file, if any.
+     *
+     * @param csvFile The CSV file.
+     */
+    static void delete(File csvFile) {
+        snapshotFileFor(csvFile).delete();
+    }
+
+    /**
+     * Checks whether a prefix of a file still holds the bytes a derived file was built from. If the
+     * file still has the recorded length and modification time it is taken as unchanged; otherwise,
+     * for instance after rows were appended or the file was edited by hand, the whole prefix is
+     * checksummed and compared with the recorded checksum.
+     *
+     * @param file             The file.
+     * @param coveredLength    The length of the prefix.
+     * @param recordedModified The modification time of the file when the prefix was read.
+     * @param recordedChecksum The {@link #prefixChecksum(File, long)} of the prefix when it was read.
+     * @return {@code true} if the prefix is unchanged.
+     * @throws IOException If the file cannot be read.
+     */
+    static boolean isPrefixUnchanged(File file, long coveredLength, long recordedModified, long recordedChecksum) throws IOException {
+        return new PrefixChecksum(file).isUnchanged(coveredLength, recordedModified, recordedChecksum);
+    }
+
+    /**
+     * Computes a checksum of every byte of a prefix of a file.
+     *
+     * @param file          The file.
+     * @param coveredLength The length of the prefix.
+     * @return The checksum.
+     * @throws IOException If the file cannot be read or is shorter than the prefix.
+     */
+    static long prefixChecksum(File file, long coveredLength) throws IOException {
+        return new PrefixChecksum(file).valueAt(coveredLength);
+    }
+}
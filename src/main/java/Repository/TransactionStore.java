@@ -0,0 +1,1851 @@
+package Repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import Model.MonthlyRollup;
+import Model.Transaction;
+import Model.TransactionField;
+import utils.AtomicFiles;
+import utils.CommitBatcher;
+import utils.TimestampCodec;
+
+/**
+ * Process-wide, in-memory view of a transactions CSV file.
+ * The store keeps a username index whose lists are sorted by timestamp and, once somebody asks
+ * for every transaction, a ledger in file order. Users are loaded lazily with a filtered
+ * {@link MappedTransactionScanner} pass, so a per-user query only materializes that user's rows.
+ * Every reader of the same file shares one instance, so repeated queries are served from memory
+ * instead of re-reading the CSV. A full load starts from the binary {@link TransactionSnapshot}
+ * when one is fresh and only parses the rows appended since.
+ * <p>
+ * Every row carries a stable ID in its last column, and the rows of loaded users are indexed by it,
+ * so a single transaction can be deleted or edited without looking at the other rows of its user.
+ * Each loaded user also has {@link UserTotals} that every write moves by the amount of its rows,
+ * so a balance or a month's rollup (income, expenses, count and per-category sums) is read in
+ * constant time; a background job periodically checks
+ * them against a recount and repairs any drift. The totals of every user are persisted to a
+ * {@link RollupSidecar} shortly after they change, so after a restart they are read from it and
+ * only the rows appended since are replayed, without loading anybody's history. Text fields that statistics group by can be given a
+ * {@link FieldIndex}, whose posting lists are maintained the same way.
+ * <p>
+ * Appends are committed in batches by a {@link GroupCommitWriter} with a configurable fsync policy.
+ * The CSV file is append-only. Deleting a row appends a tombstone to a journal file next to it
+ * ({@code <csv>.journal}); an edit is a tombstone followed by an appended row. Reads skip
+ * tombstoned rows, and a background compactor rewrites the CSV without them once they make up
+ * more than the configured share of the file. Changes made to either file by anyone else are
+ * detected through their length and modification time and drop the cached state.
+ * <p>
+ * Optionally the store also maintains {@link MonthlySegments}, a month-partitioned copy of the
+ * file that lets time-range queries for users not held in memory open only the months they cover.
+ * It can also be switched to {@link TransactionShards}, after which every call is routed to the
+ * shard file holding the user's rows and whole-ledger reads merge the shards in parallel.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public class TransactionStore {
+    /** Shared stores, keyed by the absolute path of the CSV file they represent. */
+    private static final Map<String, TransactionStore> STORES = new ConcurrentHashMap<>();
+
+    /** Orders rows chronologically by their epoch minute. */
+    private static final Comparator<Row> BY_TIMESTAMP = Comparator.comparingLong(row -> row.transaction.getEpochMinute());
+
+    /** Suffix of the journal file holding tombstones. */
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    /** Record type of a tombstone in the journal. */
+    private static final String TOMBSTONE_RECORD = "D";
+
+    /** Tombstoned rows occupying fewer bytes than this are never compacted. */
+    private static final long MIN_COMPACTION_GARBAGE = 4096;
+
+    /** Number of CSV bytes parsed as text during a full load above which a new snapshot is written. */
+    private static final long SNAPSHOT_MIN_TAIL = 256 * 1024;
+
+    /** Number of changes to running totals after which a background reconciliation is scheduled. */
+    private static final int RECONCILE_INTERVAL = 1024;
+
+    /** How long after a change to the running totals the rollup sidecar is rewritten. */
+    private static final long ROLLUP_COMMIT_DELAY_MS = 1000;
+
+    /** Header written to files created by the store when no header can be copied. */
+    static final String DEFAULT_HEADER = "user,operation,amount,time,merchant,type,remark,category,payment_method,location,tag,attachment,recurrence,id";
+
+    /** Header of files written before rows carried an ID; compaction replaces it with {@link #DEFAULT_HEADER}. */
+    static final String LEGACY_HEADER = "user,operation,amount,time,merchant,type,remark,category,payment_method,location,tag,attachment,recurrence";
+
+    /** Earliest minute a timestamp can denote (0000/01/01 00:00). */
+    private static final long FIRST_MINUTE = TimestampCodec.toEpochDay(0, 1, 1) * TimestampCodec.MINUTES_PER_DAY;
+
+    /** Latest minute a timestamp can denote (9999/12/31 23:59). */
+    private static final long LAST_MINUTE = (TimestampCodec.toEpochDay(9999, 12, 31) + 1) * TimestampCodec.MINUTES_PER_DAY - 1;
+
+    /** Share of the CSV file occupied by tombstoned rows above which compaction is triggered. */
+    private static volatile double compactionThreshold = 0.25;
+
+    /** Source of the version stamps of every store, so no two changes share a stamp. */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /** Writer committing appends of every store in batches. */
+    private static final GroupCommitWriter WRITER = new GroupCommitWriter();
+
+    /** Background thread running compactions and snapshot writes. */
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "transaction-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The CSV file backing this store. */
+    private final File file;
+
+    /** The journal holding tombstones for rows of the CSV file. */
+    private final File journal;
+
+    /** A read-write lock guarding the in-memory state and writes to the files. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Every live row in the file, in file order; only valid when {@link #fullyLoaded} is set. */
+    private final List<Row> ledger = new ArrayList<>();
+
+    /** Live rows of the users loaded so far, each list sorted by timestamp. */
+    private final Map<String, List<Row>> byUser = new HashMap<>();
+
+    /** Live rows of the users loaded so far, keyed by transaction ID. */
+    private final Map<Long, Row> byId = new HashMap<>();
+
+    /**
+     * Running totals of users, computed from their rows the first time they are asked for, or
+     * for every user at once from the {@link RollupSidecar}.
+     */
+    private final Map<String, UserTotals> totals = new HashMap<>();
+
+    /** Version stamp of the last write to each user's rows. */
+    private final Map<String, Long> userVersions = new HashMap<>();
+
+    /** Version stamp of the last time the cached state was dropped, which may have changed any user. */
+    private long clearedVersion;
+
+    /** Whether {@link #totals} holds every user of the file, in which case a missing user has no transactions. */
+    private boolean allTotalsLoaded;
+
+    /** Rewrites the rollup sidecar once a burst of changes to the running totals is over. */
+    private final CommitBatcher rollupCommits;
+
+    /** Secondary indexes enabled with {@link #enableFieldIndex(TransactionField)}. */
+    private final Map<TransactionField, FieldIndex> fieldIndexes = new EnumMap<>(TransactionField.class);
+
+    /** Number of rows added to or removed from running totals since they were last reconciled. */
+    private int changesSinceReconcile;
+
+    /** Whether a reconciliation has been scheduled and has not run yet. */
+    private final AtomicBoolean reconcilePending = new AtomicBoolean();
+
+    /** Tombstones read from the journal, keyed by the offset of the row they delete. */
+    private final Map<Long, Tombstone> tombstones = new HashMap<>();
+
+    /** Total length in bytes of the rows deleted by {@link #tombstones}. */
+    private long garbageBytes;
+
+    /** Whether the whole file has been loaded, in which case every user is present in {@link #byUser}. */
+    private boolean fullyLoaded;
+
+    /** Whether the journal has been read since the state was last cleared. */
+    private boolean journalLoaded;
+
+    /** The month-partitioned copy of the file, or {@code null} if that layout is not enabled. */
+    private MonthlySegments segments;
+
+    /** The sharded layout every call is routed to, or {@code null} while the single file is used. */
+    private volatile TransactionShards shards;
+
+    /** Whether {@link #reattachShards()} has looked for a sharded layout recorded by an earlier run. */
+    private volatile boolean shardsChecked;
+
+    /** Whether a compaction has been scheduled and has not run yet. */
+    private final AtomicBoolean compactionPending = new AtomicBoolean();
+
+    /** File length observed when the in-memory state was last synchronized. */
+    private long loadedLength = -1;
+
+    /** File modification time observed when the in-memory state was last synchronized. */
+    private long loadedModified = -1;
+
+    /** Journal length observed when the in-memory state was last synchronized. */
+    private long journalLength = -1;
+
+    /** Journal modification time observed when the in-memory state was last synchronized. */
+    private long journalModified = -1;
+
+    /** Running checksum of the file, recorded in the rollup sidecar without reading the whole file each time. */
+    private final PrefixChecksum fileChecksum;
+
+    /** Running checksum of the journal, recorded in the rollup sidecar next to {@link #fileChecksum}. */
+    private final PrefixChecksum journalChecksum;
+
+    /**
+     * When appended rows are forced to the storage device.
+     */
+    public enum SyncPolicy {
+        /** Rows are left to the operating system to write back. */
+        NONE,
+        /** Each batch is forced once, after all its rows are written. */
+        PER_BATCH,
+        /** Each row is forced as soon as it is written. */
+        PER_RECORD
+    }
+
+    /**
+     * A live row of the CSV file together with its position.
+     */
+    private static final class Row {
+        final Transaction transaction;
+        final long offset;
+        final long length;
+
+        Row(Transaction transaction, long offset, long length) {
+            this.transaction = transaction;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A journal record deleting the row at a given offset. The username and timestamp of the row
+     * are kept so that a record is only applied to the row it was written for.
+     */
+    private static final class Tombstone {
+        final long length;
+        final String timestamp;
+        final String username;
+
+        Tombstone(long length, String timestamp, String username) {
+            this.length = length;
+            this.timestamp = timestamp;
+            this.username = username;
+        }
+
+        boolean matches(Transaction transaction) {
+            return username.equals(transaction.getAccountUsername()) && timestamp.equals(transaction.getTimestamp());
+        }
+    }
+
+    /**
+     * Constructs a store for the given file. Use {@link #forFile(String)} to obtain the shared instance.
+     *
+     * @param file The CSV file backing the store.
+     */
+    private TransactionStore(File file) {
+        this.file = file;
+        this.journal = new File(file.getPath() + JOURNAL_SUFFIX);
+        this.fileChecksum = new PrefixChecksum(file);
+        this.journalChecksum = new PrefixChecksum(journal);
+        this.rollupCommits = new CommitBatcher(RollupSidecar.sidecarFileFor(file).getName(), ROLLUP_COMMIT_DELAY_MS,
+                this::writeRollups);
+    }
+
+    /**
+     * Returns the shared store for the given CSV path, creating it on first use.
+     *
+     * @param csvPath The path to the transactions CSV file.
+     * @return The store representing that file.
+     */
+    public static TransactionStore forFile(String csvPath) {
+        File file = new File(csvPath).getAbsoluteFile();
+        TransactionStore store = STORES.computeIfAbsent(file.getPath(), key -> new TransactionStore(file));
+        // Outside computeIfAbsent, since opening the shards opens their own stores
+        store.reattachShards();
+        return store;
+    }
+
+    /**
+     * Checks whether the rows of a CSV file have been migrated into a sharded layout. The file
+     * itself is then no longer read, and must not be recreated empty next to the layout's locator.
+     *
+     * @param csvPath The path to the transactions CSV file.
+     * @return {@code true} if the file's rows live in shards.
+     */
+    public static boolean isSharded(String csvPath) {
+        return TransactionShards.isRecorded(new File(csvPath).getAbsoluteFile());
+    }
+
+    /**
+     * Switches a newly opened store to the sharded layout an earlier run migrated its file into,
+     * if any. Only looks for the layout once per store.
+     */
+    private void reattachShards() {
+        if (shardsChecked) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (shardsChecked) {
+                return;
+            }
+            shardsChecked = true;
+            if (shards == null) {
+                shards = TransactionShards.reopen(this);
+                if (shards != null && segments != null) {
+                    shards.enableMonthlySegments(segments.root());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reopening transaction shards of " + file.getName() + ": " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the share of the CSV file that tombstoned rows may occupy before it is compacted.
+     *
+     * @param threshold The garbage ratio, between 0 and 1.
+     */
+    public static void setCompactionThreshold(double threshold) {
+        compactionThreshold = threshold;
+    }
+
+    /**
+     * Retrieves all transactions of a user, sorted by timestamp.
+     *
+     * @param username The username whose transactions are to be retrieved.
+     * @return A new list with the user's transactions, empty if there are none.
+     */
+    public List<Transaction> transactionsFor(String username) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).transactionsFor(username);
+        }
+        lock.readLock().lock();
+        try {
+            if (isUnchangedOnDisk() && (fullyLoaded || byUser.containsKey(username))) {
+                return transactionsOf(byUser.get(username));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            return transactionsOf(userRows(username));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the transactions of a user within a time range, sorted by timestamp.
+     * A user held in memory is answered by binary search on the sorted index; otherwise only the
+     * overlapping monthly segments are read when that layout is enabled, and the user is loaded if not.
+     *
+     * @param username   The username whose transactions are to be retrieved.
+     * @param fromMinute The start of the range in epoch minutes, inclusive.
+     * @param toMinute   The end of the range in epoch minutes, inclusive.
+     * @return A new list with the matching transactions.
+     */
+    public List<Transaction> transactionsBetween(String username, long fromMinute, long toMinute) {
+        // Timestamps only span years 0000 to 9999, so open-ended ranges are clamped to that span
+        fromMinute = Math.max(fromMinute, FIRST_MINUTE);
+        toMinute = Math.min(toMinute, LAST_MINUTE);
+        if (fromMinute > toMinute) {
+            return new ArrayList<>();
+        }
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).transactionsBetween(username, fromMinute, toMinute);
+        }
+        lock.readLock().lock();
+        try {
+            if (isUnchangedOnDisk() && (fullyLoaded || byUser.containsKey(username))) {
+                return rowsBetween(byUser.get(username), fromMinute, toMinute);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            if (!fullyLoaded && !byUser.containsKey(username) && segments != null) {
+                try {
+                    segments.refresh(file, journal, this::isDeleted);
+                    return segments.query(username, fromMinute, toMinute);
+                } catch (IOException e) {
+                    System.err.println("Error reading monthly segments: " + e.getMessage());
+                }
+            }
+            return rowsBetween(userRows(username), fromMinute, toMinute);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Turns on the month-partitioned layout, keeping a copy of the file in {@code <directory>/YYYY/MM.csv}.
+     *
+     * @param directory The directory holding the monthly segments.
+     */
+    public void enableMonthlySegments(File directory) {
+        lock.writeLock().lock();
+        try {
+            segments = new MonthlySegments(directory.getAbsoluteFile(), file);
+            if (shards != null) {
+                shards.enableMonthlySegments(directory.getAbsoluteFile());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Switches the store to the sharded layout in the given directory, migrating the rows of the
+     * single file into it the first time. From then on the single file is no longer read, also by
+     * stores opened on the same path later, which reattach the layout when created.
+     *
+     * @param directory  The directory holding the shards.
+     * @param shardCount The number of shards to create if the layout does not exist yet.
+     * @throws IOException If the layout cannot be opened or the migration fails.
+     */
+    public void enableSharding(File directory, int shardCount) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (shards != null) {
+                return;
+            }
+            TransactionShards opened = TransactionShards.open(directory.getAbsoluteFile(), shardCount, this);
+            if (segments != null) {
+                opened.enableMonthlySegments(segments.root());
+            }
+            shards = opened;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves every transaction in the file, in file order.
+     *
+     * @return A new list with all transactions.
+     */
+    public List<Transaction> allTransactions() {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.allTransactions();
+        }
+        lock.readLock().lock();
+        try {
+            if (fullyLoaded && isUnchangedOnDisk()) {
+                return transactionsOf(ledger);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            if (!fullyLoaded) {
+                loadAll();
+            }
+            return transactionsOf(ledger);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Streams the transactions of a user. Rows already held in memory are streamed from there,
+     * sorted by timestamp; otherwise the file is read lazily as the stream is consumed, in file
+     * order, without caching anything. Close the stream to release the file early.
+     *
+     * @param username The username whose transactions are to be streamed.
+     * @return A stream of the user's transactions.
+     */
+    public Stream<Transaction> streamFor(String username) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).streamFor(username);
+        }
+        return stream(username);
+    }
+
+    /**
+     * Streams every transaction in the file, in file order, reading the file lazily unless it is
+     * already held in memory. Close the stream to release the file early.
+     *
+     * @return A stream of all transactions.
+     */
+    public Stream<Transaction> streamAll() {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.stores().stream().flatMap(TransactionStore::streamAll);
+        }
+        return stream(null);
+    }
+
+    /**
+     * Streams the rows of one user, or of every user, from memory or lazily from the file.
+     */
+    private Stream<Transaction> stream(String username) {
+        lock.readLock().lock();
+        try {
+            if (isUnchangedOnDisk() && (fullyLoaded || (username != null && byUser.containsKey(username)))) {
+                return transactionsOf(username == null ? ledger : byUser.get(username)).stream();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Map<Long, Tombstone> deleted;
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            deleted = new HashMap<>(tombstones);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            return MappedTransactionScanner.stream(file, username, (transaction, offset) -> {
+                Tombstone tombstone = deleted.get(offset);
+                return tombstone != null && tombstone.matches(transaction);
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading transactions: " + e.getMessage());
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Appends a row to the CSV file and records the corresponding transaction in memory.
+     * The row goes through the group-commit writer, so concurrent appends share one write;
+     * this method returns once the row has been committed.
+     *
+     * @param csvLine     The already-escaped CSV row to append, without a line terminator.
+     * @param transaction The transaction the row represents, or {@code null} to reload the file on the next query.
+     * @throws IOException If the row cannot be written.
+     */
+    public void append(String csvLine, Transaction transaction) throws IOException {
+        awaitCommit(appendAsync(csvLine, transaction));
+    }
+
+    /**
+     * Queues a row to be appended by the group-commit writer, which coalesces appends made at the
+     * same time into one buffered write per batch.
+     *
+     * @param csvLine     The already-escaped CSV row to append, without a line terminator.
+     * @param transaction The transaction the row represents, or {@code null} to reload the file on the next query.
+     * @return A future completed once the row is committed under the configured {@link SyncPolicy}.
+     */
+    public CompletableFuture<Void> appendAsync(String csvLine, Transaction transaction) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(usernameOf(csvLine, transaction)).appendAsync(csvLine, transaction);
+        }
+        return WRITER.submit(this, csvLine, transaction);
+    }
+
+    /**
+     * Configures the group-commit writer used by every store.
+     *
+     * @param flushIntervalMillis How long to collect appends after the first one of a batch; 0 commits as soon as possible.
+     * @param syncPolicy          When committed rows are forced to the storage device.
+     */
+    public static void configureWriter(long flushIntervalMillis, SyncPolicy syncPolicy) {
+        WRITER.configure(flushIntervalMillis, syncPolicy);
+    }
+
+    /**
+     * Appends several rows through the group-commit writer, which takes them from its queue in
+     * batches of up to a few thousand rows, each committed with one write under the configured
+     * {@link SyncPolicy}. Returns once every row has been committed.
+     *
+     * @param csvLines The already-escaped CSV rows to append, without line terminators.
+     * @throws IOException If the rows cannot be written.
+     */
+    public void appendAll(List<String> csvLines) throws IOException {
+        if (csvLines.isEmpty()) {
+            return;
+        }
+        CompletableFuture<?>[] commits = new CompletableFuture<?>[csvLines.size()];
+        for (int i = 0; i < commits.length; i++) {
+            String csvLine = csvLines.get(i);
+            commits[i] = appendAsync(csvLine, parseRow(csvLine));
+        }
+        awaitCommit(CompletableFuture.allOf(commits));
+    }
+
+    /**
+     * Waits for appends queued with the group-commit writer, rethrowing a failed write.
+     */
+    private static void awaitCommit(CompletableFuture<?> commit) throws IOException {
+        try {
+            commit.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error appending transaction", e.getCause());
+        }
+    }
+
+    /**
+     * Deletes every row of a user recorded at the given time by appending tombstones to the journal.
+     *
+     * @param username The username associated with the rows.
+     * @param time     The timestamp of the rows to remove, with or without a time part.
+     * @return The number of rows removed.
+     * @throws IOException If the journal cannot be written.
+     */
+    public int removeMatching(String username, String time) throws IOException {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).removeMatching(username, time);
+        }
+        String normalizedTime = normalizeTimestamp(time);
+        if (normalizedTime == null) {
+            return 0;
+        }
+        int removed;
+        lock.writeLock().lock();
+        try {
+            removed = tombstoneMatching(username, normalizedTime);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleCompactionIfNeeded();
+        return removed;
+    }
+
+    /**
+     * Replaces every row of a user recorded at the given time with a new row.
+     * The old rows are tombstoned and the new row is appended, so the file is never rewritten.
+     *
+     * @param username    The username associated with the rows.
+     * @param time        The timestamp of the rows to replace, with or without a time part.
+     * @param csvLine     The already-escaped replacement row, without a line terminator.
+     * @param transaction The transaction the replacement row represents.
+     * @return The number of rows replaced; nothing is appended when it is zero.
+     * @throws IOException If the journal or the CSV file cannot be written.
+     */
+    public int replaceMatching(String username, String time, String csvLine, Transaction transaction) throws IOException {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            TransactionStore target = shards.storeFor(usernameOf(csvLine, transaction));
+            TransactionStore source = shards.storeFor(username);
+            if (source == target) {
+                return source.replaceMatching(username, time, csvLine, transaction);
+            }
+            int moved = source.removeMatching(username, time);
+            if (moved > 0) {
+                target.append(csvLine, transaction);
+            }
+            return moved;
+        }
+        String normalizedTime = normalizeTimestamp(time);
+        if (normalizedTime == null) {
+            return 0;
+        }
+        int replaced;
+        lock.writeLock().lock();
+        try {
+            replaced = tombstoneMatching(username, normalizedTime);
+            if (replaced > 0) {
+                appendRow(csvLine, transaction);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleCompactionIfNeeded();
+        return replaced;
+    }
+
+    /**
+     * Finds a transaction of a user by its ID.
+     *
+     * @param username The username associated with the transaction.
+     * @param id       The ID of the transaction.
+     * @return The transaction, or {@code null} if the user has no live transaction with that ID.
+     */
+    public Transaction findById(String username, long id) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).findById(username, id);
+        }
+        lock.writeLock().lock();
+        try {
+            Row row = rowById(username, id);
+            return row == null ? null : row.transaction;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a version of a user's transactions that changes whenever they may have changed,
+     * through this store or by someone else editing the files, so callers can tell whether a
+     * result derived from them is still current. Versions of different users are unrelated.
+     *
+     * @param username The username.
+     * @return The version; equal to an earlier version only if the user's transactions are unchanged since.
+     */
+    public long versionOf(String username) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).versionOf(username);
+        }
+        lock.readLock().lock();
+        try {
+            if (isUnchangedOnDisk()) {
+                return Math.max(clearedVersion, userVersions.getOrDefault(username, 0L));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            return Math.max(clearedVersion, userVersions.getOrDefault(username, 0L));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the balance of a user, as income minus expenses. The running totals are built from
+     * the user's rows on first use and kept up to date by every write after that.
+     *
+     * @param username The username whose balance is needed.
+     * @return The balance in cents, 0 if the user has no transactions.
+     */
+    public long balanceCents(String username) {
+        return readTotals(username, UserTotals::balanceCents, 0L);
+    }
+
+    /**
+     * Returns the income a user recorded in a month.
+     *
+     * @param username The username whose income is needed.
+     * @param month    The month.
+     * @return The income in cents.
+     */
+    public long monthIncomeCents(String username, YearMonth month) {
+        int monthIndex = month.getYear() * 12 + month.getMonthValue() - 1;
+        return readTotals(username, totals -> totals.incomeCents(monthIndex), 0L);
+    }
+
+    /**
+     * Returns the expenses a user recorded in a month.
+     *
+     * @param username The username whose expenses are needed.
+     * @param month    The month.
+     * @return The expenses in cents.
+     */
+    public long monthExpenseCents(String username, YearMonth month) {
+        int monthIndex = month.getYear() * 12 + month.getMonthValue() - 1;
+        return readTotals(username, totals -> totals.expenseCents(monthIndex), 0L);
+    }
+
+    /**
+     * Returns the monthly rollups of a user over a range of months. Rollups are kept up to date by
+     * every write, so this costs one lookup per month however many transactions the user has.
+     *
+     * @param username The username whose rollups are needed.
+     * @param from     The first month, inclusive.
+     * @param to       The last month, inclusive.
+     * @return One rollup per month from {@code from} to {@code to} in order, empty months included.
+     */
+    public List<MonthlyRollup> monthlyRollups(String username, YearMonth from, YearMonth to) {
+        int fromIndex = from.getYear() * 12 + from.getMonthValue() - 1;
+        int toIndex = to.getYear() * 12 + to.getMonthValue() - 1;
+        List<MonthlyRollup> rollups = readTotals(username, totals -> {
+            List<MonthlyRollup> range = new ArrayList<>();
+            for (int monthIndex = fromIndex; monthIndex <= toIndex; monthIndex++) {
+                range.add(totals.rollup(monthIndex));
+            }
+            return range;
+        }, null);
+        if (rollups == null) {
+            rollups = new ArrayList<>();
+            for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+                rollups.add(MonthlyRollup.empty(month));
+            }
+        }
+        return rollups;
+    }
+
+    /**
+     * Maintains a secondary index of a field from now on, so that {@link #groupBy} and
+     * {@link #transactionsWith} on it only visit matching rows. Enabling an index twice has no effect.
+     *
+     * @param field The field to index.
+     */
+    public void enableFieldIndex(TransactionField field) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            for (TransactionStore shard : shards.stores()) {
+                shard.enableFieldIndex(field);
+            }
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            fieldIndexes.computeIfAbsent(field, FieldIndex::new);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Groups the transactions of a user within a time range by the value of a field, as
+     * {@link TransactionField#keyOf(Transaction)} gives it. Uses the field's index when it is
+     * enabled and scans the user's rows otherwise.
+     *
+     * @param username   The username whose transactions are to be grouped.
+     * @param field      The field to group by.
+     * @param fromMinute The start of the range in epoch minutes, inclusive.
+     * @param toMinute   The end of the range in epoch minutes, inclusive.
+     * @return New lists of the transactions in range by field value, each sorted by timestamp.
+     */
+    public Map<String, List<Transaction>> groupBy(String username, TransactionField field, long fromMinute, long toMinute) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).groupBy(username, field, fromMinute, toMinute);
+        }
+        lock.readLock().lock();
+        try {
+            FieldIndex index = fieldIndexes.get(field);
+            if (index != null && index.covers(username) && isUnchangedOnDisk()) {
+                return index.group(username, fromMinute, toMinute);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            List<Row> userRows = userRows(username);
+            if (userRows == null) {
+                return new HashMap<>();
+            }
+            FieldIndex index = indexFor(field, username, userRows);
+            if (index != null) {
+                return index.group(username, fromMinute, toMinute);
+            }
+            Map<String, List<Transaction>> groups = new LinkedHashMap<>();
+            for (Row row : userRows) {
+                if (row.transaction.isWithin(fromMinute, toMinute)) {
+                    groups.computeIfAbsent(field.keyOf(row.transaction), k -> new ArrayList<>()).add(row.transaction);
+                }
+            }
+            return groups;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the transactions of a user within a time range whose field has a given value.
+     *
+     * @param username   The username whose transactions are to be retrieved.
+     * @param field      The field to filter on.
+     * @param value      The value, as {@link TransactionField#keyOf(Transaction)} gives it.
+     * @param fromMinute The start of the range in epoch minutes, inclusive.
+     * @param toMinute   The end of the range in epoch minutes, inclusive.
+     * @return A new list of the matching transactions, sorted by timestamp.
+     */
+    public List<Transaction> transactionsWith(String username, TransactionField field, String value, long fromMinute, long toMinute) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).transactionsWith(username, field, value, fromMinute, toMinute);
+        }
+        lock.writeLock().lock();
+        try {
+            List<Row> userRows = userRows(username);
+            if (userRows == null) {
+                return new ArrayList<>();
+            }
+            FieldIndex index = indexFor(field, username, userRows);
+            if (index != null) {
+                return index.postings(username, value, fromMinute, toMinute);
+            }
+            List<Transaction> matching = new ArrayList<>();
+            for (Row row : userRows) {
+                if (row.transaction.isWithin(fromMinute, toMinute) && value.equals(field.keyOf(row.transaction))) {
+                    matching.add(row.transaction);
+                }
+            }
+            return matching;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Recounts the running totals of every loaded user from their rows and replaces those that
+     * drifted. Normally run in the background every {@value #RECONCILE_INTERVAL} changes.
+     *
+     * @return The number of users whose totals had to be corrected.
+     */
+    public int reconcileTotals() {
+        int corrected = 0;
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            for (TransactionStore shard : shards.stores()) {
+                corrected += shard.reconcileTotals();
+            }
+            return corrected;
+        }
+        lock.writeLock().lock();
+        try {
+            changesSinceReconcile = 0;
+            for (Map.Entry<String, UserTotals> entry : totals.entrySet()) {
+                if (!fullyLoaded && !byUser.containsKey(entry.getKey())) {
+                    // Read from the sidecar; the user's rows are not in memory to recount
+                    continue;
+                }
+                UserTotals recount = UserTotals.of(transactionsOf(byUser.get(entry.getKey())));
+                if (!recount.sameAs(entry.getValue())) {
+                    System.err.println("Running totals of " + entry.getKey() + " drifted from "
+                            + entry.getValue().balanceCents() + " to " + recount.balanceCents() + " cents; corrected");
+                    entry.setValue(recount);
+                    corrected++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return corrected;
+    }
+
+    /**
+     * Deletes a single transaction by its ID by appending a tombstone to the journal.
+     *
+     * @param username The username associated with the transaction.
+     * @param id       The ID of the transaction.
+     * @return {@code true} if the transaction was found and removed.
+     * @throws IOException If the journal cannot be written.
+     */
+    public boolean removeById(String username, long id) throws IOException {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).removeById(username, id);
+        }
+        boolean removed;
+        lock.writeLock().lock();
+        try {
+            Row row = rowById(username, id);
+            removed = row != null && tombstone(username, byUser.get(username), Collections.singletonList(row)) > 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleCompactionIfNeeded();
+        return removed;
+    }
+
+    /**
+     * Replaces a single transaction, found by its ID, with a new row. The old row is tombstoned and
+     * the new row is appended; the new row should carry the same ID to keep the transaction's identity.
+     *
+     * @param username    The username associated with the transaction.
+     * @param id          The ID of the transaction to replace.
+     * @param csvLine     The already-escaped replacement row, without a line terminator.
+     * @param transaction The transaction the replacement row represents.
+     * @return {@code true} if the transaction was found and replaced; nothing is appended otherwise.
+     * @throws IOException If the journal or the CSV file cannot be written.
+     */
+    public boolean replaceById(String username, long id, String csvLine, Transaction transaction) throws IOException {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            TransactionStore target = shards.storeFor(usernameOf(csvLine, transaction));
+            TransactionStore source = shards.storeFor(username);
+            if (source == target) {
+                return source.replaceById(username, id, csvLine, transaction);
+            }
+            boolean moved = source.removeById(username, id);
+            if (moved) {
+                target.append(csvLine, transaction);
+            }
+            return moved;
+        }
+        boolean replaced;
+        lock.writeLock().lock();
+        try {
+            Row row = rowById(username, id);
+            replaced = row != null && tombstone(username, byUser.get(username), Collections.singletonList(row)) > 0;
+            if (replaced) {
+                appendRow(csvLine, transaction);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleCompactionIfNeeded();
+        return replaced;
+    }
+
+    /**
+     * Rewrites the CSV file without its tombstoned rows and empties the journal.
+     * Surviving rows are copied byte for byte. A {@link #LEGACY_HEADER} is replaced with
+     * {@link #DEFAULT_HEADER}, so a file without tombstones is still rewritten for that.
+     * Normally run by the background compactor.
+     *
+     * @throws IOException If the file cannot be rewritten.
+     */
+    public void compact() throws IOException {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            for (TransactionStore shard : shards.stores()) {
+                shard.compact();
+            }
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            long legacyHeaderLength = legacyHeaderLength();
+            if (tombstones.isEmpty() && legacyHeaderLength < 0) {
+                return;
+            }
+            long previousLength = file.length();
+            long previousJournal = journal.length();
+            List<long[]> ranges = new ArrayList<>();
+            MappedTransactionScanner.scan(file, null, (transaction, offset, length) -> {
+                if (isDeleted(transaction, offset)) {
+                    ranges.add(new long[]{offset, length});
+                }
+            });
+
+            // Written to a file of its own and renamed over the ledger in one step, so a crash or a
+            // failed rename leaves the old file, tombstones and derived files all in place
+            Path tempFile = AtomicFiles.createTempFor(file.toPath());
+            try {
+                try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                     FileChannel target = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long position = 0;
+                    if (legacyHeaderLength >= 0) {
+                        // The line terminator after the header is copied with the rows
+                        writeFully(target, ByteBuffer.wrap(DEFAULT_HEADER.getBytes(StandardCharsets.UTF_8)));
+                        position = legacyHeaderLength;
+                    }
+                    for (long[] range : ranges) {
+                        transferFully(source, position, range[0] - position, target);
+                        position = range[0] + range[1];
+                    }
+                    transferFully(source, position, source.size() - position, target);
+                }
+                AtomicFiles.replace(tempFile, file.toPath());
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            clear();
+            TransactionSnapshot.delete(file);
+            RollupSidecar.delete(file);
+            Files.deleteIfExists(journal.toPath());
+            if (segments != null) {
+                segments.recordCompaction(file, previousLength, previousJournal);
+            }
+            System.out.println("Compacted " + file.getName() + ": dropped " + ranges.size() + " deleted rows"
+                    + (legacyHeaderLength >= 0 ? ", added the id column to the header" : ""));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the in-memory state so the next query reloads the file.
+     */
+    public void invalidate() {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            for (TransactionStore shard : shards.stores()) {
+                shard.invalidate();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the CSV file backing this store.
+     *
+     * @return The file.
+     */
+    File file() {
+        return file;
+    }
+
+    /**
+     * Passes every live row of the file to a handler, in file order, loading the file if needed.
+     *
+     * @param handler The handler receiving the rows with their byte ranges.
+     */
+    void forEachLiveRow(MappedTransactionScanner.RowHandler handler) {
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            if (!fullyLoaded) {
+                loadAll();
+            }
+            for (Row row : ledger) {
+                handler.onRow(row.transaction, row.offset, row.length);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the file aside once its rows live elsewhere, dropping its journal, snapshot and rollup sidecar.
+     *
+     * @param target Where to move the file.
+     * @throws IOException If the file cannot be moved.
+     */
+    void retire(File target) throws IOException {
+        lock.writeLock().lock();
+        try {
+            clear();
+            TransactionSnapshot.delete(file);
+            RollupSidecar.delete(file);
+            Files.deleteIfExists(journal.toPath());
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the length in bytes of the header if the file starts with {@link #LEGACY_HEADER}.
+     *
+     * @return The length of the legacy header, without its line terminator, or -1 if the file has another header.
+     * @throws IOException If the file cannot be read.
+     */
+    private long legacyHeaderLength() throws IOException {
+        byte[] legacy = LEGACY_HEADER.getBytes(StandardCharsets.UTF_8);
+        if (file.length() <= legacy.length) {
+            return -1;
+        }
+        ByteBuffer start = ByteBuffer.allocate(legacy.length + 1);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (start.hasRemaining() && channel.read(start, start.position()) > 0) {
+                // Keep reading until the header and the byte after it are in
+            }
+        }
+        byte next = start.get(legacy.length);
+        return start.flip().limit(legacy.length).equals(ByteBuffer.wrap(legacy)) && (next == '\n' || next == '\r')
+                ? legacy.length : -1;
+    }
+
+    /**
+     * Reads the header line of a CSV file.
+     *
+     * @param csvFile The file.
+     * @return The trimmed header, or {@link #DEFAULT_HEADER} if the file is missing or empty.
+     * @throws IOException If the file cannot be read.
+     */
+    static String readHeader(File csvFile) throws IOException {
+        if (!csvFile.exists()) {
+            return DEFAULT_HEADER;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(csvFile, "r")) {
+            String header = raf.readLine();
+            return header == null || header.isBlank() ? DEFAULT_HEADER : header.trim();
+        }
+    }
+
+    /**
+     * Returns the user a row belongs to, from its parsed transaction or else its first field.
+     */
+    private static String usernameOf(String csvLine, Transaction transaction) {
+        if (transaction != null) {
+            return transaction.getAccountUsername();
+        }
+        int comma = csvLine.indexOf(',');
+        return (comma < 0 ? csvLine : csvLine.substring(0, comma)).trim();
+    }
+
+    /**
+     * Returns the rows of a user, loading them if needed. Must be called with the write lock held.
+     *
+     * @param username The user whose rows are needed.
+     * @return The live rows of the user, or {@code null} if there are none.
+     */
+    private List<Row> userRows(String username) {
+        synchronizeWithDisk();
+        if (!fullyLoaded && !byUser.containsKey(username)) {
+            loadUser(username);
+        }
+        return byUser.get(username);
+    }
+
+    /**
+     * Returns the live row of a user with the given ID, loading the user if needed. Must be called
+     * with the write lock held.
+     *
+     * @param username The user the row belongs to.
+     * @param id       The ID of the row.
+     * @return The row, or {@code null} if there is none.
+     */
+    private Row rowById(String username, long id) {
+        List<Row> userRows = userRows(username);
+        if (userRows == null) {
+            return null;
+        }
+        Row row = byId.get(id);
+        if (row != null && username.equals(row.transaction.getAccountUsername())) {
+            return row;
+        }
+        if (id < 0) {
+            // Byte-identical legacy rows share an ID derived from their content, and only one of them is indexed
+            for (Row candidate : userRows) {
+                if (candidate.transaction.getId() == id) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a value from the running totals of a user, building them if needed. The reader runs
+     * under the lock, so it must copy anything it returns.
+     *
+     * @return The value read, or {@code absent} if the user has no transactions.
+     */
+    private <T> T readTotals(String username, Function<UserTotals, T> reader, T absent) {
+        TransactionShards shards = this.shards;
+        if (shards != null) {
+            return shards.storeFor(username).readTotals(username, reader, absent);
+        }
+        lock.readLock().lock();
+        try {
+            UserTotals userTotals = totals.get(username);
+            if (userTotals != null && isUnchangedOnDisk()) {
+                return reader.apply(userTotals);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            synchronizeWithDisk();
+            if (!allTotalsLoaded && !totals.containsKey(username) && !fullyLoaded && !byUser.containsKey(username)) {
+                // Cheaper than loading the user: the sidecar plus the rows appended since it was written
+                loadTotals();
+            }
+            UserTotals userTotals = totals.get(username);
+            if (userTotals == null && !allTotalsLoaded) {
+                List<Row> userRows = userRows(username);
+                if (userRows != null) {
+                    userTotals = UserTotals.of(transactionsOf(userRows));
+                    totals.put(username, userTotals);
+                }
+            }
+            return userTotals == null ? absent : reader.apply(userTotals);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the running totals of every user from the rollup sidecar and replays the rows appended
+     * after it was written. Without a usable sidecar the whole file is summed, which only keeps the
+     * totals and not the rows. A new sidecar is requested unless the loaded one was already complete.
+     * Must be called with the write lock held.
+     */
+    private void loadTotals() {
+        Map<String, UserTotals> loaded = new HashMap<>();
+        long coveredLength = RollupSidecar.load(file, journal, loaded);
+        try {
+            MappedTransactionScanner.scanParallel(file, null, Math.max(coveredLength, 0), (transaction, offset, length) -> {
+                if (!isDeleted(transaction, offset)) {
+                    loaded.computeIfAbsent(transaction.getAccountUsername(), k -> new UserTotals()).add(transaction);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading transactions: " + e.getMessage());
+            return;
+        }
+        totals.clear();
+        totals.putAll(loaded);
+        allTotalsLoaded = true;
+        if (coveredLength != loadedLength) {
+            rollupCommits.request();
+        }
+    }
+
+    /**
+     * Writes the running totals of every user to the rollup sidecar, if they are all loaded and
+     * still match the files. Called by {@link #rollupCommits} on its background thread.
+     *
+     * @throws IOException If the sidecar cannot be written.
+     */
+    private void writeRollups() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (allTotalsLoaded && isUnchangedOnDisk()) {
+                RollupSidecar.write(file, loadedLength, loadedModified, fileChecksum.valueAt(loadedLength),
+                        journalLength, journalChecksum.valueAt(journalLength), totals);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes any pending change of the running totals to the rollup sidecar now.
+     */
+    void flushRollups() {
+        rollupCommits.flush();
+    }
+
+    /**
+     * Returns the index of a field with the lists of a user built, or {@code null} if the field is
+     * not indexed. Must be called with the write lock held.
+     */
+    private FieldIndex indexFor(TransactionField field, String username, List<Row> userRows) {
+        FieldIndex index = fieldIndexes.get(field);
+        if (index != null && !index.covers(username)) {
+            index.build(username, transactionsOf(userRows));
+        }
+        return index;
+    }
+
+    /**
+     * Counts changes made to running totals and hands them to the background thread for
+     * reconciliation every {@value #RECONCILE_INTERVAL} changes, and requests a rewrite of the rollup
+     * sidecar when it holds every user. Must be called with the write lock held.
+     */
+    private void countTotalsChanges(int changes) {
+        if (allTotalsLoaded) {
+            rollupCommits.request();
+        }
+        changesSinceReconcile += changes;
+        if (changesSinceReconcile >= RECONCILE_INTERVAL && reconcilePending.compareAndSet(false, true)) {
+            changesSinceReconcile = 0;
+            COMPACTOR.execute(() -> {
+                reconcilePending.set(false);
+                reconcileTotals();
+            });
+        }
+    }
+
+    /**
+     * Appends a batch of rows with one write and indexes them.
+     *
+     * @param csvLines     The already-escaped CSV rows, without line terminators.
+     * @param transactions The transactions the rows represent; a {@code null} entry reloads the file on the next query.
+     * @param syncPolicy   When the rows are forced to the storage device.
+     * @throws IOException If the rows cannot be written.
+     */
+    void commitBatch(List<String> csvLines, List<Transaction> transactions, SyncPolicy syncPolicy) throws IOException {
+        lock.writeLock().lock();
+        try {
+            appendRows(csvLines, transactions, syncPolicy);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a single row and indexes it. Must be called with the write lock held.
+     */
+    private void appendRow(String csvLine, Transaction transaction) throws IOException {
+        appendRows(Collections.singletonList(csvLine), Collections.singletonList(transaction), WRITER.syncPolicy());
+    }
+
+    /**
+     * Appends rows through one channel and indexes them. Must be called with the write lock held.
+     */
+    private void appendRows(List<String> csvLines, List<Transaction> transactions, SyncPolicy syncPolicy) throws IOException {
+        boolean inSync = isUnchangedOnDisk();
+        long start = file.length();
+        long[] offsets = new long[csvLines.size()];
+        long[] lengths = new long[csvLines.size()];
+        List<byte[]> rows = new ArrayList<>(csvLines.size());
+        long offset = start;
+        for (int i = 0; i < csvLines.size(); i++) {
+            byte[] bytes = (csvLines.get(i) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+            rows.add(bytes);
+            offsets[i] = offset;
+            lengths[i] = bytes.length;
+            offset += bytes.length;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (syncPolicy == SyncPolicy.PER_RECORD) {
+                for (byte[] row : rows) {
+                    writeFully(channel, ByteBuffer.wrap(row));
+                    channel.force(false);
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) (offset - start));
+                for (byte[] row : rows) {
+                    buffer.put(row);
+                }
+                writeFully(channel, buffer.flip());
+                if (syncPolicy == SyncPolicy.PER_BATCH) {
+                    channel.force(false);
+                }
+            }
+        }
+
+        boolean complete = !transactions.contains(null);
+        for (Transaction transaction : transactions) {
+            if (transaction != null) {
+                userVersions.put(transaction.getAccountUsername(), VERSIONS.incrementAndGet());
+            }
+        }
+        if (segments != null && complete) {
+            try {
+                segments.recordAppend(file, start, journal.length(), csvLines, transactions);
+            } catch (IOException e) {
+                System.err.println("Error updating monthly segments: " + e.getMessage());
+            }
+        }
+        if (inSync && complete) {
+            for (int i = 0; i < csvLines.size(); i++) {
+                Transaction transaction = transactions.get(i);
+                Row row = new Row(transaction, offsets[i], lengths[i]);
+                if (fullyLoaded) {
+                    ledger.add(row);
+                }
+                List<Row> userRows = fullyLoaded
+                        ? byUser.computeIfAbsent(transaction.getAccountUsername(), k -> new ArrayList<>())
+                        : byUser.get(transaction.getAccountUsername());
+                if (userRows != null) {
+                    insertSorted(userRows, row);
+                    byId.put(transaction.getId(), row);
+                    for (FieldIndex index : fieldIndexes.values()) {
+                        index.add(transaction);
+                    }
+                }
+                UserTotals userTotals = allTotalsLoaded
+                        ? totals.computeIfAbsent(transaction.getAccountUsername(), k -> new UserTotals())
+                        : totals.get(transaction.getAccountUsername());
+                if (userTotals != null) {
+                    userTotals.add(transaction);
+                    countTotalsChanges(1);
+                }
+            }
+            rememberFileState();
+        } else {
+            clear();
+        }
+    }
+
+    /**
+     * Tombstones every live row of a user at the given normalized time. Must be called with the write lock held.
+     *
+     * @return The number of rows tombstoned.
+     */
+    private int tombstoneMatching(String username, String normalizedTime) throws IOException {
+        List<Row> userRows = userRows(username);
+        if (userRows == null) {
+            return 0;
+        }
+        List<Row> doomed = new ArrayList<>();
+        for (Row row : userRows) {
+            if (normalizedTime.equals(row.transaction.getTimestamp())) {
+                doomed.add(row);
+            }
+        }
+        return tombstone(username, userRows, doomed);
+    }
+
+    /**
+     * Tombstones the given live rows of a user. Must be called with the write lock held.
+     *
+     * @param username The user the rows belong to.
+     * @param userRows The loaded rows of the user.
+     * @param doomed   The rows to delete.
+     * @return The number of rows tombstoned.
+     */
+    private int tombstone(String username, List<Row> userRows, List<Row> doomed) throws IOException {
+        if (doomed.isEmpty()) {
+            return 0;
+        }
+
+        StringBuilder records = new StringBuilder();
+        for (Row row : doomed) {
+            records.append(TOMBSTONE_RECORD).append(',').append(row.offset).append(',').append(row.length)
+                    .append(',').append(row.transaction.getTimestamp()).append(',').append(username)
+                    .append(System.lineSeparator());
+        }
+        boolean inSync = isUnchangedOnDisk();
+        long previousJournal = journal.length();
+        userVersions.put(username, VERSIONS.incrementAndGet());
+        try (OutputStream out = new FileOutputStream(journal, true)) {
+            out.write(records.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (segments != null) {
+            try {
+                segments.recordRemoval(file.length(), previousJournal, journal.length(), username, transactionsOf(doomed));
+            } catch (IOException e) {
+                System.err.println("Error updating monthly segments: " + e.getMessage());
+            }
+        }
+        if (!inSync) {
+            clear();
+            return doomed.size();
+        }
+        for (Row row : doomed) {
+            tombstones.put(row.offset, new Tombstone(row.length, row.transaction.getTimestamp(), username));
+            garbageBytes += row.length;
+            byId.remove(row.transaction.getId(), row);
+        }
+        userRows.removeAll(doomed);
+        UserTotals userTotals = totals.get(username);
+        if (userTotals != null) {
+            for (Row row : doomed) {
+                userTotals.remove(row.transaction);
+            }
+            countTotalsChanges(doomed.size());
+        }
+        for (FieldIndex index : fieldIndexes.values()) {
+            for (Row row : doomed) {
+                index.remove(row.transaction);
+            }
+        }
+        if (fullyLoaded) {
+            ledger.removeAll(doomed);
+        }
+        rememberFileState();
+        return doomed.size();
+    }
+
+    /**
+     * Hands the file to the background compactor if tombstoned rows exceed the threshold.
+     */
+    private void scheduleCompactionIfNeeded() {
+        lock.readLock().lock();
+        try {
+            long length = file.length();
+            if (garbageBytes < MIN_COMPACTION_GARBAGE || length == 0 || (double) garbageBytes / length < compactionThreshold) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (compactionPending.compareAndSet(false, true)) {
+            COMPACTOR.execute(() -> {
+                compactionPending.set(false);
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.err.println("Error compacting transactions: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops the cached state if either file changed since it was last synchronized, and makes sure
+     * the journal has been read. Must be called with the write lock held.
+     */
+    private void synchronizeWithDisk() {
+        if (!isUnchangedOnDisk()) {
+            clear();
+            rememberFileState();
+        }
+        if (!journalLoaded) {
+            loadJournal();
+        }
+    }
+
+    /**
+     * Forgets every cached transaction and tombstone. Must be called with the write lock held.
+     */
+    private void clear() {
+        ledger.clear();
+        byUser.clear();
+        byId.clear();
+        totals.clear();
+        allTotalsLoaded = false;
+        fieldIndexes.values().forEach(FieldIndex::clear);
+        clearedVersion = VERSIONS.incrementAndGet();
+        tombstones.clear();
+        garbageBytes = 0;
+        fullyLoaded = false;
+        journalLoaded = false;
+        loadedLength = -1;
+        loadedModified = -1;
+        journalLength = -1;
+        journalModified = -1;
+        fileChecksum.reset();
+        journalChecksum.reset();
+    }
+
+    /**
+     * Reads the tombstones of the journal. Malformed records are skipped. Must be called with the write lock held.
+     */
+    private void loadJournal() {
+        tombstones.clear();
+        garbageBytes = 0;
+        journalLoaded = true;
+        if (!journal.exists()) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8)) {
+                String[] parts = line.split(",", 5);
+                if (parts.length < 5 || !TOMBSTONE_RECORD.equals(parts[0])) {
+                    continue;
+                }
+                try {
+                    long offset = Long.parseLong(parts[1]);
+                    long length = Long.parseLong(parts[2]);
+                    if (tombstones.put(offset, new Tombstone(length, parts[3], parts[4])) == null) {
+                        garbageBytes += length;
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping journal record: " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading transaction journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether the row at the given offset has been deleted by a tombstone written for it.
+     */
+    private boolean isDeleted(Transaction transaction, long offset) {
+        Tombstone tombstone = tombstones.get(offset);
+        return tombstone != null && tombstone.matches(transaction);
+    }
+
+    /**
+     * Loads the rows of a single user with a filtered scan. Must be called with the write lock held.
+     *
+     * @param username The user to load.
+     */
+    private void loadUser(String username) {
+        List<Row> rows = new ArrayList<>();
+        try {
+            MappedTransactionScanner.scanParallel(file, username, 0, (transaction, offset, length) -> {
+                if (!isDeleted(transaction, offset)) {
+                    rows.add(new Row(transaction, offset, length));
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading transactions: " + e.getMessage());
+            return;
+        }
+        rows.sort(BY_TIMESTAMP);
+        byUser.put(username, rows);
+        for (Row row : rows) {
+            byId.put(row.transaction.getId(), row);
+        }
+    }
+
+    /**
+     * Loads every row into the ledger and username index. Rows covered by a fresh binary snapshot
+     * are taken from it and only the CSV tail appended since is parsed; if that tail is large, a new
+     * snapshot is written in the background. Must be called with the write lock held.
+     */
+    private void loadAll() {
+        ledger.clear();
+        byUser.clear();
+        byId.clear();
+        totals.clear();
+        allTotalsLoaded = false;
+        fieldIndexes.values().forEach(FieldIndex::clear);
+        MappedTransactionScanner.RowHandler handler = (transaction, offset, length) -> {
+            if (!isDeleted(transaction, offset)) {
+                Row row = new Row(transaction, offset, length);
+                ledger.add(row);
+                byUser.computeIfAbsent(transaction.getAccountUsername(), k -> new ArrayList<>()).add(row);
+                byId.put(transaction.getId(), row);
+            }
+        };
+        long snapshotLength = TransactionSnapshot.load(file, handler);
+        long startOffset = Math.max(snapshotLength, 0);
+        try {
+            MappedTransactionScanner.scanParallel(file, null, startOffset, handler);
+        } catch (IOException e) {
+            System.err.println("Error reading transactions: " + e.getMessage());
+        }
+        byUser.values().parallelStream().forEach(rows -> rows.sort(BY_TIMESTAMP));
+        fullyLoaded = true;
+        System.out.println("Loaded " + ledger.size() + " transactions from " + file.getName()
+                + (snapshotLength >= 0 ? " (snapshot covered " + snapshotLength + " bytes)" : ""));
+        if (loadedLength - startOffset >= SNAPSHOT_MIN_TAIL) {
+            scheduleSnapshot();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current ledger on the background thread. Must be called with the write lock held.
+     */
+    private void scheduleSnapshot() {
+        List<Transaction> transactions = new ArrayList<>(ledger.size());
+        long[] offsets = new long[ledger.size()];
+        long[] lengths = new long[ledger.size()];
+        for (int i = 0; i < ledger.size(); i++) {
+            Row row = ledger.get(i);
+            transactions.add(row.transaction);
+            offsets[i] = row.offset;
+            lengths[i] = row.length;
+        }
+        long coveredLength = loadedLength;
+        long modified = loadedModified;
+        COMPACTOR.execute(() -> {
+            try {
+                TransactionSnapshot.write(file, coveredLength, modified, transactions, offsets, lengths);
+            } catch (IOException e) {
+                System.err.println("Error writing transaction snapshot: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Checks whether the CSV file and the journal still have the lengths and modification times
+     * last synchronized with.
+     *
+     * @return {@code true} if both files look unchanged.
+     */
+    private boolean isUnchangedOnDisk() {
+        return file.length() == loadedLength && file.lastModified() == loadedModified
+                && journal.length() == journalLength && journal.lastModified() == journalModified;
+    }
+
+    /**
+     * Records the current lengths and modification times of the CSV file and the journal.
+     */
+    private void rememberFileState() {
+        loadedLength = file.length();
+        loadedModified = file.lastModified();
+        journalLength = journal.length();
+        journalModified = journal.lastModified();
+    }
+
+    /**
+     * Copies the transactions of cached rows into a new list so callers cannot modify the index.
+     */
+    private static List<Transaction> transactionsOf(List<Row> rows) {
+        List<Transaction> transactions = new ArrayList<>(rows == null ? 0 : rows.size());
+        if (rows != null) {
+            for (Row row : rows) {
+                transactions.add(row.transaction);
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Copies the transactions of the rows of a sorted list that fall within a time range.
+     * The bounds are located by binary search over the epoch minutes of the rows.
+     */
+    private static List<Transaction> rowsBetween(List<Row> rows, long fromMinute, long toMinute) {
+        List<Transaction> transactions = new ArrayList<>();
+        if (rows == null) {
+            return transactions;
+        }
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (rows.get(mid).transaction.getEpochMinute() < fromMinute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < rows.size(); i++) {
+            Transaction transaction = rows.get(i).transaction;
+            if (transaction.getEpochMinute() > toMinute) {
+                break;
+            }
+            transactions.add(transaction);
+        }
+        return transactions;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a channel.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Copies a byte range from one channel to the end of another.
+     */
+    private static void transferFully(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, target);
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    /**
+     * Inserts a row into a timestamp-sorted list, after any entries with the same timestamp.
+     *
+     * @param rows The sorted list.
+     * @param row  The row to insert.
+     */
+    private static void insertSorted(List<Row> rows, Row row) {
+        int index = Collections.binarySearch(rows, row, BY_TIMESTAMP);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            while (index < rows.size() && BY_TIMESTAMP.compare(rows.get(index), row) == 0) {
+                index++;
+            }
+        }
+        rows.add(index, row);
+    }
+
+    /**
+     * Parses one CSV row into a transaction with a normalized timestamp.
+     *
+     * @param line The CSV row.
+     * @return The parsed transaction, or {@code null} if the row is malformed.
+     */
+    public static Transaction parseRow(String line) {
+        return MappedTransactionScanner.parseLine(line);
+    }
+
+    /**
+     * Normalizes a timestamp in the format "yyyy/MM/dd" or "yyyy/MM/dd HH:mm" to "yyyy/MM/dd HH:mm".
+     *
+     * @param time The timestamp to normalize.
+     * @return The normalized timestamp, or {@code null} if it cannot be parsed.
+     */
+    static String normalizeTimestamp(String time) {
+        long epochMinute = TimestampCodec.parse(time);
+        return epochMinute == TimestampCodec.INVALID ? null : TimestampCodec.format(epochMinute);
+    }
+}
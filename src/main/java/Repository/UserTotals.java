@@ -0,0 +1,252 @@
+package Repository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import Model.MonthlyRollup;
+import Model.Transaction;
+import utils.TimestampCodec;
+
+/**
+ * Running totals of one user's transactions: the balance, and a rollup of every month with the
+ * income, expenses, number of transactions and per-category sums of that month.
+ * {@link TransactionStore} keeps one next to the rows of every loaded user and moves it by the
+ * amount of each row added or removed, so reading a balance or a month never walks the user's history.
+ * Not thread-safe; the store only touches it while holding its lock.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class UserTotals {
+    /** Income minus expenses, in cents. */
+    private long balanceCents;
+
+    /** Totals of each month with transactions, keyed by {@link TimestampCodec#monthIndex(long)}. */
+    private final Map<Integer, MonthTotals> months = new HashMap<>();
+
+    /** Mutable totals of one month. */
+    private static final class MonthTotals {
+        long incomeCents;
+        long expenseCents;
+        int count;
+
+        /** Income cents, expense cents and number of income or expense rows, by category. */
+        final Map<String, long[]> categories = new HashMap<>();
+
+        boolean sameAs(MonthTotals other) {
+            if (incomeCents != other.incomeCents || expenseCents != other.expenseCents || count != other.count
+                    || categories.size() != other.categories.size()) {
+                return false;
+            }
+            for (Map.Entry<String, long[]> entry : categories.entrySet()) {
+                long[] theirs = other.categories.get(entry.getKey());
+                long[] ours = entry.getValue();
+                if (theirs == null || ours[0] != theirs[0] || ours[1] != theirs[1] || ours[2] != theirs[2]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sums a list of transactions from scratch.
+     *
+     * @param transactions The transactions of the user.
+     * @return The totals.
+     */
+    static UserTotals of(List<Transaction> transactions) {
+        UserTotals totals = new UserTotals();
+        for (Transaction transaction : transactions) {
+            totals.add(transaction);
+        }
+        return totals;
+    }
+
+    /**
+     * Reads totals written by {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in The stream.
+     * @return The totals.
+     * @throws IOException If the stream ends early.
+     */
+    static UserTotals readFrom(DataInputStream in) throws IOException {
+        UserTotals totals = new UserTotals();
+        totals.balanceCents = in.readLong();
+        int monthCount = in.readInt();
+        for (int i = 0; i < monthCount; i++) {
+            MonthTotals month = new MonthTotals();
+            totals.months.put(in.readInt(), month);
+            month.incomeCents = in.readLong();
+            month.expenseCents = in.readLong();
+            month.count = in.readInt();
+            int categoryCount = in.readInt();
+            for (int j = 0; j < categoryCount; j++) {
+                month.categories.put(RollupSidecar.readString(in), new long[]{in.readLong(), in.readLong(), in.readLong()});
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Writes the totals in the layout of the {@link RollupSidecar}.
+     *
+     * @param out The stream.
+     * @throws IOException If the stream fails.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(balanceCents);
+        out.writeInt(months.size());
+        for (Map.Entry<Integer, MonthTotals> entry : months.entrySet()) {
+            MonthTotals month = entry.getValue();
+            out.writeInt(entry.getKey());
+            out.writeLong(month.incomeCents);
+            out.writeLong(month.expenseCents);
+            out.writeInt(month.count);
+            out.writeInt(month.categories.size());
+            for (Map.Entry<String, long[]> category : month.categories.entrySet()) {
+                RollupSidecar.writeString(out, category.getKey());
+                for (long value : category.getValue()) {
+                    out.writeLong(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a transaction to the totals.
+     *
+     * @param transaction The transaction.
+     */
+    void add(Transaction transaction) {
+        apply(transaction, 1);
+    }
+
+    /**
+     * Takes a transaction out of the totals.
+     *
+     * @param transaction The transaction, previously added.
+     */
+    void remove(Transaction transaction) {
+        apply(transaction, -1);
+    }
+
+    /**
+     * Returns the balance.
+     *
+     * @return Income minus expenses, in cents.
+     */
+    long balanceCents() {
+        return balanceCents;
+    }
+
+    /**
+     * Returns the income of a month.
+     *
+     * @param monthIndex The month, as {@link TimestampCodec#monthIndex(long)}.
+     * @return The income in cents.
+     */
+    long incomeCents(int monthIndex) {
+        MonthTotals month = months.get(monthIndex);
+        return month == null ? 0 : month.incomeCents;
+    }
+
+    /**
+     * Returns the expenses of a month.
+     *
+     * @param monthIndex The month, as {@link TimestampCodec#monthIndex(long)}.
+     * @return The expenses in cents.
+     */
+    long expenseCents(int monthIndex) {
+        MonthTotals month = months.get(monthIndex);
+        return month == null ? 0 : month.expenseCents;
+    }
+
+    /**
+     * Returns a snapshot of the rollup of a month.
+     *
+     * @param monthIndex The month, as {@link TimestampCodec#monthIndex(long)}.
+     * @return The rollup, with every total zero if the month has no transactions.
+     */
+    MonthlyRollup rollup(int monthIndex) {
+        YearMonth yearMonth = YearMonth.of(Math.floorDiv(monthIndex, 12), Math.floorMod(monthIndex, 12) + 1);
+        MonthTotals month = months.get(monthIndex);
+        if (month == null) {
+            return MonthlyRollup.empty(yearMonth);
+        }
+        Map<String, Long> incomeByCategory = new HashMap<>();
+        Map<String, Long> expenseByCategory = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : month.categories.entrySet()) {
+            long[] sums = entry.getValue();
+            if (sums[0] != 0) {
+                incomeByCategory.put(entry.getKey(), sums[0]);
+            }
+            if (sums[1] != 0) {
+                expenseByCategory.put(entry.getKey(), sums[1]);
+            }
+        }
+        return new MonthlyRollup(yearMonth, month.incomeCents, month.expenseCents, month.count,
+                incomeByCategory, expenseByCategory);
+    }
+
+    /**
+     * Checks whether two sets of totals agree on the balance and on every month.
+     *
+     * @param other The totals to compare with.
+     * @return {@code true} if they are equal.
+     */
+    boolean sameAs(UserTotals other) {
+        if (balanceCents != other.balanceCents || months.size() != other.months.size()) {
+            return false;
+        }
+        for (Map.Entry<Integer, MonthTotals> entry : months.entrySet()) {
+            MonthTotals theirs = other.months.get(entry.getKey());
+            if (theirs == null || !entry.getValue().sameAs(theirs)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void apply(Transaction transaction, int sign) {
+        long signedCents = sign * transaction.getAmountCents();
+        int column;
+        if ("Income".equalsIgnoreCase(transaction.getOperation())) {
+            column = 0;
+            balanceCents += signedCents;
+        } else if ("Expense".equalsIgnoreCase(transaction.getOperation())) {
+            column = 1;
+            balanceCents -= signedCents;
+        } else {
+            column = -1;
+        }
+        if (!transaction.hasValidTimestamp()) {
+            return;
+        }
+        int monthIndex = TimestampCodec.monthIndex(transaction.getEpochMinute());
+        MonthTotals month = months.computeIfAbsent(monthIndex, k -> new MonthTotals());
+        month.count += sign;
+        if (column >= 0) {
+            if (column == 0) {
+                month.incomeCents += signedCents;
+            } else {
+                month.expenseCents += signedCents;
+            }
+            String category = transaction.getCategory() == null ? "" : transaction.getCategory();
+            long[] sums = month.categories.computeIfAbsent(category, k -> new long[3]);
+            sums[column] += signedCents;
+            sums[2] += sign;
+            if (sums[2] == 0) {
+                month.categories.remove(category);
+            }
+        }
+        if (month.count == 0) {
+            months.remove(monthIndex);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package Service;
+
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import Model.MonthlyRollup;
+import Model.Transaction;
+import Repository.TransactionRepository;
+import utils.Money;
+import utils.TimestampCodec;
+
+/**
+ * Per-user state behind the real-time abnormal transaction checks of {@link TransactionService}:
+ * how many large income or expense transactions each day holds, and the expenses and number of
+ * days of the past full months that the average daily expense is taken over.
+ * <p>
+ * A user's state is built once, from one pass over their transactions and the monthly rollups of
+ * the window, and tagged with the repository's data version. Transactions recorded through
+ * {@link #record(String, List, long)} after they are committed are folded in by amount, so checks
+ * stay O(1) per transaction. Any other change to the user's transactions moves the data version
+ * and the state is rebuilt on the next check; a new month only reloads the window.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+final class AnomalyDetector {
+    /** Smallest amount in cents counted as a large transaction. */
+    private final long largeAmountCents;
+
+    /** Number of past full months the average daily expense is taken over. */
+    private final int windowMonths;
+
+    private final TransactionRepository transactionRepository;
+
+    /** State of each user checked so far. */
+    private final Map<String, UserState> states = new ConcurrentHashMap<>();
+
+    /** Counters of one user, guarded by the object itself. */
+    private static final class UserState {
+        /** Data version of the user's transactions the counters reflect. */
+        long dataVersion;
+
+        /** Number of large income or expense transactions by epoch day; days without any are absent. */
+        final Map<Long, Integer> largeByDay = new HashMap<>();
+
+        /** The current month when the window was loaded; the window ends the month before. */
+        YearMonth windowAnchor;
+
+        /** Expenses of the window, in cents. */
+        long windowExpenseCents;
+
+        /** Number of days in the window. */
+        int windowDays;
+    }
+
+    /**
+     * A view of a user's counters that a series of checks can add transactions to without
+     * changing the shared state, so each transaction of a batch is checked as if the ones before
+     * it had already been recorded.
+     */
+    final class Baseline {
+        private final UserState state;
+        private final Map<Long, Integer> addedLargeByDay = new HashMap<>();
+        private final YearMonth windowAnchor;
+        private long windowExpenseCents;
+        private final int windowDays;
+
+        private Baseline(UserState state) {
+            this.state = state;
+            this.windowAnchor = state.windowAnchor;
+            this.windowExpenseCents = state.windowExpenseCents;
+            this.windowDays = state.windowDays;
+        }
+
+        /**
+         * Returns the number of large income or expense transactions on a day.
+         *
+         * @param epochMinute Any minute of the day.
+         * @return The number of large transactions that day.
+         */
+        int largeCountOn(long epochMinute) {
+            long day = Math.floorDiv(epochMinute, TimestampCodec.MINUTES_PER_DAY);
+            int recorded;
+            synchronized (state) {
+                recorded = state.largeByDay.getOrDefault(day, 0);
+            }
+            return recorded + addedLargeByDay.getOrDefault(day, 0);
+        }
+
+        /**
+         * Returns the average daily expense over the window.
+         *
+         * @return The average, or 0.0 if the window has no expenses.
+         */
+        double averageDailyExpense() {
+            if (windowDays <= 0 || windowExpenseCents <= 0) {
+                return 0.0;
+            }
+            return Money.toDouble(windowExpenseCents) / windowDays;
+        }
+
+        /**
+         * Adds a transaction to this view only.
+         *
+         * @param transaction The transaction.
+         */
+        void add(Transaction transaction) {
+            if (isLarge(transaction)) {
+                addedLargeByDay.merge(Math.floorDiv(transaction.getEpochMinute(), TimestampCodec.MINUTES_PER_DAY), 1, Integer::sum);
+            }
+            if (inWindow(transaction, windowAnchor)) {
+                windowExpenseCents += transaction.getAmountCents();
+            }
+        }
+    }
+
+    /**
+     * Creates a detector.
+     *
+     * @param transactionRepository The repository the users' transactions are read from.
+     * @param largeAmountCents      Smallest amount in cents counted as a large transaction.
+     * @param windowMonths          Number of past full months the average daily expense is taken over.
+     */
+    AnomalyDetector(TransactionRepository transactionRepository, long largeAmountCents, int windowMonths) {
+        this.transactionRepository = transactionRepository;
+        this.largeAmountCents = largeAmountCents;
+        this.windowMonths = windowMonths;
+    }
+
+    /**
+     * Returns the current counters of a user, rebuilding them if the user's transactions changed
+     * since they were built or last recorded to.
+     *
+     * @param username The username.
+     * @return A view to check transactions against.
+     */
+    Baseline baseline(String username) {
+        UserState state = states.computeIfAbsent(username, k -> new UserState());
+        synchronized (state) {
+            long dataVersion = transactionRepository.findDataVersion(username);
+            if (state.windowAnchor == null || state.dataVersion != dataVersion) {
+                rebuild(username, state);
+                state.dataVersion = dataVersion;
+            } else if (!YearMonth.now().equals(state.windowAnchor)) {
+                loadWindow(username, state);
+            }
+            return new Baseline(state);
+        }
+    }
+
+    /**
+     * Folds transactions that have just been committed into a user's counters. They are only
+     * folded if the counters were current at {@code dataVersionBefore}, the data version read
+     * before the write; otherwise the counters are dropped and rebuilt on the next check.
+     *
+     * @param username          The username.
+     * @param transactions      The committed transactions.
+     * @param dataVersionBefore The user's data version read before the transactions were written.
+     */
+    void record(String username, List<Transaction> transactions, long dataVersionBefore) {
+        UserState state = states.get(username);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (state.windowAnchor == null || state.dataVersion != dataVersionBefore) {
+                states.remove(username, state);
+                return;
+            }
+            for (Transaction transaction : transactions) {
+                add(state, transaction);
+            }
+            state.dataVersion = transactionRepository.findDataVersion(username);
+        }
+    }
+
+    private void rebuild(String username, UserState state) {
+        state.largeByDay.clear();
+        try (Stream<Transaction> transactions = transactionRepository.streamTransactionsByUsername(username)) {
+            if (transactions != null) {
+                transactions.filter(this::isLarge).forEach(transaction -> state.largeByDay.merge(
+                        Math.floorDiv(transaction.getEpochMinute(), TimestampCodec.MINUTES_PER_DAY), 1, Integer::sum));
+            }
+        }
+        loadWindow(username, state);
+    }
+
+    private void loadWindow(String username, UserState state) {
+        YearMonth anchor = YearMonth.now();
+        long expenseCents = 0;
+        for (MonthlyRollup rollup : transactionRepository.findMonthlyRollups(username, anchor.minusMonths(windowMonths), anchor.minusMonths(1))) {
+            expenseCents += rollup.getExpenseCents();
+        }
+        int days = 0;
+        for (int i = 1; i <= windowMonths; i++) {
+            days += anchor.minusMonths(i).lengthOfMonth();
+        }
+        state.windowAnchor = anchor;
+        state.windowExpenseCents = expenseCents;
+        state.windowDays = days;
+    }
+
+    private void add(UserState state, Transaction transaction) {
+        if (isLarge(transaction)) {
+            state.largeByDay.merge(Math.floorDiv(transaction.getEpochMinute(), TimestampCodec.MINUTES_PER_DAY), 1, Integer::sum);
+        }
+        if (inWindow(transaction, state.windowAnchor)) {
+            state.windowExpenseCents += transaction.getAmountCents();
+        }
+    }
+
+    private boolean isLarge(Transaction transaction) {
+        if (transaction == null || !transaction.hasValidTimestamp() || transaction.getAmountCents() < largeAmountCents) {
+            return false;
+        }
+        return "Income".equalsIgnoreCase(transaction.getOperation()) || "Expense".equalsIgnoreCase(transaction.getOperation());
+    }
+
+    private boolean inWindow(Transaction transaction, YearMonth anchor) {
+        if (transaction == null || !transaction.hasValidTimestamp() || !"Expense".equalsIgnoreCase(transaction.getOperation())) {
+            return false;
+        }
+        YearMonth month = TimestampCodec.toYearMonth(transaction.getEpochMinute());
+        return month.isBefore(anchor) && !month.isBefore(anchor.minusMonths(windowMonths));
+    }
+}
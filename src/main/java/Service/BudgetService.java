@@ -8,32 +8,43 @@
 package Service;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.Month;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
-import java.time.format.DateTimeParseException;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import Model.BudgetDataContainer;
+import Model.MonthlyRollup;
 import Model.Transaction;
+import Model.TransactionTable;
 import Repository.TransactionRepository;
+import utils.AtomicFiles;
+import utils.CommitBatcher;
+import utils.CsvCodec;
+import utils.Money;
+import utils.TimestampCodec;
 
 public class BudgetService {
     private final TransactionRepository transactionRepository;
-    private final Map<String, Double> cachedCustomBudgets = new HashMap<>();
+    private final Map<String, Double> cachedCustomBudgets = Collections.synchronizedMap(new HashMap<>());
+    private final Map<String, Map<YearMonth, BudgetMemo>> memos = new ConcurrentHashMap<>(); // Results per user and month, see BudgetMemo
     private final Map<String, Long> cacheTimestamps = new HashMap<>(); // Although not actively used for cache expiry in this class methods, kept from original structure
     private static final String BUDGET_FILE = "user_budget.csv";
+    private static final long BUDGET_COMMIT_DELAY_MS = 100; // Budget changes within this window are written together
+    private final CommitBatcher budgetCommits = new CommitBatcher(BUDGET_FILE, BUDGET_COMMIT_DELAY_MS, this::writeBudgetsToFile);
     private static final long CACHE_EXPIRY_MS = 5 * 60 * 1000; // Not actively used in this class methods
     private static final double DEFAULT_SAVING_RATIO = 0.2;
     private static final double ECONOMICAL_SAVING_INCREASE = 0.1;
@@ -52,11 +63,22 @@ public class BudgetService {
             .optionalEnd()
             .toFormatter();
 
+
     /**
-     * Formatter for parsing only the date part "yyyy/MM/dd".
+     * Results computed for one user and month, reused until the user's transactions change
+     * (detected through the repository's data version) or their custom budget is saved or cleared.
+     * Each result is filled in the first time it is asked for.
      */
-    private static final DateTimeFormatter DATE_ONLY_FORMATTER = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    private static final class BudgetMemo {
+        final long dataVersion;
+        volatile BudgetDataContainer budgetData;
+        volatile BudgetRecommendation recommendation;
+        volatile List<MonthlyFinancialData> pastThreeMonths;
 
+        BudgetMemo(long dataVersion) {
+            this.dataVersion = dataVersion;
+        }
+    }
 
     /**
      * Constructs a BudgetService instance with a transaction repository dependency.
@@ -77,45 +99,21 @@ public class BudgetService {
      * @return The average daily expense over the specified period, or 0.0 if no expenses or no full months included.
      */
     public double calculateAverageDailyExpense(String username, int pastMonths) {
-        List<Transaction> transactions = transactionRepository.findTransactionsByUsername(username);
-        if (transactions == null || transactions.isEmpty() || pastMonths <= 0) {
+        if (pastMonths <= 0) {
             return 0.0;
         }
+        YearMonth thisMonth = YearMonth.now();
+        // One rollup per past month, instead of summing the user's transactions
+        Map<YearMonth, MonthlyRollup> rollups = readRollups(username, thisMonth.minusMonths(pastMonths), thisMonth.minusMonths(1));
 
-        double totalExpense = 0.0;
+        long totalExpenseCents = 0;
         int totalDays = 0;
-        LocalDate today = LocalDate.now();
-
         for (int i = 1; i <= pastMonths; i++) {
-            // Get the date for the *start* of the i-th month before the current month
-            LocalDate monthDate = today.minusMonths(i);
-            LocalDate monthStartDate = monthDate.withDayOfMonth(1);
-            LocalDate monthEndDate = monthDate.withDayOfMonth(monthDate.lengthOfMonth());
-
-            double monthExpense = 0.0;
-            for (Transaction tx : transactions) {
-                if (tx == null || tx.getOperation() == null || tx.getTimestamp() == null) continue;
-
-                if ("Expense".equalsIgnoreCase(tx.getOperation())) {
-                    try {
-                        // Parse only date part for comparison
-                        String[] dateTimeParts = tx.getTimestamp().split(" ");
-                        LocalDate transactionDate = LocalDate.parse(dateTimeParts[0], DATE_ONLY_FORMATTER);
-                        if (!transactionDate.isBefore(monthStartDate) && !transactionDate.isAfter(monthEndDate)) {
-                            monthExpense += tx.getAmount();
-                        }
-                    } catch (DateTimeParseException e) {
-                        System.err.println("Failed to parse date in calculateAverageDailyExpense for transaction: " + tx.getTimestamp() + " - " + e.getMessage());
-                        // Ignore transaction with bad date format
-                    } catch (Exception e) {
-                        System.err.println("Unexpected error processing transaction in calculateAverageDailyExpense: " + tx.getTimestamp() + " - " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                }
-            }
-            totalExpense += monthExpense;
-            totalDays += (int) ChronoUnit.DAYS.between(monthStartDate, monthEndDate) + 1;
+            YearMonth month = thisMonth.minusMonths(i);
+            totalExpenseCents += rollupOf(rollups, month).getExpenseCents();
+            totalDays += month.lengthOfMonth();
         }
+        double totalExpense = Money.toDouble(totalExpenseCents);
 
         if (totalDays <= 0 || totalExpense <= 0) {
             return 0.0;
@@ -133,10 +131,28 @@ public class BudgetService {
      * @return a BudgetDataContainer with budget data and recommendations
      */
     public BudgetDataContainer getBudgetData(String username, LocalDate now) {
+        BudgetMemo memo = memoFor(username, now);
+        BudgetDataContainer budgetData = memo.budgetData;
+        if (budgetData == null) {
+            budgetData = computeBudgetData(username, now);
+            memo.budgetData = budgetData;
+        }
+        return budgetData;
+    }
+
+    /**
+     * Computes the budget data returned by {@link #getBudgetData(String, LocalDate)}.
+     *
+     * @param username the username of the user
+     * @param now      the current date for temporal context
+     * @return a BudgetDataContainer with budget data and recommendations
+     */
+    private BudgetDataContainer computeBudgetData(String username, LocalDate now) {
         List<Transaction> transactions = transactionRepository.findTransactionsByUsername(username); // Blocking call
-        double currentMonthIncome = calculateCurrentMonthIncome(transactions, now);
-        double currentMonthExpense = calculateCurrentMonthExpense(transactions, now);
-        String topType = findTopExpenseType(transactions, now);
+        TransactionTable table = TransactionTable.of(transactions);
+        double currentMonthIncome = calculateCurrentMonthIncome(table, now);
+        double currentMonthExpense = calculateCurrentMonthExpense(table, now);
+        String topType = findTopExpenseType(table, now);
         List<LargeConsumptionItem> largeConsumptionItems = findLargeConsumptions(transactions, currentMonthIncome, now);
         BudgetRecommendation recommendation = calculateRecommendation(username, now);
         Double customBudget = getCustomBudget(username); // Blocking call
@@ -151,14 +167,31 @@ public class BudgetService {
      * @return a BudgetRecommendation with suggested budget and savings
      */
     public BudgetRecommendation calculateRecommendation(String username, LocalDate now) {
+        BudgetMemo memo = memoFor(username, now);
+        BudgetRecommendation recommendation = memo.recommendation;
+        if (recommendation == null) {
+            recommendation = computeRecommendation(username, now);
+            memo.recommendation = recommendation;
+        }
+        return recommendation;
+    }
+
+    /**
+     * Computes the recommendation returned by {@link #calculateRecommendation(String, LocalDate)}.
+     *
+     * @param username the username of the user
+     * @param now      the current date for temporal context
+     * @return a BudgetRecommendation with suggested budget and savings
+     */
+    private BudgetRecommendation computeRecommendation(String username, LocalDate now) {
         Double customBudget = getCustomBudget(username);
         if (customBudget != null && customBudget >= 0) {
-            double totalIncomeThisMonth = calculateCurrentMonthIncome(transactionRepository.findTransactionsByUsername(username), now);
+            double totalIncomeThisMonth = readRollup(username, YearMonth.from(now)).getIncome();
             return new BudgetRecommendation(BudgetMode.CUSTOM, customBudget, Math.max(0, totalIncomeThisMonth - customBudget), BudgetMode.CUSTOM.getReason(), false);
         }
 
         BudgetMode mode = determineBudgetMode(username, now);
-        double totalIncomeThisMonth = calculateCurrentMonthIncome(transactionRepository.findTransactionsByUsername(username), now);
+        double totalIncomeThisMonth = readRollup(username, YearMonth.from(now)).getIncome();
         boolean hasPastData = hasSufficientPastData(username, now);
         double suggestedBudget;
         double suggestedSaving;
@@ -176,23 +209,16 @@ public class BudgetService {
 
     /**
      * Saves a custom budget for a user to the cache and persistent storage.
+     * The file is rewritten shortly afterwards, together with any other budget changes made in the meantime.
      *
      * @param username the username of the user
      * @param budget   the custom budget amount
      */
     public void saveCustomBudget(String username, double budget) {
         cachedCustomBudgets.put(username, budget);
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(BUDGET_FILE, false))) {
-            // Overwrite the file with the current state of the cache
-            for (Map.Entry<String, Double> entry : cachedCustomBudgets.entrySet()) {
-                bw.write(entry.getKey() + "," + String.format("%.2f", entry.getValue()));
-                bw.newLine();
-            }
-            System.out.println("Saved custom budget for user " + username + ": ¥" + budget);
-        } catch (IOException e) {
-            System.err.println("Error writing to budget file: " + e.getMessage());
-            e.printStackTrace();
-        }
+        invalidateMemos(username);
+        budgetCommits.request();
+        System.out.println("Saved custom budget for user " + username + ": ¥" + budget);
     }
 
     /**
@@ -202,17 +228,61 @@ public class BudgetService {
      */
     public void clearCustomBudget(String username) {
         cachedCustomBudgets.remove(username);
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(BUDGET_FILE, false))) {
-            // Overwrite the file with the reduced cache state
+        invalidateMemos(username);
+        budgetCommits.request();
+        System.out.println("Cleared custom budget for user " + username);
+    }
+
+    /**
+     * Returns the memo of a user and month, replacing it with an empty one if the user's
+     * transactions changed since it was created.
+     *
+     * @param username the username of the user
+     * @param now      any date within the month
+     * @return the memo to read results from and store them in
+     */
+    private BudgetMemo memoFor(String username, LocalDate now) {
+        long dataVersion = transactionRepository.findDataVersion(username);
+        if (username == null) {
+            return new BudgetMemo(dataVersion);
+        }
+        return memos.computeIfAbsent(username, k -> new ConcurrentHashMap<>()).compute(YearMonth.from(now),
+                (month, memo) -> memo != null && memo.dataVersion == dataVersion ? memo : new BudgetMemo(dataVersion));
+    }
+
+    /**
+     * Forgets the results memoized for a user, after a change that the data version does not cover.
+     *
+     * @param username the username of the user
+     */
+    private void invalidateMemos(String username) {
+        if (username != null) {
+            memos.remove(username);
+        }
+    }
+
+    /**
+     * Writes any budget changes that have not reached the budget file yet.
+     */
+    public void flushCustomBudgets() {
+        budgetCommits.flush();
+    }
+
+    /**
+     * Atomically replaces the budget file with the current state of the cache, so a crash
+     * leaves either the old or the new budgets on disk. Run by {@link #budgetCommits}.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void writeBudgetsToFile() throws IOException {
+        StringBuilder text = new StringBuilder();
+        synchronized (cachedCustomBudgets) {
             for (Map.Entry<String, Double> entry : cachedCustomBudgets.entrySet()) {
-                bw.write(entry.getKey() + "," + String.format("%.2f", entry.getValue()));
-                bw.newLine();
+                text.append(CsvCodec.joinRow(entry.getKey(), Money.format(Money.toCents(entry.getValue()))))
+                        .append(System.lineSeparator());
             }
-            System.out.println("Cleared custom budget for user " + username);
-        } catch (IOException e) {
-            System.err.println("Error writing to budget file when clearing: " + e.getMessage());
-            e.printStackTrace();
         }
+        AtomicFiles.write(Paths.get(BUDGET_FILE), text.toString().getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -237,6 +307,8 @@ public class BudgetService {
      * Handles potential file read errors and format errors.
      */
     private void loadBudgetsFromFile() {
+        // Pending changes are newer than the file, so write them before reading it back
+        budgetCommits.flush();
         System.out.println("Loading custom budgets from file: " + BUDGET_FILE);
         File budgetFile = new File(BUDGET_FILE);
         if (!budgetFile.exists()) {
@@ -244,17 +316,17 @@ public class BudgetService {
             return;
         }
 
+        CsvCodec codec = new CsvCodec();
         try (BufferedReader br = new BufferedReader(new FileReader(budgetFile))) {
             String line;
             while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 2) {
-                    String user = parts[0].trim();
+                if (codec.parse(line) == 2) {
+                    String user = codec.trimmed(0);
                     try {
-                        double budget = Double.parseDouble(parts[1].trim());
+                        double budget = Money.toDouble(Money.parseCents(codec.field(1)));
                         cachedCustomBudgets.put(user, budget);
                     } catch (NumberFormatException e) {
-                        System.err.println("Error parsing budget amount for user " + user + " in file: " + parts[1] + " - " + e.getMessage());
+                        System.err.println("Error parsing budget amount for user " + user + " in file: " + codec.fieldString(1) + " - " + e.getMessage());
                         // Continue reading other lines
                     }
                 } else if (!line.trim().isEmpty()) {
@@ -275,103 +347,53 @@ public class BudgetService {
     /**
      * Calculates the total income for the current month based on transaction data.
      *
-     * @param transactions the list of transactions
-     * @param now          the current date for temporal context
+     * @param table the user's transactions
+     * @param now   the current date for temporal context
      * @return the total income for the current month
      */
-    private double calculateCurrentMonthIncome(List<Transaction> transactions, LocalDate now) {
-        if (transactions == null) return 0.0;
-        double totalIncome = 0.0;
-        for (Transaction tx : transactions) {
-            if (tx == null || tx.getOperation() == null || tx.getTimestamp() == null) continue;
-
-            if ("Income".equalsIgnoreCase(tx.getOperation())) {
-                try {
-                    // Parse only date part
-                    String[] dateTimeParts = tx.getTimestamp().split(" ");
-                    LocalDate transactionDate = LocalDate.parse(dateTimeParts[0], DATE_ONLY_FORMATTER);
-                    if (transactionDate.getYear() == now.getYear() && transactionDate.getMonthValue() == now.getMonthValue()) {
-                        totalIncome += tx.getAmount();
-                    }
-                } catch (DateTimeParseException e) {
-                    System.err.println("Failed to parse date in calculateCurrentMonthIncome for transaction: " + tx.getTimestamp() + " - " + e.getMessage());
-                } catch (Exception e) {
-                    System.err.println("Unexpected error processing transaction in calculateCurrentMonthIncome: " + tx.getTimestamp() + " - " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-        }
-        return totalIncome;
+    private double calculateCurrentMonthIncome(TransactionTable table, LocalDate now) {
+        return table.sum(incomeCodes(table), TimestampCodec.startOf(now.withDayOfMonth(1)),
+                TimestampCodec.endOf(now.withDayOfMonth(now.lengthOfMonth())));
     }
 
     /**
      * Calculates the total expenses for the current month based on transaction data.
      *
-     * @param transactions the list of transactions
-     * @param now          the current date for temporal context
+     * @param table the user's transactions
+     * @param now   the current date for temporal context
      * @return the total expenses for the current month
      */
-    private double calculateCurrentMonthExpense(List<Transaction> transactions, LocalDate now) {
-        if (transactions == null) return 0.0;
-        double totalExpense = 0.0;
-        LocalDate firstDayOfMonth = now.withDayOfMonth(1);
-        LocalDate lastDayOfMonth = now.withDayOfMonth(now.lengthOfMonth());
-        for (Transaction tx : transactions) {
-            if (tx == null || tx.getOperation() == null || tx.getTimestamp() == null) continue;
-
-            if ("Expense".equalsIgnoreCase(tx.getOperation())) {
-                try {
-                    // Parse only date part
-                    String[] dateTimeParts = tx.getTimestamp().split(" ");
-                    LocalDate transactionDate = LocalDate.parse(dateTimeParts[0], DATE_ONLY_FORMATTER);
-                    if (!transactionDate.isBefore(firstDayOfMonth) && !transactionDate.isAfter(lastDayOfMonth)) {
-                        totalExpense += tx.getAmount();
-                    }
-                } catch (DateTimeParseException e) {
-                    System.err.println("Failed to parse date in calculateCurrentMonthExpense for transaction: " + tx.getTimestamp() + " - " + e.getMessage());
-                } catch (Exception e) {
-                    System.err.println("Unexpected error processing transaction in calculateCurrentMonthExpense: " + tx.getTimestamp() + " - " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-        }
-        return totalExpense;
+    private double calculateCurrentMonthExpense(TransactionTable table, LocalDate now) {
+        return table.sum(expenseCodes(table), TimestampCodec.startOf(now.withDayOfMonth(1)),
+                TimestampCodec.endOf(now.withDayOfMonth(now.lengthOfMonth())));
     }
 
     /**
      * Identifies the top expense category for the current month.
      *
-     * @param transactions the list of transactions
-     * @param now          the current date for temporal context
+     * @param table the user's transactions
+     * @param now   the current date for temporal context
      * @return the top expense category, or null if none found
      */
-    private String findTopExpenseType(List<Transaction> transactions, LocalDate now) {
-        if (transactions == null) return null;
+    private String findTopExpenseType(TransactionTable table, LocalDate now) {
+        long fromMinute = TimestampCodec.startOf(now.withDayOfMonth(1));
+        long toMinute = TimestampCodec.endOf(now.withDayOfMonth(now.lengthOfMonth()));
+        boolean[] expense = expenseCodes(table);
+        double[] totals = table.sumByCode(TransactionTable.Column.TYPE, expense, fromMinute, toMinute);
+        int[] counts = table.countByCode(TransactionTable.Column.TYPE, expense, fromMinute, toMinute);
+        String[] types = table.values(TransactionTable.Column.TYPE);
+
+        // Several raw types can fold into one key once trimmed, so merge them before picking the largest
         Map<String, Double> typeTotals = new HashMap<>();
-        for (Transaction tx : transactions) {
-            if (tx == null || tx.getOperation() == null || tx.getTimestamp() == null) continue;
-
-            if ("Expense".equalsIgnoreCase(tx.getOperation())) {
-                try {
-                    // Parse only date part
-                    String[] dateTimeParts = tx.getTimestamp().split(" ");
-                    LocalDate transactionDate = LocalDate.parse(dateTimeParts[0], DATE_ONLY_FORMATTER);
-                    if (transactionDate.getYear() == now.getYear() && transactionDate.getMonthValue() == now.getMonthValue()) {
-                        String type = tx.getType();
-                        if (type == null || type.trim().isEmpty() || "u".equalsIgnoreCase(type.trim())) {
-                            type = "Unclassified";
-                        } else {
-                            type = type.trim();
-                        }
-                        typeTotals.put(type, typeTotals.getOrDefault(type, 0.0) + tx.getAmount());
-                    }
-                } catch (DateTimeParseException e) {
-                    System.err.println("Failed to parse date in findTopExpenseType for transaction: " + tx.getTimestamp() + " - " + e.getMessage());
-                } catch (Exception e) {
-                    System.err.println("Unexpected error processing transaction in findTopExpenseType: " + tx.getTimestamp() + " - " + e.getMessage());
-                    e.printStackTrace();
-                }
+        for (int code = 0; code < types.length; code++) {
+            if (counts[code] == 0) continue;
+            String type = types[code];
+            if (type == null || type.trim().isEmpty() || "u".equalsIgnoreCase(type.trim())) {
+                type = "Unclassified";
+            } else {
+                type = type.trim();
             }
+            typeTotals.merge(type, totals[code], Double::sum);
         }
         return typeTotals.entrySet().stream()
                 .max(Map.Entry.comparingByValue())
@@ -379,6 +401,26 @@ public class BudgetService {
                 .orElse(null);
     }
 
+    /**
+     * Selects the income operation of a table, ignoring case.
+     *
+     * @param table the transactions
+     * @return a mask over the operation codes
+     */
+    private static boolean[] incomeCodes(TransactionTable table) {
+        return table.codesMatching(TransactionTable.Column.OPERATION, "Income"::equalsIgnoreCase);
+    }
+
+    /**
+     * Selects the expense operation of a table, ignoring case.
+     *
+     * @param table the transactions
+     * @return a mask over the operation codes
+     */
+    private static boolean[] expenseCodes(TransactionTable table) {
+        return table.codesMatching(TransactionTable.Column.OPERATION, "Expense"::equalsIgnoreCase);
+    }
+
     /**
      * Identifies large consumption transactions for the current month based on income threshold.
      * Transactions with an amount greater than 7% of the current month's income are considered large.
@@ -395,27 +437,16 @@ public class BudgetService {
         double largeThreshold = (currentMonthIncome > 0) ? currentMonthIncome * LARGE_CONSUMPTION_THRESHOLD_RATIO : 100.0;
         largeThreshold = Math.max(largeThreshold, 100.0);
 
-        DateTimeFormatter displayFormatter = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm");
+        long fromMinute = TimestampCodec.startOf(now.withDayOfMonth(1));
+        long toMinute = TimestampCodec.endOf(now.withDayOfMonth(now.lengthOfMonth()));
         for (Transaction tx : transactions) {
             if (tx == null || tx.getOperation() == null || tx.getTimestamp() == null) continue;
 
             if ("Expense".equalsIgnoreCase(tx.getOperation())) {
-                try {
-                    LocalDate transactionDateOnly = LocalDate.parse(tx.getTimestamp().split(" ")[0], DATE_ONLY_FORMATTER);
-                    if (transactionDateOnly.getYear() == now.getYear() && transactionDateOnly.getMonthValue() == now.getMonthValue() && tx.getAmount() > largeThreshold) {
-                        try {
-                            LocalDate dateTime = LocalDate.parse(tx.getTimestamp().split(" ")[0], DATE_ONLY_FORMATTER); // This seems to parse only date part again
-                            largeConsumptions.add(new LargeConsumptionItem(dateTime, tx.getAmount(), tx.getType() != null ? tx.getType().trim() : "Unspecified Type", tx.getTimestamp()));
-                        } catch (DateTimeParseException e) {
-                            // Fallback to date only if time parsing fails
-                            largeConsumptions.add(new LargeConsumptionItem(transactionDateOnly, tx.getAmount(), tx.getType() != null ? tx.getType().trim() : "Unspecified Type", tx.getTimestamp().split(" ")[0]));
-                        }
-                    }
-                } catch (DateTimeParseException e) {
-                    System.err.println("Failed to parse date in findLargeConsumptions for transaction: " + tx.getTimestamp() + " - " + e.getMessage());
-                } catch (Exception e) {
-                    System.err.println("Unexpected error processing transaction in findLargeConsumptions: " + tx.getTimestamp() + " - " + e.getMessage());
-                    e.printStackTrace();
+                if (!tx.hasValidTimestamp()) {
+                    System.err.println("Failed to parse date in findLargeConsumptions for transaction: " + tx.getTimestamp());
+                } else if (tx.isWithin(fromMinute, toMinute) && tx.getAmount() > largeThreshold) {
+                    largeConsumptions.add(new LargeConsumptionItem(tx.getDate(), tx.getAmount(), tx.getType() != null ? tx.getType().trim() : "Unspecified Type", tx.getTimestamp()));
                 }
             }
         }
@@ -502,16 +533,13 @@ public class BudgetService {
          */
         @Override
         public String toString() {
-            DateTimeFormatter displayFormatter = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm");
-            try {
-                // Assuming DATE_FORMATTER can parse the full timestamp or just date part
-                LocalDate dateTime = LocalDate.parse(timestamp, DATE_FORMATTER);
-                return String.format("%s - ¥%.2f - %s", dateTime.format(displayFormatter), amount, type);
-            } catch (DateTimeParseException e) {
-                // Fallback if full parsing fails, try parsing just the date part
-                LocalDate dateOnly = LocalDate.parse(timestamp.split(" ")[0], DATE_ONLY_FORMATTER);
-                return String.format("%s - ¥%.2f - %s", dateOnly.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")), amount, type);
+            long epochMinute = TimestampCodec.parse(timestamp);
+            if (epochMinute != TimestampCodec.INVALID) {
+                return String.format("%s - ¥%.2f - %s", TimestampCodec.format(epochMinute), amount, type);
             }
+            // Fall back to the date the item was created with
+            String day = date != null ? date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")) : timestamp;
+            return String.format("%s - ¥%.2f - %s", day, amount, type);
         }
     }
 
@@ -584,11 +612,14 @@ public class BudgetService {
     private double calculateAverageConsumptionRatio(String username, LocalDate now) {
         double totalConsumptionRatioSum = 0;
         int validMonthsCount = 0; // Count months with non-zero income and non-zero expense for a valid ratio
+        YearMonth thisMonth = YearMonth.from(now);
+        Map<YearMonth, MonthlyRollup> rollups = readRollups(username, thisMonth.minusMonths(LEARNING_MONTHS), thisMonth.minusMonths(1));
 
         for (int i = 1; i <= LEARNING_MONTHS; i++) { // Check the last LEARNING_MONTHS (3) full months
             LocalDate monthDate = now.minusMonths(i);
-            double totalIncome = calculateCurrentMonthIncome(transactionRepository.findTransactionsByUsername(username), monthDate); // Blocking calls
-            double totalExpense = calculateCurrentMonthExpense(transactionRepository.findTransactionsByUsername(username), monthDate); // Blocking calls
+            MonthlyRollup rollup = rollupOf(rollups, YearMonth.from(monthDate));
+            double totalIncome = rollup.getIncome();
+            double totalExpense = rollup.getExpense();
 
             // Only consider months with income > 0 for ratio calculation
             if (totalIncome > 0) {
@@ -608,6 +639,45 @@ public class BudgetService {
         return (validMonthsCount >= LEARNING_MONTHS) ? totalConsumptionRatioSum / validMonthsCount : (1 - DEFAULT_SAVING_RATIO);
     }
 
+    /**
+     * Reads the monthly rollups of a user over a range of months, keyed by month.
+     *
+     * @param username the username of the user
+     * @param from     the first month, inclusive
+     * @param to       the last month, inclusive
+     * @return the rollups by month; months without one have no transactions
+     */
+    private Map<YearMonth, MonthlyRollup> readRollups(String username, YearMonth from, YearMonth to) {
+        Map<YearMonth, MonthlyRollup> rollups = new HashMap<>();
+        for (MonthlyRollup rollup : transactionRepository.findMonthlyRollups(username, from, to)) {
+            rollups.put(rollup.getMonth(), rollup);
+        }
+        return rollups;
+    }
+
+    /**
+     * Reads the rollup of one month of a user.
+     *
+     * @param username the username of the user
+     * @param month    the month
+     * @return the rollup of the month
+     */
+    private MonthlyRollup readRollup(String username, YearMonth month) {
+        return rollupOf(readRollups(username, month, month), month);
+    }
+
+    /**
+     * Looks up the rollup of a month, treating a missing one as a month without transactions.
+     *
+     * @param rollups the rollups by month
+     * @param month   the month
+     * @return the rollup of the month
+     */
+    private static MonthlyRollup rollupOf(Map<YearMonth, MonthlyRollup> rollups, YearMonth month) {
+        MonthlyRollup rollup = rollups.get(month);
+        return rollup != null ? rollup : MonthlyRollup.empty(month);
+    }
+
     /**
      * Checks if sufficient past data (specifically LEARNING_MONTHS (3) full months with non-zero income)
      * is available for calculating a meaningful average consumption ratio.
@@ -618,10 +688,11 @@ public class BudgetService {
      */
     private boolean hasSufficientPastData(String username, LocalDate now) {
         int monthsWithIncome = 0;
+        YearMonth thisMonth = YearMonth.from(now);
+        Map<YearMonth, MonthlyRollup> rollups = readRollups(username, thisMonth.minusMonths(LEARNING_MONTHS), thisMonth.minusMonths(1));
         for (int i = 1; i <= LEARNING_MONTHS; i++) { // Check the last LEARNING_MONTHS (3) full months
-            LocalDate month = now.minusMonths(i);
-            // Check income for that full month (blocking call)
-            double totalIncome = calculateCurrentMonthIncome(transactionRepository.findTransactionsByUsername(username), month);
+            // Check income for that full month
+            double totalIncome = rollupOf(rollups, thisMonth.minusMonths(i)).getIncome();
             if (totalIncome > 0) {
                 monthsWithIncome++;
             }
@@ -645,58 +716,13 @@ public class BudgetService {
         LocalDate lastMonthStart = lastMonthDate.withDayOfMonth(1);
         LocalDate lastMonthEnd = lastMonthDate.withDayOfMonth(lastMonthDate.lengthOfMonth());
 
-        // Get expense amounts for the last full month (blocking call)
-        List<Double> lastMonthExpenses = getMonthlyExpensesAmounts(username, lastMonthStart, lastMonthEnd);
-
-        if (lastMonthExpenses.size() >= 3) { // Check if last month has at least 3 expense transactions
-            int largeTransactionCount = 0;
-            for (double amount : lastMonthExpenses) {
-                // Original logic checked against 1000
-                if (Math.abs(amount) > 1000) { // Count expenses greater than 1000
-                    largeTransactionCount++;
-                }
-            }
-            return largeTransactionCount >= 3; // Original count threshold: at least 3 such large expenses
-        }
-        return false; // Not unstable if fewer than 3 total expenses or fewer than 3 large expenses
-    }
-
-    /**
-     * Retrieves a list of expense amounts for a given date range.
-     * (Helper for hasUnstableSpendingLastMonth - kept for BudgetMode)
-     *
-     * @param username the username of the user
-     * @param start    the start date of the period (inclusive)
-     * @param end      the end date of the period (inclusive)
-     * @return a list of expense amounts within the specified date range. Returns empty list if no transactions or transactions list is null.
-     */
-    private List<Double> getMonthlyExpensesAmounts(String username, LocalDate start, LocalDate end) {
-        List<Double> expenses = new ArrayList<>();
-        List<Transaction> transactions = transactionRepository.findTransactionsByUsername(username); // Blocking call
-
-        if (transactions == null) return expenses; // Return empty list if no transactions found
+        TransactionTable table = TransactionTable.of(transactionRepository.findTransactionsByUsername(username)); // Blocking call
+        long fromMinute = TimestampCodec.startOf(lastMonthStart);
+        long toMinute = TimestampCodec.endOf(lastMonthEnd);
 
-        for (Transaction tx : transactions) {
-            if (tx == null || tx.getOperation() == null || tx.getTimestamp() == null) continue;
-
-            if ("Expense".equalsIgnoreCase(tx.getOperation())) {
-                try {
-                    // Parse only date part for comparison
-                    String[] dateTimeParts = tx.getTimestamp().split(" ");
-                    LocalDate transactionDate = LocalDate.parse(dateTimeParts[0], DATE_ONLY_FORMATTER);
-
-                    if (!transactionDate.isBefore(start) && !transactionDate.isAfter(end)) {
-                        expenses.add(tx.getAmount());
-                    }
-                } catch (DateTimeParseException e) {
-                    System.err.println("Failed to parse date in getMonthlyExpensesAmounts for transaction: " + tx.getTimestamp() + " - " + e.getMessage());
-                } catch (Exception e) {
-                    System.err.println("Unexpected error processing transaction in getMonthlyExpensesAmounts: " + tx.getTimestamp() + " - " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-        }
-        return expenses;
+        // Unstable means at least 3 expense transactions last month, of which at least 3 are greater than 1000
+        int largeTransactionCount = table.countOver(expenseCodes(table), fromMinute, toMinute, 1000);
+        return largeTransactionCount >= 3;
     }
 
 
@@ -826,19 +852,37 @@ public class BudgetService {
      * will be sorted from newest to oldest before returning. The Javadoc here reflects the original Chinese comment's stated intent.
      */
     public List<MonthlyFinancialData> getPastThreeMonthsFinancialData(String username, LocalDate now) {
+        BudgetMemo memo = memoFor(username, now);
+        List<MonthlyFinancialData> pastThreeMonths = memo.pastThreeMonths;
+        if (pastThreeMonths == null) {
+            pastThreeMonths = computePastThreeMonthsFinancialData(username, now);
+            memo.pastThreeMonths = pastThreeMonths;
+        }
+        return new ArrayList<>(pastThreeMonths);
+    }
+
+    /**
+     * Computes the figures returned by {@link #getPastThreeMonthsFinancialData(String, LocalDate)}.
+     *
+     * @param username The username of the user.
+     * @param now      The current date.
+     * @return A list of income and expenses for the past three full months, newest first.
+     */
+    private List<MonthlyFinancialData> computePastThreeMonthsFinancialData(String username, LocalDate now) {
         List<MonthlyFinancialData> monthlyData = new ArrayList<>();
         DateTimeFormatter monthFormatter = DateTimeFormatter.ofPattern("yyyy-MM");
 
         // 获取上个月的日期 (Get the date of the previous month)
         LocalDate previousMonth = now.minusMonths(1);
+        Map<YearMonth, MonthlyRollup> rollups = readRollups(username,
+                YearMonth.from(previousMonth).minusMonths(2), YearMonth.from(previousMonth));
 
         // Loop to get data for the past three full months
         // The loop adds data in chronological order (oldest first: prevMonth-2, prevMonth-1, prevMonth)
         for (int i = 2; i >= 0; i--) {
             LocalDate monthDate = previousMonth.minusMonths(i);
-            double income = calculateCurrentMonthIncome(transactionRepository.findTransactionsByUsername(username), monthDate);
-            double expense = calculateCurrentMonthExpense(transactionRepository.findTransactionsByUsername(username), monthDate);
-            monthlyData.add(new MonthlyFinancialData(monthDate.format(monthFormatter), income, expense));
+            MonthlyRollup rollup = rollupOf(rollups, YearMonth.from(monthDate));
+            monthlyData.add(new MonthlyFinancialData(monthDate.format(monthFormatter), rollup.getIncome(), rollup.getExpense()));
         }
         // Ensure months are sorted chronologically (old to new)
         // However, the reverse call below will make it newest to oldest.
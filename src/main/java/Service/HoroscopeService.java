@@ -2,14 +2,15 @@ package Service;
 
 import Model.HoroscopeReportModel;
 import Model.Transaction;
+import Model.TransactionTable;
 import Repository.TransactionRepository; // Assuming this is correctly in your Repository package
+import utils.TimestampCodec;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.Month;
 import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.time.format.TextStyle;
 import java.util.Arrays;
 import java.util.Collections;
@@ -114,25 +115,26 @@ public class HoroscopeService {
         System.out.println("HoroscopeService: Period: " + startOfMonth.format(TRANSACTION_TIMESTAMP_FORMATTER) +
                 " to " + endOfMonth.format(TRANSACTION_TIMESTAMP_FORMATTER));
 
-        List<Transaction> allUserTransactions = transactionRepository.findTransactionsByUsername(username);
+        // Only the selected month is read; the filter below still guards against malformed timestamps
+        List<Transaction> allUserTransactions = transactionRepository.readTransactionsForUserInPeriod(username, startOfMonth, endOfMonth);
 
         if (allUserTransactions == null) { // Should ideally not happen if repository returns empty list on error
             allUserTransactions = Collections.emptyList();
         }
-        System.out.println("HoroscopeService: Fetched " + allUserTransactions.size() + " total transactions for user " + username);
+        System.out.println("HoroscopeService: Fetched " + allUserTransactions.size() + " transactions in the period for user " + username);
 
+        long fromMinute = TimestampCodec.toEpochMinute(startOfMonth);
+        long toMinute = TimestampCodec.toEpochMinute(endOfMonth);
         List<Transaction> monthlyExpenses = allUserTransactions.stream()
                 .filter(tx -> "Expense".equalsIgnoreCase(tx.getOperation())) // Only consider expenses
                 .filter(tx -> {
                     if (tx.getTimestamp() == null) return false;
-                    try {
-                        LocalDateTime txTimestamp = LocalDateTime.parse(tx.getTimestamp(), TRANSACTION_TIMESTAMP_FORMATTER);
-                        // Check if transaction is within the month
-                        return !txTimestamp.isBefore(startOfMonth) && !txTimestamp.isAfter(endOfMonth);
-                    } catch (DateTimeParseException e) {
-                        System.err.println("HoroscopeService: Error parsing transaction timestamp '" + tx.getTimestamp() + "' for " + username + ". Error: " + e.getMessage());
+                    if (!tx.hasValidTimestamp()) {
+                        System.err.println("HoroscopeService: Error parsing transaction timestamp '" + tx.getTimestamp() + "' for " + username + ".");
                         return false; // Skip transactions with unparseable timestamps
                     }
+                    // Check if transaction is within the month
+                    return tx.isWithin(fromMinute, toMinute);
                 })
                 .collect(Collectors.toList());
 
@@ -149,12 +151,20 @@ public class HoroscopeService {
             );
         }
 
+        // One pass totals every distinct type; the target types then only look at those totals
+        TransactionTable table = TransactionTable.of(monthlyExpenses);
+        boolean[] expense = table.codesMatching(TransactionTable.Column.OPERATION, "Expense"::equalsIgnoreCase);
+        double[] totalsByType = table.sumByCode(TransactionTable.Column.TYPE, expense, fromMinute, toMinute);
+        String[] types = table.values(TransactionTable.Column.TYPE);
+
         Map<String, Double> expensesByTargetType = new HashMap<>();
         for (String targetType : TARGET_SPENDING_TYPES) {
-            double totalForType = monthlyExpenses.stream()
-                    .filter(tx -> tx.getType() != null && targetType.equalsIgnoreCase(tx.getType()))
-                    .mapToDouble(Transaction::getAmount)
-                    .sum();
+            double totalForType = 0;
+            for (int code = 0; code < types.length; code++) {
+                if (types[code] != null && targetType.equalsIgnoreCase(types[code])) {
+                    totalForType += totalsByType[code];
+                }
+            }
             if (totalForType > 0) { // Only add if there's spending in this category
                 expensesByTargetType.put(targetType, totalForType);
             }
@@ -7,13 +7,15 @@
  */
 package Service;
 
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import Model.Transaction;
+import Model.MonthlyRollup;
 import Repository.TransactionRepository;
+import utils.Money;
 
 public class PersonChartDataService {
 
@@ -36,34 +38,25 @@ public class PersonChartDataService {
      * @return an AnnualChartData object containing annual and monthly income and expense data
      */
     public AnnualChartData prepareAnnualChartData(String username, int selectedYear) {
-        List<Transaction> transactions = transactionRepository.readTransactions(username);
-        double annualIncome = 0, annualExpense = 0;
+        long annualIncome = 0, annualExpense = 0;
         Map<String, Double> monthlyIncomes = new HashMap<>();
         Map<String, Double> monthlyExpenses = new HashMap<>();
-
-        // Initialize monthly data
         for (int i = 1; i <= 12; i++) {
             String month = String.format("%02d", i);
             monthlyIncomes.put(month, 0.0);
             monthlyExpenses.put(month, 0.0);
         }
 
-        // Process transactions to calculate annual and monthly data
-        for (Transaction tx : transactions) {
-            String txYear = tx.getTimestamp().substring(0, 4);
-            if (txYear.equals(String.valueOf(selectedYear))) {
-                String month = tx.getTimestamp().substring(5, 7);
-                if ("Income".equals(tx.getOperation())) {
-                    annualIncome += tx.getAmount();
-                    monthlyIncomes.put(month, monthlyIncomes.getOrDefault(month, 0.0) + tx.getAmount());
-                } else if ("Expense".equals(tx.getOperation())) {
-                    annualExpense += tx.getAmount();
-                    monthlyExpenses.put(month, monthlyExpenses.getOrDefault(month, 0.0) + tx.getAmount());
-                }
-            }
+        // One rollup per month of the year, instead of summing the year's transactions
+        for (MonthlyRollup rollup : yearRollups(username, selectedYear)) {
+            String month = String.format("%02d", rollup.getMonth().getMonthValue());
+            monthlyIncomes.put(month, rollup.getIncome());
+            monthlyExpenses.put(month, rollup.getExpense());
+            annualIncome += rollup.getIncomeCents();
+            annualExpense += rollup.getExpenseCents();
         }
 
-        return new AnnualChartData(annualIncome, annualExpense, monthlyIncomes, monthlyExpenses);
+        return new AnnualChartData(Money.toDouble(annualIncome), Money.toDouble(annualExpense), monthlyIncomes, monthlyExpenses);
     }
 
     /**
@@ -74,28 +67,37 @@ public class PersonChartDataService {
      * @return a CategoryChartData object containing categorized income and expense data
      */
     public CategoryChartData prepareCategoryChartData(String username, int selectedYear) {
-        List<Transaction> transactions = transactionRepository.readTransactions(username);
-        Map<String, Double> incomeMap = new HashMap<>();
-        Map<String, Double> expenseMap = new HashMap<>();
-        String yearStr = String.valueOf(selectedYear);
-
-        // Process transactions to calculate category data
-        for (Transaction tx : transactions) {
-            if (tx.getTimestamp() != null && tx.getTimestamp().startsWith(yearStr)) {
-                if ("Income".equals(tx.getOperation())) {
-                    incomeMap.put(tx.getCategory(), incomeMap.getOrDefault(tx.getCategory(), 0.0) + tx.getAmount());
-                } else if ("Expense".equals(tx.getOperation())) {
-                    expenseMap.put(tx.getCategory(), expenseMap.getOrDefault(tx.getCategory(), 0.0) + tx.getAmount());
-                }
-            }
+        Map<String, Long> incomeCents = new HashMap<>();
+        Map<String, Long> expenseCents = new HashMap<>();
+
+        // Merge the per-category sums of each month's rollup
+        for (MonthlyRollup rollup : yearRollups(username, selectedYear)) {
+            rollup.getIncomeByCategory().forEach((category, cents) -> incomeCents.merge(category, cents, Long::sum));
+            rollup.getExpenseByCategory().forEach((category, cents) -> expenseCents.merge(category, cents, Long::sum));
         }
 
-        List<Map.Entry<String, Double>> incomeCategories = new ArrayList<>(incomeMap.entrySet());
-        List<Map.Entry<String, Double>> expenseCategories = new ArrayList<>(expenseMap.entrySet());
+        List<Map.Entry<String, Double>> incomeCategories = new ArrayList<>(toAmounts(incomeCents).entrySet());
+        List<Map.Entry<String, Double>> expenseCategories = new ArrayList<>(toAmounts(expenseCents).entrySet());
 
         return new CategoryChartData(incomeCategories, expenseCategories);
     }
 
+    /**
+     * Reads the rollups of the twelve months of a year.
+     */
+    private List<MonthlyRollup> yearRollups(String username, int year) {
+        return transactionRepository.findMonthlyRollups(username, YearMonth.of(year, 1), YearMonth.of(year, 12));
+    }
+
+    /**
+     * Converts totals in cents to amounts.
+     */
+    private static Map<String, Double> toAmounts(Map<String, Long> cents) {
+        Map<String, Double> amounts = new HashMap<>();
+        cents.forEach((key, value) -> amounts.put(key, Money.toDouble(value)));
+        return amounts;
+    }
+
     /**
      * Represents annual chart data, including total income, expenses, and monthly breakdowns.
      */
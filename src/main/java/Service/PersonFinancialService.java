@@ -7,12 +7,18 @@
  */
 package Service;
 
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import Model.MonthlyRollup;
 import Model.Transaction;
+import Model.TransactionTable;
 import Repository.TransactionRepository;
+import utils.Money;
+import utils.TimestampCodec;
 
 public class PersonFinancialService {
 
@@ -35,33 +41,20 @@ public class PersonFinancialService {
      * @return a FinancialSummary object containing financial metrics
      */
     public FinancialSummary calculateFinancialSummary(String username, int selectedYear) {
-        List<Transaction> transactions = transactionRepository.readTransactions(username);
-        double totalIncomeYear = 0, totalExpenseYear = 0;
-        double totalIncomeLastYear = 0, totalExpenseLastYear = 0;
-        double accountBalance = 0;
-        int lastYear = selectedYear - 1;
-
-        // Process transactions to calculate totals
-        for (Transaction tx : transactions) {
-            String txYear = tx.getTimestamp().substring(0, 4);
-            if ("Income".equals(tx.getOperation())) {
-                accountBalance += tx.getAmount();
-                if (txYear.equals(String.valueOf(selectedYear))) {
-                    totalIncomeYear += tx.getAmount();
-                }
-                if (txYear.equals(String.valueOf(lastYear))) {
-                    totalIncomeLastYear += tx.getAmount();
-                }
-            } else if ("Expense".equals(tx.getOperation())) {
-                accountBalance -= tx.getAmount();
-                if (txYear.equals(String.valueOf(selectedYear))) {
-                    totalExpenseYear += tx.getAmount();
-                }
-                if (txYear.equals(String.valueOf(lastYear))) {
-                    totalExpenseLastYear += tx.getAmount();
-                }
-            }
+        // Totals from the monthly rollups of this year and last year, and the running balance
+        long[] incomeCents = new long[2];
+        long[] expenseCents = new long[2];
+        for (MonthlyRollup rollup : transactionRepository.findMonthlyRollups(username,
+                YearMonth.of(selectedYear - 1, 1), YearMonth.of(selectedYear, 12))) {
+            int year = rollup.getMonth().getYear() == selectedYear ? 0 : 1;
+            incomeCents[year] += rollup.getIncomeCents();
+            expenseCents[year] += rollup.getExpenseCents();
         }
+        double totalIncomeYear = Money.toDouble(incomeCents[0]);
+        double totalExpenseYear = Money.toDouble(expenseCents[0]);
+        double totalIncomeLastYear = Money.toDouble(incomeCents[1]);
+        double totalExpenseLastYear = Money.toDouble(expenseCents[1]);
+        double accountBalance = Money.toDouble(transactionRepository.findBalanceCents(username));
 
         // Calculate changes
         double incomeChangeYear = totalIncomeLastYear > 0 ? ((totalIncomeYear - totalIncomeLastYear) / totalIncomeLastYear) * 100 : 0;
@@ -79,25 +72,22 @@ public class PersonFinancialService {
      */
     public String generatePaymentLocationSummary(String username, int selectedYear) {
         List<Transaction> transactions = transactionRepository.readTransactions(username);
-        Map<String, Double> paymentMethods = new HashMap<>();
-        Map<String, Double> locations = new HashMap<>();
-        double totalExpense = 0;
-        int transactionCount = 0;
+        TransactionTable table = TransactionTable.of(transactions);
+        boolean[] expense = table.codesMatching(TransactionTable.Column.OPERATION, "Expense"::equals);
+        long yearStart = yearStart(selectedYear);
+        long yearEnd = yearStart(selectedYear + 1) - 1;
+
+        // Group the year's expenses by payment method and location over the columns of the transactions
+        Map<String, Double> paymentMethods = totalsByCode(table, TransactionTable.Column.PAYMENT_METHOD, expense, yearStart, yearEnd);
+        Map<String, Double> locations = totalsByCode(table, TransactionTable.Column.LOCATION, expense, yearStart, yearEnd);
+        double totalExpense = table.sum(expense, yearStart, yearEnd);
+        int transactionCount = table.countOver(expense, yearStart, yearEnd, Double.NEGATIVE_INFINITY);
         double maxSingleTransaction = 0;
         String maxTransactionCategory = "None";
-
-        // Process transactions for payment and location summary
-        for (Transaction tx : transactions) {
-            if ("Expense".equals(tx.getOperation()) && tx.getTimestamp().startsWith(String.valueOf(selectedYear))) {
-                paymentMethods.put(tx.getPaymentMethod(), paymentMethods.getOrDefault(tx.getPaymentMethod(), 0.0) + tx.getAmount());
-                locations.put(tx.getLocation(), locations.getOrDefault(tx.getLocation(), 0.0) + tx.getAmount());
-                totalExpense += tx.getAmount();
-                transactionCount++;
-                if (tx.getAmount() > maxSingleTransaction) {
-                    maxSingleTransaction = tx.getAmount();
-                    maxTransactionCategory = tx.getCategory();
-                }
-            }
+        int maxRow = table.maxRow(expense, yearStart, yearEnd);
+        if (maxRow >= 0 && table.amount(maxRow) > 0) {
+            maxSingleTransaction = table.amount(maxRow);
+            maxTransactionCategory = table.value(TransactionTable.Column.CATEGORY, maxRow);
         }
 
         final double finalTotalExpense = totalExpense > 0 ? totalExpense : 1;
@@ -120,6 +110,27 @@ public class PersonFinancialService {
         );
     }
 
+    private static long yearStart(int year) {
+        return TimestampCodec.startOf(LocalDate.of(year, 1, 1));
+    }
+
+    /**
+     * Sums the selected rows by the values of a column, keeping only values that occur.
+     */
+    private static Map<String, Double> totalsByCode(TransactionTable table, TransactionTable.Column column,
+                                                    boolean[] operations, long fromMinute, long toMinute) {
+        String[] values = table.values(column);
+        double[] sums = table.sumByCode(column, operations, fromMinute, toMinute);
+        int[] counts = table.countByCode(column, operations, fromMinute, toMinute);
+        Map<String, Double> totals = new HashMap<>();
+        for (int code = 0; code < values.length; code++) {
+            if (counts[code] > 0) {
+                totals.put(values[code], sums[code]);
+            }
+        }
+        return totals;
+    }
+
     /**
      * Represents a financial summary, including total income, expenses, balance, and year-over-year changes.
      */
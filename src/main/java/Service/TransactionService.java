@@ -1,17 +1,19 @@
 package Service;
 
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.stream.Collectors;
 import java.util.Objects; // Added import
 
+import Model.MonthlyRollup;
 import Model.Transaction;
 import Model.User;
 import Repository.TransactionRepository;
+import utils.Money;
 
 public class TransactionService {
     private static final DateTimeFormatter TRANSACTION_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm");
@@ -25,6 +27,9 @@ public class TransactionService {
     private static final int FREQUENT_LARGE_TRANSACTION_COUNT = 3;
     private static final double LARGE_EXPENSE_MULTIPLIER = 3.0;
     private static final double LARGE_TRANSFER_OUT_AMOUNT = 50000.0;
+    private static final int AVERAGE_EXPENSE_MONTHS = 3; // Past full months the average daily expense is taken over
+
+    private final AnomalyDetector anomalyDetector; // Per-user counters behind the real-time checks
 
     /**
      * Constructs a TransactionService instance with the specified dependencies.
@@ -35,6 +40,7 @@ public class TransactionService {
     public TransactionService(TransactionRepository transactionRepository, BudgetService budgetService) {
         this.transactionRepository = Objects.requireNonNull(transactionRepository, "TransactionRepository cannot be null"); // Use Objects.requireNonNull for clarity and null check
         this.budgetService = Objects.requireNonNull(budgetService, "BudgetService cannot be null"); // Use Objects.requireNonNull
+        this.anomalyDetector = new AnomalyDetector(transactionRepository, Money.toCents(FREQUENT_LARGE_TRANSACTION_AMOUNT), AVERAGE_EXPENSE_MONTHS);
          System.out.println("TransactionService initialized with TransactionRepository and BudgetService.");
     }
 
@@ -70,7 +76,7 @@ public class TransactionService {
 
 
             sb.append(escapeForSummary(operation)).append(",")
-              .append(String.format("%.2f", tx.getAmount())).append(",")
+              .append(Money.format(tx.getAmountCents())).append(",")
               .append(escapeForSummary(timestamp)).append(",")
               .append(escapeForSummary(merchant)).append(",")
               .append(escapeForSummary(type)).append(",")
@@ -87,31 +93,13 @@ public class TransactionService {
      */
     public double getCurrentMonthExpense(User user) {
         if (user == null) return 0.0;
-        List<Transaction> transactions = transactionRepository.findTransactionsByUser(user); // Blocking call
-        double totalExpense = 0.0;
-        LocalDate now = LocalDate.now();
-        int currentYear = now.getYear();
-        int currentMonth = now.getMonthValue();
-        for (Transaction tx : transactions) {
-             if (tx == null || tx.getOperation() == null || tx.getTimestamp() == null) continue;
-
-            if ("Expense".equalsIgnoreCase(tx.getOperation())) {
-                try {
-                    String[] dateTimeParts = tx.getTimestamp().split(" ");
-                    LocalDate date = LocalDate.parse(dateTimeParts[0], DATE_ONLY_FORMATTER);
-
-                    if (date.getYear() == currentYear && date.getMonthValue() == currentMonth) {
-                        totalExpense += tx.getAmount();
-                    }
-                } catch (DateTimeParseException e) {
-                    System.err.println("Date parse error in getCurrentMonthExpense for transaction: " + tx.getTimestamp() + " - " + e.getMessage());
-                } catch (Exception e) {
-                     System.err.println("Unexpected error processing transaction in getCurrentMonthExpense: " + tx.getTimestamp() + " - " + e.getMessage());
-                     e.printStackTrace();
-                }
-            }
+        YearMonth thisMonth = YearMonth.now();
+        // Read from the month's rollup, which every write keeps up to date
+        long totalExpense = 0;
+        for (MonthlyRollup rollup : transactionRepository.findMonthlyRollups(user.getUsername(), thisMonth, thisMonth)) {
+            totalExpense += rollup.getExpenseCents();
         }
-        return totalExpense;
+        return Money.toDouble(totalExpense);
     }
 
     /**
@@ -135,7 +123,7 @@ public class TransactionService {
         System.out.println("Checking historical abnormal transactions for user " + username + " (" + transactions.size() + " transactions)...");
 
         // Calculate average daily expense (can be 0 if no past expenses or income)
-        double averageDailyExpense = budgetService.calculateAverageDailyExpense(username, 3); // Blocking call
+        double averageDailyExpense = budgetService.calculateAverageDailyExpense(username, AVERAGE_EXPENSE_MONTHS); // Blocking call
 
         // Use flags to ensure we add each *type* of warning at most once for historical checks.
         boolean largeExpenseFound = false; // Flag for Pattern 2 (>3x avg)
@@ -176,19 +164,16 @@ public class TransactionService {
         // Group transactions by day
         Map<LocalDate, List<Transaction>> transactionsByDay = transactions.stream()
             .filter(tx -> tx != null && tx.getTimestamp() != null)
-            .collect(Collectors.groupingBy(tx -> {
-                try {
-                    String[] dateTimeParts = tx.getTimestamp().split(" ");
-                    return LocalDate.parse(dateTimeParts[0], DATE_ONLY_FORMATTER);
-                } catch (DateTimeParseException e) {
-                    System.err.println("Date parse error grouping transactions by day: " + tx.getTimestamp() + " - " + e.getMessage());
-                    return null; // Group transactions with invalid dates under null key
+            .filter(tx -> {
+                if (!tx.hasValidTimestamp()) {
+                    System.err.println("Date parse error grouping transactions by day: " + tx.getTimestamp());
+                    return false; // Skip transactions with invalid dates
                 }
-            }));
+                return true;
+            })
+            .collect(Collectors.groupingBy(Transaction::getDate));
 
-        // Process groups, skipping the null key group
         for (Map.Entry<LocalDate, List<Transaction>> entry : transactionsByDay.entrySet()) {
-            if (entry.getKey() == null) continue;
 
             long largeTransactionCount = entry.getValue().stream()
                  .filter(tx -> {
@@ -208,19 +193,83 @@ public class TransactionService {
     }
 
     /**
-     * Checks if adding a *new* transaction triggers real-time abnormal transaction warnings based on the combined list.
-     * This check is performed BEFORE the transaction is added to the history file.
+     * Checks if adding a *new* transaction triggers real-time abnormal transaction warnings.
+     * This check is performed BEFORE the transaction is added to the history file. The user's
+     * day counters and average daily expense come from the anomaly detector, so the check does
+     * not depend on how many transactions the user already has.
      *
-     * @param username          The username of the user.
-     * @param existingTransactions The list of existing transactions for the user.
-     * @param newTransaction    The transaction being added (temporary object).
+     * @param username       The username of the user.
+     * @param newTransaction The transaction being added (temporary object).
      * @return A list of strings describing the detected abnormal patterns for this transaction, or an empty list if none found.
      */
-    public List<String> checkRealtimeAbnormalTransactions(String username, List<Transaction> existingTransactions, Transaction newTransaction) {
-        List<String> warnings = new ArrayList<>();
+    public List<String> checkRealtimeAbnormalTransactions(String username, Transaction newTransaction) {
          if (newTransaction == null || username == null || username.trim().isEmpty()) {
-             return warnings;
+             return new ArrayList<>();
          }
+        List<String> warnings = checkAgainst(anomalyDetector.baseline(username), newTransaction);
+        System.out.println("Real-time abnormal transaction check completed. Warnings found: " + warnings.size());
+        return warnings;
+    }
+
+    /**
+     * Runs the real-time checks on a batch of new transactions of one user, such as a bulk import.
+     * Each transaction is checked as if the ones before it in the batch had already been added,
+     * at O(1) per transaction.
+     *
+     * @param username        The username of the user.
+     * @param newTransactions The transactions being added, in the order they will be added.
+     * @return The warnings of every transaction in the batch, in order, or an empty list if none found.
+     */
+    public List<String> checkRealtimeAbnormalTransactions(String username, List<Transaction> newTransactions) {
+        List<String> warnings = new ArrayList<>();
+        if (newTransactions == null || newTransactions.isEmpty() || username == null || username.trim().isEmpty()) {
+            return warnings;
+        }
+        AnomalyDetector.Baseline baseline = anomalyDetector.baseline(username);
+        for (Transaction newTransaction : newTransactions) {
+            if (newTransaction == null) continue;
+            warnings.addAll(checkAgainst(baseline, newTransaction));
+            baseline.add(newTransaction);
+        }
+        System.out.println("Real-time abnormal transaction check of " + newTransactions.size() + " transactions completed. Warnings found: " + warnings.size());
+        return warnings;
+    }
+
+    /**
+     * Reads the version of a user's transactions to pass to {@link #recordTransactions(String, List, long)}
+     * once the transactions about to be written are committed.
+     *
+     * @param username The username of the user.
+     * @return The current data version of the user's transactions.
+     */
+    public long getDataVersion(String username) {
+        return transactionRepository.findDataVersion(username);
+    }
+
+    /**
+     * Tells the real-time checks about transactions that have just been committed, so the next
+     * check counts them without rereading the user's history.
+     *
+     * @param username          The username of the user.
+     * @param transactions      The committed transactions.
+     * @param dataVersionBefore The version from {@link #getDataVersion(String)}, read before the write.
+     */
+    public void recordTransactions(String username, List<Transaction> transactions, long dataVersionBefore) {
+        if (username == null || transactions == null || transactions.isEmpty()) {
+            return;
+        }
+        anomalyDetector.record(username, transactions, dataVersionBefore);
+    }
+
+    /**
+     * Checks one new transaction against a user's counters.
+     *
+     * @param baseline       The counters of the user.
+     * @param newTransaction The transaction being added.
+     * @return The warnings for this transaction.
+     */
+    private List<String> checkAgainst(AnomalyDetector.Baseline baseline, Transaction newTransaction) {
+        List<String> warnings = new ArrayList<>();
          // Basic validation for new transaction's essential fields for check
          if (newTransaction.getOperation() == null || newTransaction.getTimestamp() == null) {
               System.err.println("Real-time check: New transaction is missing operation or timestamp. Cannot perform full check.");
@@ -233,8 +282,8 @@ public class TransactionService {
          }
 
 
-         // Calculate average daily expense (use the BudgetService dependency)
-         double averageDailyExpense = budgetService.calculateAverageDailyExpense(username, 3);
+         // Average daily expense over the past full months, kept by the detector
+         double averageDailyExpense = baseline.averageDailyExpense();
 
 
          // Pattern 2 Check (Single large expense) - applies to the NEW transaction
@@ -256,53 +305,20 @@ public class TransactionService {
          if (newTransaction.getTimestamp() != null && newTransaction.getOperation() != null &&
              ( "Income".equalsIgnoreCase(newTransaction.getOperation()) || "Expense".equalsIgnoreCase(newTransaction.getOperation())) &&
              newTransaction.getAmount() >= FREQUENT_LARGE_TRANSACTION_AMOUNT) { // Check if the new transaction itself is 'large' for Pattern 1
-              try {
-                  String[] dateTimeParts = newTransaction.getTimestamp().split(" ");
-                  LocalDate newTransactionDay = LocalDate.parse(dateTimeParts[0], DATE_ONLY_FORMATTER);
-
-                  // Count existing large, relevant transactions for the same day as the new one
-                  long existingLargeTransactionsToday = (existingTransactions == null) ? 0 : existingTransactions.stream() // Handle null existingTransactions
-                      .filter(tx -> tx != null && tx.getTimestamp() != null && tx.getOperation() != null) // Filter out invalid existing transactions
-                      .filter(tx -> {
-                           try {
-                               String[] existingDateTimeParts = tx.getTimestamp().split(" ");
-                               LocalDate txDay = LocalDate.parse(existingDateTimeParts[0], DATE_ONLY_FORMATTER);
-                               return txDay.equals(newTransactionDay); // Filter for the same day
-                           } catch (DateTimeParseException e) {
-                               System.err.println("Date parse error filtering for daily check on existing transaction: " + tx.getTimestamp() + " - " + e.getMessage());
-                               return false; // Ignore existing transactions with invalid dates
-                           } catch (Exception e) {
-                                System.err.println("Unexpected error parsing existing timestamp for daily check: " + tx.getTimestamp() + " - " + e.getMessage());
-                                e.printStackTrace();
-                                return false; // Ignore existing transactions with unexpected errors
-                           }
-                       })
-                      .filter(tx -> {
-                           // Check if Operation is Income or Expense and amount is large
-                           boolean isRelevantOperation = "Income".equalsIgnoreCase(tx.getOperation()) || "Expense".equalsIgnoreCase(tx.getOperation());
-                           return isRelevantOperation && tx.getAmount() >= FREQUENT_LARGE_TRANSACTION_AMOUNT;
-                       })
-                      .count();
+              if (!newTransaction.hasValidTimestamp()) {
+                  System.err.println("Date parse error for new transaction timestamp during realtime daily check: " + newTransaction.getTimestamp());
+                  warnings.add("Cannot perform daily transaction frequency check due to invalid date format in new transaction: " + newTransaction.getTimestamp());
+              } else {
+                  // Existing large, relevant transactions on the same day, from the detector's per-day counters
+                  long existingLargeTransactionsToday = baseline.largeCountOn(newTransaction.getEpochMinute());
 
                   // If adding the new large transaction makes the total count for today >= FREQUENT_LARGE_TRANSACTION_COUNT
                   if ((existingLargeTransactionsToday + 1) >= FREQUENT_LARGE_TRANSACTION_COUNT) {
                       warnings.add(String.format("Adding this transaction (¥%.2f) will result in %d large transactions (>= ¥%.2f) today (%s).",
-                          newTransaction.getAmount(), existingLargeTransactionsToday + 1, FREQUENT_LARGE_TRANSACTION_AMOUNT, newTransactionDay.format(DATE_ONLY_FORMATTER)));
+                          newTransaction.getAmount(), existingLargeTransactionsToday + 1, FREQUENT_LARGE_TRANSACTION_AMOUNT, newTransaction.getDate().format(DATE_ONLY_FORMATTER)));
                   }
-
-              } catch (DateTimeParseException e) {
-                  // This case is handled by the outer check if timestamp is null.
-                  System.err.println("Date parse error for new transaction timestamp during realtime daily check: " + newTransaction.getTimestamp() + " - " + e.getMessage());
-                   warnings.add("Cannot perform daily transaction frequency check due to invalid date format in new transaction: " + newTransaction.getTimestamp());
-              } catch (Exception e) {
-                   System.err.println("Unexpected error during realtime daily frequency check: " + e.getMessage());
-                   e.printStackTrace();
-                   warnings.add("An error occurred during real-time daily frequency check.");
               }
          }
-
-
-        System.out.println("Real-time abnormal transaction check completed. Warnings found: " + warnings.size());
         return warnings;
     }
 
@@ -19,7 +19,7 @@ import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.time.LocalDate;
-import java.time.format.DateTimeParseException;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -507,11 +507,9 @@ public class BillPanel extends TransactionSystemComponents.MidGradientPanel {
             private Popup tooltipPopup;
 
             {
-                List<Transaction> transactions = billController.getFilteredTransactions(username, startYearMonth, endYearMonth);
-                System.out.println("Filtered transactions for " + (isExpense ? "expense" : "income") + ": " + transactions.size());
                 Map<String, Double> categoryTotals = isExpense
-                        ? billController.calculateExpenseCategoryTotals(transactions, categoryField)
-                        : billController.calculateIncomeCategoryTotals(transactions, categoryField);
+                        ? billController.calculateExpenseCategoryTotals(username, startYearMonth, endYearMonth, categoryField)
+                        : billController.calculateIncomeCategoryTotals(username, startYearMonth, endYearMonth, categoryField);
 
                 totalAmount = categoryTotals.values().stream().mapToDouble(Double::doubleValue).sum();
                 categoryEntries.clear();
@@ -791,20 +789,19 @@ public class BillPanel extends TransactionSystemComponents.MidGradientPanel {
         panel.setBackground(Color.WHITE);
         panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-        List<Transaction> transactions = billController.getFilteredTransactions(username, startYearMonth, endYearMonth);
+        Map<String, List<Transaction>> groups = billController.groupTransactionsByField(username, startYearMonth, endYearMonth, categoryField);
         Map<String, Integer> fieldCounts = new HashMap<>();
         Map<String, Double> fieldTotals = new HashMap<>();
         double totalExpense = 0.0;
 
-        for (Transaction t : transactions) {
-            if ("Expense".equalsIgnoreCase(t.getOperation())) {
-                String fieldValue = getFieldValue(t, categoryField);
-                if (fieldValue == null || fieldValue.trim().isEmpty() || "u".equalsIgnoreCase(fieldValue.trim())) {
-                    fieldValue = "Unclassified";
+        for (Map.Entry<String, List<Transaction>> group : groups.entrySet()) {
+            String fieldValue = "u".equalsIgnoreCase(group.getKey()) ? "Unclassified" : group.getKey();
+            for (Transaction t : group.getValue()) {
+                if ("Expense".equalsIgnoreCase(t.getOperation())) {
+                    fieldCounts.put(fieldValue, fieldCounts.getOrDefault(fieldValue, 0) + 1);
+                    fieldTotals.put(fieldValue, fieldTotals.getOrDefault(fieldValue, 0.0) + t.getAmount());
+                    totalExpense += t.getAmount();
                 }
-                fieldCounts.put(fieldValue, fieldCounts.getOrDefault(fieldValue, 0) + 1);
-                fieldTotals.put(fieldValue, fieldTotals.getOrDefault(fieldValue, 0.0) + t.getAmount());
-                totalExpense += t.getAmount();
             }
         }
 
@@ -913,9 +910,11 @@ public class BillPanel extends TransactionSystemComponents.MidGradientPanel {
                 }
 
                 for (Transaction t : transactions) {
-                    try {
-                        LocalDate date = LocalDate.parse(t.getTimestamp(), BudgetService.DATE_FORMATTER);
-                        String monthKey = date.getYear() + "/" + String.format("%02d", date.getMonthValue());
+                    YearMonth month = t.getYearMonth();
+                    if (month == null) {
+                        System.err.println("Error parsing date: " + t.getTimestamp());
+                    } else {
+                        String monthKey = month.getYear() + "/" + String.format("%02d", month.getMonthValue());
                         if (monthlyIncomes.containsKey(monthKey)) {
                             if ("Income".equalsIgnoreCase(t.getOperation())) {
                                 monthlyIncomes.merge(monthKey, t.getAmount(), Double::sum);
@@ -926,8 +925,6 @@ public class BillPanel extends TransactionSystemComponents.MidGradientPanel {
                             }
                             maxAmount = Math.max(maxAmount, Math.max(monthlyIncomes.get(monthKey), monthlyExpenses.get(monthKey)));
                         }
-                    } catch (DateTimeParseException e) {
-                        System.err.println("Error parsing date: " + t.getTimestamp());
                     }
                 }
 
@@ -1013,26 +1010,6 @@ public class BillPanel extends TransactionSystemComponents.MidGradientPanel {
         return panel;
     }
 
-    /**
-     * Retrieves the value of the specified field from a transaction.
-     * 
-     * @param t the transaction to extract the field from
-     * @param field the field name to retrieve
-     * @return the field value, or "Unclassified" if not applicable
-     */
-    private String getFieldValue(Transaction t, String field) {
-        switch (field) {
-            case "category": return t.getCategory();
-            case "type": return t.getType();
-            case "payment_method": return t.getPaymentMethod();
-            case "location": return t.getLocation();
-            case "merchant": return t.getMerchant();
-            case "tag": return t.getTag();
-            case "recurrence": return t.getRecurrence();
-            default: return "Unclassified";
-        }
-    }
-
     /**
      * A custom UI for scrollbars with a modern look, featuring a rounded thumb and track.
      */
@@ -41,8 +41,8 @@ import javax.swing.border.LineBorder;
 import javax.swing.plaf.basic.BasicComboBoxUI;
 
 import Controller.PersonCenterController;
-import Controller.TransactionController;
 import Model.Transaction;
+import Model.TransactionCache;
 import Model.UserSession;
 import Service.PersonChartDataService;
 import Service.PersonFinancialService;
@@ -75,10 +75,6 @@ public class PersonalCenterPanel extends TransactionSystemComponents.MidGradient
     private boolean isDataLoaded = false;
     private boolean isUILoaded = false;
 
-    private static Map<String, List<Transaction>> transactionCache = new HashMap<>();
-    private static Map<String, Long> cacheTimestamps = new HashMap<>();
-    private static final long CACHE_EXPIRY_MS = 5 * 60 * 1000;
-
     /**
      * Constructs a PersonalCenterPanel with a year selection combo box and a placeholder
      * until the UI is fully loaded.
@@ -264,35 +260,6 @@ public class PersonalCenterPanel extends TransactionSystemComponents.MidGradient
         repaint();
     }
 
-    /**
-     * Checks if the cached transactions for a user are still valid.
-     * 
-     * @param username the username to check
-     * @return true if the cache is valid, false otherwise
-     */
-    private static boolean isCacheValid(String username) {
-        Long timestamp = cacheTimestamps.get(username);
-        if (timestamp == null) return false;
-        return (System.currentTimeMillis() - timestamp) < CACHE_EXPIRY_MS;
-    }
-
-    /**
-     * Retrieves cached transactions for a user, refreshing the cache if expired.
-     * 
-     * @param username the username to retrieve transactions for
-     * @return the list of transactions
-     */
-    private static List<Transaction> getCachedTransactions(String username) {
-        if (isCacheValid(username)) {
-            return transactionCache.getOrDefault(username, new ArrayList<>());
-        }
-        List<Transaction> transactions = TransactionController.readTransactions(username);
-        System.out.println("Transactions loaded for user " + username + ": " + (transactions != null ? transactions.size() : 0));
-        transactionCache.put(username, transactions != null ? transactions : new ArrayList<>());
-        cacheTimestamps.put(username, System.currentTimeMillis());
-        return transactionCache.get(username);
-    }
-
     /**
      * Filters transactions for a specific user and year.
      * 
@@ -301,7 +268,7 @@ public class PersonalCenterPanel extends TransactionSystemComponents.MidGradient
      * @return the filtered list of transactions
      */
     private static List<Transaction> getFilteredTransactions(String username, String year) {
-        List<Transaction> transactions = getCachedTransactions(username);
+        List<Transaction> transactions = TransactionCache.getCachedTransactions(username);
         List<Transaction> filtered = new ArrayList<>();
         String yearPrefix = year + "/";
 
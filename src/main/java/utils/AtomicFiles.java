@@ -0,0 +1,92 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces the content of a file so that a crash leaves either the old or the new content, never
+ * a mix of both or a truncated file. The new content is written to a temporary file next to the
+ * target and forced to the storage device, the temporary file is renamed over the target in one
+ * step, and the directory is forced so the rename itself survives a crash.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class AtomicFiles {
+    private AtomicFiles() {
+    }
+
+    /**
+     * Atomically replaces the content of a file, creating it if needed.
+     *
+     * @param target  The file to write.
+     * @param content The new content.
+     * @throws IOException If the content cannot be written; the target is then left unchanged.
+     */
+    public static void write(Path target, byte[] content) throws IOException {
+        Path temp = createTempFor(target);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            replace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates a uniquely named, empty temporary file next to a target, for content too large to
+     * build in memory. Pass it to {@link #replace(Path, Path)} once written, or delete it.
+     *
+     * @param target The file the content will replace.
+     * @return The temporary file.
+     * @throws IOException If the file cannot be created.
+     */
+    public static Path createTempFor(Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        return Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+    }
+
+    /**
+     * Forces a fully written temporary file to the storage device and renames it over a target
+     * in one step, so the target holds either its old or its new content.
+     *
+     * @param temp   The temporary file, in the same directory as the target.
+     * @param target The file to replace.
+     * @throws IOException If the rename fails; the target is then left unchanged.
+     */
+    public static void replace(Path temp, Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(absolute.getParent());
+    }
+
+    /**
+     * Forces a directory entry to the storage device. Platforms that cannot open a directory
+     * for this, such as Windows, are skipped; their rename is already durable.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform
+        }
+    }
+}
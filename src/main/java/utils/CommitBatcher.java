@@ -0,0 +1,127 @@
+package utils;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces a burst of small changes into one commit. Callers apply a change to their in-memory
+ * state and call {@link #request()}; the commit runs once on a background thread after a short
+ * delay and writes whatever the state is by then, so N changes in quick succession cost one write
+ * instead of N. Pending commits are also run by {@link #flush()} and when the JVM shuts down.
+ * Each request returns a future of the commit that will include it, for callers that must know
+ * their change was written.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class CommitBatcher {
+    /** Thread running delayed commits. */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "commit-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Batchers with a commit that has been requested and has not run yet. */
+    private static final Set<CommitBatcher> PENDING = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (CommitBatcher batcher : PENDING) {
+                batcher.flush();
+            }
+        }, "commit-batcher-shutdown"));
+    }
+
+    /**
+     * Writes the current state of whatever a batcher guards.
+     */
+    @FunctionalInterface
+    public interface Commit {
+        /**
+         * Writes the state.
+         *
+         * @throws IOException If the state cannot be written.
+         */
+        void run() throws IOException;
+    }
+
+    /** What the batcher commits, for log messages. */
+    private final String name;
+
+    /** How long after the first request of a burst the commit runs. */
+    private final long delayMillis;
+
+    /** The commit to run. */
+    private final Commit commit;
+
+    /** Serializes runs of {@link #commit}. */
+    private final Object commitLock = new Object();
+
+    /** Whether a commit has been requested and has not started yet. */
+    private boolean requested;
+
+    /** Completed when the requested commit has run; {@code null} when none is requested. */
+    private CompletableFuture<Void> pending;
+
+    /**
+     * Creates a batcher.
+     *
+     * @param name        What the batcher commits, for log messages.
+     * @param delayMillis How long to wait for further changes before committing.
+     * @param commit      The commit to run.
+     */
+    public CommitBatcher(String name, long delayMillis, Commit commit) {
+        this.name = name;
+        this.delayMillis = delayMillis;
+        this.commit = commit;
+    }
+
+    /**
+     * Requests a commit. If none is pending, one is scheduled after the delay; otherwise the
+     * pending one will include this change.
+     *
+     * @return A future completed once the commit including this change has run, or completed
+     *         exceptionally with the {@link IOException} it failed with.
+     */
+    public synchronized CompletableFuture<Void> request() {
+        if (requested) {
+            return pending;
+        }
+        requested = true;
+        pending = new CompletableFuture<>();
+        PENDING.add(this);
+        SCHEDULER.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+        return pending;
+    }
+
+    /**
+     * Runs the pending commit now, if there is one, and waits for it to finish.
+     */
+    public void flush() {
+        synchronized (commitLock) {
+            CompletableFuture<Void> result;
+            synchronized (this) {
+                if (!requested) {
+                    return;
+                }
+                requested = false;
+                result = pending;
+                pending = null;
+                PENDING.remove(this);
+            }
+            try {
+                commit.run();
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error committing " + name + ": " + e.getMessage());
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
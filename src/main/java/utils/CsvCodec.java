@@ -0,0 +1,304 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Reader and writer for the RFC 4180 rows used by the application's CSV files. A codec instance
+ * tokenizes one row at a time into a char buffer that is reused from row to row, and exposes the
+ * unescaped fields as {@link CharSequence} views over that buffer, so reading a file allocates no
+ * strings except for the fields the caller actually keeps.
+ * <p>
+ * Fields may be enclosed in double quotes, in which case they can contain commas and doubled
+ * quotes. Writing quotes a field only when it contains a comma or a quote. Every row is kept on a
+ * single line, so line breaks inside a field are written as spaces.
+ * <p>
+ * A codec instance is not thread-safe, and the views it returns are only valid until the next call
+ * to {@link #parse(CharSequence)}.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class CsvCodec {
+    /** The unescaped characters of every field of the current row, one after another. */
+    private char[] buffer = new char[256];
+
+    /** Start of each field in {@link #buffer}. */
+    private int[] starts = new int[16];
+
+    /** End of each field in {@link #buffer}. */
+    private int[] ends = new int[16];
+
+    /** Index of the first character of each field in the parsed row, including its opening quote. */
+    private int[] rawStarts = new int[16];
+
+    /** Index just past the last character of each field in the parsed row, including its closing quote. */
+    private int[] rawEnds = new int[16];
+
+    /** Reusable views over the fields, one per field index. */
+    private Field[] views = new Field[16];
+
+    /** Number of fields in the current row. */
+    private int count;
+
+    /**
+     * Tokenizes a row, replacing the fields of the previous one. A trailing carriage return is ignored.
+     *
+     * @param line The row, without its line feed.
+     * @return The number of fields in the row; an empty row has one empty field.
+     */
+    public int parse(CharSequence line) {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            length--;
+        }
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        count = 0;
+        int out = 0;
+        int i = 0;
+        while (true) {
+            int rawStart = i;
+            int start = out;
+            if (i < length && line.charAt(i) == '"') {
+                i++;
+                while (i < length) {
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        if (i < length && line.charAt(i) == '"') {
+                            buffer[out++] = '"';
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        buffer[out++] = c;
+                    }
+                }
+                // Characters between the closing quote and the next comma are kept, as lenient readers do
+                while (i < length && line.charAt(i) != ',') {
+                    buffer[out++] = line.charAt(i++);
+                }
+            } else {
+                while (i < length && line.charAt(i) != ',') {
+                    buffer[out++] = line.charAt(i++);
+                }
+            }
+            addField(start, out, rawStart, i);
+            if (i >= length) {
+                return count;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Returns the number of fields in the current row.
+     *
+     * @return The field count.
+     */
+    public int fieldCount() {
+        return count;
+    }
+
+    /**
+     * Returns a view of an unescaped field of the current row. The view is reused by later rows.
+     *
+     * @param index The field index.
+     * @return The field, or an empty sequence if the row has no such field.
+     */
+    public CharSequence field(int index) {
+        if (index < 0 || index >= count) {
+            return "";
+        }
+        Field view = views[index];
+        if (view == null) {
+            view = new Field(this);
+            views[index] = view;
+        }
+        view.start = starts[index];
+        view.end = ends[index];
+        return view;
+    }
+
+    /**
+     * Returns an unescaped field of the current row as a string.
+     *
+     * @param index The field index.
+     * @return The field, or an empty string if the row has no such field.
+     */
+    public String fieldString(int index) {
+        return index < 0 || index >= count ? "" : new String(buffer, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * Returns an unescaped field of the current row without surrounding whitespace.
+     *
+     * @param index The field index.
+     * @return The trimmed field, or an empty string if the row has no such field.
+     */
+    public String trimmed(int index) {
+        if (index < 0 || index >= count) {
+            return "";
+        }
+        int start = starts[index];
+        int end = ends[index];
+        while (start < end && buffer[start] <= ' ') start++;
+        while (end > start && buffer[end - 1] <= ' ') end--;
+        return new String(buffer, start, end - start);
+    }
+
+    /**
+     * Returns where a field started in the parsed row, counting its opening quote.
+     *
+     * @param index The field index.
+     * @return The index of its first character in the row.
+     */
+    public int rawStart(int index) {
+        return rawStarts[index];
+    }
+
+    /**
+     * Returns where a field ended in the parsed row, counting its closing quote.
+     *
+     * @param index The field index.
+     * @return The index just past its last character in the row.
+     */
+    public int rawEnd(int index) {
+        return rawEnds[index];
+    }
+
+    /**
+     * Escapes a field with the fewest changes needed to read it back: it is quoted only if it
+     * contains a comma or a quote, and line breaks become spaces.
+     *
+     * @param field The field; {@code null} is written as an empty field.
+     * @return The escaped field.
+     */
+    public static String escape(CharSequence field) {
+        if (field == null) {
+            return "";
+        }
+        if (!needsEscaping(field)) {
+            return field.toString();
+        }
+        return appendField(new StringBuilder(field.length() + 8), field).toString();
+    }
+
+    /**
+     * Appends an escaped field to a row being built.
+     *
+     * @param row   The row.
+     * @param field The field; {@code null} is written as an empty field.
+     * @return The row.
+     */
+    public static StringBuilder appendField(StringBuilder row, CharSequence field) {
+        if (field == null) {
+            return row;
+        }
+        if (!needsEscaping(field)) {
+            return row.append(field);
+        }
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"';
+        }
+        if (quote) {
+            row.append('"');
+        }
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                row.append("\"\"");
+            } else if (c == '\n' || c == '\r') {
+                row.append(' ');
+            } else {
+                row.append(c);
+            }
+        }
+        if (quote) {
+            row.append('"');
+        }
+        return row;
+    }
+
+    /**
+     * Escapes each field and joins them into one row.
+     *
+     * @param fields The fields; {@code null} entries are written as empty fields.
+     * @return The row, without a line terminator.
+     */
+    public static String joinRow(CharSequence... fields) {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            appendField(row, fields[i]);
+        }
+        return row.toString();
+    }
+
+    private static boolean needsEscaping(CharSequence field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addField(int start, int end, int rawStart, int rawEnd) {
+        if (count == starts.length) {
+            int size = count * 2;
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            rawStarts = Arrays.copyOf(rawStarts, size);
+            rawEnds = Arrays.copyOf(rawEnds, size);
+            views = Arrays.copyOf(views, size);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        rawStarts[count] = rawStart;
+        rawEnds[count] = rawEnd;
+        count++;
+    }
+
+    /**
+     * A view of one field in the codec's buffer.
+     */
+    private static final class Field implements CharSequence {
+        private final CsvCodec codec;
+        private int start;
+        private int end;
+
+        Field(CsvCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return codec.buffer[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(codec.buffer, start, end - start);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package utils;
+
+/**
+ * Converts amounts of money between their text form and a {@code long} count of cents.
+ * Amounts in the ledger have two decimal places, so holding them as cents makes sums and
+ * balances exact integer arithmetic, and reading or writing them works on the characters
+ * directly instead of going through {@link Double#parseDouble(String)} and {@link String#format}.
+ * <p>
+ * The {@code double} accessors kept on the model are views of these cents for display and for
+ * callers that still work in yuan.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class Money {
+    /** Number of cents in one yuan. */
+    public static final int CENTS_PER_UNIT = 100;
+
+    /** Most integer digits the fast parser accepts before handing over to {@link Double#parseDouble(String)}. */
+    private static final int MAX_FAST_DIGITS = 16;
+
+    private Money() {
+    }
+
+    /**
+     * Parses a decimal amount such as "12", "-3.5" or "1234.56", ignoring surrounding whitespace.
+     * Digits past the second decimal place are rounded half away from zero. Text the fast path does
+     * not recognize, such as an exponent, is parsed as a {@code double} and rounded to cents.
+     *
+     * @param text The text to parse.
+     * @return The amount in cents.
+     * @throws NumberFormatException If the text is not a number.
+     */
+    public static long parseCents(CharSequence text) {
+        if (text == null) {
+            throw new NumberFormatException("null");
+        }
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int integerDigits = 0;
+        while (i < end && isDigit(text.charAt(i)) && integerDigits < MAX_FAST_DIGITS) {
+            units = units * 10 + (text.charAt(i++) - '0');
+            integerDigits++;
+        }
+        long cents = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(text.charAt(i))) {
+                int digit = text.charAt(i++) - '0';
+                if (fractionDigits < 2) {
+                    cents = cents * 10 + digit;
+                } else if (fractionDigits == 2) {
+                    roundUp = digit >= 5;
+                }
+                fractionDigits++;
+            }
+        }
+        if (i != end || integerDigits + fractionDigits == 0) {
+            return slowParse(text.subSequence(start, end).toString());
+        }
+        if (fractionDigits == 1) {
+            cents *= 10;
+        }
+        long total = units * CENTS_PER_UNIT + cents + (roundUp ? 1 : 0);
+        return negative ? -total : total;
+    }
+
+    /**
+     * Rounds an amount in yuan to the nearest cent.
+     *
+     * @param amount The amount.
+     * @return The amount in cents.
+     */
+    public static long toCents(double amount) {
+        return Math.round(amount * CENTS_PER_UNIT);
+    }
+
+    /**
+     * Converts an amount in cents to yuan.
+     *
+     * @param cents The amount in cents.
+     * @return The amount in yuan.
+     */
+    public static double toDouble(long cents) {
+        return cents / (double) CENTS_PER_UNIT;
+    }
+
+    /**
+     * Formats an amount with two decimal places, as {@code "%.2f"} does.
+     *
+     * @param cents The amount in cents.
+     * @return The text, for example "-12.05".
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Formats an amount with two decimal places, padding the digits with leading zeros to a
+     * minimum width as {@code "%0<width>.2f"} does.
+     *
+     * @param cents The amount in cents.
+     * @param width The minimum length of the text, including any minus sign.
+     * @return The padded text.
+     */
+    public static String format(long cents, int width) {
+        StringBuilder text = appendTo(new StringBuilder(Math.max(width, 24)), cents);
+        int missing = width - text.length();
+        if (missing > 0) {
+            text.insert(cents < 0 ? 1 : 0, "0".repeat(missing));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Appends an amount with two decimal places to a builder.
+     *
+     * @param text  The builder.
+     * @param cents The amount in cents.
+     * @return The builder.
+     */
+    public static StringBuilder appendTo(StringBuilder text, long cents) {
+        long units = cents / CENTS_PER_UNIT;
+        int fraction = (int) Math.abs(cents % CENTS_PER_UNIT);
+        if (cents < 0) {
+            text.append('-');
+        }
+        text.append(Math.abs(units)).append('.');
+        if (fraction < 10) {
+            text.append('0');
+        }
+        return text.append(fraction);
+    }
+
+    private static long slowParse(String text) {
+        double value = Double.parseDouble(text);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new NumberFormatException("Not a finite amount: " + text);
+        }
+        return toCents(value);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,67 @@
+package utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe, bounded pool of canonical string instances. Columns that repeat a handful of values
+ * across many rows, such as a transaction's operation or category, can route their values through
+ * a dictionary so that every row refers to one shared instance instead of holding its own copy.
+ * <p>
+ * The pool never evicts: once it holds its maximum number of entries, new values are returned as
+ * they are. Values longer than the length limit are never pooled, so free text does not fill it up.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class StringDictionary {
+    /** The canonical instance of each pooled value. */
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+    /** Maximum number of pooled values. */
+    private final int maxEntries;
+
+    /** Maximum length of a pooled value. */
+    private final int maxLength;
+
+    /**
+     * Creates an empty dictionary.
+     *
+     * @param maxEntries The maximum number of values to pool.
+     * @param maxLength  The maximum length of a value to pool.
+     */
+    public StringDictionary(int maxEntries, int maxLength) {
+        this.maxEntries = maxEntries;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns the canonical instance of a value, adding the value to the pool if there is room.
+     *
+     * @param value The value; may be {@code null}.
+     * @return The pooled instance equal to the value, or the value itself if it is not pooled.
+     */
+    public String canonical(String value) {
+        if (value == null || value.length() > maxLength) {
+            return value;
+        }
+        String pooled = values.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (values.size() >= maxEntries) {
+            return value;
+        }
+        pooled = values.putIfAbsent(value, value);
+        return pooled != null ? pooled : value;
+    }
+
+    /**
+     * Returns the number of pooled values.
+     *
+     * @return The size of the pool.
+     */
+    public int size() {
+        return values.size();
+    }
+}
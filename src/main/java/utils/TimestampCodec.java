@@ -0,0 +1,257 @@
+package utils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+
+/**
+ * Converts transaction timestamps between their text form and minutes since the epoch.
+ * Accepts "yyyy/MM/dd" and "yyyy/MM/dd HH:mm" like {@link Service.BudgetService#DATE_FORMATTER},
+ * but works on the characters directly and reports invalid input with {@link #INVALID}
+ * instead of throwing, which keeps bulk loading free of exceptions and formatter objects.
+ * Timestamps carry no time zone, so epoch minutes are counted as if they were UTC.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class TimestampCodec {
+    /** Value returned for text that is not a valid timestamp. */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    /** Number of minutes in a day. */
+    public static final int MINUTES_PER_DAY = 1440;
+
+    private TimestampCodec() {
+    }
+
+    /**
+     * Parses a timestamp in the format "yyyy/MM/dd" or "yyyy/MM/dd HH:mm", ignoring surrounding whitespace.
+     * A day beyond the end of its month is clamped to the last day, as the lenient formatter does.
+     *
+     * @param text The text to parse.
+     * @return The minutes since 1970/01/01 00:00, or {@link #INVALID}.
+     */
+    public static long parse(CharSequence text) {
+        return text == null ? INVALID : parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses a timestamp held in a range of a character sequence.
+     *
+     * @param text  The characters.
+     * @param start The index of the first character.
+     * @param end   The index just past the last character.
+     * @return The minutes since 1970/01/01 00:00, or {@link #INVALID}.
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        int length = end - start;
+        if (length != 10 && length != 16) {
+            return INVALID;
+        }
+        if (text.charAt(start + 4) != '/' || text.charAt(start + 7) != '/') {
+            return INVALID;
+        }
+        int year = digits(text, start, 4);
+        int month = digits(text, start + 5, 2);
+        int day = digits(text, start + 8, 2);
+        int hour = 0;
+        int minute = 0;
+        if (length == 16) {
+            if (text.charAt(start + 10) != ' ' || text.charAt(start + 13) != ':') {
+                return INVALID;
+            }
+            hour = digits(text, start + 11, 2);
+            minute = digits(text, start + 14, 2);
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return INVALID;
+        }
+        day = Math.min(day, lengthOfMonth(year, month));
+        return toEpochDay(year, month, day) * MINUTES_PER_DAY + hour * 60L + minute;
+    }
+
+    /**
+     * Formats minutes since the epoch as "yyyy/MM/dd HH:mm".
+     *
+     * @param epochMinute The minutes since 1970/01/01 00:00.
+     * @return The formatted timestamp.
+     */
+    public static String format(long epochMinute) {
+        long epochDay = Math.floorDiv(epochMinute, MINUTES_PER_DAY);
+        int minuteOfDay = Math.floorMod(epochMinute, MINUTES_PER_DAY);
+
+        // Civil-from-days conversion (proleptic Gregorian calendar)
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return toLocalDateTime(epochMinute).toString();
+        }
+
+        char[] chars = new char[16];
+        putDigits(chars, 0, (int) year, 4);
+        chars[4] = '/';
+        putDigits(chars, 5, month, 2);
+        chars[7] = '/';
+        putDigits(chars, 8, day, 2);
+        chars[10] = ' ';
+        putDigits(chars, 11, minuteOfDay / 60, 2);
+        chars[13] = ':';
+        putDigits(chars, 14, minuteOfDay % 60, 2);
+        return new String(chars);
+    }
+
+    /**
+     * Converts minutes since the epoch to a date-time.
+     *
+     * @param epochMinute The minutes since 1970/01/01 00:00.
+     * @return The corresponding date-time.
+     */
+    public static LocalDateTime toLocalDateTime(long epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Converts minutes since the epoch to a date.
+     *
+     * @param epochMinute The minutes since 1970/01/01 00:00.
+     * @return The date containing that minute.
+     */
+    public static LocalDate toLocalDate(long epochMinute) {
+        return LocalDate.ofEpochDay(Math.floorDiv(epochMinute, MINUTES_PER_DAY));
+    }
+
+    /**
+     * Converts minutes since the epoch to a month.
+     *
+     * @param epochMinute The minutes since 1970/01/01 00:00.
+     * @return The month containing that minute.
+     */
+    public static YearMonth toYearMonth(long epochMinute) {
+        LocalDate date = toLocalDate(epochMinute);
+        return YearMonth.of(date.getYear(), date.getMonthValue());
+    }
+
+    /**
+     * Returns the month containing a minute as a single number, {@code year * 12 + month - 1},
+     * so consecutive months have consecutive indexes.
+     *
+     * @param epochMinute The minutes since 1970/01/01 00:00.
+     * @return The month index.
+     */
+    public static int monthIndex(long epochMinute) {
+        // Civil-from-days conversion, as in format()
+        long z = Math.floorDiv(epochMinute, MINUTES_PER_DAY) + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    /**
+     * Returns the first minute of a day.
+     *
+     * @param date The date.
+     * @return The minutes from 1970/01/01 00:00 to the start of that day.
+     */
+    public static long startOf(LocalDate date) {
+        return date.toEpochDay() * MINUTES_PER_DAY;
+    }
+
+    /**
+     * Returns the last minute of a day.
+     *
+     * @param date The date.
+     * @return The minutes from 1970/01/01 00:00 to 23:59 of that day.
+     */
+    public static long endOf(LocalDate date) {
+        return startOf(date) + MINUTES_PER_DAY - 1;
+    }
+
+    /**
+     * Converts a date-time to minutes since the epoch, dropping seconds.
+     *
+     * @param dateTime The date-time.
+     * @return The minutes since 1970/01/01 00:00.
+     */
+    public static long toEpochMinute(LocalDateTime dateTime) {
+        return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    /**
+     * Converts a date-time to minutes since the epoch, rounding any seconds up to the next minute.
+     * Useful for the inclusive start of a range, since timestamps carry no seconds.
+     *
+     * @param dateTime The date-time.
+     * @return The minutes since 1970/01/01 00:00.
+     */
+    public static long toEpochMinuteRoundingUp(LocalDateTime dateTime) {
+        long seconds = dateTime.toEpochSecond(ZoneOffset.UTC) + (dateTime.getNano() > 0 ? 1 : 0);
+        return Math.floorDiv(seconds + 59, 60);
+    }
+
+    /**
+     * Returns the number of days from 1970/01/01 to the given date.
+     *
+     * @param year  The year.
+     * @param month The month, from 1 to 12.
+     * @param day   The day of the month.
+     * @return The epoch day.
+     */
+    public static long toEpochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void putDigits(char[] chars, int start, int value, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
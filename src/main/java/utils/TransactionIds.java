@@ -0,0 +1,79 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues the 64-bit IDs stored in the last column of a transaction row.
+ * An issued ID is the current time in milliseconds shifted left by {@link #SEQUENCE_BITS}, plus a
+ * sequence number, so IDs are positive, increase monotonically within the process and stay
+ * unique across restarts as long as fewer than 65536 IDs are issued per millisecond.
+ * <p>
+ * Rows written before IDs existed have no ID column. Those are given a negative ID derived from
+ * their bytes (see {@link #contentId(long)}), which is stable as long as the row is not rewritten;
+ * the two ranges never overlap, and 0 means no ID at all.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public final class TransactionIds {
+    /** ID of a transaction that has not been given one. */
+    public static final long NONE = 0;
+
+    /** Number of low bits holding the sequence within one millisecond. */
+    private static final int SEQUENCE_BITS = 16;
+
+    /** The last ID issued. */
+    private static final AtomicLong LAST = new AtomicLong();
+
+    private TransactionIds() {
+    }
+
+    /**
+     * Issues a new ID.
+     *
+     * @return A positive ID greater than every ID issued before by this process.
+     */
+    public static long next() {
+        long floor = System.currentTimeMillis() << SEQUENCE_BITS;
+        return LAST.updateAndGet(last -> Math.max(last + 1, floor));
+    }
+
+    /**
+     * Turns a 64-bit hash of a legacy row into its ID.
+     *
+     * @param hash The hash of the row's bytes.
+     * @return A negative ID.
+     */
+    public static long contentId(long hash) {
+        return hash | Long.MIN_VALUE;
+    }
+
+    /**
+     * Parses an ID written in a row.
+     *
+     * @param text The text of the ID column.
+     * @return The ID, or {@link #NONE} if the text is not a positive decimal number.
+     */
+    public static long parse(CharSequence text) {
+        if (text == null) {
+            return NONE;
+        }
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        if (start == end || end - start > 19) {
+            return NONE;
+        }
+        long id = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return NONE;
+            }
+            id = id * 10 + (c - '0');
+        }
+        // 19 digits can exceed Long.MAX_VALUE, which wraps to a non-positive value
+        return id > 0 ? id : NONE;
+    }
+}
@@ -123,18 +123,9 @@ public class TransactionUtils {
                 dt = today.plusYears(1).withDayOfYear(1).atTime(now);
                 break;
             default:
-                // Attempt to parse common formats
-                try {
-                    dt = LocalDateTime.parse(rawTime, DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm"));
-                } catch (Exception e1) {
-                    try {
-                        LocalDate d = LocalDate.parse(rawTime, DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-                        dt = d.atStartOfDay();
-                    } catch (Exception e2) {
-                        // Final fallback: use current time
-                        dt = LocalDateTime.now();
-                    }
-                }
+                // Attempt to parse common formats, falling back to the current time
+                long epochMinute = TimestampCodec.parse(rawTime);
+                dt = epochMinute == TimestampCodec.INVALID ? LocalDateTime.now() : TimestampCodec.toLocalDateTime(epochMinute);
         }
         return dt.format(OUT_FMT);
     }
@@ -0,0 +1,85 @@
+package Model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionCacheTest {
+
+    private static List<Transaction> transactions(String username, int count) {
+        List<Transaction> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(new Transaction(username, "Expense", i, "2024/01/01 10:00", "", "", "", "", "", "", "", "", ""));
+        }
+        return list;
+    }
+
+    @Test
+    void invalidate_servesFreshDataAfterWrite() {
+        AtomicInteger loads = new AtomicInteger();
+        TransactionCache cache = new TransactionCache(user -> transactions(user, loads.incrementAndGet()), 100, 60_000);
+
+        assertEquals(1, cache.get("alice").size());
+        assertEquals(1, cache.get("alice").size());
+        assertEquals(1, loads.get());
+        assertThrows(UnsupportedOperationException.class, () -> cache.get("alice").clear());
+
+        cache.invalidate("alice");
+        assertNull(cache.getIfPresent("alice"));
+        assertEquals(2, cache.get("alice").size());
+        cache.invalidateAll();
+        assertEquals(3, cache.get("alice").size());
+    }
+
+    @Test
+    void concurrentMisses_shareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TransactionCache cache = new TransactionCache(user -> {
+            loads.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return transactions(user, 2);
+        }, 100, 60_000);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Transaction>>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(pool.submit(() -> cache.get("bob")));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<List<Transaction>> result : results) {
+                assertEquals(2, result.get(5, TimeUnit.SECONDS).size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void leastRecentlyUsedUsers_areEvictedOverLimit() {
+        TransactionCache cache = new TransactionCache(user -> transactions(user, 4), 10, 60_000);
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+        assertNotNull(cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+        assertNotNull(cache.getIfPresent("c"));
+    }
+}
@@ -0,0 +1,69 @@
+package Model;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import utils.TimestampCodec;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionTableTest {
+
+    private static Transaction tx(String operation, double amount, String timestamp, String type) {
+        return new Transaction("alice", operation, amount, timestamp, "Shop", type, "", "Food", "Card", "SH", "", "", "");
+    }
+
+    private final TransactionTable table = TransactionTable.of(Arrays.asList(
+            tx("Expense", 10.0, "2024/01/15 09:00", "food"),
+            null,
+            tx("Income", 500.0, "2024/01/20 09:00", "salary"),
+            tx("Expense", 1500.0, "2024/03/02 18:30", "travel"),
+            tx("expense", 20.0, "2024/03/05 12:00", "food"),
+            tx("Expense", 99.0, "not a date", "food")));
+
+    @Test
+    void of_skipsNullsAndEncodesColumns() {
+        assertEquals(5, table.size());
+        assertEquals("travel", table.value(TransactionTable.Column.TYPE, 2));
+        assertEquals(List.of("food", "salary", "travel"), List.of(table.values(TransactionTable.Column.TYPE)));
+        assertEquals(TimestampCodec.INVALID, table.epochMinute(4));
+    }
+
+    @Test
+    void kernels_selectRowsByOperationAndRange() {
+        boolean[] expense = table.codesMatching(TransactionTable.Column.OPERATION, "Expense"::equalsIgnoreCase);
+        boolean[] exact = table.codesMatching(TransactionTable.Column.OPERATION, "Expense"::equals);
+        long from = TimestampCodec.startOf(LocalDate.of(2024, 1, 1));
+        long to = TimestampCodec.endOf(LocalDate.of(2024, 12, 31));
+
+        assertEquals(1629.0, table.sum(expense), 1e-9, "the unranged sum keeps rows with invalid dates");
+        assertEquals(1530.0, table.sum(expense, from, to), 1e-9);
+        assertEquals(1510.0, table.sum(exact, from, to), 1e-9);
+
+        double[] byMonth = table.sumByMonth(expense, 2024);
+        assertEquals(10.0, byMonth[0], 1e-9);
+        assertEquals(1520.0, byMonth[2], 1e-9);
+
+        double[] byType = table.sumByCode(TransactionTable.Column.TYPE, expense, from, to);
+        int[] counts = table.countByCode(TransactionTable.Column.TYPE, expense, from, to);
+        assertEquals(30.0, byType[0], 1e-9);
+        assertEquals(2, counts[0]);
+        assertEquals(0, counts[1]);
+
+        assertEquals(3, table.countOver(expense, from, to, Double.NEGATIVE_INFINITY));
+        assertEquals(1, table.countOver(expense, from, to, 1000));
+        assertEquals(2, table.maxRow(expense, from, to));
+        assertEquals(-1, table.maxRow(expense, to + 1, Long.MAX_VALUE));
+    }
+
+    @Test
+    void countOver_roundsThresholdLikeAmounts() {
+        TransactionTable small = TransactionTable.of(List.of(tx("Expense", 0.29, "2024/01/15 09:00", "food")));
+        boolean[] expense = small.codesMatching(TransactionTable.Column.OPERATION, "Expense"::equalsIgnoreCase);
+        assertEquals(0, small.countOver(expense, Long.MIN_VALUE + 1, Long.MAX_VALUE, 0.29));
+        assertEquals(1, small.countOver(expense, Long.MIN_VALUE + 1, Long.MAX_VALUE, 0.28));
+    }
+}
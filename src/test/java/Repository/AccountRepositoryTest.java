@@ -6,6 +6,7 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
@@ -95,4 +96,96 @@ class AccountRepositoryTest {
         assertEquals("test", users.get(0).getUsername());
         assertEquals(321.99, users.get(0).getBalance());
     }
+
+    @Test
+    void rewrite_keepsIndexInSyncAndReturnsCopies() throws IOException {
+        User u1 = new User("a", "1", "p", "e", "M", "ad", "2024/01/01 11:00", User.AccountStatus.ACTIVE, "P", 5.0);
+        User u2 = new User("b", "2", "p2", "e2", "F", "ad2", "2024/01/02 12:00", User.AccountStatus.FROZEN, "A", 6.0);
+        assertTrue(repo.saveToCSV(List.of(u1, u2), false));
+
+        repo.findByUsername("a").setBalance(999.0);
+        repo.readFromCSV().get(0).setPassword("changed");
+        assertEquals(5.0, repo.findByUsername("a").getBalance());
+        assertEquals("1", repo.findByUsername("a").getPassword());
+
+        assertTrue(repo.updateBalanceCents("b", 725));
+        assertFalse(repo.updateBalanceCents("nosuchuser", 1));
+        AccountIndex.forFile(accountFile.getAbsolutePath()).flush();
+        List<String> lines = Files.readAllLines(accountFile.toPath());
+        assertEquals("b,2,p2,e2,F,ad2,2024/01/02 12:00,FROZEN,A,0000000000007.25", lines.get(2));
+    }
+
+    @Test
+    void updateBalance_overwritesInPlace() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(accountFile, StandardCharsets.UTF_8))) {
+            bw.write(AccountRepository.EXPECTED_ACCOUNT_HEADER); bw.newLine();
+            bw.write("a,1,p,e,M,ad,2024/01/01 11:00,ACTIVE,P,5.00"); bw.newLine();
+            bw.write("b,2,p2,e2,F,ad2,2024/01/02 12:00,FROZEN,A,88.60"); bw.newLine();
+        }
+        repo.updateBalance("b", 1234567.5);
+        long paddedLength = accountFile.length();
+        assertEquals(1234567.5, repo.findByUsername("b").getBalance());
+
+        repo.updateBalance("a", -42.25);
+        repo.updateBalance("nosuchuser", 1.0);
+        assertEquals(paddedLength, accountFile.length());
+        assertEquals(-42.25, new AccountRepository(accountFile.getAbsolutePath()).findByUsername("a").getBalance());
+        assertEquals(1234567.5, repo.readFromCSV().get(1).getBalance());
+
+        AccountIndex.forFile(accountFile.getAbsolutePath()).flush();
+        assertEquals(paddedLength, accountFile.length());
+        assertTrue(Files.readString(accountFile.toPath()).contains(",-000000000042.25"));
+    }
+
+    @Test
+    void updateBalanceCents_returnsOnceWritten() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(accountFile, StandardCharsets.UTF_8, true))) {
+            bw.write("a,1,p,e,M,ad,2024/01/01 11:00,ACTIVE,P,0000000000005.00"); bw.newLine();
+        }
+        assertTrue(repo.updateBalanceCents("a", 1999));
+        assertTrue(Files.readString(accountFile.toPath()).contains(",0000000000019.99"));
+    }
+
+    @Test
+    void updateBalance_isReappliedAfterConcurrentChange() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(accountFile, StandardCharsets.UTF_8, true))) {
+            bw.write("a,1,p,e,M,ad,2024/01/01 11:00,ACTIVE,P,0000000000005.00"); bw.newLine();
+        }
+        var pending = repo.updateBalanceCentsAsync("a", 4200);
+        // Someone else adds an account before the batched write runs
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(accountFile, StandardCharsets.UTF_8, true))) {
+            bw.write("b,2,p2,e2,F,ad2,2024/01/02 12:00,ACTIVE,P,0000000000001.00"); bw.newLine();
+        }
+        assertTrue(accountFile.setLastModified(accountFile.lastModified() + 2000));
+        AccountIndex.forFile(accountFile.getAbsolutePath()).flush();
+
+        assertTrue(pending.join());
+        String content = Files.readString(accountFile.toPath());
+        assertTrue(content.contains("a,1,p,e,M,ad,2024/01/01 11:00,ACTIVE,P,0000000000042.00"));
+        assertTrue(content.contains("b,2,p2,e2,F,ad2,2024/01/02 12:00,ACTIVE,P,0000000000001.00"));
+        assertEquals(1.0, new AccountRepository(accountFile.getAbsolutePath()).findByUsername("b").getBalance());
+    }
+
+    @Test
+    void updateBalance_survivesAppendAfterConcurrentChange() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(accountFile, StandardCharsets.UTF_8, true))) {
+            bw.write("a,1,p,e,M,ad,2024/01/01 11:00,ACTIVE,P,0000000000005.00"); bw.newLine();
+        }
+        var pending = repo.updateBalanceCentsAsync("a", 4200);
+        // Someone else adds an account, then this process appends one before the batched write runs
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(accountFile, StandardCharsets.UTF_8, true))) {
+            bw.write("b,2,p2,e2,F,ad2,2024/01/02 12:00,ACTIVE,P,0000000000001.00"); bw.newLine();
+        }
+        assertTrue(accountFile.setLastModified(accountFile.lastModified() + 2000));
+        User c = new User("c", "3", "p3", "e3", "M", "ad3", "2024/01/03 13:00", User.AccountStatus.ACTIVE, "P", 7.0);
+        assertTrue(repo.saveToCSV(List.of(c), true));
+        AccountIndex.forFile(accountFile.getAbsolutePath()).flush();
+
+        assertTrue(pending.join());
+        String content = Files.readString(accountFile.toPath());
+        assertTrue(content.contains("a,1,p,e,M,ad,2024/01/01 11:00,ACTIVE,P,0000000000042.00"));
+        assertEquals(42.0, new AccountRepository(accountFile.getAbsolutePath()).findByUsername("a").getBalance());
+        assertEquals(1.0, repo.findByUsername("b").getBalance());
+        assertEquals(7.0, repo.findByUsername("c").getBalance());
+    }
 }
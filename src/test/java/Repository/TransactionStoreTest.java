@@ -0,0 +1,530 @@
+package Repository;
+
+import Model.MonthlyRollup;
+import Model.Transaction;
+import Model.TransactionField;
+import utils.TimestampCodec;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionStoreTest {
+
+    private File txFile;
+    private TransactionStore store;
+
+    @BeforeEach
+    void setup(@TempDir Path tempDir) throws IOException {
+        txFile = tempDir.resolve("transactions.csv").toFile();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8))) {
+            bw.write("user,operation,amount,time,merchant,type,remark,category,payment_method,location,tag,attachment,recurrence");
+            bw.newLine();
+            bw.write("zhangsan,Expense,22.50,2024/05/03 12:34,\"market, east\",Pay,\"say \"\"hi\"\"\",Food,,SH,tag,,"); bw.newLine();
+            bw.write("lisi,Expense,300.00,2024/05/03 09:00,shop,Buy,bad,Snacks,,BJ,tag2,,"); bw.newLine();
+            bw.write("zhangsan,Income,888.00,2024/05/01,company,Salary,,,Salary,,,,"); bw.newLine();
+            bw.write("broken,Expense,abc,2024/05/01,shop,Buy,,,,,,,"); bw.newLine();
+        }
+        store = TransactionStore.forFile(txFile.getAbsolutePath());
+    }
+
+    @Test
+    void transactionsFor_sortedAndUnescaped() {
+        List<Transaction> zhang = store.transactionsFor("zhangsan");
+        assertEquals(2, zhang.size());
+        assertEquals("2024/05/01 00:00", zhang.get(0).getTimestamp());
+        assertEquals("market, east", zhang.get(1).getMerchant());
+        assertEquals("say \"hi\"", zhang.get(1).getRemark());
+        assertEquals("Food", zhang.get(1).getCategory());
+    }
+
+    @Test
+    void allTransactions_skipsMalformedRows() {
+        List<Transaction> all = store.allTransactions();
+        assertEquals(3, all.size());
+        assertEquals("lisi", all.get(1).getAccountUsername());
+    }
+
+    @Test
+    void appendAndRemove_updateIndexAndFile() throws IOException {
+        assertEquals(1, store.transactionsFor("lisi").size());
+        String line = "lisi,Income,10.00,2024/05/04 08:00,boss,Salary,,Salary,,,,,";
+        store.append(line, TransactionStore.parseRow(line));
+        assertEquals(2, store.transactionsFor("lisi").size());
+
+        assertEquals(1, store.removeMatching("lisi", "2024/05/03 09:00"));
+        List<Transaction> lisi = store.transactionsFor("lisi");
+        assertEquals(1, lisi.size());
+        assertEquals(10.0, lisi.get(0).getAmount());
+        assertTrue(Files.readString(txFile.toPath()).contains("shop,Buy,bad"));
+    }
+
+    @Test
+    void ids_removeAndReplaceOneRowAmongSameMinute() throws IOException {
+        String first = "lisi,Expense,1.00,2024/05/06 10:00,shop,Buy,,,,,,,,101";
+        String second = "lisi,Expense,2.00,2024/05/06 10:00,shop,Buy,,,,,,,,102";
+        store.append(first, TransactionStore.parseRow(first));
+        store.append(second, TransactionStore.parseRow(second));
+        assertEquals(101, store.findById("lisi", 101).getId());
+
+        assertTrue(store.removeById("lisi", 101));
+        assertFalse(store.removeById("lisi", 101));
+        assertNull(store.findById("lisi", 101));
+        assertEquals(2.0, store.findById("lisi", 102).getAmount());
+
+        String edited = "lisi,Expense,3.00,2024/05/06 10:00,shop,Buy,,,,,,,,102";
+        assertTrue(store.replaceById("lisi", 102, edited, TransactionStore.parseRow(edited)));
+        store.invalidate();
+        assertEquals(3.0, store.findById("lisi", 102).getAmount());
+        assertEquals(2, store.transactionsFor("lisi").size());
+    }
+
+    @Test
+    void ids_legacyRowsGetStableNegativeIds() throws IOException {
+        long id = store.transactionsFor("lisi").get(0).getId();
+        assertTrue(id < 0);
+        store.invalidate();
+        assertEquals(id, store.transactionsFor("lisi").get(0).getId());
+
+        store.removeMatching("zhangsan", "2024/05/01");
+        store.compact();
+        assertEquals(id, store.transactionsFor("lisi").get(0).getId());
+        assertTrue(store.removeById("lisi", id));
+        assertTrue(store.transactionsFor("lisi").isEmpty());
+    }
+
+    @Test
+    void ids_rowsWithExtraFieldsFallBackToContentIds() {
+        assertEquals(555, TransactionStore.parseRow("lisi,Expense,1.00,2024/05/06 10:00,shop,Buy,,,,,,,,555").getId());
+
+        // An unquoted comma in the merchant shifts the recurrence column into the ID position
+        String shifted = "lisi,Expense,1.00,2024/05/06 10:00,shop, east,Buy,,,,,,,12,555";
+        long id = TransactionStore.parseRow(shifted).getId();
+        assertTrue(id < 0);
+        assertEquals(id, TransactionStore.parseRow(shifted).getId());
+    }
+
+    @Test
+    void compact_swapsLedgerInPlaceWithoutLeftovers() throws IOException {
+        store.removeMatching("lisi", "2024/05/03 09:00");
+        store.compact();
+
+        String[] names = txFile.getParentFile().list();
+        assertArrayEquals(new String[]{"transactions.csv"}, names);
+        String content = Files.readString(txFile.toPath(), StandardCharsets.UTF_8);
+        assertFalse(content.contains("lisi"));
+        assertEquals(2, store.transactionsFor("zhangsan").size());
+    }
+
+    @Test
+    void compact_addsTheIdColumnToALegacyHeader() throws IOException {
+        String line = "lisi,Income,10.00,2024/05/04 08:00,boss,Salary,,Salary,,,,,,77";
+        store.append(line, TransactionStore.parseRow(line));
+        store.compact();
+
+        List<String> lines = Files.readAllLines(txFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(TransactionStore.DEFAULT_HEADER, lines.get(0));
+        assertEquals(6, lines.size());
+        assertEquals(4, store.allTransactions().size());
+        assertEquals(77, store.transactionsFor("lisi").get(1).getId());
+    }
+
+    @Test
+    void runningTotals_followWritesAndReconcile() throws IOException {
+        YearMonth may = YearMonth.of(2024, 5);
+        assertEquals(86550, store.balanceCents("zhangsan"));
+        assertEquals(88800, store.monthIncomeCents("zhangsan", may));
+        assertEquals(2250, store.monthExpenseCents("zhangsan", may));
+        assertEquals(0, store.balanceCents("nobody"));
+
+        String line = "zhangsan,Expense,50.25,2024/06/01 08:00,shop,Buy,,,,,,,,7";
+        store.append(line, TransactionStore.parseRow(line));
+        assertEquals(81525, store.balanceCents("zhangsan"));
+        assertEquals(5025, store.monthExpenseCents("zhangsan", YearMonth.of(2024, 6)));
+
+        String edited = "zhangsan,Income,50.25,2024/06/01 08:00,shop,Buy,,,,,,,,7";
+        store.replaceById("zhangsan", 7, edited, TransactionStore.parseRow(edited));
+        store.removeMatching("zhangsan", "2024/05/01");
+        assertEquals(2775, store.balanceCents("zhangsan"));
+        assertEquals(0, store.monthIncomeCents("zhangsan", may));
+        assertEquals(0, store.reconcileTotals());
+
+        store.invalidate();
+        assertEquals(2775, store.balanceCents("zhangsan"));
+    }
+
+    @Test
+    void monthlyRollups_followWritesAndReconcile() throws IOException {
+        YearMonth may = YearMonth.of(2024, 5);
+        List<MonthlyRollup> rollups = store.monthlyRollups("zhangsan", may.minusMonths(1), may.plusMonths(1));
+        assertEquals(List.of(may.minusMonths(1), may, may.plusMonths(1)), rollups.stream().map(MonthlyRollup::getMonth).toList());
+        assertEquals(0, rollups.get(0).getCount());
+        MonthlyRollup before = rollups.get(1);
+        assertEquals(2, before.getCount());
+        assertEquals(Map.of("", 88800L), before.getIncomeByCategory());
+        assertEquals(Map.of("Food", 2250L), before.getExpenseByCategory());
+
+        String line = "zhangsan,Expense,7.50,2024/05/20 08:00,shop,Buy,,Food,,,,,,12";
+        store.append(line, TransactionStore.parseRow(line));
+        MonthlyRollup added = store.monthlyRollups("zhangsan", may, may).get(0);
+        assertEquals(3, added.getCount());
+        assertEquals(3000, added.getExpenseCents());
+        assertEquals(Map.of("Food", 3000L), added.getExpenseByCategory());
+        assertEquals(Map.of("Food", 2250L), before.getExpenseByCategory());
+
+        store.removeById("zhangsan", 12);
+        store.removeMatching("zhangsan", "2024/05/03 12:34");
+        MonthlyRollup removed = store.monthlyRollups("zhangsan", may, may).get(0);
+        assertEquals(1, removed.getCount());
+        assertTrue(removed.getExpenseByCategory().isEmpty());
+        assertEquals(0, store.reconcileTotals());
+        assertEquals(0, store.monthlyRollups("nobody", may, may).get(0).getCount());
+    }
+
+    @Test
+    void rollupSidecar_persistsTotalsAndReplaysAppendedRows() throws IOException {
+        YearMonth may = YearMonth.of(2024, 5);
+        File journal = new File(txFile.getPath() + ".journal");
+        assertEquals(88800, store.monthIncomeCents("zhangsan", may));
+        store.flushRollups();
+        Map<String, UserTotals> persisted = new HashMap<>();
+        assertEquals(txFile.length(), RollupSidecar.load(txFile, journal, persisted));
+        assertEquals(Set.of("zhangsan", "lisi"), persisted.keySet());
+
+        // Rows appended by someone else are replayed on top of the sidecar
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8, true))) {
+            bw.write("lisi,Income,10.00,2024/05/04 08:00,boss,Pay,,Gift,,,,,,21");
+            bw.newLine();
+        }
+        store.invalidate();
+        assertEquals(1000, store.monthIncomeCents("lisi", may));
+        assertEquals(2, store.monthlyRollups("lisi", may, may).get(0).getCount());
+        byte[] beforeRemoval = Files.readAllBytes(RollupSidecar.sidecarFileFor(txFile).toPath());
+
+        // A sidecar written before a deletion no longer matches the journal and is ignored
+        assertTrue(store.removeById("lisi", 21));
+        store.flushRollups();
+        Files.write(RollupSidecar.sidecarFileFor(txFile).toPath(), beforeRemoval);
+        store.invalidate();
+        assertEquals(0, store.monthIncomeCents("lisi", may));
+        assertEquals(-30000, store.balanceCents("lisi"));
+    }
+
+    @Test
+    void rollupSidecar_isIgnoredAfterSameLengthEditInTheMiddle() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8, true))) {
+            for (int i = 0; i < 400; i++) {
+                bw.write("lisi,Expense,100.00,2024/05/04 10:00,shop" + i + ",Buy,,,,,,," + (1000 + i)); bw.newLine();
+            }
+        }
+        store.invalidate();
+        assertEquals(-4030000, store.balanceCents("lisi"));
+        store.flushRollups();
+        File journal = new File(txFile.getPath() + ".journal");
+        assertEquals(txFile.length(), RollupSidecar.load(txFile, journal, new HashMap<>()));
+
+        // Fix an amount by hand deep inside the file, keeping its length
+        String content = Files.readString(txFile.toPath(), StandardCharsets.UTF_8);
+        Files.writeString(txFile.toPath(), content.replace(",100.00,2024/05/04 10:00,shop200,", ",900.00,2024/05/04 10:00,shop200,"));
+        assertTrue(txFile.setLastModified(txFile.lastModified() + 2000));
+        assertEquals(-1, RollupSidecar.load(txFile, journal, new HashMap<>()));
+        store.invalidate();
+        assertEquals(-4110000, store.balanceCents("lisi"));
+    }
+
+    @Test
+    void rollupSidecar_runningChecksumsMatchTheFilesAfterEachWrite() throws IOException {
+        File journal = new File(txFile.getPath() + ".journal");
+        assertEquals(-30000, store.balanceCents("lisi"));
+        store.flushRollups();
+        for (int i = 0; i < 3; i++) {
+            String line = "lisi,Expense,1.00,2024/05/06 10:00,shop,Buy,,,,,,,," + (40 + i);
+            store.append(line, TransactionStore.parseRow(line));
+            store.flushRollups();
+        }
+        assertTrue(store.removeById("lisi", 41));
+        store.flushRollups();
+
+        // A newer modification time makes the load compare the checksums instead of trusting the length
+        assertTrue(txFile.setLastModified(txFile.lastModified() + 2000));
+        Map<String, UserTotals> persisted = new HashMap<>();
+        assertEquals(txFile.length(), RollupSidecar.load(txFile, journal, persisted));
+        assertEquals(-30200, persisted.get("lisi").balanceCents());
+    }
+
+    @Test
+    void versionOf_changesOnlyWithTheUsersData() throws IOException {
+        long zhang = store.versionOf("zhangsan");
+        long li = store.versionOf("lisi");
+        assertEquals(zhang, store.versionOf("zhangsan"));
+
+        String line = "zhangsan,Expense,1.00,2024/06/01 08:00,shop,Buy,,,,,,,,31";
+        store.append(line, TransactionStore.parseRow(line));
+        assertNotEquals(zhang, store.versionOf("zhangsan"));
+        assertEquals(li, store.versionOf("lisi"));
+
+        zhang = store.versionOf("zhangsan");
+        store.removeById("zhangsan", 31);
+        assertNotEquals(zhang, store.versionOf("zhangsan"));
+
+        // Edits made by someone else may touch anybody
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8, true))) {
+            bw.write("wangwu,Income,1.00,2024/06/01 08:00,boss,Pay,,,,,,,,32");
+            bw.newLine();
+        }
+        assertNotEquals(li, store.versionOf("lisi"));
+    }
+
+    @Test
+    void fieldIndex_groupsRangeAndFollowsWrites() throws IOException {
+        long from = TimestampCodec.parse("2024/05/01");
+        long to = TimestampCodec.parse("2024/05/31 23:59");
+        Map<String, List<Transaction>> unindexed = store.groupBy("zhangsan", TransactionField.CATEGORY, from, to);
+        store.enableFieldIndex(TransactionField.CATEGORY);
+        Map<String, List<Transaction>> groups = store.groupBy("zhangsan", TransactionField.CATEGORY, from, to);
+        assertEquals(unindexed, groups);
+        assertEquals(Set.of("Food", TransactionField.UNCLASSIFIED), groups.keySet());
+
+        String line = "zhangsan,Expense,9.00,2024/05/02 08:00,shop,Buy,, Food ,,,,,,11";
+        store.append(line, TransactionStore.parseRow(line));
+        List<Transaction> food = store.transactionsWith("zhangsan", TransactionField.CATEGORY, "Food", from, to);
+        assertEquals(List.of(9.0, 22.5), food.stream().map(Transaction::getAmount).toList());
+        assertTrue(store.transactionsWith("zhangsan", TransactionField.CATEGORY, "Food", from, from + 60).isEmpty());
+
+        store.removeById("zhangsan", 11);
+        assertEquals(1, store.groupBy("zhangsan", TransactionField.CATEGORY, from, to).get("Food").size());
+        assertTrue(store.groupBy("zhangsan", TransactionField.CATEGORY, to + 1, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void tombstones_surviveReloadAndCompaction() throws IOException {
+        assertEquals(1, store.removeMatching("zhangsan", "2024/05/01"));
+        store.invalidate();
+        assertEquals(1, store.transactionsFor("zhangsan").size());
+        assertEquals(2, store.allTransactions().size());
+
+        store.compact();
+        assertFalse(Files.readString(txFile.toPath()).contains("company,Salary"));
+        assertFalse(new File(txFile.getPath() + ".journal").exists());
+        assertEquals(1, store.transactionsFor("zhangsan").size());
+        assertEquals(2, store.allTransactions().size());
+    }
+
+    @Test
+    void snapshot_isIgnoredAfterSameLengthEditInTheMiddle() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8, true))) {
+            for (int i = 0; i < 400; i++) {
+                bw.write("lisi,Expense,100.00,2024/05/04 10:00,shop" + i + ",Buy,,,,,,," + (1000 + i)); bw.newLine();
+            }
+        }
+        List<Transaction> all = store.allTransactions();
+        TransactionSnapshot.write(txFile, txFile.length(), txFile.lastModified(), all, new long[all.size()], new long[all.size()]);
+        int[] rows = new int[1];
+        assertEquals(txFile.length(), TransactionSnapshot.load(txFile, (transaction, offset, length) -> rows[0]++));
+
+        // Fix an amount by hand deep inside the file, keeping its length
+        String content = Files.readString(txFile.toPath(), StandardCharsets.UTF_8);
+        Files.writeString(txFile.toPath(), content.replace(",100.00,2024/05/04 10:00,shop200,", ",900.00,2024/05/04 10:00,shop200,"));
+        assertTrue(txFile.setLastModified(txFile.lastModified() + 2000));
+        assertEquals(-1, TransactionSnapshot.load(txFile, (transaction, offset, length) -> rows[0]++));
+    }
+
+    @Test
+    void snapshot_isLoadedAndTailReplayed() throws IOException {
+        Transaction fromSnapshot = new Transaction("lisi", "Expense", 300.0, "2024/05/03 09:00", "snapshot-shop",
+                "Buy", "bad", "Snacks", "", "BJ", "tag2", "", "");
+        List<Transaction> all = store.allTransactions();
+        long covered = txFile.length();
+        long lisiOffset = Files.readString(txFile.toPath()).indexOf("lisi,");
+        TransactionSnapshot.write(txFile, covered, txFile.lastModified(), List.of(fromSnapshot),
+                new long[]{lisiOffset}, new long[]{70});
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8, true))) {
+            bw.write("lisi,Expense,5.00,2024/05/05 10:00,shop,Buy,,,,,,,"); bw.newLine();
+        }
+
+        store.invalidate();
+        List<Transaction> lisi = store.transactionsFor("lisi");
+        assertEquals(3, all.size());
+        assertEquals(2, store.allTransactions().size());
+        assertEquals("snapshot-shop", store.allTransactions().get(0).getMerchant());
+        assertEquals(2, lisi.size());
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8))) {
+            bw.write("user,operation,amount,time,merchant,type,remark,category,payment_method,location,tag,attachment,recurrence");
+            bw.newLine();
+        }
+        assertTrue(store.allTransactions().isEmpty());
+    }
+
+    @Test
+    void externalChange_isPickedUp() throws IOException {
+        assertEquals(1, store.transactionsFor("lisi").size());
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8, true))) {
+            bw.write("lisi,Expense,5.00,2024/05/05 10:00,shop,Buy,,,,,,,"); bw.newLine();
+        }
+        assertEquals(2, store.transactionsFor("lisi").size());
+    }
+
+    @Test
+    void monthlySegments_answerRangeQueries() throws IOException {
+        File segmentRoot = new File(txFile.getParentFile(), "segments");
+        store.enableMonthlySegments(segmentRoot);
+        store.append("zhangsan,Expense,9.00,2024/06/02 08:00,cafe,Pay,,Food,,,,,",
+                TransactionStore.parseRow("zhangsan,Expense,9.00,2024/06/02 08:00,cafe,Pay,,Food,,,,,"));
+        store.invalidate();
+
+        long mayStart = TimestampCodec.parse("2024/05/01 00:00");
+        long mayEnd = TimestampCodec.parse("2024/05/31 23:59");
+        List<Transaction> may = store.transactionsBetween("zhangsan", mayStart, mayEnd);
+        assertEquals(2, may.size());
+        assertEquals("2024/05/01 00:00", may.get(0).getTimestamp());
+        assertTrue(new File(segmentRoot, "2024/05.csv").exists());
+        assertTrue(new File(segmentRoot, "2024/06.csv").exists());
+
+        assertEquals(1, store.removeMatching("zhangsan", "2024/06/02 08:00"));
+        store.invalidate();
+        assertTrue(store.transactionsBetween("zhangsan", mayEnd + 1, Long.MAX_VALUE).isEmpty());
+        assertEquals(2, store.transactionsBetween("zhangsan", Long.MIN_VALUE, mayEnd).size());
+    }
+
+    @Test
+    void monthlySegments_isIgnoredAfterSameLengthEditInTheMiddle() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8, true))) {
+            for (int i = 0; i < 400; i++) {
+                bw.write("lisi,Expense,100.00,2024/05/04 10:00,shop" + i + ",Buy,,,,,,," + (1000 + i)); bw.newLine();
+            }
+        }
+        store.enableMonthlySegments(new File(txFile.getParentFile(), "segments"));
+        store.invalidate();
+        long mayStart = TimestampCodec.parse("2024/05/01 00:00");
+        long mayEnd = TimestampCodec.parse("2024/05/31 23:59");
+        assertEquals(401, store.transactionsBetween("lisi", mayStart, mayEnd).size());
+
+        // Fix an amount by hand deep inside the file, keeping its length
+        String content = Files.readString(txFile.toPath(), StandardCharsets.UTF_8);
+        Files.writeString(txFile.toPath(), content.replace(",100.00,2024/05/04 10:00,shop200,", ",900.00,2024/05/04 10:00,shop200,"));
+        assertTrue(txFile.setLastModified(txFile.lastModified() + 2000));
+        store.invalidate();
+        List<Transaction> lisi = store.transactionsBetween("lisi", mayStart, mayEnd);
+        assertEquals(401, lisi.size());
+        assertEquals(1, lisi.stream().filter(transaction -> transaction.getAmount() == 900.0).count());
+    }
+
+    @Test
+    void sharding_migratesAndRoutesByUser() throws IOException {
+        File shardRoot = new File(txFile.getParentFile(), "shards");
+        store.removeMatching("lisi", "2024/05/03 09:00");
+        assertFalse(TransactionStore.isSharded(txFile.getPath()));
+        store.enableSharding(shardRoot, 4);
+
+        assertTrue(TransactionStore.isSharded(txFile.getPath()));
+        assertFalse(txFile.exists());
+        assertTrue(new File(txFile.getPath() + ".migrated").exists());
+        assertEquals(2, store.transactionsFor("zhangsan").size());
+        assertTrue(store.transactionsFor("lisi").isEmpty());
+
+        store.append("lisi,Expense,5.00,2024/05/05 10:00,shop,Buy,,,,,,,",
+                TransactionStore.parseRow("lisi,Expense,5.00,2024/05/05 10:00,shop,Buy,,,,,,,"));
+        store.appendAll(List.of("wangwu,Income,1.00,2024/05/06 10:00,shop,Buy,,,,,,,"));
+        assertEquals(1, store.transactionsFor("lisi").size());
+        assertEquals(1, store.transactionsFor("wangwu").size());
+        assertEquals(4, store.allTransactions().size());
+        assertEquals(1, store.removeMatching("zhangsan", "2024/05/01"));
+        assertEquals(3, store.allTransactions().size());
+    }
+
+    @Test
+    void sharding_isReattachedWhenTheStoreIsOpenedAgain(@TempDir Path restarted) throws IOException {
+        store.enableSharding(new File(txFile.getParentFile(), "shards"), 4);
+        store.appendAll(List.of("wangwu,Income,1.00,2024/05/06 10:00,shop,Buy,,,,,,,"));
+
+        // A later run opens the same layout under a fresh store, after an empty ledger was recreated
+        try (Stream<Path> files = Files.walk(txFile.getParentFile().toPath())) {
+            for (Path source : files.toList()) {
+                Path target = restarted.resolve(txFile.getParentFile().toPath().relativize(source).toString());
+                if (Files.isDirectory(source)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(source, target);
+                }
+            }
+        }
+        Files.writeString(restarted.resolve("transactions.csv"), TransactionStore.DEFAULT_HEADER + System.lineSeparator());
+        TransactionStore reopened = TransactionStore.forFile(restarted.resolve("transactions.csv").toString());
+
+        assertEquals(2, reopened.transactionsFor("zhangsan").size());
+        assertEquals(1, reopened.transactionsFor("wangwu").size());
+        assertEquals(4, reopened.allTransactions().size());
+    }
+
+    @Test
+    void appendAsync_groupsConcurrentAppends() throws Exception {
+        TransactionStore.configureWriter(20, TransactionStore.SyncPolicy.PER_RECORD);
+        try {
+            assertEquals(1, store.transactionsFor("lisi").size());
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                String line = "lisi,Expense,%d.00,2024/06/%02d 10:00,shop,Buy,,,,,,,".formatted(i, i % 28 + 1);
+                futures.add(store.appendAsync(line, TransactionStore.parseRow(line)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+            assertEquals(51, store.transactionsFor("lisi").size());
+            store.invalidate();
+            assertEquals(51, store.transactionsFor("lisi").size());
+        } finally {
+            TransactionStore.configureWriter(0, TransactionStore.SyncPolicy.PER_BATCH);
+        }
+    }
+
+    @Test
+    void streams_readLazilyAndSkipTombstones() throws IOException {
+        store.removeMatching("lisi", "2024/05/03 09:00");
+        store.invalidate();
+        try (Stream<Transaction> zhang = store.streamFor("zhangsan")) {
+            assertEquals(910.5, zhang.mapToDouble(Transaction::getAmount).sum(), 1e-9);
+        }
+        try (Stream<Transaction> all = store.streamAll()) {
+            assertTrue(all.anyMatch(tx -> tx.getAmount() > 800));
+        }
+        try (Stream<Transaction> lisi = store.streamFor("lisi")) {
+            assertEquals(0, lisi.count());
+        }
+        store.transactionsFor("zhangsan");
+        assertEquals(2, store.streamFor("zhangsan").count());
+    }
+
+    @Test
+    void largeFile_isParsedInParallelInFileOrder() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(txFile, StandardCharsets.UTF_8))) {
+            bw.write("user,operation,amount,time,merchant,type,remark,category,payment_method,location,tag,attachment,recurrence");
+            bw.newLine();
+            for (int i = 0; i < 100_000; i++) {
+                bw.write("user" + (i % 7) + ",Expense," + i + ".00,2024/05/03 12:34,merchant,Pay,some remark,Food,Card,SH,tag,,");
+                bw.newLine();
+            }
+        }
+        store.invalidate();
+        assertTrue(txFile.length() > (4 << 20));
+
+        List<Transaction> all = store.allTransactions();
+        assertEquals(100_000, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i, all.get(i).getAmount());
+        }
+        store.invalidate();
+        assertEquals(14_286, store.transactionsFor("user0").size());
+    }
+}
@@ -1,6 +1,7 @@
 package Service;
 
 import Model.BudgetDataContainer;
+import Model.MonthlyRollup;
 import Model.Transaction;
 import Repository.TransactionRepository;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,6 +11,7 @@ import org.mockito.MockitoAnnotations;
 
 import java.time.LocalDate;
 import java.time.Month;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Collections;
@@ -67,12 +69,14 @@ class BudgetServiceTest {
         // Arrange
         String username = "testUser";
         LocalDate now = LocalDate.of(2024, Month.MARCH, 15);
-        List<Transaction> transactions = Arrays.asList(
-                createTransaction(username, "Income", 9000.0, "2024/02/01 00:00", "Salary", "Income"),
-                createTransaction(username, "Expense", 4000.0, "2024/02/05 00:00", "Rent", "Expense")
+        List<MonthlyRollup> rollups = Arrays.asList(
+                MonthlyRollup.empty(YearMonth.of(2023, 12)),
+                MonthlyRollup.empty(YearMonth.of(2024, 1)),
+                new MonthlyRollup(YearMonth.of(2024, 2), 900000, 400000, 2,
+                        Map.of("Income", 900000L), Map.of("Expense", 400000L))
         );
 
-        when(transactionRepository.findTransactionsByUsername(username)).thenReturn(transactions);
+        when(transactionRepository.findMonthlyRollups(username, YearMonth.of(2023, 12), YearMonth.of(2024, 2))).thenReturn(rollups);
 
         // Act
         List<BudgetService.MonthlyFinancialData> result = budgetService.getPastThreeMonthsFinancialData(username, now);
@@ -84,6 +88,27 @@ class BudgetServiceTest {
         assertEquals(4000.0, result.get(0).getExpense());
     }
 
+    @Test
+    void calculateRecommendation_MemoizedUntilDataOrBudgetChanges() {
+        String username = "memoUser";
+        LocalDate now = LocalDate.of(2024, Month.MARCH, 15);
+        YearMonth march = YearMonth.of(2024, 3);
+        when(transactionRepository.findDataVersion(username)).thenReturn(1L);
+
+        BudgetService.BudgetRecommendation first = budgetService.calculateRecommendation(username, now);
+        assertSame(first, budgetService.calculateRecommendation(username, now.withDayOfMonth(20)));
+        verify(transactionRepository, times(1)).findMonthlyRollups(username, march, march);
+
+        when(transactionRepository.findDataVersion(username)).thenReturn(2L);
+        assertNotSame(first, budgetService.calculateRecommendation(username, now));
+        verify(transactionRepository, times(2)).findMonthlyRollups(username, march, march);
+
+        budgetService.saveCustomBudget(username, 1234.0);
+        assertEquals(BudgetService.BudgetMode.CUSTOM, budgetService.calculateRecommendation(username, now).getMode());
+        budgetService.clearCustomBudget(username);
+        assertNotEquals(BudgetService.BudgetMode.CUSTOM, budgetService.calculateRecommendation(username, now).getMode());
+    }
+
     private Transaction createTransaction(String username, String operation, double amount, String timestamp, String type, String category) {
         return new Transaction(username, operation, amount, timestamp, "", type, "", category, "", "", "", "", "");
     }
@@ -1,12 +1,12 @@
 package Service;
 
+import Model.MonthlyRollup;
 import Model.Transaction;
 import Model.User;
 import Repository.TransactionRepository;
 import org.junit.jupiter.api.*;
 
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.YearMonth;
 import java.util.*;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -61,12 +61,9 @@ class TransactionServiceTest {
 
     @Test
     void getCurrentMonthExpense_returnsCorrectTotal() {
-        LocalDate now = LocalDate.now();
-        String dateStr = now.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")) + " 10:00";
-        List<Transaction> txs = List.of(
-                new Transaction("u", "Expense", 300.0, dateStr, "", "", "", "", "", "", "", "", "")
-        );
-        when(mockTxRepo.findTransactionsByUser(user)).thenReturn(txs);
+        YearMonth thisMonth = YearMonth.now();
+        MonthlyRollup rollup = new MonthlyRollup(thisMonth, 0, 30000, 1, Map.of(), Map.of("", 30000L));
+        when(mockTxRepo.findMonthlyRollups("testUser", thisMonth, thisMonth)).thenReturn(List.of(rollup));
 
         double result = txService.getCurrentMonthExpense(user);
         assertEquals(300.0, result, 0.0001);
@@ -99,4 +96,74 @@ class TransactionServiceTest {
         assertTrue(txService.checkAbnormalTransactions("u", Collections.emptyList()).isEmpty());
     }
 
+    @Test
+    void checkRealtimeAbnormalTransactions_countsSameDayLargeFromDetector() {
+        List<Transaction> history = List.of(
+                new Transaction("testUser", "Income", 6000.0, "2024/05/01 09:00", "", "", "", "", "", "", "", "", ""),
+                new Transaction("testUser", "Expense", 5000.0, "2024/05/01 10:00", "", "", "", "", "", "", "", "", ""),
+                new Transaction("testUser", "Expense", 9000.0, "2024/05/02 10:00", "", "", "", "", "", "", "", "", ""));
+        when(mockTxRepo.streamTransactionsByUsername("testUser")).thenAnswer(inv -> history.stream());
+        when(mockTxRepo.findDataVersion("testUser")).thenReturn(1L);
+
+        Transaction third = new Transaction("testUser", "Expense", 7000.0, "2024/05/01 18:00", "", "", "", "", "", "", "", "", "");
+        List<String> warnings = txService.checkRealtimeAbnormalTransactions("testUser", third);
+        assertTrue(warnings.stream().anyMatch(s -> s.contains("will result in 3 large transactions")));
+
+        Transaction other = new Transaction("testUser", "Expense", 7000.0, "2024/05/02 18:00", "", "", "", "", "", "", "", "", "");
+        assertTrue(txService.checkRealtimeAbnormalTransactions("testUser", other).isEmpty());
+        // The history is read once while the data version is unchanged
+        verify(mockTxRepo, times(1)).streamTransactionsByUsername("testUser");
+    }
+
+    @Test
+    void checkRealtimeAbnormalTransactions_batchCountsEarlierRows() {
+        when(mockTxRepo.streamTransactionsByUsername("testUser")).thenAnswer(inv -> java.util.stream.Stream.empty());
+        List<Transaction> batch = new ArrayList<>();
+        for (int hour = 10; hour < 13; hour++) {
+            batch.add(new Transaction("testUser", "Income", 5000.0, "2024/05/01 " + hour + ":00", "", "", "", "", "", "", "", "", ""));
+        }
+
+        List<String> warnings = txService.checkRealtimeAbnormalTransactions("testUser", batch);
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).contains("will result in 3 large transactions"));
+        // Checking a batch does not change what later checks see
+        assertTrue(txService.checkRealtimeAbnormalTransactions("testUser", batch.get(0)).isEmpty());
+    }
+
+    @Test
+    void recordTransactions_foldsCommittedRowsWithoutRereading() {
+        when(mockTxRepo.streamTransactionsByUsername("testUser")).thenAnswer(inv -> java.util.stream.Stream.empty());
+        when(mockTxRepo.findDataVersion("testUser")).thenReturn(1L);
+        Transaction large = new Transaction("testUser", "Expense", 6000.0, "2024/05/01 10:00", "", "", "", "", "", "", "", "", "");
+        assertTrue(txService.checkRealtimeAbnormalTransactions("testUser", large).isEmpty());
+
+        long before = txService.getDataVersion("testUser");
+        when(mockTxRepo.findDataVersion("testUser")).thenReturn(2L);
+        txService.recordTransactions("testUser", List.of(large, large), before);
+
+        List<String> warnings = txService.checkRealtimeAbnormalTransactions("testUser", large);
+        assertTrue(warnings.stream().anyMatch(s -> s.contains("will result in 3 large transactions")));
+        verify(mockTxRepo, times(1)).streamTransactionsByUsername("testUser");
+    }
+
+    @Test
+    void checkRealtimeAbnormalTransactions_usesPastMonthsAverage() {
+        YearMonth thisMonth = YearMonth.now();
+        List<MonthlyRollup> past = new ArrayList<>();
+        int days = 0;
+        for (int i = 3; i >= 1; i--) {
+            YearMonth month = thisMonth.minusMonths(i);
+            days += month.lengthOfMonth();
+            past.add(new MonthlyRollup(month, 0, month.lengthOfMonth() * 10000L, 1, Map.of(), Map.of()));
+        }
+        when(mockTxRepo.findMonthlyRollups("testUser", thisMonth.minusMonths(3), thisMonth.minusMonths(1))).thenReturn(past);
+        when(mockTxRepo.streamTransactionsByUsername("testUser")).thenAnswer(inv -> java.util.stream.Stream.empty());
+
+        String today = thisMonth.atDay(1).format(java.time.format.DateTimeFormatter.ofPattern("yyyy/MM/dd")) + " 10:00";
+        Transaction expense = new Transaction("testUser", "Expense", 301.0, today, "", "", "", "", "", "", "", "", "");
+        List<String> warnings = txService.checkRealtimeAbnormalTransactions("testUser", expense);
+        assertEquals(1, warnings.size(), "avg daily is 100.00 over " + days + " days");
+        assertTrue(warnings.get(0).contains("exceeds 3.0 times"));
+    }
+
 }
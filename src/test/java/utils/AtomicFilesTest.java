@@ -0,0 +1,42 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AtomicFilesTest {
+
+    @Test
+    void write_replacesContentWithoutLeavingTempFiles(@TempDir Path dir) throws IOException {
+        Path target = dir.resolve("accounts.csv");
+        AtomicFiles.write(target, "old".getBytes(StandardCharsets.UTF_8));
+        AtomicFiles.write(target, "new content".getBytes(StandardCharsets.UTF_8));
+        assertEquals("new content", Files.readString(target));
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void commitBatcher_coalescesBurstIntoOneCommit() {
+        AtomicInteger commits = new AtomicInteger();
+        CommitBatcher batcher = new CommitBatcher("test", 60_000, commits::incrementAndGet);
+        for (int i = 0; i < 100; i++) {
+            batcher.request();
+        }
+        assertEquals(0, commits.get());
+        batcher.flush();
+        batcher.flush();
+        assertEquals(1, commits.get());
+        batcher.request();
+        batcher.flush();
+        assertEquals(2, commits.get());
+    }
+}
@@ -0,0 +1,43 @@
+package utils;
+
+/**
+ * Measures how fast {@link CsvCodec} tokenizes transaction rows, next to {@code String.split}
+ * for reference. Not run by the test suite; start it with
+ * {@code java -cp target/classes:target/test-classes utils.CsvCodecBenchmark}
+ * after {@code mvn test-compile}.
+ *
+ * @author Group 19
+ * @version 1.0
+ */
+public class CsvCodecBenchmark {
+    private static final int ROWS = 1_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        String[] rows = new String[1024];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = CsvCodec.joinRow("user" + (i % 50), "Expense", "%.2f".formatted(i * 1.25),
+                    "2024/05/%02d 12:%02d".formatted(1 + i % 28, i % 60), "Shop " + i, "Pay",
+                    i % 3 == 0 ? "lunch, coffee and \"cake\"" : "lunch", "Food", "Card", "SH", "", "", "");
+        }
+        CsvCodec codec = new CsvCodec();
+        for (int round = 0; round < ROUNDS; round++) {
+            long checksum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < ROWS; i++) {
+                codec.parse(rows[i & (rows.length - 1)]);
+                checksum += codec.field(6).length();
+            }
+            long codecNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ROWS; i++) {
+                checksum += rows[i & (rows.length - 1)].split(",", -1)[6].length();
+            }
+            long splitNanos = System.nanoTime() - start;
+
+            System.out.printf("Round %d: CsvCodec %.0f rows/s, String.split %.0f rows/s (checksum %d)%n",
+                    round + 1, ROWS * 1e9 / codecNanos, ROWS * 1e9 / splitNanos, checksum);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvCodecTest {
+
+    @Test
+    void parse_handlesQuotedCommasAndQuotes() {
+        CsvCodec codec = new CsvCodec();
+        assertEquals(4, codec.parse("a,\"b, c\",\"say \"\"hi\"\"\",\r"));
+        assertEquals("a", codec.fieldString(0));
+        assertEquals("b, c", codec.fieldString(1));
+        assertEquals("say \"hi\"", codec.field(2).toString());
+        assertEquals("", codec.fieldString(3));
+        assertEquals(2, codec.rawStart(1));
+        assertEquals(8, codec.rawEnd(1));
+    }
+
+    @Test
+    void fields_areViewsReusedAcrossRows() {
+        CsvCodec codec = new CsvCodec();
+        codec.parse("first,second");
+        CharSequence view = codec.field(1);
+        assertEquals(6, view.length());
+        assertEquals('s', view.charAt(0));
+        codec.parse("x,other");
+        assertSame(view, codec.field(1));
+        assertEquals("other", view.toString());
+        assertEquals("", codec.trimmed(5));
+    }
+
+    @Test
+    void remarksWithCommas_roundTrip() {
+        String[] fields = {"alice", "Expense", "12.00", "2024/05/03 12:00", "Shop",
+                "Pay", "lunch, coffee and \"cake\"", "Food", "", "", "", "", ""};
+        String row = CsvCodec.joinRow(fields);
+        assertEquals("alice,Expense,12.00,2024/05/03 12:00,Shop,Pay,\"lunch, coffee and \"\"cake\"\"\",Food,,,,,", row);
+
+        CsvCodec codec = new CsvCodec();
+        assertEquals(fields.length, codec.parse(row));
+        for (int i = 0; i < fields.length; i++) {
+            assertEquals(fields[i], codec.fieldString(i));
+        }
+    }
+
+    @Test
+    void escape_onlyQuotesWhenNeededAndKeepsRowsOnOneLine() {
+        assertEquals("plain", CsvCodec.escape("plain"));
+        assertEquals("", CsvCodec.escape(null));
+        assertEquals("two lines", CsvCodec.escape("two\nlines"));
+        assertEquals("\"a,b\"", CsvCodec.escape("a,b"));
+    }
+}
@@ -0,0 +1,43 @@
+package utils;
+
+import Model.User;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoneyTest {
+
+    @Test
+    void parseCents_readsDecimalAmounts() {
+        assertEquals(1234, Money.parseCents("12.34"));
+        assertEquals(-350, Money.parseCents(" -3.5 "));
+        assertEquals(1200, Money.parseCents("+12"));
+        assertEquals(50, Money.parseCents(".5"));
+        assertEquals(1001, Money.parseCents("10.005"), "a third decimal rounds half away from zero");
+        assertEquals(-1001, Money.parseCents("-10.005"));
+        assertEquals(150000, Money.parseCents("1.5e3"), "other number forms fall back to Double.parseDouble");
+        assertThrows(NumberFormatException.class, () -> Money.parseCents("abc"));
+        assertThrows(NumberFormatException.class, () -> Money.parseCents(""));
+        assertThrows(NumberFormatException.class, () -> Money.parseCents("NaN"));
+    }
+
+    @Test
+    void format_matchesTwoDecimalFormatting() {
+        for (long cents : new long[]{0, 5, -5, 99, -100, 123456789, -123456789}) {
+            double amount = cents / 100.0;
+            assertEquals("%.2f".formatted(amount), Money.format(cents));
+            assertEquals("%016.2f".formatted(amount), Money.format(cents, 16));
+            assertEquals(cents, Money.parseCents(Money.format(cents)));
+        }
+        assertEquals(Money.toCents(0.1) * 3, Money.toCents(0.3), "cents add exactly where doubles drift");
+    }
+
+    @Test
+    void userBalance_roundTripsThroughCsv() {
+        User user = new User("a", "p", "1", "e", "g", "addr", "2024/01/01", User.AccountStatus.ACTIVE, "Personal", 0);
+        user.setBalanceCents(-4225);
+        User copy = User.fromCSV(user.toCSV());
+        assertEquals(-4225, copy.getBalanceCents());
+        assertEquals(-42.25, copy.getBalance());
+    }
+}
@@ -0,0 +1,37 @@
+package utils;
+
+import Model.Transaction;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StringDictionaryTest {
+
+    @Test
+    void canonical_returnsOneInstancePerValueWithinBounds() {
+        StringDictionary dictionary = new StringDictionary(2, 8);
+        String first = dictionary.canonical(new String("Food"));
+        assertSame(first, dictionary.canonical(new String("Food")));
+        assertNull(dictionary.canonical(null));
+
+        String longValue = new String("much longer than eight");
+        assertSame(longValue, dictionary.canonical(longValue));
+
+        dictionary.canonical("Travel");
+        String overflow = new String("Rent");
+        assertSame(overflow, dictionary.canonical(overflow), "a full dictionary returns values unpooled");
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    void transactions_shareLowCardinalityFields() {
+        Transaction a = new Transaction(new String("alice"), new String("Expense"), 1.0, "2024/05/01 10:00", "Shop",
+                "Pay", "first", new String("Food"), "Card", "SH", "", "", "");
+        Transaction b = new Transaction(new String("alice"), new String("Expense"), 2.0, "2024/05/02 10:00", "Shop",
+                "Pay", "second", new String("Food"), "Card", "SH", "", "", "");
+        assertSame(a.getAccountUsername(), b.getAccountUsername());
+        assertSame(a.getOperation(), b.getOperation());
+        assertSame(a.getCategory(), b.getCategory());
+        assertEquals("Food", b.getCategory());
+    }
+}
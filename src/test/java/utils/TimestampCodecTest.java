@@ -0,0 +1,38 @@
+package utils;
+
+import Model.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimestampCodecTest {
+
+    @Test
+    void parse_acceptsBothFormatsAndRejectsOthersWithoutThrowing() {
+        long minute = TimestampCodec.parse("2024/02/29 13:45");
+        assertEquals(LocalDateTime.of(2024, 2, 29, 13, 45), TimestampCodec.toLocalDateTime(minute));
+        assertEquals("2024/02/29 13:45", TimestampCodec.format(minute));
+        assertEquals(TimestampCodec.startOf(LocalDate.of(2024, 3, 1)), TimestampCodec.parse("2024/03/01"));
+        assertEquals(TimestampCodec.INVALID, TimestampCodec.parse("2024-03-01"));
+        assertEquals(TimestampCodec.INVALID, TimestampCodec.parse("2024/13/01 00:00"));
+        assertEquals(TimestampCodec.INVALID, TimestampCodec.parse(null));
+    }
+
+    @Test
+    void transaction_parsesItsTimestampOnce() {
+        Transaction tx = new Transaction("u", "Expense", 1.0, "2024/05/31 23:59", "", "", "", "", "", "", "", "", "");
+        assertEquals(LocalDate.of(2024, 5, 31), tx.getDate());
+        assertEquals(YearMonth.of(2024, 5), tx.getYearMonth());
+        assertTrue(tx.isWithin(TimestampCodec.startOf(LocalDate.of(2024, 5, 1)), TimestampCodec.endOf(LocalDate.of(2024, 5, 31))));
+        assertFalse(tx.isWithin(TimestampCodec.startOf(LocalDate.of(2024, 6, 1)), Long.MAX_VALUE));
+
+        Transaction invalid = new Transaction("u", "Expense", 1.0, "yesterday", "", "", "", "", "", "", "", "", "");
+        assertFalse(invalid.hasValidTimestamp());
+        assertNull(invalid.getDate());
+        assertFalse(invalid.isWithin(Long.MIN_VALUE + 1, Long.MAX_VALUE));
+    }
+}